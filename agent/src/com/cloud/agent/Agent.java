@@ -52,6 +52,7 @@ import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.resource.ServerResource;
@@ -116,6 +117,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     long _sequence = 0;
     long _lastPingResponseTime = 0;
     long _pingInterval = 0;
+    // v4 once the management server agreed on the binary codec schema
+    volatile Version _wireVersion = Version.v1;
     AtomicInteger _inProgress = new AtomicInteger();
 
     StartupTask _startup = null;
@@ -358,6 +361,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         startup.setGuid(getResourceGuid());
         startup.setResourceName(getResourceName());
         startup.setVersion(getVersion());
+        startup.setBinaryCodecSchema(Request.getBinaryCodecSchema());
     }
 
     @Override
@@ -380,6 +384,7 @@ public class Agent implements HandlerFactory, IAgentControl {
         link.terminated();
 
         setLink(null);
+        _wireVersion = Version.v1;
         cancelTasks();
 
         _resource.disconnected();
@@ -446,6 +451,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
         setId(startup.getHostId());
         _pingInterval = (long)startup.getPingInterval() * 1000; // change to ms.
+        _wireVersion = Request.isBinaryCodecSchema(startup.getBinaryCodecSchema()) ? Version.v4 : Version.v1;
 
         setLastPingResponseTime();
         scheduleWatch(link, response, _pingInterval, _pingInterval);
@@ -607,6 +613,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.setVersion(_wireVersion);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -703,6 +710,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     }
 
     private void postRequest(final Request request) throws AgentControlChannelException {
+        request.setVersion(_wireVersion);
         if (_link != null) {
             try {
                 _link.send(request.toBytes());
@@ -23,10 +23,19 @@ import java.util.List;
 
 public interface RoleService {
 
+    /**
+     * Published with the id of a role whenever the role or its permissions change
+     */
+    String MESSAGE_ROLE_CHANGED_EVENT = "Message.RoleChanged.Event";
+
     ConfigKey<Boolean> EnableDynamicApiChecker = new ConfigKey<>("Advanced", Boolean.class, "dynamic.apichecker.enabled", "false",
             "If set to true, this enables the dynamic role-based api access checker and disables the default static role-based api access checker.",
             true);
 
+    ConfigKey<Integer> DynamicApiCheckerCacheTtl = new ConfigKey<>("Advanced", Integer.class, "dynamic.apichecker.cache.ttl", "60",
+            "The time in seconds the dynamic role-based api access checker uses the permissions of a role before reading them again. Changes are also picked up immediately when the management server is notified of them.",
+            true);
+
     boolean isEnabled();
     Role findRole(final Long id);
     Role createRole(final String name, final RoleType roleType, final String description);
@@ -24,16 +24,22 @@ import java.util.regex.Pattern;
 
 public final class Rule {
     private final String rule;
+    private final Pattern pattern;
     private final static Pattern ALLOWED_PATTERN = Pattern.compile("^[a-zA-Z0-9*]+$");
 
     public Rule(final String rule) {
         validate(rule);
         this.rule = rule;
+        this.pattern = Pattern.compile(rule.toLowerCase().replace("*", "\\w*"));
     }
 
     public boolean matches(final String commandName) {
         return !Strings.isNullOrEmpty(commandName)
-                && commandName.toLowerCase().matches(rule.toLowerCase().replace("*", "\\w*"));
+                && pattern.matcher(commandName.toLowerCase()).matches();
+    }
+
+    public boolean isWildcard() {
+        return rule.contains("*");
     }
 
     public String getRuleString() {
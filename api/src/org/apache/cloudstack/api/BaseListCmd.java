@@ -16,8 +16,11 @@
 // under the License.
 package org.apache.cloudstack.api;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
+import org.apache.commons.codec.binary.Base64;
+
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.utils.exception.CSExceptionErrorCode;
 
@@ -40,6 +43,10 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
     @Parameter(name = ApiConstants.PAGE_SIZE, type = CommandType.INTEGER)
     private Integer pageSize;
 
+    @Parameter(name = ApiConstants.NEXT_PAGE, type = CommandType.STRING, description = "the nextpage of the previous response, returns the page that follows it. "
+            + "Pass pagesize without page to get the first page, the count of such pages can be a little out of date", since = "4.10.0")
+    private String nextPage;
+
     // ///////////////////////////////////////////////////
     // ///////////////// Accessors ///////////////////////
     // ///////////////////////////////////////////////////
@@ -70,6 +77,49 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return pageSize;
     }
 
+    public String getNextPage() {
+        return nextPage;
+    }
+
+    /**
+     * Commands that can page through their results by id, rather than by offset, override this to return true.
+     */
+    protected boolean isKeysetPagingSupported() {
+        return false;
+    }
+
+    /**
+     * Keyset paging is asked for with a nextpage, or with a pagesize without a page for the first page.
+     */
+    public boolean isKeysetPaging() {
+        if (!isKeysetPagingSupported() || page != null) {
+            return false;
+        }
+        return nextPage != null || (pageSize != null && pageSize.longValue() != s_pageSizeUnlimited);
+    }
+
+    /**
+     * @return the id of the last row of the previous page, null for the first page.
+     */
+    public Long getNextPageId() {
+        if (nextPage == null) {
+            return null;
+        }
+        try {
+            final long id = Long.parseLong(new String(Base64.decodeBase64(nextPage), StandardCharsets.UTF_8));
+            if (id > 0) {
+                return id;
+            }
+        } catch (final NumberFormatException e) {
+            // reported below
+        }
+        throw new InvalidParameterValueException("Invalid " + ApiConstants.NEXT_PAGE + " " + nextPage);
+    }
+
+    public static String toNextPage(final long id) {
+        return Base64.encodeBase64URLSafeString(Long.toString(id).getBytes(StandardCharsets.UTF_8));
+    }
+
     @Override
     public void configure() {
         if (s_maxPageSize == null) {
@@ -132,9 +182,19 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
             pageSize = Long.valueOf((String)pageSizeObj);
         }
 
+        if (params.get(ApiConstants.NEXT_PAGE) != null) {
+            if (!isKeysetPagingSupported()) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"" + ApiConstants.NEXT_PAGE + "\" parameter is not supported by this command");
+            }
+            if (params.get(ApiConstants.PAGE) != null) {
+                throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Specify either \"page\" or \"" + ApiConstants.NEXT_PAGE + "\" parameter but not both");
+            }
+        }
+
         if (params.get(ApiConstants.PAGE) == null &&
                 pageSize != null &&
-                !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
+                !pageSize.equals(BaseListCmd.s_pageSizeUnlimited) &&
+                !isKeysetPagingSupported()) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
             ex.setCSErrorCode(CSExceptionErrorCode.getCSErrCode(ex.getClass().getName()));
             throw ex;
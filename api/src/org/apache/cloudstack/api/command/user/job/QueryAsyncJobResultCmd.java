@@ -40,6 +40,9 @@ public class QueryAsyncJobResultCmd extends BaseCmd {
     @Parameter(name = ApiConstants.JOB_ID, type = CommandType.UUID, entityType = AsyncJobResponse.class, required = true, description = "the ID of the asychronous job")
     private Long id;
 
+    @Parameter(name = ApiConstants.TIMEOUT, type = CommandType.INTEGER, description = "if the job is still in progress, wait up to this many seconds for it to complete before returning its status", since = "4.10.0")
+    private Integer timeout;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -48,6 +51,10 @@ public class QueryAsyncJobResultCmd extends BaseCmd {
         return id;
     }
 
+    public int getTimeout() {
+        return timeout == null ? 0 : timeout;
+    }
+
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
@@ -224,6 +224,11 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         }
         return super.getDisplay();
     }
+
+    @Override
+    protected boolean isKeysetPagingSupported() {
+        return true;
+    }
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
@@ -137,6 +137,11 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd {
         }
         return super.getDisplay();
     }
+
+    @Override
+    protected boolean isKeysetPagingSupported() {
+        return true;
+    }
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
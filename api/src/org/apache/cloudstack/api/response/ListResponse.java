@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String nextPage;
 
     public List<T> getResponses() {
         return responses;
@@ -49,4 +50,16 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
 
         return null;
     }
+
+    /**
+     * @return the token to pass as nextpage to get the following page, null when keyset paging was not asked for or
+     *         this is the last page.
+     */
+    public String getNextPage() {
+        return nextPage;
+    }
+
+    public void setNextPage(String nextPage) {
+        this.nextPage = nextPage;
+    }
 }
@@ -0,0 +1,121 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cloudstack.api.command.admin.config.ListCfgsByCmd;
+import org.apache.cloudstack.api.command.user.event.ListEventsCmd;
+
+import com.cloud.exception.InvalidParameterValueException;
+
+public class BaseListCmdTest {
+
+    private static void set(BaseListCmd cmd, String fieldName, Object value) throws Exception {
+        Field field = BaseListCmd.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(cmd, value);
+    }
+
+    @Test
+    public void testNextPageRoundTrip() throws Exception {
+        ListEventsCmd cmd = new ListEventsCmd();
+        assertNull(cmd.getNextPageId());
+
+        String nextPage = BaseListCmd.toNextPage(1234567890123L);
+        assertTrue(nextPage.matches("[A-Za-z0-9_-]+"));
+        set(cmd, "nextPage", nextPage);
+        assertEquals(Long.valueOf(1234567890123L), cmd.getNextPageId());
+    }
+
+    @Test
+    public void testInvalidNextPage() throws Exception {
+        ListEventsCmd cmd = new ListEventsCmd();
+        for (String nextPage : new String[] {"not a token", BaseListCmd.toNextPage(0)}) {
+            set(cmd, "nextPage", nextPage);
+            try {
+                cmd.getNextPageId();
+                fail(nextPage + " is not a valid nextpage");
+            } catch (InvalidParameterValueException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testKeysetPaging() throws Exception {
+        ListEventsCmd cmd = new ListEventsCmd();
+        assertFalse(cmd.isKeysetPaging());
+
+        set(cmd, "pageSize", 20);
+        assertTrue(cmd.isKeysetPaging());
+        set(cmd, "page", 2);
+        assertFalse(cmd.isKeysetPaging());
+
+        set(cmd, "page", null);
+        set(cmd, "pageSize", null);
+        set(cmd, "nextPage", BaseListCmd.toNextPage(42));
+        assertTrue(cmd.isKeysetPaging());
+
+        ListCfgsByCmd cfgs = new ListCfgsByCmd();
+        set(cfgs, "nextPage", BaseListCmd.toNextPage(42));
+        assertFalse(cfgs.isKeysetPaging());
+    }
+
+    @Test
+    public void testValidateNextPage() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(ApiConstants.PAGE_SIZE, "20");
+        new ListEventsCmd().validateSpecificParameters(params);
+
+        params.put(ApiConstants.NEXT_PAGE, BaseListCmd.toNextPage(42));
+        new ListEventsCmd().validateSpecificParameters(params);
+        try {
+            new ListCfgsByCmd().validateSpecificParameters(params);
+            fail("listConfigurations does not support nextpage");
+        } catch (ServerApiException e) {
+            assertEquals(ApiErrorCode.PARAM_ERROR, e.getErrorCode());
+        }
+
+        params.put(ApiConstants.PAGE, "2");
+        try {
+            new ListEventsCmd().validateSpecificParameters(params);
+            fail("page and nextpage are mutually exclusive");
+        } catch (ServerApiException e) {
+            assertEquals(ApiErrorCode.PARAM_ERROR, e.getErrorCode());
+        }
+
+        params.remove(ApiConstants.NEXT_PAGE);
+        params.remove(ApiConstants.PAGE);
+        try {
+            new ListCfgsByCmd().validateSpecificParameters(params);
+            fail("page is required with pagesize");
+        } catch (ServerApiException e) {
+            assertEquals(ApiErrorCode.PARAM_ERROR, e.getErrorCode());
+        }
+    }
+}
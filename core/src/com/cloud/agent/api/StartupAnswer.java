@@ -22,6 +22,7 @@ package com.cloud.agent.api;
 public class StartupAnswer extends Answer {
     long hostId;
     int pingInterval;
+    String binaryCodecSchema;
 
     protected StartupAnswer() {
     }
@@ -43,4 +44,15 @@ public class StartupAnswer extends Answer {
     public int getPingInterval() {
         return pingInterval;
     }
+
+    /**
+     * @return the schema id of the binary wire codec the management server accepted, null to stay on json.
+     */
+    public String getBinaryCodecSchema() {
+        return binaryCodecSchema;
+    }
+
+    public void setBinaryCodecSchema(String binaryCodecSchema) {
+        this.binaryCodecSchema = binaryCodecSchema;
+    }
 }
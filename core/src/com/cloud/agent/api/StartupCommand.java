@@ -46,6 +46,7 @@ public class StartupCommand extends Command {
     String agentTag;
     String resourceName;
     String gatewayIpAddress;
+    String binaryCodecSchema;
 
     public StartupCommand(Host.Type type) {
         this.type = type;
@@ -67,6 +68,17 @@ public class StartupCommand extends Command {
         this.gatewayIpAddress = gatewayIpAddress;
     }
 
+    /**
+     * @return the schema id of the binary wire codec the agent understands, null if it only speaks json.
+     */
+    public String getBinaryCodecSchema() {
+        return binaryCodecSchema;
+    }
+
+    public void setBinaryCodecSchema(String binaryCodecSchema) {
+        this.binaryCodecSchema = binaryCodecSchema;
+    }
+
     public Host.Type getHostType() {
         return type;
     }
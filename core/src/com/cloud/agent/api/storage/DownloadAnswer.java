@@ -36,6 +36,8 @@ public class DownloadAnswer extends Answer {
     private long templateSize = 0L;
     private long templatePhySicalSize = 0L;
     private String checkSum;
+    private long downloadedBytes;
+    private long downloadRate;
 
     public String getCheckSum() {
         return checkSum;
@@ -146,4 +148,23 @@ public class DownloadAnswer extends Answer {
         return templatePhySicalSize;
     }
 
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public void setDownloadedBytes(long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    /**
+     * @return average download throughput so far, in bytes per second.
+     */
+    public long getDownloadRate() {
+        return downloadRate;
+    }
+
+    public void setDownloadRate(long downloadRate) {
+        this.downloadRate = downloadRate;
+    }
+
 }
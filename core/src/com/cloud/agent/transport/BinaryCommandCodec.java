@@ -0,0 +1,689 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckHealthAnswer;
+import com.cloud.agent.api.CheckHealthCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsAnswer;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.StartupAnswer;
+import com.cloud.agent.api.StartupRoutingCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.utils.Pair;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Schema based binary encoding for the commands and answers that make up most of the agent traffic.
+ *
+ * The schema is the list of registered classes with their fields, in a fixed order. Objects are written as the
+ * index of their class followed by the values of their fields, primitive fields without any type information.
+ * Strings are written once per message and referred to by index afterwards, which takes care of the vm and host
+ * names repeated all over the ping and stats traffic. Null fields are left at their constructor defaults when
+ * decoding, the same as gson does.
+ *
+ * Anything the schema does not cover makes {@link #encode(Command[])} fail, and the caller falls back to json.
+ */
+public class BinaryCommandCodec implements CommandCodec {
+
+    private static final Class<?>[] s_defaultClasses = new Class<?>[] {
+        Answer.class,
+        CheckHealthCommand.class,
+        CheckHealthAnswer.class,
+        PingCommand.class,
+        PingRoutingCommand.class,
+        PingRoutingWithNwGroupsCommand.class,
+        PingAnswer.class,
+        HostVmStateReportEntry.class,
+        StartupRoutingCommand.class,
+        StartupAnswer.class,
+        GetHostStatsCommand.class,
+        GetHostStatsAnswer.class,
+        HostStatsEntry.class,
+        GetVmStatsCommand.class,
+        GetVmStatsAnswer.class,
+        VmStatsEntry.class,
+        Pair.class
+    };
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_FLOAT = 6;
+    private static final int TAG_SHORT = 7;
+    private static final int TAG_BYTE = 8;
+    private static final int TAG_CHAR = 9;
+    private static final int TAG_STRING = 10;
+    private static final int TAG_STRING_REF = 11;
+    private static final int TAG_ENUM = 12;
+    private static final int TAG_LIST = 13;
+    private static final int TAG_SET = 14;
+    private static final int TAG_MAP = 15;
+    private static final int TAG_OBJECT = 16;
+
+    private static final int KIND_REFERENCE = 0;
+    private static final int KIND_BOOLEAN = 1;
+    private static final int KIND_BYTE = 2;
+    private static final int KIND_SHORT = 3;
+    private static final int KIND_CHAR = 4;
+    private static final int KIND_INT = 5;
+    private static final int KIND_LONG = 6;
+    private static final int KIND_FLOAT = 7;
+    private static final int KIND_DOUBLE = 8;
+
+    private static final BinaryCommandCodec s_instance = new BinaryCommandCodec(s_defaultClasses);
+
+    private final ClassInfo[] _classes;
+    private final Map<Class<?>, ClassInfo> _classInfos = new HashMap<Class<?>, ClassInfo>();
+    private final List<Class<?>> _enums = new ArrayList<Class<?>>();
+    private final Map<Class<?>, Integer> _enumIds = new HashMap<Class<?>, Integer>();
+    private final String _schemaId;
+
+    private static class ClassInfo {
+        final int _id;
+        final Class<?> _type;
+        final Constructor<?> _constructor;
+        final Field[] _fields;
+        final int[] _kinds;
+
+        ClassInfo(final int id, final Class<?> type, final Constructor<?> constructor, final Field[] fields, final int[] kinds) {
+            _id = id;
+            _type = type;
+            _constructor = constructor;
+            _fields = fields;
+            _kinds = kinds;
+        }
+    }
+
+    /**
+     * @return the codec for the default set of frequent commands and answers.
+     */
+    public static BinaryCommandCodec getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * @param classes the classes to support. Every class needs a no-arg constructor, it does not have to be public.
+     */
+    public BinaryCommandCodec(final Class<?>... classes) {
+        _classes = new ClassInfo[classes.length];
+        final StringBuilder schema = new StringBuilder();
+        for (int i = 0; i < classes.length; i++) {
+            _classes[i] = register(i, classes[i], schema);
+            _classInfos.put(classes[i], _classes[i]);
+        }
+        for (final Class<?> enumType : _enums) {
+            schema.append("enum ").append(enumType.getName()).append('{');
+            for (final Object constant : enumType.getEnumConstants()) {
+                schema.append(((Enum<?>)constant).name()).append(';');
+            }
+            schema.append('}');
+        }
+        _schemaId = digest(schema.toString());
+    }
+
+    private ClassInfo register(final int id, final Class<?> type, final StringBuilder schema) {
+        final Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (final NoSuchMethodException e) {
+            throw new CloudRuntimeException("Unable to register " + type.getName() + ", it does not have a no-arg constructor");
+        }
+
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            final List<Field> declared = new ArrayList<Field>();
+            for (final Field field : clazz.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                declared.add(field);
+            }
+            Collections.sort(declared, new Comparator<Field>() {
+                @Override
+                public int compare(final Field f1, final Field f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+            fields.addAll(0, declared);
+        }
+
+        final int[] kinds = new int[fields.size()];
+        schema.append("class ").append(type.getName()).append('{');
+        for (int i = 0; i < kinds.length; i++) {
+            final Field field = fields.get(i);
+            field.setAccessible(true);
+            kinds[i] = kindOf(field.getType());
+            if (field.getType().isEnum() && !_enumIds.containsKey(field.getType())) {
+                _enumIds.put(field.getType(), _enums.size());
+                _enums.add(field.getType());
+            }
+            schema.append(field.getDeclaringClass().getName()).append('.').append(field.getName()).append(':').append(field.getGenericType()).append(';');
+        }
+        schema.append('}');
+        return new ClassInfo(id, type, constructor, fields.toArray(new Field[fields.size()]), kinds);
+    }
+
+    private static int kindOf(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return KIND_REFERENCE;
+        } else if (type == boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (type == byte.class) {
+            return KIND_BYTE;
+        } else if (type == short.class) {
+            return KIND_SHORT;
+        } else if (type == char.class) {
+            return KIND_CHAR;
+        } else if (type == int.class) {
+            return KIND_INT;
+        } else if (type == long.class) {
+            return KIND_LONG;
+        } else if (type == float.class) {
+            return KIND_FLOAT;
+        }
+        return KIND_DOUBLE;
+    }
+
+    private static String digest(final String schema) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(schema.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder id = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                id.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return id.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("Unable to compute the codec schema id", e);
+        }
+    }
+
+    @Override
+    public String getSchemaId() {
+        return _schemaId;
+    }
+
+    @Override
+    public byte[] encode(final Command[] cmds) throws IOException {
+        for (final Command cmd : cmds) {
+            if (cmd == null || !_classInfos.containsKey(cmd.getClass())) {
+                throw new IOException("Unsupported command " + (cmd == null ? null : cmd.getClass().getName()));
+            }
+        }
+
+        final Writer out = new Writer();
+        out.writeVarInt(cmds.length);
+        for (final Command cmd : cmds) {
+            writeValue(out, cmd);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Command[] decode(final byte[] content, final int offset, final int length, final Class<? extends Command> type) throws IOException {
+        final Reader in = new Reader(content, offset, length);
+        try {
+            final int count = in.readVarInt();
+            final Command[] cmds = (Command[])Array.newInstance(type, count);
+            for (int i = 0; i < count; i++) {
+                final Object value = readValue(in);
+                if (!type.isInstance(value)) {
+                    throw new IOException("Expected " + type.getName() + " but got " + (value == null ? null : value.getClass().getName()));
+                }
+                cmds[i] = (Command)value;
+            }
+            return cmds;
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated content", e);
+        }
+    }
+
+    private void writeValue(final Writer out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+
+        final Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeString((String)value);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean)value ? TAG_TRUE : TAG_FALSE);
+        } else if (type == Integer.class) {
+            out.writeByte(TAG_INT);
+            out.writeVarInt(zigZag((Integer)value));
+        } else if (type == Long.class) {
+            out.writeByte(TAG_LONG);
+            out.writeVarLong(zigZag((Long)value));
+        } else if (type == Double.class) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double)value));
+        } else if (type == Float.class) {
+            out.writeByte(TAG_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float)value));
+        } else if (type == Short.class) {
+            out.writeByte(TAG_SHORT);
+            out.writeVarInt(zigZag((Short)value));
+        } else if (type == Byte.class) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte)value);
+        } else if (type == Character.class) {
+            out.writeByte(TAG_CHAR);
+            out.writeVarInt((Character)value);
+        } else if (value instanceof Enum) {
+            final Integer id = _enumIds.get(((Enum<?>)value).getDeclaringClass());
+            if (id == null) {
+                throw new IOException("Unsupported enum " + type.getName());
+            }
+            out.writeByte(TAG_ENUM);
+            out.writeVarInt(id);
+            out.writeVarInt(((Enum<?>)value).ordinal());
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(TAG_MAP);
+            out.writeVarInt(map.size());
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List || value instanceof Set) {
+            final Collection<?> collection = (Collection<?>)value;
+            out.writeByte(value instanceof List ? TAG_LIST : TAG_SET);
+            out.writeVarInt(collection.size());
+            for (final Object element : collection) {
+                writeValue(out, element);
+            }
+        } else {
+            writeObject(out, value);
+        }
+    }
+
+    private void writeObject(final Writer out, final Object value) throws IOException {
+        final ClassInfo info = _classInfos.get(value.getClass());
+        if (info == null) {
+            throw new IOException("Unsupported type " + value.getClass().getName());
+        }
+
+        out.writeByte(TAG_OBJECT);
+        out.writeVarInt(info._id);
+        try {
+            for (int i = 0; i < info._fields.length; i++) {
+                final Field field = info._fields[i];
+                switch (info._kinds[i]) {
+                case KIND_BOOLEAN:
+                    out.writeByte(field.getBoolean(value) ? 1 : 0);
+                    break;
+                case KIND_BYTE:
+                    out.writeByte(field.getByte(value));
+                    break;
+                case KIND_SHORT:
+                    out.writeVarInt(zigZag(field.getShort(value)));
+                    break;
+                case KIND_CHAR:
+                    out.writeVarInt(field.getChar(value));
+                    break;
+                case KIND_INT:
+                    out.writeVarInt(zigZag(field.getInt(value)));
+                    break;
+                case KIND_LONG:
+                    out.writeVarLong(zigZag(field.getLong(value)));
+                    break;
+                case KIND_FLOAT:
+                    out.writeInt(Float.floatToRawIntBits(field.getFloat(value)));
+                    break;
+                case KIND_DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits(field.getDouble(value)));
+                    break;
+                default:
+                    final Object fieldValue = field.get(value);
+                    checkAssignable(field, fieldValue);
+                    writeValue(out, fieldValue);
+                }
+            }
+        } catch (final IllegalAccessException e) {
+            throw new IOException("Unable to read the fields of " + info._type.getName(), e);
+        }
+    }
+
+    /**
+     * Collections come back as the default implementation of their kind, make sure the field can take it.
+     */
+    private static void checkAssignable(final Field field, final Object value) throws IOException {
+        final Class<?> decoded;
+        if (value instanceof Map) {
+            decoded = LinkedHashMap.class;
+        } else if (value instanceof List) {
+            decoded = ArrayList.class;
+        } else if (value instanceof Set) {
+            decoded = LinkedHashSet.class;
+        } else {
+            return;
+        }
+        if (!field.getType().isAssignableFrom(decoded)) {
+            throw new IOException("Unsupported collection type " + field.getType().getName() + " for " + field.getName());
+        }
+    }
+
+    private Object readValue(final Reader in) throws IOException {
+        final int tag = in.readByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_TRUE:
+            return Boolean.TRUE;
+        case TAG_FALSE:
+            return Boolean.FALSE;
+        case TAG_INT:
+            return unZigZag(in.readVarInt());
+        case TAG_LONG:
+            return unZigZag(in.readVarLong());
+        case TAG_DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case TAG_FLOAT:
+            return Float.intBitsToFloat(in.readInt());
+        case TAG_SHORT:
+            return (short)unZigZag(in.readVarInt());
+        case TAG_BYTE:
+            return (byte)in.readByte();
+        case TAG_CHAR:
+            return (char)in.readVarInt();
+        case TAG_STRING:
+            return in.readString();
+        case TAG_STRING_REF:
+            return in.readStringRef();
+        case TAG_ENUM:
+            return readEnum(in);
+        case TAG_LIST:
+        case TAG_SET:
+            final int size = in.readVarInt();
+            final Collection<Object> collection = tag == TAG_LIST ? new ArrayList<Object>(size) : new LinkedHashSet<Object>(size * 2);
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue(in));
+            }
+            return collection;
+        case TAG_MAP:
+            final int entries = in.readVarInt();
+            final Map<Object, Object> map = new LinkedHashMap<Object, Object>(entries * 2);
+            for (int i = 0; i < entries; i++) {
+                final Object key = readValue(in);
+                map.put(key, readValue(in));
+            }
+            return map;
+        case TAG_OBJECT:
+            return readObject(in);
+        default:
+            throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    private Object readEnum(final Reader in) throws IOException {
+        final int id = in.readVarInt();
+        if (id >= _enums.size()) {
+            throw new IOException("Unknown enum " + id);
+        }
+        final Object[] constants = _enums.get(id).getEnumConstants();
+        final int ordinal = in.readVarInt();
+        if (ordinal >= constants.length) {
+            throw new IOException("Unknown constant " + ordinal + " of " + _enums.get(id).getName());
+        }
+        return constants[ordinal];
+    }
+
+    private Object readObject(final Reader in) throws IOException {
+        final int id = in.readVarInt();
+        if (id >= _classes.length) {
+            throw new IOException("Unknown class " + id);
+        }
+
+        final ClassInfo info = _classes[id];
+        try {
+            final Object value = info._constructor.newInstance();
+            for (int i = 0; i < info._fields.length; i++) {
+                final Field field = info._fields[i];
+                switch (info._kinds[i]) {
+                case KIND_BOOLEAN:
+                    field.setBoolean(value, in.readByte() != 0);
+                    break;
+                case KIND_BYTE:
+                    field.setByte(value, (byte)in.readByte());
+                    break;
+                case KIND_SHORT:
+                    field.setShort(value, (short)unZigZag(in.readVarInt()));
+                    break;
+                case KIND_CHAR:
+                    field.setChar(value, (char)in.readVarInt());
+                    break;
+                case KIND_INT:
+                    field.setInt(value, unZigZag(in.readVarInt()));
+                    break;
+                case KIND_LONG:
+                    field.setLong(value, unZigZag(in.readVarLong()));
+                    break;
+                case KIND_FLOAT:
+                    field.setFloat(value, Float.intBitsToFloat(in.readInt()));
+                    break;
+                case KIND_DOUBLE:
+                    field.setDouble(value, Double.longBitsToDouble(in.readLong()));
+                    break;
+                default:
+                    final Object fieldValue = readValue(in);
+                    if (fieldValue != null) {
+                        field.set(value, fieldValue);
+                    }
+                }
+            }
+            return value;
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Content does not match the fields of " + info._type.getName(), e);
+        } catch (final ReflectiveOperationException e) {
+            throw new IOException("Unable to create " + info._type.getName(), e);
+        }
+    }
+
+    private static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Writer {
+        private byte[] _buf = new byte[1024];
+        private int _count;
+        private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+
+        private void ensure(final int size) {
+            if (_count + size > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _count + size));
+            }
+        }
+
+        void writeByte(final int value) {
+            ensure(1);
+            _buf[_count++] = (byte)value;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                _buf[_count++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_count++] = (byte)value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                _buf[_count++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_count++] = (byte)value;
+        }
+
+        void writeInt(final int value) {
+            ensure(4);
+            _buf[_count++] = (byte)(value >>> 24);
+            _buf[_count++] = (byte)(value >>> 16);
+            _buf[_count++] = (byte)(value >>> 8);
+            _buf[_count++] = (byte)value;
+        }
+
+        void writeLong(final long value) {
+            writeInt((int)(value >>> 32));
+            writeInt((int)value);
+        }
+
+        void writeString(final String value) {
+            final Integer index = _strings.get(value);
+            if (index != null) {
+                writeByte(TAG_STRING_REF);
+                writeVarInt(index);
+                return;
+            }
+            _strings.put(value, _strings.size());
+
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeByte(TAG_STRING);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _count, bytes.length);
+            _count += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(_buf, _count);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] _buf;
+        private int _pos;
+        private final int _limit;
+        private final List<String> _strings = new ArrayList<String>();
+
+        Reader(final byte[] buf, final int offset, final int length) {
+            _buf = buf;
+            _pos = offset;
+            _limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (_pos >= _limit) {
+                throw new IOException("Truncated content");
+            }
+            return _buf[_pos++] & 0xff;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        long readLong() throws IOException {
+            return ((long)readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        String readString() throws IOException {
+            final int length = readVarInt();
+            if (length < 0 || length > _limit - _pos) {
+                throw new IOException("Truncated content");
+            }
+            final String value = new String(_buf, _pos, length, StandardCharsets.UTF_8);
+            _pos += length;
+            _strings.add(value);
+            return value;
+        }
+
+        String readStringRef() throws IOException {
+            final int index = readVarInt();
+            if (index < 0 || index >= _strings.size()) {
+                throw new IOException("Unknown string " + index);
+            }
+            return _strings.get(index);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.IOException;
+
+import com.cloud.agent.api.Command;
+
+/**
+ * Marshals the commands and answers carried by a Request in a compact form.
+ *
+ * A codec only understands the classes it was built for, so both ends of a link have to agree on the schema
+ * before it is used. The schema id is exchanged at startup and the codec is only used when both ends report the
+ * same id; otherwise the request falls back to json.
+ */
+public interface CommandCodec {
+
+    /**
+     * @return an id that changes whenever the encoding of any of the supported classes changes.
+     */
+    String getSchemaId();
+
+    /**
+     * @throws IOException if one of the commands, or anything they hold, can not be encoded by this codec.
+     */
+    byte[] encode(Command[] cmds) throws IOException;
+
+    /**
+     * @param type component type of the returned array, Command or Answer.
+     * @throws IOException if the content is not a valid encoding for this schema.
+     */
+    Command[] decode(byte[] content, int offset, int length, Class<? extends Command> type) throws IOException;
+}
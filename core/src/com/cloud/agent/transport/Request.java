@@ -26,6 +26,7 @@ import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -72,6 +73,9 @@ import com.cloud.utils.exception.CloudRuntimeException;
  * 6. AgentId - 8 bytes;
  * 7. Data Package.
  *
+ * Version v4 has the same layout as v1, but the data package is encoded with the binary command codec instead of
+ * json. It is only sent over links where both ends agreed on the codec schema at startup.
+ *
  */
 public class Request {
     private static final Logger s_logger = Logger.getLogger(Request.class);
@@ -83,7 +87,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // same as v1, but using the binary command codec to marshall.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -103,6 +108,10 @@ public class Request {
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
 
+    private static final int COMPRESS_BUFFER_SIZE = 8192;
+
+    protected static final CommandCodec s_binaryCodec = BinaryCommandCodec.getInstance();
+
     protected Version _ver;
     protected long _session;
     protected long _seq;
@@ -112,6 +121,7 @@ public class Request {
     protected long _agentId;
     protected Command[] _cmds;
     protected String _content;
+    protected byte[] _binaryContent;
     protected String _agentName;
 
     protected Request() {
@@ -137,6 +147,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final byte[] content) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _binaryContent = content;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -217,6 +232,34 @@ public class Request {
         return _ver;
     }
 
+    /**
+     * Sets the wire version used by {@link #toBytes()}. Only v1 and v4 can be chosen, and v4 only for a link whose
+     * other end reported the schema of {@link #getBinaryCodecSchema()}. Requests that can not be encoded in binary
+     * are still sent as v1.
+     */
+    public void setVersion(Version ver) {
+        if (ver != Version.v1 && ver != Version.v4) {
+            throw new CloudRuntimeException("Unable to send requests as version " + ver);
+        }
+        if (_cmds != null) {
+            _ver = ver;
+        }
+    }
+
+    /**
+     * @return the schema id of the binary command codec, to be exchanged with the other end of the link at startup.
+     */
+    public static String getBinaryCodecSchema() {
+        return s_binaryCodec.getSchemaId();
+    }
+
+    /**
+     * @return true if the other end of the link reported the same binary codec schema, so v4 can be used.
+     */
+    public static boolean isBinaryCodecSchema(String schema) {
+        return s_binaryCodec.getSchemaId().equals(schema);
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -243,7 +286,9 @@ public class Request {
     }
 
     public Command[] getCommands() {
-        if (_cmds == null) {
+        if (_cmds == null && _binaryContent != null) {
+            _cmds = decodeBinaryContent();
+        } else if (_cmds == null) {
             try {
                 StringReader reader = new StringReader(_content);
                 JsonReader jsonReader = new JsonReader(reader);
@@ -257,6 +302,15 @@ public class Request {
         return _cmds;
     }
 
+    protected Command[] decodeBinaryContent() {
+        try {
+            return s_binaryCodec.decode(_binaryContent, 0, _binaryContent.length, this instanceof Response ? Answer.class : Command.class);
+        } catch (IOException e) {
+            s_logger.error("Unable to decode " + _binaryContent.length + " bytes of binary content", e);
+            throw new CloudRuntimeException("Unable to decode binary content", e);
+        }
+    }
+
     protected String getType() {
         return "Cmd ";
     }
@@ -278,7 +332,6 @@ public class Request {
     }
 
     public static ByteBuffer doDecompress(ByteBuffer buffer, int length) {
-        byte[] byteArrayIn = new byte[1024];
         ByteArrayInputStream byteIn;
         if (buffer.hasArray()) {
             byteIn = new ByteArrayInputStream(buffer.array(), buffer.position() + buffer.arrayOffset(), buffer.remaining());
@@ -287,49 +340,77 @@ public class Request {
             buffer.get(array);
             byteIn = new ByteArrayInputStream(array);
         }
-        ByteBuffer retBuff = ByteBuffer.allocate(length);
+        // the length is known up front, so inflate straight into the result
+        byte[] result = new byte[length];
+        int offset = 0;
         int len = 0;
         try {
             GZIPInputStream in = new GZIPInputStream(byteIn);
-            while ((len = in.read(byteArrayIn)) > 0) {
-                retBuff.put(byteArrayIn, 0, len);
+            while (offset < length && (len = in.read(result, offset, length - offset)) > 0) {
+                offset += len;
             }
             in.close();
         } catch (IOException e) {
             s_logger.error("Fail to decompress the request!", e);
         }
-        retBuff.flip();
-        return retBuff;
+        return ByteBuffer.wrap(result, 0, offset);
     }
 
     public static ByteBuffer doCompress(ByteBuffer buffer, int length) {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(length);
-        byte[] array;
-        if (buffer.hasArray()) {
-            array = buffer.array();
-        } else {
-            array = new byte[buffer.capacity()];
-            buffer.get(array);
-        }
+        CompressedOutputStream byteOut = new CompressedOutputStream(length / 4);
         try {
-            GZIPOutputStream out = new GZIPOutputStream(byteOut, length);
-            out.write(array);
+            GZIPOutputStream out = new GZIPOutputStream(byteOut, COMPRESS_BUFFER_SIZE);
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] array = new byte[buffer.remaining()];
+                buffer.get(array);
+                out.write(array);
+            }
             out.finish();
             out.close();
         } catch (IOException e) {
             s_logger.error("Fail to compress the request!", e);
         }
-        return ByteBuffer.wrap(byteOut.toByteArray());
+        return byteOut.toByteBuffer();
+    }
+
+    /**
+     * Hands out the compressed bytes without copying them into a new array.
+     */
+    private static class CompressedOutputStream extends ByteArrayOutputStream {
+        CompressedOutputStream(int size) {
+            super(Math.max(size, 256));
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
     }
 
     public ByteBuffer[] toBytes() {
         final ByteBuffer[] buffers = new ByteBuffer[2];
         ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
+        if (_ver == Version.v4 && _binaryContent == null) {
+            try {
+                _binaryContent = s_binaryCodec.encode(_cmds);
+            } catch (IOException e) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Falling back to json: " + e.getMessage());
+                }
+                _ver = Version.v1;
+            }
+        }
+
+        if (_ver == Version.v4) {
+            tmp = ByteBuffer.wrap(_binaryContent);
+        } else {
+            if (_content == null) {
+                _content = s_gson.toJson(_cmds, _cmds.getClass());
+            }
+            tmp = ByteBuffer.wrap(_content.getBytes());
         }
-        tmp = ByteBuffer.wrap(_content.getBytes());
         int capacity = tmp.capacity();
         /* Check if we need to compress the data */
         if (capacity >= 8192) {
@@ -395,7 +476,9 @@ public class Request {
     protected String log(String msg, boolean logContent, Level level) {
         StringBuilder content = new StringBuilder();
         if (logContent) {
-            if (_cmds == null) {
+            if (_cmds == null && _binaryContent != null) {
+                _cmds = decodeBinaryContent();
+            } else if (_cmds == null) {
                 try {
                     _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
                 } catch (RuntimeException e) {
@@ -418,7 +501,9 @@ public class Request {
                 return null;
             }
         } else {
-            if (_cmds == null) {
+            if (_cmds == null && _binaryContent != null) {
+                _cmds = decodeBinaryContent();
+            } else if (_cmds == null) {
                 _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
             }
             content.append("{ ");
@@ -486,7 +571,7 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
         buff.get();
@@ -500,7 +585,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() == Version.v1.ordinal() || version.ordinal() == Version.v4.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -521,6 +606,16 @@ public class Request {
             offset = 0;
         }
 
+        if (version == Version.v4) {
+            final int end = buff.hasArray() ? buff.arrayOffset() + buff.limit() : command.length;
+            final byte[] content = offset == 0 && end == command.length ? command : Arrays.copyOfRange(command, offset, end);
+            if (isRequest) {
+                return new Request(version, seq, agentId, mgmtId, via, flags, content);
+            } else {
+                return new Response(version, seq, agentId, mgmtId, via, flags, content);
+            }
+        }
+
         final String content = new String(command, offset, command.length - offset);
 
         if (isRequest) {
@@ -23,9 +23,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cloudstack.utils.imagestore.ImageStoreUtil;
 import org.apache.commons.httpclient.Credentials;
@@ -40,6 +52,7 @@ import org.apache.commons.httpclient.NoHttpResponseException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.log4j.Logger;
 
@@ -49,24 +62,31 @@ import org.apache.cloudstack.storage.command.DownloadCommand.ResourceType;
 import com.cloud.storage.StorageLayer;
 import com.cloud.utils.Pair;
 import com.cloud.utils.UriUtils;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.net.Proxy;
 
 /**
  * Download a template file using HTTP
  *
+ * The md5 of the file is computed while it is written, so that it does not have to be read again once the download
+ * finished. Large files can be fetched over several connections, each downloading its own range of the file, when the
+ * server supports range requests, see {@link #setConnections(int)}.
  */
 public class HttpTemplateDownloader extends ManagedContextRunnable implements TemplateDownloader {
     public static final Logger s_logger = Logger.getLogger(HttpTemplateDownloader.class.getName());
     private static final MultiThreadedHttpConnectionManager s_httpClientManager = new MultiThreadedHttpConnectionManager();
 
+    private static final ExecutorService s_segmentExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("TemplateSegmentDownload"));
+
     private static final int CHUNK_SIZE = 1024 * 1024; //1M
+    private static final int SEGMENT_ATTEMPTS = 3;
     private String downloadUrl;
     private String toFile;
     public TemplateDownloader.Status status = TemplateDownloader.Status.NOT_STARTED;
     public String errorString = " ";
     private long remoteSize = 0;
     public long downloadTime = 0;
-    public long totalBytes;
+    public volatile long totalBytes;
     private final HttpClient client;
     private GetMethod request;
     private boolean resume = false;
@@ -79,6 +99,14 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private ResourceType resourceType = ResourceType.TEMPLATE;
     private final HttpMethodRetryHandler myretryhandler;
 
+    private int connections = 1;
+    private long minSegmentSize = 64L * 1024 * 1024;
+    private Segment[] segments;
+    private final Set<GetMethod> segmentRequests = Collections.newSetFromMap(new ConcurrentHashMap<GetMethod, Boolean>());
+    private MessageDigest digest;
+    private long digestedBytes;
+    private String checksum;
+
     public HttpTemplateDownloader(StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes,
             String user, String password, Proxy proxy, ResourceType resourceType) {
         _storage = storageLayer;
@@ -91,6 +119,12 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         totalBytes = 0;
         client = new HttpClient(s_httpClientManager);
 
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            s_logger.warn("Unable to compute the md5 while downloading, it will be computed once the download finished");
+        }
+
         myretryhandler = new HttpMethodRetryHandler() {
             @Override
             public boolean retryMethod(final HttpMethod method, final IOException exception, int executionCount) {
@@ -168,6 +202,12 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         int bytes = 0;
         File file = new File(toFile);
         try {
+            if (segments == null && !resume && connections > 1) {
+                segments = planSegments();
+            }
+            if (segments != null) {
+                return downloadSegments(file);
+            }
 
             long localFileSize = 0;
             if (file.exists() && resume) {
@@ -176,6 +216,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             }
 
             Date start = new Date();
+            long previousDownloadTime = downloadTime;
 
             int responseCode = 0;
 
@@ -235,6 +276,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
 
             RandomAccessFile out = new RandomAccessFile(file, "rw");
             out.seek(localFileSize);
+            digestTo(out.getChannel(), localFileSize);
 
             s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " , max size=" + maxTemplateSizeInBytes);
 
@@ -249,15 +291,13 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                     offset += bytes;
                     out.seek(offset);
                     totalBytes += bytes;
+                    if (digest != null) {
+                        digest.update(block, 0, bytes);
+                        digestedBytes += bytes;
+                    }
+                    downloadTime = previousDownloadTime + System.currentTimeMillis() - start.getTime();
                         if (!verifiedFormat && (offset >= 1048576 || offset >= remoteSize)) { //let's check format after we get 1MB or full file
-                        String uripath = null;
-                        try {
-                            URI str = new URI(getDownloadUrl());
-                            uripath = str.getPath();
-                        } catch (URISyntaxException e) {
-                            s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
-                        }
-                        String unsupportedFormat = ImageStoreUtil.checkTemplateFormat(file.getAbsolutePath(), uripath);
+                        String unsupportedFormat = checkFormat(file);
                             if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
                                  try {
                                      request.abort();
@@ -286,7 +326,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
                 downloaded = "(download complete remote=" + remoteSize + "bytes)";
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
-            downloadTime += finish.getTime() - start.getTime();
+            downloadTime = previousDownloadTime + finish.getTime() - start.getTime();
             in.close();
             out.close();
 
@@ -309,6 +349,189 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    private String checkFormat(File file) {
+        String uripath = null;
+        try {
+            URI str = new URI(getDownloadUrl());
+            uripath = str.getPath();
+        } catch (URISyntaxException e) {
+            s_logger.warn("Invalid download url: " + getDownloadUrl() + ", This should not happen since we have validated the url before!!");
+        }
+        return ImageStoreUtil.checkTemplateFormat(file.getAbsolutePath(), uripath);
+    }
+
+    /**
+     * Brings the md5 up to the given position of the file, reading back what was not seen while it was written.
+     */
+    private void digestTo(FileChannel channel, long position) throws IOException {
+        if (digest == null || digestedBytes == position) {
+            return;
+        }
+        if (digestedBytes > position) {
+            digest.reset();
+            digestedBytes = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        while (digestedBytes < position) {
+            buffer.clear();
+            buffer.limit((int)Math.min(CHUNK_SIZE, position - digestedBytes));
+            int read = channel.read(buffer, digestedBytes);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + toFile + " at " + digestedBytes + " bytes");
+            }
+            digest.update(buffer.array(), 0, read);
+            digestedBytes += read;
+        }
+    }
+
+    /**
+     * Splits the file in one range per connection when there is more than one, the server supports range requests
+     * and the file is large enough for it to pay off.
+     *
+     * @return the ranges to download, null to download over a single connection.
+     */
+    private Segment[] planSegments() throws IOException {
+        HeadMethod head = new HeadMethod(downloadUrl);
+        head.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+        head.setFollowRedirects(true);
+        try {
+            if (client.executeMethod(head) != HttpStatus.SC_OK) {
+                return null;
+            }
+            Header acceptRangesHeader = head.getResponseHeader("Accept-Ranges");
+            Header contentLengthHeader = head.getResponseHeader("Content-Length");
+            if (acceptRangesHeader == null || !"bytes".equalsIgnoreCase(acceptRangesHeader.getValue()) || contentLengthHeader == null) {
+                return null;
+            }
+            long size = Long.parseLong(contentLengthHeader.getValue());
+            int count = (int)Math.min(connections, size / minSegmentSize);
+            if (count < 2) {
+                return null;
+            }
+            remoteSize = size;
+            Segment[] planned = new Segment[count];
+            long length = size / count;
+            for (int i = 0; i < count; i++) {
+                planned[i] = new Segment(i * length, i == count - 1 ? size : (i + 1) * length);
+            }
+            return planned;
+        } finally {
+            head.releaseConnection();
+        }
+    }
+
+    /**
+     * Downloads the ranges that are not complete yet, each over its own connection, into a file of the final size.
+     * The md5 follows the downloaded part at the beginning of the file, reading it back while it is still cached.
+     * A range whose connection breaks is requested again from where it stopped, when it keeps failing the download
+     * is left as a recoverable error and goes on from there when it is run again.
+     */
+    private long downloadSegments(File file) throws IOException {
+        if (remoteSize > maxTemplateSizeInBytes) {
+            s_logger.info("Remote size is too large: " + remoteSize + " , max=" + maxTemplateSizeInBytes);
+            status = Status.UNRECOVERABLE_ERROR;
+            errorString = "Download file size is too large";
+            return 0;
+        }
+
+        Date start = new Date();
+        long previousDownloadTime = downloadTime;
+        long previousBytes = getSegmentBytes();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            if (out.length() != remoteSize) {
+                out.setLength(remoteSize);
+            }
+            FileChannel channel = out.getChannel();
+
+            s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " in " + segments.length + " ranges");
+            status = TemplateDownloader.Status.IN_PROGRESS;
+            int pending = 0;
+            for (Segment segment : segments) {
+                if (!segment.isDone()) {
+                    pending++;
+                }
+            }
+            CountDownLatch done = new CountDownLatch(pending);
+            for (Segment segment : segments) {
+                if (!segment.isDone()) {
+                    s_segmentExecutor.execute(new SegmentDownload(segment, channel, done));
+                }
+            }
+
+            boolean verifiedFormat = false;
+            boolean finished = false;
+            while (!finished) {
+                try {
+                    finished = done.await(500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    s_logger.info("Interrupted while downloading to " + toFile + ", aborting");
+                    status = TemplateDownloader.Status.ABORTED;
+                    abortSegments();
+                }
+                long frontier = getSegmentFrontier();
+                digestTo(channel, frontier);
+                totalBytes = getSegmentBytes();
+                downloadTime = previousDownloadTime + System.currentTimeMillis() - start.getTime();
+                if (!verifiedFormat && status == Status.IN_PROGRESS && (frontier >= 1048576 || frontier >= remoteSize)) {
+                    String unsupportedFormat = checkFormat(file);
+                    if (unsupportedFormat == null || !unsupportedFormat.isEmpty()) {
+                        status = Status.UNRECOVERABLE_ERROR;
+                        errorString = "Template content is unsupported, or mismatch between selected format and template content. Found  : " + unsupportedFormat;
+                        abortSegments();
+                    } else {
+                        s_logger.debug("Verified format of downloading file " + file.getAbsolutePath() + " is supported");
+                        verifiedFormat = true;
+                    }
+                }
+            }
+            if (status != Status.IN_PROGRESS) {
+                return 0;
+            }
+            channel.force(true);
+
+            if (getSegmentFrontier() >= remoteSize) {
+                status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
+                errorString = "Downloaded " + totalBytes + " bytes (download complete remote=" + remoteSize + "bytes)";
+            } else if (totalBytes > previousBytes) {
+                status = TemplateDownloader.Status.RECOVERABLE_ERROR;
+                errorString = "Downloaded " + totalBytes + " bytes (incomplete download)";
+            } else {
+                status = TemplateDownloader.Status.UNRECOVERABLE_ERROR;
+                errorString = "Download of " + getDownloadUrl() + " is not making progress";
+            }
+            return totalBytes;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return end of the part of the file that is downloaded without holes.
+     */
+    private long getSegmentFrontier() {
+        for (Segment segment : segments) {
+            if (!segment.isDone()) {
+                return segment.position;
+            }
+        }
+        return remoteSize;
+    }
+
+    private long getSegmentBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.position - segment.start;
+        }
+        return bytes;
+    }
+
+    private void abortSegments() {
+        for (GetMethod segmentRequest : segmentRequests) {
+            segmentRequest.abort();
+        }
+    }
+
     public String getDownloadUrl() {
         return downloadUrl;
     }
@@ -339,10 +562,11 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     public boolean stopDownload() {
         switch (getStatus()) {
             case IN_PROGRESS:
+                status = TemplateDownloader.Status.ABORTED;
                 if (request != null) {
                     request.abort();
                 }
-                status = TemplateDownloader.Status.ABORTED;
+                abortSegments();
                 return true;
             case UNKNOWN:
             case NOT_STARTED:
@@ -420,6 +644,35 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return maxTemplateSizeInBytes;
     }
 
+    /**
+     * @param connections number of connections a large file may be downloaded over, 1 to always use a single one.
+     */
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+        if (s_httpClientManager.getParams().getDefaultMaxConnectionsPerHost() < this.connections) {
+            s_httpClientManager.getParams().setDefaultMaxConnectionsPerHost(this.connections);
+        }
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    protected void setMinSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * @return md5 of the downloaded file, computed while it was written, or null if the download did not finish or
+     *         the md5 could not be computed along.
+     */
+    public synchronized String getChecksum() {
+        if (checksum == null && digest != null && status == Status.DOWNLOAD_FINISHED && digestedBytes == new File(toFile).length()) {
+            checksum = String.format("%032x", new BigInteger(1, digest.digest()));
+        }
+        return checksum;
+    }
+
     public static void main(String[] args) {
         String url = "http:// dev.mysql.com/get/Downloads/MySQL-5.0/mysql-noinstall-5.0.77-win32.zip/from/http://mirror.services.wisc.edu/mysql/";
         try {
@@ -452,4 +705,81 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return resourceType;
     }
 
+    private static class Segment {
+        private final long start;
+        private final long end;
+        // only written by the thread downloading the range
+        private volatile long position;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            position = start;
+        }
+
+        boolean isDone() {
+            return position >= end;
+        }
+    }
+
+    private class SegmentDownload extends ManagedContextRunnable {
+        private final Segment segment;
+        private final FileChannel channel;
+        private final CountDownLatch done;
+
+        SegmentDownload(Segment segment, FileChannel channel, CountDownLatch done) {
+            this.segment = segment;
+            this.channel = channel;
+            this.done = done;
+        }
+
+        @Override
+        protected void runInContext() {
+            try {
+                for (int attempt = 1; !segment.isDone() && status == Status.IN_PROGRESS; attempt++) {
+                    try {
+                        fetch();
+                    } catch (IOException e) {
+                        if (attempt >= SEGMENT_ATTEMPTS) {
+                            s_logger.warn("Giving up on range " + segment.position + "-" + segment.end + " of " + getDownloadUrl() + ": " + e.getMessage());
+                            return;
+                        }
+                        s_logger.info("Requesting range " + segment.position + "-" + segment.end + " of " + getDownloadUrl() + " again after: " + e.getMessage());
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void fetch() throws IOException {
+            GetMethod get = new GetMethod(downloadUrl);
+            get.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+            get.setFollowRedirects(true);
+            get.addRequestHeader("Range", "bytes=" + segment.position + "-" + (segment.end - 1));
+            segmentRequests.add(get);
+            try {
+                int responseCode = client.executeMethod(get);
+                if (responseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new IOException("HTTP Server returned " + responseCode + " (expected 206 Partial Content)");
+                }
+                InputStream in = get.getResponseBodyAsStream();
+                byte[] block = new byte[CHUNK_SIZE];
+                int bytes;
+                while (!segment.isDone() && status == Status.IN_PROGRESS && (bytes = in.read(block, 0, (int)Math.min(CHUNK_SIZE, segment.end - segment.position))) > -1) {
+                    ByteBuffer buffer = ByteBuffer.wrap(block, 0, bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, segment.position + buffer.position());
+                    }
+                    segment.position += bytes;
+                }
+                if (!segment.isDone() && status == Status.IN_PROGRESS) {
+                    throw new IOException("Connection closed before the end of the range");
+                }
+            } finally {
+                segmentRequests.remove(get);
+                get.releaseConnection();
+            }
+        }
+    }
 }
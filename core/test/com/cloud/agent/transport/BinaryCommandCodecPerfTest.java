@@ -0,0 +1,93 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.transport.Request.Version;
+
+/**
+ * Compares the size and the encode plus decode throughput of json and the binary codec for the largest frequent
+ * commands and answers, going through Request and Response the same way the agent links do.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class BinaryCommandCodecPerfTest {
+    private static final int VMS = 1000;
+    private static final int ROUNDS = 2000;
+
+    private static Request createRequest(Command cmd, Version version) {
+        Request request = new Request(2, 3, new Command[] {cmd}, true, false);
+        request.setVersion(version);
+        return request;
+    }
+
+    private static Response createResponse(Answer answer, Version version) {
+        Request request = new Request(2, 3, new Command[] {new GetVmStatsCommand(new ArrayList<String>(), "guid-1", "host-1")}, true, true);
+        request.setVersion(version);
+        return new Response(request, new Answer[] {answer});
+    }
+
+    private static long run(String name, Command cmd, Answer answer, Version version) throws Exception {
+        int size = 0;
+        long start = 0;
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            if (i == ROUNDS) {
+                start = System.nanoTime();
+            }
+            byte[] bytes;
+            if (cmd != null) {
+                bytes = createRequest(cmd, version).getBytes();
+                Assert.assertEquals(cmd.getClass(), Request.parse(bytes).getCommand().getClass());
+            } else {
+                bytes = createResponse(answer, version).getBytes();
+                Assert.assertEquals(answer.getClass(), Response.parse(bytes).getAnswer().getClass());
+            }
+            Assert.assertEquals(version, Request.getVersion(bytes));
+            size = bytes.length;
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(name + " " + version + ": " + size + " bytes on the wire, " + nanos / ROUNDS / 1000 + " us per round trip");
+        return nanos;
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        Command ping = BinaryCommandCodecTest.createPing(VMS);
+        long json = run("PingRoutingWithNwGroupsCommand", ping, null, Version.v1);
+        long binary = run("PingRoutingWithNwGroupsCommand", ping, null, Version.v4);
+        System.out.println("PingRoutingWithNwGroupsCommand speedup " + (double)json / binary);
+
+        Answer stats = BinaryCommandCodecTest.createVmStats(VMS);
+        json = run("GetVmStatsAnswer", null, stats, Version.v1);
+        binary = run("GetVmStatsAnswer", null, stats, Version.v4);
+        System.out.println("GetVmStatsAnswer speedup " + (double)json / binary);
+
+        Command startup = BinaryCommandCodecTest.createStartup();
+        json = run("StartupRoutingCommand", startup, null, Version.v1);
+        binary = run("StartupRoutingCommand", startup, null, Version.v4);
+        System.out.println("StartupRoutingCommand speedup " + (double)json / binary);
+    }
+}
@@ -0,0 +1,222 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.StartupRoutingCommand;
+import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.agent.transport.Request.Version;
+import com.cloud.host.Host;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.Pair;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCommandCodecTest {
+
+    static PingRoutingWithNwGroupsCommand createPing(int vms) {
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        HashMap<String, Pair<Long, Long>> groups = new HashMap<String, Pair<Long, Long>>();
+        for (int i = 0; i < vms; i++) {
+            report.put("i-2-" + i + "-VM", new HostVmStateReportEntry(i % 2 == 0 ? PowerState.PowerOn : PowerState.PowerOff, "host-1"));
+            groups.put("i-2-" + i + "-VM", new Pair<Long, Long>((long)i, i % 3 == 0 ? null : -1L));
+        }
+        PingRoutingWithNwGroupsCommand ping = new PingRoutingWithNwGroupsCommand(Host.Type.Routing, 42L, report, groups);
+        ping.setContextParam("logid", "abcd1234");
+        return ping;
+    }
+
+    static GetVmStatsAnswer createVmStats(int vms) {
+        List<String> names = new ArrayList<String>();
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < vms; i++) {
+            names.add("i-2-" + i + "-VM");
+            VmStatsEntry entry = new VmStatsEntry(2048, 1024, 2048, i / 10.0, i * 3.5, i * 7.25, 2, "vm");
+            entry.setDiskReadKBs(i);
+            entry.setDiskWriteIOs(i * 2);
+            stats.put("i-2-" + i + "-VM", entry);
+        }
+        return new GetVmStatsAnswer(new GetVmStatsCommand(names, "guid-1", "host-1"), stats);
+    }
+
+    static StartupRoutingCommand createStartup() {
+        Map<String, String> details = new HashMap<String, String>();
+        details.put("host.os", "CentOS");
+        details.put("host.os.kernel.version", "3.10.0");
+        StartupRoutingCommand startup = new StartupRoutingCommand(16, 2400, 64L << 30, 1L << 30, "hvm", HypervisorType.KVM, details);
+        startup.setCpuSockets(2);
+        startup.setGuid("guid-1");
+        startup.setName("host-1");
+        startup.setPrivateIpAddress("10.1.1.10");
+        startup.setBinaryCodecSchema(Request.getBinaryCodecSchema());
+        startup.getHostTags().add("ssd");
+        return startup;
+    }
+
+    private static void assertSameContent(Object expected, Object actual) {
+        Assert.assertEquals(expected.getClass(), actual.getClass());
+        Assert.assertEquals(GsonHelper.getGson().toJson(expected), GsonHelper.getGson().toJson(actual));
+    }
+
+    @Test
+    public void testCommandRoundTrip() throws IOException {
+        BinaryCommandCodec codec = BinaryCommandCodec.getInstance();
+        Command[] cmds = new Command[] {createPing(50), createStartup()};
+        byte[] content = codec.encode(cmds);
+        Command[] decoded = codec.decode(content, 0, content.length, Command.class);
+
+        Assert.assertEquals(2, decoded.length);
+        assertSameContent(cmds[0], decoded[0]);
+        assertSameContent(cmds[1], decoded[1]);
+        Assert.assertEquals("abcd1234", decoded[0].getContextParam("logid"));
+        Assert.assertEquals(PowerState.PowerOff, ((PingRoutingWithNwGroupsCommand)decoded[0]).getHostVmStateReport().get("i-2-1-VM").getState());
+        Assert.assertNull(((PingRoutingWithNwGroupsCommand)decoded[0]).getNewGroupStates().get("i-2-0-VM").second());
+    }
+
+    @Test
+    public void testEncodingIsSmallerThanJson() throws IOException {
+        byte[] content = BinaryCommandCodec.getInstance().encode(new Command[] {createPing(1000)});
+        String json = GsonHelper.getGson().toJson(new Command[] {createPing(1000)}, Command[].class);
+        Assert.assertTrue(content.length * 2 < json.length());
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        Request request = new Request(2, 3, new Command[] {createPing(1000)}, true, false);
+        request.setSequence(892403719);
+        request.setVersion(Version.v4);
+        byte[] bytes = request.getBytes();
+
+        Assert.assertEquals(Version.v4, Request.getVersion(bytes));
+        Assert.assertEquals(892403719, Request.getSequence(bytes));
+        Assert.assertEquals(3, Request.getManagementServerId(bytes));
+        Assert.assertEquals(2, Request.getAgentId(bytes));
+        Assert.assertEquals(2, Request.getViaAgentId(bytes));
+        Assert.assertTrue((bytes[3] & Request.FLAG_COMPRESSED) != 0);
+
+        Request parsed = Request.parse(bytes);
+        Assert.assertEquals(Version.v4, parsed.getVersion());
+        Assert.assertEquals(request.getSequence(), parsed.getSequence());
+        Assert.assertEquals(request.stopOnError(), parsed.stopOnError());
+        assertSameContent(request.getCommand(), parsed.getCommand());
+        Assert.assertNotNull(Request.parse(bytes).log("", false, Level.DEBUG));
+
+        Response response = new Response(parsed, new PingAnswer((PingRoutingWithNwGroupsCommand)parsed.getCommand()));
+        Response parsedResponse = Response.parse(response.getBytes());
+        Assert.assertEquals(Version.v4, parsedResponse.getVersion());
+        assertSameContent(response.getAnswer(), parsedResponse.getAnswer());
+    }
+
+    @Test
+    public void testAnswerRoundTrip() throws Exception {
+        Request request = new Request(2, 3, new Command[] {new GetVmStatsCommand(new ArrayList<String>(), "guid-1", "host-1")}, true, true);
+        request.setVersion(Version.v4);
+        Request parsed = Request.parse(request.getBytes());
+        Assert.assertEquals(Version.v4, parsed.getVersion());
+
+        GetVmStatsAnswer answer = createVmStats(200);
+        Response response = new Response(parsed, new Answer[] {answer});
+        Response parsedResponse = Response.parse(response.getBytes());
+        Assert.assertEquals(Version.v4, parsedResponse.getVersion());
+        Answer[] answers = parsedResponse.getAnswers();
+        Assert.assertEquals(1, answers.length);
+        assertSameContent(answer, answers[0]);
+        Assert.assertEquals(7.25 * 199, ((GetVmStatsAnswer)answers[0]).getVmStatsMap().get("i-2-199-VM").getNetworkWriteKBs(), 0);
+    }
+
+    @Test
+    public void testUnsupportedCommandFallsBackToJson() throws Exception {
+        Request request = new Request(2, 3, new Command[] {createPing(1), new UpdateHostPasswordCommand("user", "secret")}, true, true);
+        request.setVersion(Version.v4);
+        byte[] bytes = request.getBytes();
+        Assert.assertEquals(Version.v1, Request.getVersion(bytes));
+
+        Request parsed = Request.parse(bytes);
+        Assert.assertEquals(Version.v1, parsed.getVersion());
+        Assert.assertEquals(2, parsed.getCommands().length);
+        assertSameContent(request.getCommands()[0], parsed.getCommands()[0]);
+    }
+
+    @Test
+    public void testCollectionsDecodeAsDefaultImplementations() throws IOException {
+        StartupRoutingCommand startup = createStartup();
+        startup.setHostDetails(new TreeMap<String, String>(startup.getHostDetails()));
+        BinaryCommandCodec codec = BinaryCommandCodec.getInstance();
+        byte[] content = codec.encode(new Command[] {startup});
+        StartupRoutingCommand decoded = (StartupRoutingCommand)codec.decode(content, 0, content.length, Command.class)[0];
+        Assert.assertEquals(startup.getHostDetails(), decoded.getHostDetails());
+        Assert.assertEquals(startup.getHostTags(), decoded.getHostTags());
+    }
+
+    @Test
+    public void testUnregisteredClassIsRejected() {
+        try {
+            new BinaryCommandCodec(StartupRoutingCommand.class).encode(new Command[] {createPing(1)});
+            Assert.fail("PingRoutingWithNwGroupsCommand is not part of the schema");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptContentIsRejected() throws IOException {
+        BinaryCommandCodec codec = BinaryCommandCodec.getInstance();
+        byte[] content = codec.encode(new Command[] {createStartup()});
+        try {
+            codec.decode(content, 0, content.length / 2, Command.class);
+            Assert.fail("Truncated content must not decode");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            codec.decode(content, 0, content.length, Answer.class);
+            Assert.fail("A command is not an answer");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSchemaId() {
+        Assert.assertTrue(Request.isBinaryCodecSchema(Request.getBinaryCodecSchema()));
+        Assert.assertFalse(Request.isBinaryCodecSchema(null));
+        String schema = new BinaryCommandCodec(StartupRoutingCommand.class).getSchemaId();
+        Assert.assertEquals(schema, new BinaryCommandCodec(StartupRoutingCommand.class).getSchemaId());
+        Assert.assertFalse(schema.equals(Request.getBinaryCodecSchema()));
+    }
+}
@@ -0,0 +1,162 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.storage.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cloudstack.storage.command.DownloadCommand.ResourceType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpTemplateDownloaderTest {
+    private static final int SIZE = 2 * 1024 * 1024 + 123;
+
+    private final byte[] content = new byte[SIZE];
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger brokenResponses = new AtomicInteger();
+    private volatile boolean acceptRanges = true;
+    private HttpServer server;
+    private HttpTemplateDownloader downloader;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/template.raw", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        if (downloader != null) {
+            new File(downloader.getToFile()).delete();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        if (acceptRanges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().add("Content-Length", Integer.toString(SIZE));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        int start = 0;
+        int end = SIZE;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && acceptRanges) {
+            rangeRequests.incrementAndGet();
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = bounds.length > 1 ? Integer.parseInt(bounds[1]) + 1 : SIZE;
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + SIZE);
+            exchange.sendResponseHeaders(206, end - start);
+        } else {
+            exchange.sendResponseHeaders(200, SIZE);
+        }
+        OutputStream out = exchange.getResponseBody();
+        if (range != null && brokenResponses.getAndDecrement() > 0) {
+            // drop the connection half way through the range
+            out.write(content, start, (end - start) / 2);
+            out.flush();
+            exchange.close();
+            return;
+        }
+        out.write(content, start, end - start);
+        out.close();
+    }
+
+    private HttpTemplateDownloader createDownloader(int connections) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/template.raw";
+        downloader = new HttpTemplateDownloader(null, url, System.getProperty("java.io.tmpdir"), null, TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null, null,
+                null, ResourceType.TEMPLATE);
+        downloader.setConnections(connections);
+        downloader.setMinSegmentSize(256 * 1024);
+        return downloader;
+    }
+
+    private void assertDownloaded(HttpTemplateDownloader td) throws Exception {
+        assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, td.getStatus());
+        assertEquals(SIZE, td.getDownloadedBytes());
+        assertArrayEquals(content, Files.readAllBytes(new File(td.getToFile()).toPath()));
+        String md5 = String.format("%032x", new BigInteger(1, MessageDigest.getInstance("MD5").digest(content)));
+        assertEquals(md5, td.getChecksum());
+    }
+
+    @Test
+    public void testChecksumOverSingleConnection() throws Exception {
+        HttpTemplateDownloader td = createDownloader(1);
+        td.download(false, null);
+        assertDownloaded(td);
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testChecksumOverRanges() throws Exception {
+        HttpTemplateDownloader td = createDownloader(4);
+        td.download(false, null);
+        assertDownloaded(td);
+        assertEquals(4, rangeRequests.get());
+    }
+
+    @Test
+    public void testBrokenRangeIsRequestedAgain() throws Exception {
+        brokenResponses.set(1);
+        HttpTemplateDownloader td = createDownloader(4);
+        td.download(false, null);
+        assertDownloaded(td);
+        assertTrue(rangeRequests.get() > 4);
+    }
+
+    @Test
+    public void testServerWithoutRangesUsesSingleConnection() throws Exception {
+        acceptRanges = false;
+        HttpTemplateDownloader td = createDownloader(4);
+        td.download(false, null);
+        assertDownloaded(td);
+        assertEquals(0, rangeRequests.get());
+    }
+}
@@ -99,6 +99,16 @@ public interface CapacityManager {
 
     void updateCapacityForHost(Host host);
 
+    /**
+     * Recalculates the allocated capacity of the storage pool from its volumes, snapshots and templates.
+     */
+    void updateCapacityForStoragePool(StoragePoolVO pool);
+
+    /**
+     * Writes the capacity changes recorded since the last flush to the capacity table.
+     */
+    void flushCapacityDeltas();
+
     /**
      * @param pool storage pool
      * @param templateForVmCreation template that will be used for vm creation
@@ -48,6 +48,9 @@ import com.cloud.user.Account;
  *
  */
 public interface ConfigurationManager {
+
+    public static final String MESSAGE_CONFIG_CHANGED_EVENT = "Message.ConfigChanged.Event";
+
     /**
      * @param offering
      * @return
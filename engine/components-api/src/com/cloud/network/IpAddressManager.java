@@ -43,6 +43,9 @@ public interface IpAddressManager {
         "If true, when account has dedicated public ip range(s), once the ips dedicated to the account have been consumed ips will be acquired from the system pool",
         true, ConfigKey.Scope.Account);
 
+    static final ConfigKey<Integer> AllocationClaimBlockSize = new ConfigKey<Integer>("Advanced", Integer.class, "allocation.claim.block.size", "8",
+        "Number of free private ip addresses and vnets each management server claims at a time to allocate from without locking, 0 to lock them one by one", false);
+
     /**
      * Assigns a new public ip address.
      *
@@ -54,6 +54,7 @@ import com.cloud.agent.api.StartCommand;
 import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.storage.CreateCommand;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
@@ -107,6 +108,7 @@ public abstract class AgentAttache {
     protected Status _status = Status.Connecting;
     protected boolean _maintenance;
     protected long _nextSequence;
+    protected volatile Version _wireVersion = Version.v1;
 
     protected AgentManagerImpl _agentMgr;
 
@@ -140,6 +142,17 @@ public abstract class AgentAttache {
         _maintenance = value;
     }
 
+    /**
+     * Sets the version the requests to this agent are sent as, v4 once the agent agreed on the binary codec.
+     */
+    public void setWireVersion(final Version version) {
+        _wireVersion = version;
+    }
+
+    public Version getWireVersion() {
+        return _wireVersion;
+    }
+
     public void ready() {
         _status = Status.Up;
     }
@@ -70,6 +70,7 @@ import com.cloud.agent.api.StartupSecondaryStorageCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.UnsupportedAnswer;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.alert.AlertManager;
 import com.cloud.dc.ClusterVO;
@@ -108,6 +109,7 @@ import com.cloud.utils.exception.NioConnectionException;
 import com.cloud.utils.exception.TaskExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
@@ -191,6 +193,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                     "Default size for DirectAgentPool", false);
     protected final ConfigKey<Float> DirectAgentThreadCap = new ConfigKey<Float>("Advanced", Float.class, "direct.agent.thread.cap", "1",
                     "Percentage (as a value between 0 and 1) of direct.agent.pool.size to be used as upper thread cap for a single direct agent to process requests", false);
+    protected final ConfigKey<Boolean> BinaryWireCodec = new ConfigKey<Boolean>("Advanced", Boolean.class, "agent.binary.codec.enabled", "true",
+                    "Use the binary codec instead of json for the most frequent commands, with agents that support the same codec schema. Applies to agents connecting afterwards", true);
+    protected final ConfigKey<Integer> MaxPendingTasks = new ConfigKey<Integer>("Advanced", Integer.class, "agent.max.pending.tasks", "1000",
+                    "Requests queued for processing from a single agent or peer management server before reading from its connection pauses, 0 for no limit", false);
     protected final ConfigKey<Boolean> CheckTxnBeforeSending = new ConfigKey<Boolean>(
                     "Developer",
                     Boolean.class,
@@ -221,6 +227,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         _connectExecutor.allowCoreThreadTimeOut(true);
 
         _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
+        _connection.getDispatcher().setMaxPendingPerLink(MaxPendingTasks.value());
+        try {
+            JmxUtil.registerMBean("TaskDispatcher", "AgentManager", new AgentTaskDispatcherMBeanImpl(_connection.getDispatcher()));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the agent task dispatcher MBean", e);
+        }
         s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
 
         // executes all agent commands other than cron and ping
@@ -1084,6 +1096,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (host != null) {
                 ready = new ReadyCommand(host.getDataCenterId(), host.getId());
                 attache = createAttacheForConnect(host, link);
+                if (useBinaryCodec(startup[0])) {
+                    attache.setWireVersion(Version.v4);
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1175,6 +1190,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
     }
 
+    /**
+     * @return true if the agent reported the same binary codec schema as ours, so both ends can send v4 requests.
+     */
+    protected boolean useBinaryCodec(final StartupCommand startup) {
+        return BinaryWireCodec.value() && Request.isBinaryCodecSchema(startup.getBinaryCodecSchema());
+    }
+
     protected void connectAgent(final Link link, final Command[] cmds, final Request request) {
         // send startupanswer to agent in the very beginning, so agent can move on without waiting for the answer for an undetermined time, if we put this logic into another
         // thread pool.
@@ -1185,6 +1207,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (cmd instanceof StartupRoutingCommand || cmd instanceof StartupProxyCommand || cmd instanceof StartupSecondaryStorageCommand ||
                             cmd instanceof StartupStorageCommand) {
                 answers[i] = new StartupAnswer((StartupCommand) cmds[i], 0, getPingInterval());
+                if (useBinaryCodec((StartupCommand)cmds[i])) {
+                    answers[i].setBinaryCodecSchema(Request.getBinaryCodecSchema());
+                }
                 break;
             }
         }
@@ -1203,6 +1228,15 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             super(type, link, data);
         }
 
+        @Override
+        public Object getOrderingKey() {
+            if (getType() == Task.Type.DATA && !Request.isRequest(getData())) {
+                // answers only wake up the waiting listeners, which may be requests of the same agent
+                return null;
+            }
+            return super.getOrderingKey();
+        }
+
         protected void processRequest(final Link link, final Request request) {
             final AgentAttache attache = (AgentAttache) link.attachment();
             final Command[] cmds = request.getCommands();
@@ -1707,7 +1741,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
-                        DirectAgentThreadCap };
+                        DirectAgentThreadCap, BinaryWireCodec, MaxPendingTasks };
     }
 
 }
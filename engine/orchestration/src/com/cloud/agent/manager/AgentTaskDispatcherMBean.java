@@ -0,0 +1,46 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Map;
+
+public interface AgentTaskDispatcherMBean {
+    int getShardCount();
+
+    int getMaxPendingPerLink();
+
+    /**
+     * @return number of times reading from an agent paused because too many of its tasks were queued
+     */
+    long getReadPauses();
+
+    /**
+     * @return tasks waiting for answers and other unordered tasks
+     */
+    int getUnorderedQueueDepth();
+
+    /**
+     * @return number of tasks waiting in each shard
+     */
+    Map<String, Integer> getQueueDepths();
+
+    Map<String, Long> getCompletedTasks();
+
+    Map<String, Long> getAverageServiceTimeMicros();
+
+    Map<String, Long> getMaxServiceTimeMicros();
+}
@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+import com.cloud.utils.nio.TaskDispatcher;
+
+public class AgentTaskDispatcherMBeanImpl extends StandardMBean implements AgentTaskDispatcherMBean {
+    private final TaskDispatcher _dispatcher;
+
+    public AgentTaskDispatcherMBeanImpl(TaskDispatcher dispatcher) {
+        super(AgentTaskDispatcherMBean.class, false);
+        _dispatcher = dispatcher;
+    }
+
+    @Override
+    public int getShardCount() {
+        return _dispatcher.getShardCount();
+    }
+
+    @Override
+    public int getMaxPendingPerLink() {
+        return _dispatcher.getMaxPendingPerLink();
+    }
+
+    @Override
+    public long getReadPauses() {
+        return _dispatcher.getReadPauses();
+    }
+
+    @Override
+    public int getUnorderedQueueDepth() {
+        return _dispatcher.getUnorderedQueueDepth();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> stats = new HashMap<String, Integer>();
+        for (int i = 0; i < _dispatcher.getShardCount(); i++) {
+            stats.put(Integer.toString(i), _dispatcher.getQueueDepth(i));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getCompletedTasks() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (int i = 0; i < _dispatcher.getShardCount(); i++) {
+            stats.put(Integer.toString(i), _dispatcher.getCompletedTasks(i));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getAverageServiceTimeMicros() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (int i = 0; i < _dispatcher.getShardCount(); i++) {
+            stats.put(Integer.toString(i), _dispatcher.getAverageServiceTimeMicros(i));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getMaxServiceTimeMicros() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (int i = 0; i < _dispatcher.getShardCount(); i++) {
+            stats.put(Integer.toString(i), _dispatcher.getMaxServiceTimeMicros(i));
+        }
+        return stats;
+    }
+}
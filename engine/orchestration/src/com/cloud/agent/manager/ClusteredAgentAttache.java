@@ -19,12 +19,9 @@ package com.cloud.agent.manager;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.LinkedList;
 
-import javax.net.ssl.SSLEngine;
-
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.Listener;
@@ -165,7 +162,6 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
         }
 
         int i = 0;
-        SocketChannel ch = null;
         boolean error = true;
         try {
             while (i++ < 5) {
@@ -174,19 +170,6 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
                     throw new AgentUnavailableException("Unable to find peer", _id);
                 }
 
-                ch = s_clusteredAgentMgr.connectToPeer(peerName, ch);
-                if (ch == null) {
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug(log(seq, "Unable to forward " + req.toString()));
-                    }
-                    continue;
-                }
-
-                SSLEngine sslEngine = s_clusteredAgentMgr.getSSLEngine(peerName);
-                if (sslEngine == null) {
-                    throw new AgentUnavailableException("Unable to get SSLEngine of peer " + peerName, _id);
-                }
-
                 try {
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug(log(seq, "Forwarding " + req.toString() + " to " + peerName));
@@ -195,7 +178,12 @@ public class ClusteredAgentAttache extends ConnectedAgentAttache implements Rout
                         SynchronousListener synchronous = (SynchronousListener)listener;
                         synchronous.setPeer(peerName);
                     }
-                    Link.write(ch, req.toBytes(), sslEngine);
+                    if (!s_clusteredAgentMgr.forwardToPeer(peerName, _id, req.toBytes())) {
+                        if (s_logger.isDebugEnabled()) {
+                            s_logger.debug(log(seq, "Unable to forward " + req.toString()));
+                        }
+                        continue;
+                    }
                     error = false;
                     return;
                 } catch (IOException e) {
@@ -25,7 +25,6 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -89,6 +88,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.TaskExecutionException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.Task;
 import com.google.gson.Gson;
@@ -103,8 +103,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     public final static int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 5; // 5 seconds
     protected Set<Long> _agentToTransferIds = new HashSet<Long>();
     Gson _gson;
-    protected HashMap<String, SocketChannel> _peers;
-    protected HashMap<String, SSLEngine> _sslEngines;
+    protected PeerConnectionPool _peerConnections;
     private final Timer _timer = new Timer("ClusteredAgentManager Timer");
     boolean _agentLbHappened = false;
 
@@ -133,11 +132,26 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             "How many agents to connect to in each round", true);
     protected final ConfigKey<Integer> ScanInterval = new ConfigKey<Integer>(Integer.class, "direct.agent.scan.interval", "Advanced", "90",
             "Interval between scans to load agents", false, ConfigKey.Scope.Global, 1000);
+    protected final ConfigKey<Integer> PeerConnections = new ConfigKey<Integer>(Integer.class, "cluster.peer.connections", "Advanced", "4",
+            "Number of connections to each peer management server used to forward agent requests", false);
+    protected final ConfigKey<Integer> PeerMaxPendingForwards = new ConfigKey<Integer>(Integer.class, "cluster.peer.max.pending.forwards", "Advanced", "256",
+            "Maximum number of agent requests waiting to be forwarded to a peer management server, further requests wait up to 10 seconds and then fail", false);
+
+    private static final long PEER_PENDING_WAIT_MS = 10000;
 
     @Override
     public boolean configure(final String name, final Map<String, Object> xmlParams) throws ConfigurationException {
-        _peers = new HashMap<String, SocketChannel>(7);
-        _sslEngines = new HashMap<String, SSLEngine>(7);
+        _peerConnections = new PeerConnectionPool(new PeerConnectionPool.Connector() {
+            @Override
+            public PeerConnectionPool.PeerConnection connect(final String peerName) throws IOException {
+                return connectToPeer(peerName);
+            }
+        }, PeerConnections.value(), PeerMaxPendingForwards.value(), PEER_PENDING_WAIT_MS);
+        try {
+            JmxUtil.registerMBean("PeerConnectionPool", "ClusteredAgentManager", new PeerConnectionPoolMBeanImpl(_peerConnections));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the peer connection pool MBean", e);
+        }
         _nodeId = ManagementServerNode.getManagementServerId();
 
         s_logger.info("Configuring ClusterAgentManagerImpl. management server node id(msid): " + _nodeId);
@@ -404,11 +418,14 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
     public boolean routeToPeer(final String peer, final byte[] bytes) {
         int i = 0;
-        SocketChannel ch = null;
-        SSLEngine sslEngine = null;
         while (i++ < 5) {
-            ch = connectToPeer(peer, ch);
-            if (ch == null) {
+            try {
+                if (s_logger.isDebugEnabled()) {
+                    logD(bytes, "Routing to peer");
+                }
+                if (forwardToPeer(peer, Request.getAgentId(bytes), new ByteBuffer[] {ByteBuffer.wrap(bytes)})) {
+                    return true;
+                }
                 try {
                     logD(bytes, "Unable to route to peer: " + Request.parse(bytes).toString());
                 } catch (ClassNotFoundException | UnsupportedVersionException e) {
@@ -416,18 +433,6 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                     logD(bytes, "Unable to route to peer, and Request.parse further caught exception" + e.getMessage());
                 }
                 return false;
-            }
-            sslEngine = getSSLEngine(peer);
-            if (sslEngine == null) {
-                logD(bytes, "Unable to get SSLEngine of peer: " + peer);
-                return false;
-            }
-            try {
-                if (s_logger.isDebugEnabled()) {
-                    logD(bytes, "Routing to peer");
-                }
-                Link.write(ch, new ByteBuffer[] {ByteBuffer.wrap(bytes)}, sslEngine);
-                return true;
             } catch (final IOException e) {
                 try {
                     logI(bytes, "Unable to route to peer: " + Request.parse(bytes).toString() + " due to " + e.getMessage());
@@ -441,12 +446,18 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         return false;
     }
 
-    public String findPeer(final long hostId) {
-        return getPeerName(hostId);
+    /**
+     * Writes a message for an agent to the peer management server over the pooled connections to that peer.
+     *
+     * @return false if the peer is unknown or too many messages are already waiting for it.
+     * @throws IOException if the connection to the peer failed, the next attempt opens a new one.
+     */
+    public boolean forwardToPeer(final String peerName, final long agentId, final ByteBuffer[] data) throws IOException {
+        return _peerConnections.forward(peerName, agentId, data);
     }
 
-    public SSLEngine getSSLEngine(final String peerName) {
-        return _sslEngines.get(peerName);
+    public String findPeer(final long hostId) {
+        return getPeerName(hostId);
     }
 
     public void cancel(final String peerName, final long hostId, final long sequence, final String reason) {
@@ -457,97 +468,59 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     }
 
     public void closePeer(final String peerName) {
-        synchronized (_peers) {
-            final SocketChannel ch = _peers.get(peerName);
-            if (ch != null) {
-                try {
-                    ch.close();
-                } catch (final IOException e) {
-                    s_logger.warn("Unable to close peer socket connection to " + peerName);
-                }
-            }
-            _peers.remove(peerName);
-            _sslEngines.remove(peerName);
-        }
+        _peerConnections.close(peerName);
     }
 
-    public SocketChannel connectToPeer(final String peerName, final SocketChannel prevCh) {
-        synchronized (_peers) {
-            final SocketChannel ch = _peers.get(peerName);
+    protected PeerConnectionPool.PeerConnection connectToPeer(final String peerName) throws IOException {
+        final ManagementServerHost ms = _clusterMgr.getPeer(peerName);
+        if (ms == null) {
+            s_logger.info("Unable to find peer: " + peerName);
+            return null;
+        }
+        final String ip = ms.getServiceIP();
+        InetAddress addr;
+        try {
+            addr = InetAddress.getByName(ip);
+        } catch (final UnknownHostException e) {
+            throw new CloudRuntimeException("Unable to resolve " + ip);
+        }
+        SocketChannel ch1 = null;
+        try {
+            ch1 = SocketChannel.open(new InetSocketAddress(addr, Port.value()));
+            ch1.configureBlocking(false);
+            ch1.socket().setKeepAlive(true);
+            ch1.socket().setSoTimeout(60 * 1000);
             SSLEngine sslEngine = null;
-            if (prevCh != null) {
-                try {
-                    prevCh.close();
-                } catch (final Exception e) {
-                    s_logger.info("[ignored]"
-                            + "failed to get close resource for previous channel Socket: " + e.getLocalizedMessage());
+            try {
+                final SSLContext sslContext = Link.initSSLContext(true);
+                sslEngine = sslContext.createSSLEngine(ip, Port.value());
+                sslEngine.setUseClientMode(true);
+                sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
+                sslEngine.beginHandshake();
+                if (!Link.doHandshake(ch1, sslEngine, true)) {
+                    ch1.close();
+                    throw new IOException("SSL handshake failed!");
                 }
+                s_logger.info("SSL: Handshake done");
+            } catch (final Exception e) {
+                ch1.close();
+                throw new IOException("SSL: Fail to init SSL! " + e);
             }
-            if (ch == null || ch == prevCh) {
-                final ManagementServerHost ms = _clusterMgr.getPeer(peerName);
-                if (ms == null) {
-                    s_logger.info("Unable to find peer: " + peerName);
-                    return null;
-                }
-                final String ip = ms.getServiceIP();
-                InetAddress addr;
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Connection to peer opened: " + peerName + ", ip: " + ip);
+            }
+            return new PeerConnectionPool.PeerConnection(ch1, sslEngine);
+        } catch (final IOException e) {
+            if (ch1 != null) {
                 try {
-                    addr = InetAddress.getByName(ip);
-                } catch (final UnknownHostException e) {
-                    throw new CloudRuntimeException("Unable to resolve " + ip);
+                    ch1.close();
+                } catch (final IOException ex) {
+                    s_logger.error("failed to close failed peer socket: " + ex);
                 }
-                SocketChannel ch1 = null;
-                try {
-                    ch1 = SocketChannel.open(new InetSocketAddress(addr, Port.value()));
-                    ch1.configureBlocking(false);
-                    ch1.socket().setKeepAlive(true);
-                    ch1.socket().setSoTimeout(60 * 1000);
-                    try {
-                        final SSLContext sslContext = Link.initSSLContext(true);
-                        sslEngine = sslContext.createSSLEngine(ip, Port.value());
-                        sslEngine.setUseClientMode(true);
-                        sslEngine.setEnabledProtocols(SSLUtils.getSupportedProtocols(sslEngine.getEnabledProtocols()));
-                        sslEngine.beginHandshake();
-                        if (!Link.doHandshake(ch1, sslEngine, true)) {
-                            ch1.close();
-                            throw new IOException("SSL handshake failed!");
-                        }
-                        s_logger.info("SSL: Handshake done");
-                    } catch (final Exception e) {
-                        ch1.close();
-                        throw new IOException("SSL: Fail to init SSL! " + e);
-                    }
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("Connection to peer opened: " + peerName + ", ip: " + ip);
-                    }
-                    _peers.put(peerName, ch1);
-                    _sslEngines.put(peerName, sslEngine);
-                    return ch1;
-                } catch (final IOException e) {
-                    try {
-                        ch1.close();
-                    } catch (final IOException ex) {
-                        s_logger.error("failed to close failed peer socket: " + ex);
-                    }
-                    s_logger.warn("Unable to connect to peer management server: " + peerName + ", ip: " + ip + " due to " + e.getMessage(), e);
-                    return null;
-                }
-            }
-
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Found open channel for peer: " + peerName);
             }
-            return ch;
-        }
-    }
-
-    public SocketChannel connectToPeer(final long hostId, final SocketChannel prevCh) {
-        final String peerName = getPeerName(hostId);
-        if (peerName == null) {
-            return null;
+            s_logger.warn("Unable to connect to peer management server: " + peerName + ", ip: " + ip + " due to " + e.getMessage(), e);
+            throw e;
         }
-
-        return connectToPeer(peerName, prevCh);
     }
 
     @Override
@@ -578,15 +551,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
     @Override
     public boolean stop() {
-        if (_peers != null) {
-            for (final SocketChannel ch : _peers.values()) {
-                try {
-                    s_logger.info("Closing: " + ch.toString());
-                    ch.close();
-                } catch (final IOException e) {
-                    s_logger.info("[ignored] error on closing channel: " +ch.toString(), e);
-                }
-            }
+        if (_peerConnections != null) {
+            _peerConnections.closeAll();
         }
         _timer.cancel();
 
@@ -609,6 +575,15 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             super(type, link, data);
         }
 
+        @Override
+        public Object getOrderingKey() {
+            if (getType() == Task.Type.DATA && Request.fromServer(getData())) {
+                // a peer link carries the requests of many agents, only the requests of each agent need to stay in order
+                return Request.getAgentId(getData());
+            }
+            return super.getOrderingKey();
+        }
+
         @Override
         protected void doTask(final Task task) throws TaskExecutionException {
             final TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.CLOUD_DB);
@@ -620,7 +595,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 final byte[] data = task.getData();
                 final Version ver = Request.getVersion(data);
-                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal()) {
+                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal() && ver.ordinal() != Version.v4.ordinal()) {
                     s_logger.warn("Wrong version for clustered agent request");
                     super.doTask(task);
                     return;
@@ -739,6 +714,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
             outOfBandManagementDao.expireOutOfBandManagementOwnershipByServer(vo.getMsid());
             s_logger.info("Deleting entries from op_host_transfer table for Management server " + vo.getMsid());
             cleanupTransferMap(vo.getMsid());
+            closePeer(Long.toString(vo.getMsid()));
         }
     }
 
@@ -1454,6 +1430,8 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         keysLst.add(ConnectedAgentThreshold);
         keysLst.add(LoadSize);
         keysLst.add(ScanInterval);
+        keysLst.add(PeerConnections);
+        keysLst.add(PeerMaxPendingForwards);
         return keysLst.toArray(new ConfigKey<?>[keysLst.size()]);
     }
 }
@@ -21,6 +21,7 @@ import java.nio.channels.ClosedChannelException;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.utils.nio.Link;
@@ -40,6 +41,9 @@ public class ConnectedAgentAttache extends AgentAttache {
 
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
+        if (_wireVersion == Version.v4 && req.getVersion() == Version.v1) {
+            req.setVersion(Version.v4);
+        }
         try {
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
@@ -0,0 +1,364 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.nio.Link;
+
+/**
+ * Persistent connections from this management server to the agent port of its peers, used to forward agent requests
+ * and answers to the management server that owns the agent.
+ *
+ * Every peer gets a few connections. The messages of an agent always go over the same connection, so they arrive in
+ * the order they were sent, while the messages of different agents are written concurrently. Answers are matched to
+ * their requests by sequence number, so any number of requests can be in flight on a connection. Messages queued for
+ * a connection while it is busy are written one after the other by the thread holding it, each in its own frame, so
+ * the senders do not have to wait for the lock in turn. The number of messages waiting for a peer is bounded, senders
+ * that cannot get in within the wait time fail instead of piling up behind a slow peer.
+ */
+public class PeerConnectionPool {
+    private static final Logger s_logger = Logger.getLogger(PeerConnectionPool.class);
+
+    /**
+     * Opens a connection to a peer, returns null if the peer is not known.
+     */
+    public interface Connector {
+        PeerConnection connect(String peerName) throws IOException;
+    }
+
+    public static class PeerConnection {
+        private final SocketChannel _channel;
+        private final SSLEngine _sslEngine;
+
+        public PeerConnection(SocketChannel channel, SSLEngine sslEngine) {
+            _channel = channel;
+            _sslEngine = sslEngine;
+        }
+
+        public void write(ByteBuffer[] data) throws IOException {
+            Link.write(_channel, data, _sslEngine);
+        }
+
+        public void close() {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                s_logger.info("[ignored] error on closing peer channel: " + _channel, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return _channel.toString();
+        }
+    }
+
+    private final Connector _connector;
+    private final int _connectionsPerPeer;
+    private final int _maxPendingPerPeer;
+    private final long _pendingWaitMs;
+    private final Map<String, Peer> _peers = new ConcurrentHashMap<String, Peer>();
+
+    public PeerConnectionPool(Connector connector, int connectionsPerPeer, int maxPendingPerPeer, long pendingWaitMs) {
+        _connector = connector;
+        _connectionsPerPeer = Math.max(1, connectionsPerPeer);
+        _maxPendingPerPeer = Math.max(1, maxPendingPerPeer);
+        _pendingWaitMs = pendingWaitMs;
+    }
+
+    /**
+     * Writes a message to a peer over the connection of the agent.
+     *
+     * @return true if the message was written, false if the peer is unknown or too many messages are already waiting for it.
+     * @throws IOException if the connection to the peer failed, it is closed and reopened by the next message.
+     */
+    public boolean forward(String peerName, long agentId, ByteBuffer[] data) throws IOException {
+        Peer peer = getPeer(peerName);
+        try {
+            if (!peer._pending.tryAcquire(_pendingWaitMs, TimeUnit.MILLISECONDS)) {
+                peer._rejected.incrementAndGet();
+                s_logger.warn("Too many messages waiting to be forwarded to peer " + peerName + ", dropping the message for agent " + agentId);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            PendingWrite write = new PendingWrite(data);
+            Slot slot = peer._slots[(int)((agentId & Long.MAX_VALUE) % peer._slots.length)];
+            slot._queue.add(write);
+            while (!write.isDone()) {
+                if (slot._lock.tryLock()) {
+                    try {
+                        slot.drain(peerName);
+                    } finally {
+                        slot._lock.unlock();
+                    }
+                } else {
+                    // whoever holds the connection writes the queued messages, ours included
+                    write.await(1);
+                }
+            }
+
+            peer.recordForward(System.nanoTime() - start, write._error == null && !write._unknownPeer);
+            if (write._error != null) {
+                throw write._error;
+            }
+            return !write._unknownPeer;
+        } finally {
+            peer._pending.release();
+        }
+    }
+
+    /**
+     * Closes the connections to a peer, e.g. when it left the cluster.
+     */
+    public void close(String peerName) {
+        Peer peer = _peers.remove(peerName);
+        if (peer != null) {
+            peer.close();
+        }
+    }
+
+    public void closeAll() {
+        for (String peerName : new ArrayList<String>(_peers.keySet())) {
+            close(peerName);
+        }
+    }
+
+    public int getConnectionsPerPeer() {
+        return _connectionsPerPeer;
+    }
+
+    public int getMaxPendingPerPeer() {
+        return _maxPendingPerPeer;
+    }
+
+    public List<String> getPeerNames() {
+        return new ArrayList<String>(_peers.keySet());
+    }
+
+    public long getForwards(String peerName) {
+        Peer peer = _peers.get(peerName);
+        return peer == null ? 0 : peer._forwards.get();
+    }
+
+    public long getFailures(String peerName) {
+        Peer peer = _peers.get(peerName);
+        return peer == null ? 0 : peer._failures.get();
+    }
+
+    public long getRejected(String peerName) {
+        Peer peer = _peers.get(peerName);
+        return peer == null ? 0 : peer._rejected.get();
+    }
+
+    /**
+     * @return number of messages waiting for or being written to the peer
+     */
+    public int getQueueDepth(String peerName) {
+        Peer peer = _peers.get(peerName);
+        return peer == null ? 0 : _maxPendingPerPeer - peer._pending.availablePermits();
+    }
+
+    public int getOpenConnections(String peerName) {
+        Peer peer = _peers.get(peerName);
+        if (peer == null) {
+            return 0;
+        }
+        int open = 0;
+        for (Slot slot : peer._slots) {
+            if (slot._connection != null) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public long getAverageForwardLatencyMicros(String peerName) {
+        Peer peer = _peers.get(peerName);
+        if (peer == null) {
+            return 0;
+        }
+        long forwards = peer._forwards.get() + peer._failures.get();
+        return forwards == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(peer._latencyNanos.get() / forwards);
+    }
+
+    public long getMaxForwardLatencyMicros(String peerName) {
+        Peer peer = _peers.get(peerName);
+        return peer == null ? 0 : TimeUnit.NANOSECONDS.toMicros(peer._maxLatencyNanos.get());
+    }
+
+    private Peer getPeer(String peerName) {
+        Peer peer = _peers.get(peerName);
+        if (peer == null) {
+            synchronized (_peers) {
+                peer = _peers.get(peerName);
+                if (peer == null) {
+                    peer = new Peer();
+                    _peers.put(peerName, peer);
+                }
+            }
+        }
+        return peer;
+    }
+
+    private static class PendingWrite {
+        private final ByteBuffer[] _data;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private IOException _error;
+        private boolean _unknownPeer;
+
+        PendingWrite(ByteBuffer[] data) {
+            _data = data;
+        }
+
+        void complete(IOException error, boolean unknownPeer) {
+            _error = error;
+            _unknownPeer = unknownPeer;
+            _done.countDown();
+        }
+
+        boolean isDone() {
+            return _done.getCount() == 0;
+        }
+
+        void await(long millis) {
+            try {
+                _done.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class Slot {
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final ConcurrentLinkedQueue<PendingWrite> _queue = new ConcurrentLinkedQueue<PendingWrite>();
+        private volatile PeerConnection _connection;
+        private volatile boolean _closed;
+
+        /**
+         * Writes everything queued for this connection, to be called with the lock held.
+         */
+        void drain(String peerName) {
+            PendingWrite write;
+            while ((write = _queue.poll()) != null) {
+                try {
+                    if (_connection == null) {
+                        PeerConnection connection = _connector.connect(peerName);
+                        if (connection == null) {
+                            write.complete(null, true);
+                            continue;
+                        }
+                        // the peer may have been closed by a forward that fetched it before, nobody would close it again
+                        if (_closed) {
+                            connection.close();
+                            write.complete(null, true);
+                            continue;
+                        }
+                        _connection = connection;
+                    }
+                    _connection.write(write._data);
+                    write.complete(null, false);
+                } catch (IOException e) {
+                    s_logger.info("IOException " + e.getMessage() + " when sending data to peer " + peerName + ", close peer connection and let it re-open");
+                    close();
+                    write.complete(e, false);
+                } catch (Throwable e) {
+                    s_logger.warn("Unexpected exception when sending data to peer " + peerName + ", close peer connection and fail the queued messages", e);
+                    close();
+                    IOException error = new IOException("Unable to send data to peer " + peerName + ": " + e.getMessage(), e);
+                    write.complete(error, false);
+                    while ((write = _queue.poll()) != null) {
+                        write.complete(error, false);
+                    }
+                }
+            }
+        }
+
+        void close() {
+            PeerConnection connection = _connection;
+            _connection = null;
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private class Peer {
+        private final Slot[] _slots;
+        private final Semaphore _pending = new Semaphore(_maxPendingPerPeer);
+        private final AtomicLong _forwards = new AtomicLong();
+        private final AtomicLong _failures = new AtomicLong();
+        private final AtomicLong _rejected = new AtomicLong();
+        private final AtomicLong _latencyNanos = new AtomicLong();
+        private final AtomicLong _maxLatencyNanos = new AtomicLong();
+
+        Peer() {
+            _slots = new Slot[_connectionsPerPeer];
+            for (int i = 0; i < _slots.length; i++) {
+                _slots[i] = new Slot();
+            }
+        }
+
+        void recordForward(long latencyNanos, boolean success) {
+            if (success) {
+                _forwards.incrementAndGet();
+            } else {
+                _failures.incrementAndGet();
+            }
+            _latencyNanos.addAndGet(latencyNanos);
+            long max = _maxLatencyNanos.get();
+            while (latencyNanos > max && !_maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+                max = _maxLatencyNanos.get();
+            }
+        }
+
+        void close() {
+            for (Slot slot : _slots) {
+                slot._lock.lock();
+                try {
+                    slot._closed = true;
+                    slot.close();
+                } finally {
+                    slot._lock.unlock();
+                }
+            }
+        }
+    }
+}
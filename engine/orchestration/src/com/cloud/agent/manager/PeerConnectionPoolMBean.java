@@ -0,0 +1,48 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Map;
+
+public interface PeerConnectionPoolMBean {
+    int getConnectionsPerPeer();
+
+    int getMaxPendingPerPeer();
+
+    /**
+     * @return number of open connections, by peer management server id
+     */
+    Map<String, Integer> getOpenConnections();
+
+    /**
+     * @return number of messages waiting for or being written to each peer
+     */
+    Map<String, Integer> getQueueDepths();
+
+    Map<String, Long> getForwards();
+
+    Map<String, Long> getForwardFailures();
+
+    /**
+     * @return number of messages dropped because too many were already waiting for the peer
+     */
+    Map<String, Long> getRejectedForwards();
+
+    Map<String, Long> getAverageForwardLatencyMicros();
+
+    Map<String, Long> getMaxForwardLatencyMicros();
+}
@@ -0,0 +1,104 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+public class PeerConnectionPoolMBeanImpl extends StandardMBean implements PeerConnectionPoolMBean {
+    private final PeerConnectionPool _pool;
+
+    public PeerConnectionPoolMBeanImpl(PeerConnectionPool pool) {
+        super(PeerConnectionPoolMBean.class, false);
+        _pool = pool;
+    }
+
+    @Override
+    public int getConnectionsPerPeer() {
+        return _pool.getConnectionsPerPeer();
+    }
+
+    @Override
+    public int getMaxPendingPerPeer() {
+        return _pool.getMaxPendingPerPeer();
+    }
+
+    @Override
+    public Map<String, Integer> getOpenConnections() {
+        Map<String, Integer> stats = new HashMap<String, Integer>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getOpenConnections(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> stats = new HashMap<String, Integer>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getQueueDepth(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getForwards() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getForwards(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getForwardFailures() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getFailures(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getRejectedForwards() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getRejected(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getAverageForwardLatencyMicros() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getAverageForwardLatencyMicros(peerName));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getMaxForwardLatencyMicros() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (String peerName : _pool.getPeerNames()) {
+            stats.put(peerName, _pool.getMaxForwardLatencyMicros(peerName));
+        }
+        return stats;
+    }
+}
@@ -22,6 +22,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -3732,8 +3733,21 @@ public class VirtualMachineManagerImpl extends ManagerBase implements VirtualMac
     @MessageHandler(topic = Topics.VM_POWER_STATE)
     protected void HandlePowerStateReport(final String subject, final String senderAddress, final Object args) {
         assert args != null;
-        final Long vmId = (Long)args;
+        // power state changes of a host report are published together
+        if (args instanceof Collection) {
+            for (final Object vmId : (Collection<?>)args) {
+                try {
+                    handlePowerStateReportForVm((Long)vmId);
+                } catch (final RuntimeException e) {
+                    s_logger.warn("Unable to handle power state report of vm id: " + vmId, e);
+                }
+            }
+        } else {
+            handlePowerStateReportForVm((Long)args);
+        }
+    }
 
+    private void handlePowerStateReportForVm(final Long vmId) {
         final List<VmWorkJobVO> pendingWorkJobs = _workJobDao.listPendingWorkJobs(
                 VirtualMachine.Type.Instance, vmId);
         if (pendingWorkJobs.size() == 0 && !_haMgr.hasPendingHaWork(vmId)) {
@@ -16,10 +16,13 @@
 // under the License.
 package com.cloud.vm;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -30,7 +33,6 @@ import org.apache.cloudstack.framework.messagebus.PublishScope;
 
 import com.cloud.agent.api.HostVmStateReportEntry;
 import com.cloud.utils.DateUtil;
-import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.vm.dao.VMInstanceDao;
 
 public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStateSync {
@@ -57,8 +59,9 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        List<VMInstanceVO> reportedVms = new ArrayList<VMInstanceVO>();
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, reportedVms);
+        processReport(hostId, translatedInfo, reportedVms);
     }
 
     @Override
@@ -66,30 +69,24 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        List<VMInstanceVO> reportedVms = new ArrayList<VMInstanceVO>();
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, reportedVms);
+        processReport(hostId, translatedInfo, reportedVms);
     }
 
-    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+    /**
+     * The VMs of the report are loaded with one query and diffed in memory against the reported states,
+     * only the ones that change are written back, in one batch, and announced in one message.
+     */
+    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo, List<VMInstanceVO> reportedVms) {
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
 
-        for (Map.Entry<Long, VirtualMachine.PowerState> entry : translatedInfo.entrySet()) {
-
-            if (s_logger.isDebugEnabled())
-                s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue())) {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
-
-                _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, entry.getKey());
-            } else {
-                if (s_logger.isDebugEnabled())
-                    s_logger.debug("VM power state does not change, skip DB writing. vm id: " + entry.getKey());
-            }
-        }
+        List<Long> updatedVmIds = new ArrayList<Long>(_instanceDao.updatePowerStates(hostId, reportedVms, translatedInfo));
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("VM state report is updated for " + updatedVmIds.size() + " VMs, power state of the others does not change. host: " + hostId +
+                    ", updated vm ids: " + updatedVmIds);
 
         // for all running/stopping VMs, we provide monitoring of missing report
         List<VMInstanceVO> vmsThatAreMissingReport = _instanceDao.findByHostInStates(hostId, VirtualMachine.State.Running,
@@ -109,17 +106,15 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             // 2 times of sync-update interval for graceful period
             long milliSecondsGracefullPeriod = PingInterval.value() * 2000L;
 
+            List<VMInstanceVO> outdatedVms = new ArrayList<VMInstanceVO>();
+            List<VMInstanceVO> missingVms = new ArrayList<VMInstanceVO>();
+            Map<Long, VirtualMachine.PowerState> missingInfo = new HashMap<Long, VirtualMachine.PowerState>();
             for (VMInstanceVO instance : vmsThatAreMissingReport) {
 
                 // Make sure powerState is up to date for missing VMs
-                try {
-                    if (!_instanceDao.isPowerStateUpToDate(instance.getId())) {
-                        s_logger.warn("Detected missing VM but power state is outdated, wait for another process report run for VM id: " + instance.getId());
-                        _instanceDao.resetVmPowerStateTracking(instance.getId());
-                        continue;
-                    }
-                } catch (CloudRuntimeException e) {
-                    s_logger.warn("Checked for missing powerstate of a none existing vm", e);
+                if (!_instanceDao.isPowerStateUpToDate(instance)) {
+                    s_logger.warn("Detected missing VM but power state is outdated, wait for another process report run for VM id: " + instance.getId());
+                    outdatedVms.add(instance);
                     continue;
                 }
 
@@ -137,20 +132,27 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
                 if (milliSecondsSinceLastStateUpdate > milliSecondsGracefullPeriod) {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has passed graceful period");
-
-                    if (_instanceDao.updatePowerState(instance.getId(), hostId, VirtualMachine.PowerState.PowerReportMissing)) {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + instance.getId() + ", power state: PowerReportMissing ");
-
-                        _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, instance.getId());
-                    } else {
-                        if (s_logger.isDebugEnabled())
-                            s_logger.debug("VM power state does not change, skip DB writing. vm id: " + instance.getId());
-                    }
+                    missingVms.add(instance);
+                    missingInfo.put(instance.getId(), VirtualMachine.PowerState.PowerReportMissing);
                 } else {
                     s_logger.debug("vm id: " + instance.getId() + " - time since last state update(" + milliSecondsSinceLastStateUpdate + "ms) has not passed graceful period yet");
                 }
             }
+
+            if (!outdatedVms.isEmpty()) {
+                _instanceDao.resetVmPowerStateTracking(outdatedVms);
+            }
+
+            if (!missingVms.isEmpty()) {
+                List<Long> missingVmIds = _instanceDao.updatePowerStates(hostId, missingVms, missingInfo);
+                if (s_logger.isDebugEnabled())
+                    s_logger.debug("VM state report is updated. host: " + hostId + ", vm ids: " + missingVmIds + ", power state: PowerReportMissing ");
+                updatedVmIds.addAll(missingVmIds);
+            }
+        }
+
+        if (!updatedVmIds.isEmpty()) {
+            _messageBus.publish(null, VirtualMachineManager.Topics.VM_POWER_STATE, PublishScope.GLOBAL, updatedVmIds);
         }
 
         if (s_logger.isDebugEnabled())
@@ -159,24 +161,29 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
     @Override
     public Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states) {
+        return convertVmStateReport(states, new ArrayList<VMInstanceVO>());
+    }
+
+    private Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states, List<VMInstanceVO> reportedVms) {
         final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
-        if (states == null) {
+        if (states == null || states.isEmpty()) {
             return map;
         }
 
-        for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
-            if (vm != null) {
-                map.put(vm.getId(), entry.getValue().getState());
-            } else {
-                s_logger.info("Unable to find matched VM in CloudStack DB. name: " + entry.getKey());
+        Set<String> unknownNames = new HashSet<String>(states.keySet());
+        for (VMInstanceVO vm : _instanceDao.listByInstanceNames(states.keySet())) {
+            HostVmStateReportEntry entry = states.get(vm.getInstanceName());
+            if (entry != null) {
+                map.put(vm.getId(), entry.getState());
+                reportedVms.add(vm);
+                unknownNames.remove(vm.getInstanceName());
             }
         }
 
-        return map;
-    }
+        for (String name : unknownNames) {
+            s_logger.info("Unable to find matched VM in CloudStack DB. name: " + name);
+        }
 
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
+        return map;
     }
 }
@@ -0,0 +1,316 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PeerConnectionPoolTest {
+
+    private static class FakeConnection extends PeerConnectionPool.PeerConnection {
+        final List<Long> _written = Collections.synchronizedList(new ArrayList<Long>());
+        volatile boolean _fail;
+        volatile RuntimeException _unexpected;
+        volatile boolean _closed;
+        volatile CountDownLatch _block;
+
+        FakeConnection() {
+            super(null, null);
+        }
+
+        @Override
+        public void write(ByteBuffer[] data) throws IOException {
+            if (_block != null) {
+                try {
+                    _block.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (_fail) {
+                throw new IOException("broken pipe");
+            }
+            if (_unexpected != null) {
+                throw _unexpected;
+            }
+            _written.add(data[0].getLong(0));
+        }
+
+        @Override
+        public void close() {
+            _closed = true;
+        }
+    }
+
+    private static class FakeConnector implements PeerConnectionPool.Connector {
+        final List<FakeConnection> _connections = Collections.synchronizedList(new ArrayList<FakeConnection>());
+        volatile RuntimeException _unexpected;
+
+        @Override
+        public PeerConnectionPool.PeerConnection connect(String peerName) throws IOException {
+            if (!"peer".equals(peerName)) {
+                return null;
+            }
+            if (_unexpected != null) {
+                throw _unexpected;
+            }
+            FakeConnection connection = new FakeConnection();
+            _connections.add(connection);
+            return connection;
+        }
+    }
+
+    private static ByteBuffer[] message(long value) {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, value);
+        return new ByteBuffer[] {buffer};
+    }
+
+    @Test
+    public void testUnknownPeer() throws IOException {
+        PeerConnectionPool pool = new PeerConnectionPool(new FakeConnector(), 2, 10, 100);
+        Assert.assertFalse(pool.forward("unknown", 1L, message(1)));
+        Assert.assertEquals(0, pool.getOpenConnections("unknown"));
+        Assert.assertEquals(1, pool.getFailures("unknown"));
+    }
+
+    @Test
+    public void testAgentStaysOnOneConnection() throws IOException {
+        FakeConnector connector = new FakeConnector();
+        PeerConnectionPool pool = new PeerConnectionPool(connector, 4, 10, 100);
+        for (long i = 0; i < 20; i++) {
+            Assert.assertTrue(pool.forward("peer", 3L, message(i)));
+        }
+        Assert.assertEquals(1, connector._connections.size());
+        List<Long> written = connector._connections.get(0)._written;
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Long.valueOf(i), written.get(i));
+        }
+
+        pool.forward("peer", 4L, message(0));
+        Assert.assertEquals(2, pool.getOpenConnections("peer"));
+        Assert.assertEquals(21, pool.getForwards("peer"));
+        Assert.assertEquals(0, pool.getQueueDepth("peer"));
+    }
+
+    @Test
+    public void testConcurrentForwardsKeepAgentOrder() throws Exception {
+        FakeConnector connector = new FakeConnector();
+        final PeerConnectionPool pool = new PeerConnectionPool(connector, 2, 1000, 10000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                final long agentId = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (long i = 0; i < 500; i++) {
+                            if (!pool.forward("peer", agentId, message(agentId * 1000 + i))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(2, connector._connections.size());
+        for (FakeConnection connection : connector._connections) {
+            long[] last = new long[8];
+            Arrays.fill(last, -1);
+            for (long value : new ArrayList<Long>(connection._written)) {
+                int agent = (int)(value / 1000);
+                Assert.assertTrue(value % 1000 > last[agent]);
+                last[agent] = value % 1000;
+            }
+        }
+        Assert.assertEquals(8 * 500, pool.getForwards("peer"));
+    }
+
+    @Test
+    public void testReconnectAfterFailure() throws IOException {
+        FakeConnector connector = new FakeConnector();
+        PeerConnectionPool pool = new PeerConnectionPool(connector, 1, 10, 100);
+        Assert.assertTrue(pool.forward("peer", 1L, message(1)));
+        connector._connections.get(0)._fail = true;
+        try {
+            pool.forward("peer", 1L, message(2));
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertTrue(connector._connections.get(0)._closed);
+        Assert.assertEquals(0, pool.getOpenConnections("peer"));
+
+        Assert.assertTrue(pool.forward("peer", 1L, message(3)));
+        Assert.assertEquals(2, connector._connections.size());
+        Assert.assertEquals(1, pool.getFailures("peer"));
+        Assert.assertEquals(2, pool.getForwards("peer"));
+    }
+
+    @Test
+    public void testRejectWhenTooManyPending() throws Exception {
+        FakeConnector connector = new FakeConnector();
+        final PeerConnectionPool pool = new PeerConnectionPool(connector, 1, 1, 50);
+        pool.forward("peer", 1L, message(0));
+        final CountDownLatch block = new CountDownLatch(1);
+        connector._connections.get(0)._block = block;
+
+        final AtomicInteger written = new AtomicInteger();
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (pool.forward("peer", 1L, message(1))) {
+                        written.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // counted as not written
+                }
+            }
+        });
+        sender.start();
+        while (pool.getQueueDepth("peer") == 0) {
+            Thread.sleep(1);
+        }
+
+        Assert.assertFalse(pool.forward("peer", 2L, message(2)));
+        Assert.assertEquals(1, pool.getRejected("peer"));
+
+        block.countDown();
+        sender.join(10000);
+        Assert.assertEquals(1, written.get());
+        Assert.assertEquals(0, pool.getQueueDepth("peer"));
+    }
+
+    @Test
+    public void testClosePeer() throws IOException {
+        FakeConnector connector = new FakeConnector();
+        PeerConnectionPool pool = new PeerConnectionPool(connector, 2, 10, 100);
+        pool.forward("peer", 1L, message(1));
+        pool.forward("peer", 2L, message(2));
+        pool.close("peer");
+        for (FakeConnection connection : connector._connections) {
+            Assert.assertTrue(connection._closed);
+        }
+        Assert.assertTrue(pool.getPeerNames().isEmpty());
+    }
+
+    @Test
+    public void testUnexpectedExceptionOnConnect() throws IOException {
+        FakeConnector connector = new FakeConnector();
+        PeerConnectionPool pool = new PeerConnectionPool(connector, 1, 10, 100);
+        connector._unexpected = new IllegalStateException("Unable to resolve peer");
+        try {
+            pool.forward("peer", 1L, message(1));
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(0, pool.getQueueDepth("peer"));
+        Assert.assertEquals(1, pool.getFailures("peer"));
+
+        connector._unexpected = null;
+        Assert.assertTrue(pool.forward("peer", 1L, message(2)));
+    }
+
+    @Test
+    public void testUnexpectedExceptionOnWriteFailsQueuedMessages() throws Exception {
+        FakeConnector connector = new FakeConnector();
+        final PeerConnectionPool pool = new PeerConnectionPool(connector, 1, 10, 1000);
+        pool.forward("peer", 1L, message(0));
+        final FakeConnection connection = connector._connections.get(0);
+        final CountDownLatch block = new CountDownLatch(1);
+        connection._block = block;
+        connection._unexpected = new IllegalStateException("unexpected");
+        // a sender that only queues after the others failed must not get through on a new connection either
+        connector._unexpected = new IllegalStateException("unexpected");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 3; t++) {
+                final long value = t + 1;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        try {
+                            pool.forward("peer", 1L, message(value));
+                            return false;
+                        } catch (IOException e) {
+                            return true;
+                        }
+                    }
+                }));
+            }
+            while (pool.getQueueDepth("peer") < 3) {
+                Thread.sleep(1);
+            }
+            block.countDown();
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertTrue(connection._closed);
+        Assert.assertEquals(0, pool.getOpenConnections("peer"));
+        Assert.assertEquals(0, pool.getQueueDepth("peer"));
+    }
+
+    @Test
+    public void testConnectionOpenedWhileClosingIsClosed() throws IOException {
+        final AtomicInteger closes = new AtomicInteger();
+        final PeerConnectionPool[] pool = new PeerConnectionPool[1];
+        final FakeConnector connector = new FakeConnector() {
+            @Override
+            public PeerConnectionPool.PeerConnection connect(String peerName) throws IOException {
+                // the peer leaves the cluster while the connection is being opened
+                if (closes.getAndIncrement() == 0) {
+                    pool[0].close(peerName);
+                }
+                return super.connect(peerName);
+            }
+        };
+        pool[0] = new PeerConnectionPool(connector, 1, 10, 100);
+        Assert.assertFalse(pool[0].forward("peer", 1L, message(1)));
+        Assert.assertEquals(1, connector._connections.size());
+        Assert.assertTrue(connector._connections.get(0)._closed);
+        Assert.assertTrue(connector._connections.get(0)._written.isEmpty());
+    }
+}
@@ -60,6 +60,9 @@ public class DataCenterIpAddressVO implements InternalIdentity {
     @Column(name = "mac_address")
     long macAddress;
 
+    @Column(name = "claim")
+    String claim;
+
     protected DataCenterIpAddressVO() {
     }
 
@@ -71,6 +74,14 @@ public class DataCenterIpAddressVO implements InternalIdentity {
         this.reservationId = reservationId;
     }
 
+    public String getClaim() {
+        return claim;
+    }
+
+    public void setClaim(String claim) {
+        this.claim = claim;
+    }
+
     public DataCenterIpAddressVO(String ipAddress, long dataCenterId, long podId) {
         this.ipAddress = ipAddress;
         this.dataCenterId = dataCenterId;
@@ -60,6 +60,9 @@ public class DataCenterVnetVO implements InternalIdentity {
     @Column(name = "account_vnet_map_id")
     protected Long accountGuestVlanMapId;
 
+    @Column(name = "claim")
+    protected String claim;
+
     public Date getTakenAt() {
         return takenAt;
     }
@@ -116,6 +119,14 @@ public class DataCenterVnetVO implements InternalIdentity {
         return accountGuestVlanMapId;
     }
 
+    public String getClaim() {
+        return claim;
+    }
+
+    public void setClaim(String claim) {
+        this.claim = claim;
+    }
+
     protected DataCenterVnetVO() {
     }
 }
@@ -47,4 +47,14 @@ public interface DataCenterIpAddressDao extends GenericDao<DataCenterIpAddressVO
 
     boolean deleteIpAddressByPod(long podId);
 
+    /**
+     * Returns the addresses claimed by a management server, and not taken, to the others.
+     */
+    void releaseClaims(long msid);
+
+    /**
+     * @param blockSize addresses claimed at a time for this management server, 0 to take them one by one.
+     */
+    void setClaimBlockSize(int blockSize);
+
 }
@@ -21,11 +21,12 @@ import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 
-
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterIpAddressVO;
+import com.cloud.utils.db.ClaimedBlockAllocator;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
@@ -47,9 +48,26 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllAllocatedIpCount;
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllAllocatedIpCountForDc;
 
+    private final ClaimedBlockAllocator _podBlocks = new ClaimedBlockAllocator("op_dc_ip_address_alloc", "pod_id", "taken IS NULL", ClaimedBlockAllocator.DEFAULT_BLOCK_SIZE);
+    private final ClaimedBlockAllocator _dcBlocks = new ClaimedBlockAllocator("op_dc_ip_address_alloc", "data_center_id", "taken IS NULL", ClaimedBlockAllocator.DEFAULT_BLOCK_SIZE);
+
     @Override
     @DB
     public DataCenterIpAddressVO takeIpAddress(long dcId, long podId, long instanceId, String reservationId) {
+        Long id;
+        while ((id = _podBlocks.next(podId)) != null) {
+            DataCenterIpAddressVO vo = createForUpdate();
+            vo.setTakenAt(new Date());
+            vo.setInstanceId(instanceId);
+            vo.setReservationId(reservationId);
+            vo.setClaim(null);
+            if (takeIfFree(id, vo)) {
+                _podBlocks.putBackOnRollback(podId, id);
+                return findById(id);
+            }
+        }
+
+        // the last free addresses of the pod may be claimed by other management servers
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("pod", podId);
         sc.setParameters("taken", (Date)null);
@@ -64,6 +82,7 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
         vo.setTakenAt(new Date());
         vo.setInstanceId(instanceId);
         vo.setReservationId(reservationId);
+        vo.setClaim(null);
         update(vo.getId(), vo);
         txn.commit();
         return vo;
@@ -72,6 +91,19 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     @Override
     @DB
     public DataCenterIpAddressVO takeDataCenterIpAddress(long dcId, String reservationId) {
+        Long id;
+        while ((id = _dcBlocks.next(dcId)) != null) {
+            DataCenterIpAddressVO vo = createForUpdate();
+            vo.setTakenAt(new Date());
+            vo.setReservationId(reservationId);
+            vo.setClaim(null);
+            if (takeIfFree(id, vo)) {
+                _dcBlocks.putBackOnRollback(dcId, id);
+                return findById(id);
+            }
+        }
+
+        // the last free addresses of the zone may be claimed by other management servers
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("dc", dcId);
         sc.setParameters("taken", (Date)null);
@@ -85,11 +117,47 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
         }
         vo.setTakenAt(new Date());
         vo.setReservationId(reservationId);
+        vo.setClaim(null);
         update(vo.getId(), vo);
         txn.commit();
         return vo;
     }
 
+    /**
+     * Takes a claimed address with an update of its row alone, unless it was taken in the meantime.
+     */
+    private boolean takeIfFree(long id, DataCenterIpAddressVO vo) {
+        SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
+        sc.setParameters("id", id);
+        sc.setParameters("taken", (Date)null);
+        return update(vo, sc) == 1;
+    }
+
+    @Override
+    public void releaseClaims(long msid) {
+        _podBlocks.releaseClaims(msid);
+        _dcBlocks.releaseClaims(msid);
+    }
+
+    @Override
+    public void setClaimBlockSize(int blockSize) {
+        _podBlocks.setBlockSize(blockSize);
+        _dcBlocks.setBlockSize(blockSize);
+    }
+
+    @Override
+    public boolean start() {
+        // claims left behind by the last run of this management server
+        releaseClaims(ManagementServerNode.getManagementServerId());
+        return super.start();
+    }
+
+    @Override
+    public boolean stop() {
+        releaseClaims(ManagementServerNode.getManagementServerId());
+        return super.stop();
+    }
+
     @Override
     public boolean deleteIpAddressByPod(long podId) {
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
@@ -105,6 +173,7 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
 
         DataCenterIpAddressVO vo = createForUpdate();
         vo.setTakenAt(new Date());
+        vo.setClaim(null);
 
         return update(vo, sc) >= 1;
     }
@@ -239,6 +308,7 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
         super();
 
         AllFieldsSearch = createSearchBuilder();
+        AllFieldsSearch.and("id", AllFieldsSearch.entity().getId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("ip", AllFieldsSearch.entity().getIpAddress(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("dc", AllFieldsSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         AllFieldsSearch.and("pod", AllFieldsSearch.entity().getPodId(), SearchCriteria.Op.EQ);
@@ -54,4 +54,14 @@ public interface DataCenterVnetDao extends GenericDao<DataCenterVnetVO, Long> {
     List<String> listVnetsByPhysicalNetworkAndDataCenter(long dcId, long physicalNetworkId);
 
     int countAllocatedVnets(long physicalNetworkId);
+
+    /**
+     * Returns the vnets claimed by a management server, and not taken, to the others.
+     */
+    void releaseClaims(long msid);
+
+    /**
+     * @param blockSize vnets claimed at a time for this management server, 0 to take them one by one.
+     */
+    void setClaimBlockSize(int blockSize);
 }
@@ -25,11 +25,13 @@ import java.util.Map;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.springframework.stereotype.Component;
 
 import com.cloud.dc.DataCenterVnetVO;
 import com.cloud.network.dao.AccountGuestVlanMapDao;
 import com.cloud.network.dao.AccountGuestVlanMapVO;
+import com.cloud.utils.db.ClaimedBlockAllocator;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
@@ -51,6 +53,7 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
 
     private final SearchBuilder<DataCenterVnetVO> FreeVnetSearch;
     private final SearchBuilder<DataCenterVnetVO> FreeDedicatedVnetSearch;
+    private final SearchBuilder<DataCenterVnetVO> FreeVnetIdSearch;
     private final SearchBuilder<DataCenterVnetVO> VnetDcSearch;
     private final SearchBuilder<DataCenterVnetVO> VnetDcSearchAllocated;
     private final SearchBuilder<DataCenterVnetVO> DcSearchAllocated;
@@ -174,6 +177,9 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         remove(sc);
     }
 
+    private final ClaimedBlockAllocator _blocks = new ClaimedBlockAllocator("op_dc_vnet_alloc", "physical_network_id", "taken IS NULL AND account_vnet_map_id IS NULL",
+        ClaimedBlockAllocator.DEFAULT_BLOCK_SIZE);
+
     @Override
     @DB
     public DataCenterVnetVO take(long physicalNetworkId, long accountId, String reservationId, List<Long> vlanDbIds) {
@@ -182,6 +188,22 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
             sc = FreeDedicatedVnetSearch.create();
             sc.setParameters("accountGuestVlanMapId", vlanDbIds.toArray());
         } else {
+            Long id;
+            while ((id = _blocks.next(physicalNetworkId)) != null) {
+                DataCenterVnetVO vo = createForUpdate();
+                vo.setTakenAt(new Date());
+                vo.setAccountId(accountId);
+                vo.setReservationId(reservationId);
+                vo.setClaim(null);
+                SearchCriteria<DataCenterVnetVO> idSc = FreeVnetIdSearch.create();
+                idSc.setParameters("id", id);
+                if (update(vo, idSc) == 1) {
+                    _blocks.putBackOnRollback(physicalNetworkId, id);
+                    return findById(id);
+                }
+            }
+
+            // the last free vnets may be claimed by other management servers
             sc = FreeVnetSearch.create();
         }
         sc.setParameters("physicalNetworkId", physicalNetworkId);
@@ -196,11 +218,35 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         vo.setTakenAt(now);
         vo.setAccountId(accountId);
         vo.setReservationId(reservationId);
+        vo.setClaim(null);
         update(vo.getId(), vo);
         txn.commit();
         return vo;
     }
 
+    @Override
+    public void releaseClaims(long msid) {
+        _blocks.releaseClaims(msid);
+    }
+
+    @Override
+    public void setClaimBlockSize(int blockSize) {
+        _blocks.setBlockSize(blockSize);
+    }
+
+    @Override
+    public boolean start() {
+        // claims left behind by the last run of this management server
+        releaseClaims(ManagementServerNode.getManagementServerId());
+        return super.start();
+    }
+
+    @Override
+    public boolean stop() {
+        releaseClaims(ManagementServerNode.getManagementServerId());
+        return super.stop();
+    }
+
     @Override
     public void release(String vnet, long physicalNetworkId, long accountId, String reservationId) {
         SearchCriteria<DataCenterVnetVO> sc = VnetDcSearchAllocated.create();
@@ -307,6 +353,12 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         FreeDedicatedVnetSearch.and("accountGuestVlanMapId", FreeDedicatedVnetSearch.entity().getAccountGuestVlanMapId(), SearchCriteria.Op.IN);
         FreeDedicatedVnetSearch.done();
 
+        FreeVnetIdSearch = createSearchBuilder();
+        FreeVnetIdSearch.and("id", FreeVnetIdSearch.entity().getId(), SearchCriteria.Op.EQ);
+        FreeVnetIdSearch.and("taken", FreeVnetIdSearch.entity().getTakenAt(), SearchCriteria.Op.NULL);
+        FreeVnetIdSearch.and("accountGuestVlanMapId", FreeVnetIdSearch.entity().getAccountGuestVlanMapId(), SearchCriteria.Op.NULL);
+        FreeVnetIdSearch.done();
+
         VnetDcSearch = createSearchBuilder();
         VnetDcSearch.and("vnet", VnetDcSearch.entity().getVnet(), SearchCriteria.Op.EQ);
         VnetDcSearch.and("dc", VnetDcSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
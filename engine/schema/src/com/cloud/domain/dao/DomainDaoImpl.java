@@ -30,6 +30,7 @@ import org.springframework.stereotype.Component;
 import com.cloud.domain.Domain;
 import com.cloud.domain.DomainVO;
 import com.cloud.utils.db.DB;
+import com.cloud.utils.db.EntityCache;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.SearchBuilder;
@@ -37,6 +38,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
 
 @Component
+@EntityCache
 public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements DomainDao {
     private static final Logger s_logger = Logger.getLogger(DomainDaoImpl.class);
 
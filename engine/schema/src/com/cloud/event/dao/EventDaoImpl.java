@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.event.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -105,12 +106,14 @@ public class EventDaoImpl extends GenericDaoBase<EventVO, Long> implements Event
         if (events != null && !events.isEmpty()) {
             TransactionLegacy txn = TransactionLegacy.currentTxn();
             txn.start();
+            List<EventVO> archived = new ArrayList<EventVO>(events.size());
             for (EventVO event : events) {
                 event = lockRow(event.getId(), true);
                 event.setArchived(true);
-                update(event.getId(), event);
-                txn.commit();
+                archived.add(event);
             }
+            updateAll(archived);
+            txn.commit();
             txn.close();
         }
     }
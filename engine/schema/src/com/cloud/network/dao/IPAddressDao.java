@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.network.dao;
 
+import java.util.Date;
 import java.util.List;
 
 import com.cloud.dc.Vlan.VlanType;
@@ -89,4 +90,11 @@ public interface IPAddressDao extends GenericDao<IPAddressVO, Long> {
     List<IPAddressVO> listByAssociatedVmId(long vmId);
 
     IPAddressVO findByVmIdAndNetworkId(long networkId, long vmId);
+
+    /**
+     * Marks a free address as allocated with an update of its row alone.
+     *
+     * @return false if the address got allocated in the meantime.
+     */
+    boolean allocateIfFree(long ipAddressId, Date allocatedTime);
 }
@@ -52,6 +52,7 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
 
     protected SearchBuilder<IPAddressVO> AllFieldsSearch;
     protected SearchBuilder<IPAddressVO> VlanDbIdSearchUnallocated;
+    protected SearchBuilder<IPAddressVO> FreeIdSearch;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllIpCount;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllIpCountForDc;
     protected GenericSearchBuilder<IPAddressVO, Integer> AllocatedIpCount;
@@ -94,6 +95,11 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         VlanDbIdSearchUnallocated.and("vlanDbId", VlanDbIdSearchUnallocated.entity().getVlanId(), Op.EQ);
         VlanDbIdSearchUnallocated.done();
 
+        FreeIdSearch = createSearchBuilder();
+        FreeIdSearch.and("id", FreeIdSearch.entity().getId(), Op.EQ);
+        FreeIdSearch.and("allocated", FreeIdSearch.entity().getAllocatedTime(), Op.NULL);
+        FreeIdSearch.done();
+
         AllIpCount = createSearchBuilder(Integer.class);
         AllIpCount.select(null, Func.COUNT, AllIpCount.entity().getAddress());
         AllIpCount.and("dc", AllIpCount.entity().getDataCenterId(), Op.EQ);
@@ -165,6 +171,17 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         return update(vo, sc) >= 1;
     }
 
+    @Override
+    public boolean allocateIfFree(long ipAddressId, Date allocatedTime) {
+        SearchCriteria<IPAddressVO> sc = FreeIdSearch.create();
+        sc.setParameters("id", ipAddressId);
+
+        IPAddressVO vo = createForUpdate();
+        vo.setAllocatedTime(allocatedTime);
+
+        return update(vo, sc) == 1;
+    }
+
     @Override
     public void unassignIpAddress(long ipAddressId) {
         IPAddressVO address = createForUpdate();
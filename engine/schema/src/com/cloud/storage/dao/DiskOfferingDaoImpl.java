@@ -26,6 +26,7 @@ import org.springframework.stereotype.Component;
 import com.cloud.storage.DiskOfferingVO;
 import com.cloud.offering.DiskOffering.Type;
 import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.EntityCache;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
@@ -33,6 +34,7 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 
 @Component
+@EntityCache(size = 50)
 public class DiskOfferingDaoImpl extends GenericDaoBase<DiskOfferingVO, Long> implements DiskOfferingDao {
     private final SearchBuilder<DiskOfferingVO> DomainIdSearch;
     private final SearchBuilder<DiskOfferingVO> PrivateDiskOfferingSearch;
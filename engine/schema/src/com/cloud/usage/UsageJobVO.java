@@ -76,6 +76,9 @@ public class UsageJobVO implements InternalIdentity {
     @Column(name = "success")
     private Boolean success;
 
+    @Column(name = "parser_timings")
+    private String parserTimings;
+
     @Temporal(TemporalType.TIMESTAMP)
     @Column(name = "heartbeat")
     private Date heartbeat;
@@ -172,6 +175,14 @@ public class UsageJobVO implements InternalIdentity {
         this.success = success;
     }
 
+    public String getParserTimings() {
+        return parserTimings;
+    }
+
+    public void setParserTimings(String parserTimings) {
+        this.parserTimings = parserTimings;
+    }
+
     public Date getHeartbeat() {
         return heartbeat;
     }
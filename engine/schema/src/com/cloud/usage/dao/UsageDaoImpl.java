@@ -69,7 +69,7 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             + "net_bytes_read=?, net_bytes_write=?, current_bytes_read=?, current_bytes_write=?, agg_bytes_read=?, agg_bytes_write=?  WHERE id=?";
     private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
             + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
-            + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+            + "usage_id, type, size, network_id, start_date, end_date, virtual_size, cpu_cores, cpu_speed, memory) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?,?,?,?)";
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -394,6 +394,9 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
 
     @Override
     public void saveUsageRecords(List<UsageVO> usageRecords) {
+        if (usageRecords.isEmpty()) {
+            return;
+        }
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
             txn.start();
@@ -447,6 +450,21 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
                 } else {
                     pstmt.setNull(18, Types.BIGINT);
                 }
+                if (usageRecord.getCpuCores() != null) {
+                    pstmt.setLong(19, usageRecord.getCpuCores());
+                } else {
+                    pstmt.setNull(19, Types.BIGINT);
+                }
+                if (usageRecord.getCpuSpeed() != null) {
+                    pstmt.setLong(20, usageRecord.getCpuSpeed());
+                } else {
+                    pstmt.setNull(20, Types.BIGINT);
+                }
+                if (usageRecord.getMemory() != null) {
+                    pstmt.setLong(21, usageRecord.getMemory());
+                } else {
+                    pstmt.setNull(21, Types.BIGINT);
+                }
                 pstmt.addBatch();
             }
             pstmt.executeBatch();
@@ -60,6 +60,11 @@ public class UsageJobDaoImpl extends GenericDaoBase<UsageJobVO, Long> implements
 
     @Override
     public void updateJobSuccess(Long jobId, long startMillis, long endMillis, long execTime, boolean success) {
+        updateJobSuccess(jobId, startMillis, endMillis, execTime, success, null);
+    }
+
+    @Override
+    public void updateJobSuccess(Long jobId, long startMillis, long endMillis, long execTime, boolean success, String parserTimings) {
         TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
         try {
             txn.start();
@@ -72,6 +77,9 @@ public class UsageJobDaoImpl extends GenericDaoBase<UsageJobVO, Long> implements
             jobForUpdate.setStartDate(new Date(startMillis));
             jobForUpdate.setEndDate(new Date(endMillis));
             jobForUpdate.setSuccess(success);
+            if (parserTimings != null) {
+                jobForUpdate.setParserTimings(parserTimings);
+            }
             update(job.getId(), jobForUpdate);
 
             txn.commit();
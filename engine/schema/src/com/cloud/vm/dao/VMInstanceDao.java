@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -78,6 +79,8 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     VMInstanceVO findVMByInstanceName(String name);
 
+    List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames);
+
     VMInstanceVO findVMByHostName(String hostName);
 
     void updateProxyId(long id, Long proxyId, Date time);
@@ -131,8 +134,18 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState);
 
+    /**
+     * Same as updatePowerState() for instances the caller has loaded already, the instances that need
+     * an update are written in one batch.
+     * @param powerStates reported power states by instance id
+     * @return ids of the instances that were updated
+     */
+    List<Long> updatePowerStates(long powerHostId, List<VMInstanceVO> instances, Map<Long, VirtualMachine.PowerState> powerStates);
+
     void resetVmPowerStateTracking(long instanceId);
 
+    void resetVmPowerStateTracking(List<VMInstanceVO> instances);
+
     void resetHostPowerStateTracking(long hostId);
 
     HashMap<String, Long> countVgpuVMs(Long dcId, Long podId, Long clusterId);
@@ -140,4 +153,6 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
     VMInstanceVO findVMByHostNameInZone(String hostName, long zoneId);
 
     boolean isPowerStateUpToDate(long instanceId);
+
+    boolean isPowerStateUpToDate(VMInstanceVO instance);
 }
@@ -19,11 +19,15 @@ package com.cloud.vm.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -82,6 +86,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostIdUpTypesSearch;
     protected SearchBuilder<VMInstanceVO> HostUpSearch;
     protected SearchBuilder<VMInstanceVO> InstanceNameSearch;
+    protected SearchBuilder<VMInstanceVO> InstanceNamesSearch;
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected SearchBuilder<VMInstanceVO> HostNameAndZoneSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
@@ -114,6 +119,9 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
 
     private static final String ORDER_HOSTS_NUMBER_OF_VMS_FOR_ACCOUNT_PART2 = " GROUP BY host.id ORDER BY 2 ASC ";
 
+    private static final String UPDATE_POWER_STATE = "UPDATE `cloud`.`vm_instance` SET power_state = ?, power_host = ?, power_state_update_count = ?, " +
+            "power_state_update_time = ? WHERE id = ? AND power_state_update_count = ? AND power_state_update_time <=> ?";
+
     private static final String COUNT_VMS_BASED_ON_VGPU_TYPES1 =
             "SELECT pci, type, SUM(vmcount) FROM (SELECT MAX(IF(offering.name = 'pciDevice',value,'')) AS pci, MAX(IF(offering.name = 'vgpuType', value,'')) " +
             "AS type, COUNT(DISTINCT vm.id) AS vmcount FROM service_offering_details offering INNER JOIN vm_instance vm ON offering.service_offering_id = vm.service_offering_id " +
@@ -214,6 +222,10 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         InstanceNameSearch.and("instanceName", InstanceNameSearch.entity().getInstanceName(), Op.EQ);
         InstanceNameSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
         HostNameSearch = createSearchBuilder();
         HostNameSearch.and("hostName", HostNameSearch.entity().getHostName(), Op.EQ);
         HostNameSearch.done();
@@ -412,6 +424,16 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return findOneBy(sc);
     }
 
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames) {
+        if (instanceNames == null || instanceNames.isEmpty()) {
+            return new ArrayList<VMInstanceVO>();
+        }
+        SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+        sc.setParameters("instanceNames", instanceNames.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public VMInstanceVO findVMByHostName(String hostName) {
         SearchCriteria<VMInstanceVO> sc = HostNameSearch.create();
@@ -775,29 +797,106 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return Transaction.execute(new TransactionCallback<Boolean>() {
             @Override
             public Boolean doInTransaction(TransactionStatus status) {
-                boolean needToUpdate = false;
                 VMInstanceVO instance = findById(instanceId);
-                if (instance != null) {
-                    Long savedPowerHostId = instance.getPowerHostId();
-                    if (instance.getPowerState() != powerState || savedPowerHostId == null
-                            || savedPowerHostId.longValue() != powerHostId) {
-                        instance.setPowerState(powerState);
-                        instance.setPowerHostId(powerHostId);
-                        instance.setPowerStateUpdateCount(1);
-                        instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
-                        needToUpdate = true;
-                        update(instanceId, instance);
-                    } else {
-                        // to reduce DB updates, consecutive same state update for more than 3 times
-                        if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
-                            instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
-                            instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
-                            needToUpdate = true;
-                            update(instanceId, instance);
+                if (instance != null && applyPowerState(instance, powerHostId, powerState)) {
+                    update(instanceId, instance);
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public List<Long> updatePowerStates(final long powerHostId, final List<VMInstanceVO> instances, final Map<Long, VirtualMachine.PowerState> powerStates) {
+        List<VMInstanceVO> changed = new ArrayList<VMInstanceVO>();
+        Map<Long, Pair<Integer, Date>> readTracking = new HashMap<Long, Pair<Integer, Date>>();
+        for (VMInstanceVO instance : instances) {
+            VirtualMachine.PowerState powerState = powerStates.get(instance.getId());
+            Pair<Integer, Date> tracking = new Pair<Integer, Date>(instance.getPowerStateUpdateCount(), instance.getPowerStateUpdateTime());
+            if (powerState != null && applyPowerState(instance, powerHostId, powerState)) {
+                changed.add(instance);
+                readTracking.put(instance.getId(), tracking);
+            }
+        }
+        return updatePowerStateColumns(changed, readTracking);
+    }
+
+    /**
+     * Sets the reported power state on the instance, as updatePowerState() would do it in the DB
+     * @return true if the instance needs to be written back
+     */
+    private boolean applyPowerState(VMInstanceVO instance, long powerHostId, VirtualMachine.PowerState powerState) {
+        Long savedPowerHostId = instance.getPowerHostId();
+        if (instance.getPowerState() != powerState || savedPowerHostId == null
+                || savedPowerHostId.longValue() != powerHostId) {
+            instance.setPowerState(powerState);
+            instance.setPowerHostId(powerHostId);
+            instance.setPowerStateUpdateCount(1);
+            instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
+            return true;
+        }
+        // to reduce DB updates, consecutive same state update for more than 3 times
+        if (instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT) {
+            instance.setPowerStateUpdateCount(instance.getPowerStateUpdateCount() + 1);
+            instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the power state columns of the instances with one batched statement. A row is only written if its power state
+     * tracking is still what was read, so that a change made since then by someone else is not overwritten.
+     * @param readTracking update count and time of each instance as read from the DB
+     * @return ids of the instances that were written
+     */
+    private List<Long> updatePowerStateColumns(final List<VMInstanceVO> instances, final Map<Long, Pair<Integer, Date>> readTracking) {
+        if (instances.isEmpty()) {
+            return new ArrayList<Long>();
+        }
+        return Transaction.execute(new TransactionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInTransaction(TransactionStatus status) {
+                TransactionLegacy txn = TransactionLegacy.currentTxn();
+                try {
+                    PreparedStatement pstmt = txn.prepareAutoCloseStatement(UPDATE_POWER_STATE);
+                    for (VMInstanceVO instance : instances) {
+                        if (instance.getPowerState() != null) {
+                            pstmt.setString(1, instance.getPowerState().toString());
+                        } else {
+                            pstmt.setNull(1, Types.VARCHAR);
+                        }
+                        if (instance.getPowerHostId() != null) {
+                            pstmt.setLong(2, instance.getPowerHostId());
+                        } else {
+                            pstmt.setNull(2, Types.BIGINT);
                         }
+                        pstmt.setInt(3, instance.getPowerStateUpdateCount());
+                        pstmt.setString(4, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), instance.getPowerStateUpdateTime()));
+                        pstmt.setLong(5, instance.getId());
+                        Pair<Integer, Date> tracking = readTracking.get(instance.getId());
+                        pstmt.setInt(6, tracking.first());
+                        if (tracking.second() != null) {
+                            pstmt.setString(7, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), tracking.second()));
+                        } else {
+                            pstmt.setNull(7, Types.VARCHAR);
+                        }
+                        pstmt.addBatch();
                     }
+                    int[] rows = pstmt.executeBatch();
+                    List<Long> written = new ArrayList<Long>();
+                    for (int i = 0; i < rows.length; i++) {
+                        if (rows[i] > 0 || rows[i] == Statement.SUCCESS_NO_INFO) {
+                            written.add(instances.get(i).getId());
+                        } else if (s_logger.isDebugEnabled()) {
+                            s_logger.debug("Power state of vm " + instances.get(i).getId() + " was changed concurrently, not overwriting it");
+                        }
+                    }
+                    return written;
+                } catch (SQLException e) {
+                    throw new CloudRuntimeException("DB Exception on: " + UPDATE_POWER_STATE, e);
                 }
-                return needToUpdate;
             }
         });
     }
@@ -808,6 +907,11 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         if(instance == null) {
             throw new CloudRuntimeException("checking power state update count on non existing instance " + instanceId);
         }
+        return isPowerStateUpToDate(instance);
+    }
+
+    @Override
+    public boolean isPowerStateUpToDate(final VMInstanceVO instance) {
         return instance.getPowerStateUpdateCount() < MAX_CONSECUTIVE_SAME_STATE_UPDATE_COUNT;
     }
 
@@ -826,6 +930,17 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         });
     }
 
+    @Override
+    public void resetVmPowerStateTracking(final List<VMInstanceVO> instances) {
+        Map<Long, Pair<Integer, Date>> readTracking = new HashMap<Long, Pair<Integer, Date>>();
+        for (VMInstanceVO instance : instances) {
+            readTracking.put(instance.getId(), new Pair<Integer, Date>(instance.getPowerStateUpdateCount(), instance.getPowerStateUpdateTime()));
+            instance.setPowerStateUpdateCount(0);
+            instance.setPowerStateUpdateTime(DateUtil.currentGMTTime());
+        }
+        updatePowerStateColumns(instances, readTracking);
+    }
+
     @Override @DB
     public void resetHostPowerStateTracking(final long hostId) {
         Transaction.execute(new TransactionCallbackNoReturn() {
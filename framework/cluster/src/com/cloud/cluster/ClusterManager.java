@@ -46,6 +46,15 @@ public interface ClusterManager extends Manager {
      */
     void broadcast(long agentId, String cmds);
 
+    /**
+     * Publish a message on the message bus of every other running management server node.
+     * Delivery is asynchronous and best effort, subscribers on the peers receive it with
+     * the sending node as sender address.
+     * @param subject subject of the message
+     * @param args message content
+     */
+    void publishToPeers(String subject, String args);
+
     void registerListener(ClusterManagerListener listener);
 
     void unregisterListener(ClusterManagerListener listener);
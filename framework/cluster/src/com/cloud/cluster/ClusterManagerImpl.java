@@ -43,6 +43,9 @@ import javax.naming.ConfigurationException;
 import org.apache.cloudstack.framework.config.ConfigDepot;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.apache.log4j.Logger;
@@ -57,6 +60,7 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.ConnectionConcierge;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.DbProperties;
+import com.cloud.utils.db.EntityCacheCoordinator;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionLegacy;
@@ -66,6 +70,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.NetUtils;
+import com.google.gson.Gson;
 
 public class ClusterManagerImpl extends ManagerBase implements ClusterManager, Configurable {
     private static final Logger s_logger = Logger.getLogger(ClusterManagerImpl.class);
@@ -97,6 +102,10 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
     private ManagementServerHostDao _mshostDao;
     @Inject
     private ManagementServerHostPeerDao _mshostPeerDao;
+    @Inject
+    private MessageBus _messageBus;
+
+    private final Gson _gson = new Gson();
 
     protected Dispatcher _dispatcher;
 
@@ -311,6 +320,12 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
                             } else {
                                 s_logger.warn("Original request has already been cancelled. pdu: " + pdu.getJsonPackage());
                             }
+                        } else if (pdu.getPduType() == ClusterServicePdu.PDU_TYPE_BUS_MESSAGE) {
+                            final String[] message = _gson.fromJson(pdu.getJsonPackage(), String[].class);
+                            if (s_logger.isDebugEnabled()) {
+                                s_logger.debug("Publishing message " + message[0] + " from peer " + pdu.getSourcePeer() + " on local message bus");
+                            }
+                            _messageBus.publish(pdu.getSourcePeer(), message[0], PublishScope.LOCAL, message[1]);
                         } else {
                             String result = _dispatcher.dispatch(pdu);
                             if (result == null) {
@@ -374,6 +389,50 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         }
     }
 
+    @Override
+    public void publishToPeers(final String subject, final String args) {
+        final Date cutTime = DateUtil.currentGMTTime();
+        final String json = _gson.toJson(new String[] {subject, args});
+
+        final List<ManagementServerHostVO> peers = _mshostDao.getActiveList(new Date(cutTime.getTime() - HeartbeatThreshold.value()));
+        for (final ManagementServerHostVO peer : peers) {
+            final String peerName = Long.toString(peer.getMsid());
+            if (getSelfPeerName().equals(peerName)) {
+                continue;
+            }
+
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Publishing message " + subject + " to " + peerName);
+            }
+            final ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(ClusterServicePdu.PDU_TYPE_BUS_MESSAGE);
+            pdu.setSourcePeer(getSelfPeerName());
+            pdu.setDestPeer(peerName);
+            pdu.setJsonPackage(json);
+            addOutgoingClusterPdu(pdu);
+        }
+    }
+
+    /**
+     * Passes the changes committed to cached entities on to the peers, and evicts what changed on the peers.
+     */
+    protected void coordinateEntityCaches(final EntityCacheCoordinator coordinator, final MessageBus messageBus) {
+        coordinator.setPeerNotifier(new EntityCacheCoordinator.PeerNotifier() {
+            @Override
+            public void notifyPeers(final String message) {
+                publishToPeers(EntityCacheCoordinator.MESSAGE_INVALIDATED, message);
+            }
+        });
+        messageBus.subscribe(EntityCacheCoordinator.MESSAGE_INVALIDATED, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                if (args instanceof String) {
+                    coordinator.invalidateFromPeer((String)args);
+                }
+            }
+        });
+    }
+
     public void executeAsync(final String strPeer, final long agentId, final String cmds, final boolean stopOnError) {
         final ClusterServicePdu pdu = new ClusterServicePdu();
         pdu.setSourcePeer(getSelfPeerName());
@@ -996,6 +1055,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
         // use seperate thread for heartbeat updates
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HeartbeatInterval.value(), HeartbeatInterval.value(), TimeUnit.MILLISECONDS);
         _notificationExecutor.submit(getNotificationTask());
+        coordinateEntityCaches(EntityCacheCoordinator.getInstance(), _messageBus);
 
         if (s_logger.isInfoEnabled()) {
             s_logger.info("Cluster manager was started successfully");
@@ -1017,6 +1077,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
             _mshostDao.update(_mshostId, mshost);
         }
 
+        EntityCacheCoordinator.getInstance().setPeerNotifier(null);
         _heartbeatScheduler.shutdownNow();
         _executor.shutdownNow();
 
@@ -1124,7 +1185,7 @@ public class ClusterManagerImpl extends ManagerBase implements ClusterManager, C
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold};
+        return new ConfigKey<?>[] {HeartbeatInterval, HeartbeatThreshold, ClusterServiceAdapter.ClusterServiceConnectionsPerPeer};
     }
 
     private boolean pingManagementNode(final ManagementServerHostVO mshost) {
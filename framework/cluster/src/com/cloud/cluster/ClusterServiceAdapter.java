@@ -25,6 +25,8 @@ import com.cloud.utils.component.Adapter;
 public interface ClusterServiceAdapter extends Adapter {
     final ConfigKey<Integer> ClusterMessageTimeOut = new ConfigKey<Integer>(Integer.class, "cluster.message.timeout.seconds", "Advance", "300",
         "Time (in seconds) to wait before a inter-management server message post times out.", true);
+    final ConfigKey<Integer> ClusterServiceConnectionsPerPeer = new ConfigKey<Integer>(Integer.class, "cluster.service.connections.per.peer", "Advanced", "4",
+        "Number of persistent connections kept to each peer management server for inter-management server messages.", false);
 
     public ClusterService getPeerService(String strPeer) throws RemoteException;
 
@@ -116,20 +116,21 @@ public class ClusterServiceServletImpl implements ClusterService {
         return result;
     }
 
-    private HttpClient getHttpClient() {
+    private static synchronized HttpClient getHttpClient() {
 
         if (s_client == null) {
             final MultiThreadedHttpConnectionManager mgr = new MultiThreadedHttpConnectionManager();
-            mgr.getParams().setDefaultMaxConnectionsPerHost(4);
-
-            // TODO make it configurable
+            mgr.getParams().setDefaultMaxConnectionsPerHost(ClusterServiceAdapter.ClusterServiceConnectionsPerPeer.value());
             mgr.getParams().setMaxTotalConnections(1000);
+            // pooled connections may have been closed by the peer while idle
+            mgr.getParams().setStaleCheckingEnabled(true);
 
-            s_client = new HttpClient(mgr);
+            final HttpClient client = new HttpClient(mgr);
             final HttpClientParams clientParams = new HttpClientParams();
             clientParams.setSoTimeout(ClusterServiceAdapter.ClusterMessageTimeOut.value() * 1000);
 
-            s_client.setParams(clientParams);
+            client.setParams(clientParams);
+            s_client = client;
         }
         return s_client;
     }
@@ -0,0 +1,169 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.ConfigurationException;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageBusBase;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.db.EntityCache;
+import com.cloud.utils.db.EntityCacheCoordinator;
+import com.cloud.utils.db.GenericDaoBase;
+
+/**
+ * Runs two management servers in the same process, each with its own message bus, cache coordinator and DAO, the
+ * cluster managers pass the messages published to the peers straight to the message bus of the other one.
+ */
+public class EntityCacheCoordinationTest {
+    private static final AtomicInteger s_nodes = new AtomicInteger();
+
+    // the rows of the database shared by the two nodes
+    private final Map<Long, String> _names = new ConcurrentHashMap<Long, String>();
+    private Node _a;
+    private Node _b;
+
+    @EntityCache(size = 10)
+    static class CachedDao extends GenericDaoBase<ManagementServerHostVO, Long> {
+        private final Map<Long, String> _names;
+        private final AtomicInteger _reads = new AtomicInteger();
+
+        CachedDao(final EntityCacheCoordinator coordinator, final Map<Long, String> names) {
+            _names = names;
+            setCacheCoordinator(coordinator);
+        }
+
+        @Override
+        protected ManagementServerHostVO findById(final Long id, final boolean removed, final Boolean lock) {
+            _reads.incrementAndGet();
+            final String name = _names.get(id);
+            if (name == null) {
+                return null;
+            }
+            final ManagementServerHostVO vo = createForUpdate(id);
+            vo.setName(name);
+            return vo;
+        }
+
+        void updateName(final long id, final String name) {
+            _names.put(id, name);
+            invalidateCache(id);
+        }
+
+        void updateAll(final String name) {
+            for (final Long id : _names.keySet()) {
+                _names.put(id, name);
+            }
+            invalidateCache(null);
+        }
+
+        int getReads() {
+            return _reads.get();
+        }
+    }
+
+    static class Node {
+        final MessageBus _messageBus = new MessageBusBase();
+        final EntityCacheCoordinator _coordinator = new EntityCacheCoordinator();
+        final CachedDao _dao;
+        Node _peer;
+
+        Node(final Map<Long, String> names) throws ConfigurationException {
+            _dao = new CachedDao(_coordinator, names);
+            _dao.configure("EntityCacheCoordinationTest-" + s_nodes.incrementAndGet(), new HashMap<String, Object>());
+            new ClusterManagerImpl() {
+                @Override
+                public void publishToPeers(final String subject, final String args) {
+                    _peer._messageBus.publish("peer", subject, PublishScope.LOCAL, args);
+                }
+            }.coordinateEntityCaches(_coordinator, _messageBus);
+        }
+    }
+
+    @Before
+    public void setUp() throws ConfigurationException {
+        _names.put(1L, "zone1");
+        _names.put(2L, "zone2");
+        _a = new Node(_names);
+        _b = new Node(_names);
+        _a._peer = _b;
+        _b._peer = _a;
+    }
+
+    @Test
+    public void testLookupsAreServedFromTheCache() {
+        assertEquals("zone1", _b._dao.findById(1L).getName());
+        assertEquals("zone1", _b._dao.findById(1L).getName());
+        assertEquals(1, _b._dao.getReads());
+        assertEquals(1, _b._dao.getCacheStatistics().getHits());
+        assertEquals(1, _b._dao.getCacheStatistics().getMisses());
+    }
+
+    @Test
+    public void testChangeOnOneNodeEvictsOnTheOther() {
+        assertEquals("zone1", _a._dao.findById(1L).getName());
+        assertEquals("zone1", _b._dao.findById(1L).getName());
+        assertEquals("zone2", _b._dao.findById(2L).getName());
+
+        _a._dao.updateName(1L, "renamed");
+
+        assertEquals("renamed", _a._dao.findById(1L).getName());
+        assertEquals("renamed", _b._dao.findById(1L).getName());
+        assertEquals("zone2", _b._dao.findById(2L).getName());
+        assertEquals(3, _b._dao.getReads());
+        assertEquals(1, _a._dao.getCacheStatistics().getInvalidations());
+        assertEquals(1, _b._dao.getCacheStatistics().getPeerInvalidations());
+        assertEquals(0, _a._dao.getCacheStatistics().getPeerInvalidations());
+    }
+
+    @Test
+    public void testBulkChangeEvictsEverythingOnTheOtherNode() {
+        _b._dao.findById(1L);
+        _b._dao.findById(2L);
+
+        _a._dao.updateAll("renamed");
+
+        assertEquals("renamed", _b._dao.findById(1L).getName());
+        assertEquals("renamed", _b._dao.findById(2L).getName());
+        assertEquals(4, _b._dao.getReads());
+    }
+
+    @Test
+    public void testCachedEntitiesAreCopied() {
+        _a._dao.findById(1L).setName("changed by the caller");
+        assertEquals("zone1", _a._dao.findById(1L).getName());
+        assertEquals(1, _a._dao.getReads());
+    }
+
+    @Test
+    public void testMissingEntitiesAreNotCached() {
+        assertNull(_b._dao.findById(3L));
+        _names.put(3L, "zone3");
+        assertEquals("zone3", _b._dao.findById(3L).getName());
+    }
+}
@@ -31,4 +31,18 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached value of a key so that the next read goes to the database.
+     *
+     * @param key name of the config key
+     * @param scope scope the value was changed in, Global or null for the value in the configuration table
+     * @param id id of the resource the scoped value was changed for, null to drop all of the scoped values of the key
+     */
+    void invalidateConfigCache(String key, ConfigKey.Scope scope, Long id);
+
+    /**
+     * Drops every cached config value.
+     */
+    void invalidateConfigCache();
 }
@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+public class ConfigDepotCacheMBeanImpl extends StandardMBean implements ConfigDepotCacheMBean {
+
+    private final ConfigDepotImpl _depot;
+
+    public ConfigDepotCacheMBeanImpl(ConfigDepotImpl depot) {
+        super(ConfigDepotCacheMBean.class, false);
+        _depot = depot;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return _depot._cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return _depot._cacheMisses.get();
+    }
+
+    @Override
+    public long getCacheInvalidations() {
+        return _depot._cacheInvalidations.get();
+    }
+
+    @Override
+    public long getCacheVersion() {
+        return _depot._cacheVersion.get();
+    }
+
+    @Override
+    public int getCachedGlobalValueCount() {
+        return _depot._globalCache.size();
+    }
+
+    @Override
+    public int getCachedScopedValueCount() {
+        int count = 0;
+        for (Map<Long, ConfigDepotImpl.CachedValue> values : _depot._scopedCache.values()) {
+            count += values.size();
+        }
+        return count;
+    }
+
+    @Override
+    public long getCacheTtlInSeconds() {
+        return _depot.getCacheTtl();
+    }
+
+    @Override
+    public void invalidateCache() {
+        _depot.invalidateConfigCache();
+    }
+}
@@ -23,6 +23,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -38,6 +40,7 @@ import org.apache.log4j.Logger;
 
 import com.cloud.utils.Pair;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
@@ -50,6 +53,13 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *
  * When dealing with this class, we must be very careful on cluster situations.
  *
+ * Values read through ConfigKey are kept in an in-memory cache.  Every
+ * invalidation bumps the cache version; a value loaded from the database is
+ * only stored if no invalidation happened while it was being loaded.  Entries
+ * older than the cache ttl are reloaded, which bounds the staleness of values
+ * that are changed without going through invalidateConfigCache (e.g. direct
+ * database updates or a lost cluster notification).
+ *
  * TODO:
  *   - Move the rest of the changes to the config table to here.
  *   - Add the code to mark the rows in configuration table without
@@ -78,8 +88,23 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    private static final long DEFAULT_CACHE_TTL = 30; // seconds
+
+    long _cacheTtl = DEFAULT_CACHE_TTL * 1000L;
+    final AtomicLong _cacheVersion = new AtomicLong(0);
+    final AtomicLong _cacheHits = new AtomicLong(0);
+    final AtomicLong _cacheMisses = new AtomicLong(0);
+    final AtomicLong _cacheInvalidations = new AtomicLong(0);
+    final ConcurrentHashMap<String, CachedValue> _globalCache = new ConcurrentHashMap<String, CachedValue>(1007);
+    final ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>> _scopedCache = new ConcurrentHashMap<String, ConcurrentHashMap<Long, CachedValue>>();
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
+        try {
+            JmxUtil.registerMBean("ConfigDepot", "Cache", new ConfigDepotCacheMBeanImpl(this));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register config cache for JMX", e);
+        }
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Zone, new HashSet<ConfigKey<?>>());
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Cluster, new HashSet<ConfigKey<?>>());
         _scopeLevelConfigsMap.put(ConfigKey.Scope.StoragePool, new HashSet<ConfigKey<?>>());
@@ -201,6 +226,110 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        invalidateConfigCache(key.key(), ConfigKey.Scope.Global, null);
+    }
+
+    /**
+     * Returns the value stored for the key, served from the cache when possible.
+     *
+     * @param key config key to look up
+     * @param id id of the resource for scoped values, null for the global value
+     * @return value in the configuration table (global) or in the scoped storage,
+     *         null if nothing is set
+     */
+    public String getConfigStringValue(ConfigKey<?> key, Long id) {
+        final long now = System.currentTimeMillis();
+        CachedValue cached;
+        if (id == null) {
+            cached = _globalCache.get(key.key());
+        } else {
+            ConcurrentHashMap<Long, CachedValue> values = _scopedCache.get(key.key());
+            cached = values != null ? values.get(id) : null;
+        }
+
+        if (cached != null && now - cached.loaded < _cacheTtl) {
+            _cacheHits.incrementAndGet();
+            return cached.value;
+        }
+
+        _cacheMisses.incrementAndGet();
+        final long version = _cacheVersion.get();
+        String value;
+        if (id == null) {
+            ConfigurationVO vo = _configDao.findById(key.key());
+            value = vo != null ? vo.getValue() : null;
+        } else {
+            value = scoped(key).getConfigValue(id, key);
+        }
+
+        // Only keep what was loaded if nobody invalidated the cache in the meantime,
+        // otherwise we may put back a value that is already outdated.
+        if (_cacheVersion.get() == version) {
+            cached = new CachedValue(value, now);
+            if (id == null) {
+                _globalCache.put(key.key(), cached);
+            } else {
+                ConcurrentHashMap<Long, CachedValue> values = _scopedCache.get(key.key());
+                if (values == null) {
+                    values = new ConcurrentHashMap<Long, CachedValue>();
+                    ConcurrentHashMap<Long, CachedValue> existing = _scopedCache.putIfAbsent(key.key(), values);
+                    if (existing != null) {
+                        values = existing;
+                    }
+                }
+                values.put(id, cached);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void invalidateConfigCache(String key, ConfigKey.Scope scope, Long id) {
+        _cacheVersion.incrementAndGet();
+        _cacheInvalidations.incrementAndGet();
+        if (scope == null || scope == ConfigKey.Scope.Global) {
+            _globalCache.remove(key);
+        } else if (id == null) {
+            _scopedCache.remove(key);
+        } else {
+            ConcurrentHashMap<Long, CachedValue> values = _scopedCache.get(key);
+            if (values != null) {
+                values.remove(id);
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Invalidated cached config " + key + (id != null ? " for " + scope + " " + id : "") + ", cache version is now " + _cacheVersion.get());
+        }
+    }
+
+    @Override
+    public void invalidateConfigCache() {
+        _cacheVersion.incrementAndGet();
+        _cacheInvalidations.incrementAndGet();
+        _globalCache.clear();
+        _scopedCache.clear();
+    }
+
+    public long getCacheTtl() {
+        return _cacheTtl / 1000L;
+    }
+
+    /**
+     * @param cacheTtl seconds a cached value may be served before it is reloaded from the database
+     */
+    public void setCacheTtl(long cacheTtl) {
+        _cacheTtl = cacheTtl * 1000L;
+    }
+
+    protected static class CachedValue {
+        final String value;
+        final long loaded;
+
+        CachedValue(String value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
     }
 
     @Override
@@ -0,0 +1,113 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.ScopedConfigStorage;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+
+public class ConfigDepotImplTest {
+    private final static ConfigKey<Integer> GlobalIntCK = new ConfigKey<Integer>(Integer.class, "cachedIntKey", "Advance", "10", "Test Key", true);
+    private final static ConfigKey<Integer> ZoneIntCK = new ConfigKey<Integer>(Integer.class, "cachedZoneIntKey", "Advance", "10", "Test Key", true,
+            ConfigKey.Scope.Zone, null);
+
+    @Mock
+    ConfigurationDao _configDao;
+
+    @Mock
+    ScopedConfigStorage _scopedStorage;
+
+    ConfigDepotImpl _depot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        _depot = new ConfigDepotImpl();
+        _depot._configDao = _configDao;
+        _depot._scopedStorages = new ArrayList<ScopedConfigStorage>();
+        _depot._scopedStorages.add(_scopedStorage);
+        when(_scopedStorage.getScope()).thenReturn(ConfigKey.Scope.Zone);
+    }
+
+    @Test
+    public void testGlobalValueIsCached() {
+        ConfigurationVO vo = new ConfigurationVO("UnitTestComponent", GlobalIntCK);
+        vo.setValue("20");
+        when(_configDao.findById(GlobalIntCK.key())).thenReturn(vo);
+
+        Assert.assertEquals(Integer.valueOf(20), GlobalIntCK.value());
+        Assert.assertEquals(Integer.valueOf(20), GlobalIntCK.value());
+
+        verify(_configDao, times(1)).findById(GlobalIntCK.key());
+        Assert.assertEquals(1, _depot._cacheMisses.get());
+        Assert.assertEquals(1, _depot._cacheHits.get());
+    }
+
+    @Test
+    public void testInvalidateReloadsGlobalValue() {
+        ConfigurationVO vo = new ConfigurationVO("UnitTestComponent", GlobalIntCK);
+        vo.setValue("20");
+        when(_configDao.findById(GlobalIntCK.key())).thenReturn(vo);
+        Assert.assertEquals(Integer.valueOf(20), GlobalIntCK.value());
+
+        vo.setValue("30");
+        Assert.assertEquals(Integer.valueOf(20), GlobalIntCK.value());
+
+        _depot.invalidateConfigCache(GlobalIntCK.key(), ConfigKey.Scope.Global, null);
+        Assert.assertEquals(Integer.valueOf(30), GlobalIntCK.value());
+        verify(_configDao, times(2)).findById(GlobalIntCK.key());
+    }
+
+    @Test
+    public void testExpiredValueIsReloaded() {
+        when(_configDao.findById(GlobalIntCK.key())).thenReturn(null);
+        _depot.setCacheTtl(0);
+
+        Assert.assertEquals(Integer.valueOf(10), GlobalIntCK.value());
+        Assert.assertEquals(Integer.valueOf(10), GlobalIntCK.value());
+        verify(_configDao, times(2)).findById(GlobalIntCK.key());
+    }
+
+    @Test
+    public void testScopedValueIsCachedPerResource() {
+        when(_scopedStorage.getConfigValue(1L, ZoneIntCK)).thenReturn("40");
+        when(_scopedStorage.getConfigValue(2L, ZoneIntCK)).thenReturn("50");
+
+        Assert.assertEquals(Integer.valueOf(40), ZoneIntCK.valueIn(1L));
+        Assert.assertEquals(Integer.valueOf(50), ZoneIntCK.valueIn(2L));
+        Assert.assertEquals(Integer.valueOf(40), ZoneIntCK.valueIn(1L));
+        verify(_scopedStorage, times(1)).getConfigValue(1L, ZoneIntCK);
+
+        when(_scopedStorage.getConfigValue(1L, ZoneIntCK)).thenReturn("45");
+        _depot.invalidateConfigCache(ZoneIntCK.key(), ConfigKey.Scope.Zone, 1L);
+        Assert.assertEquals(Integer.valueOf(45), ZoneIntCK.valueIn(1L));
+        Assert.assertEquals(Integer.valueOf(50), ZoneIntCK.valueIn(2L));
+        verify(_scopedStorage, times(1)).getConfigValue(2L, ZoneIntCK);
+    }
+}
@@ -0,0 +1,223 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.apache.log4j.Logger;
+
+/**
+ * Hands out the free rows of an allocation table, like private ips or vnets, from blocks this management server
+ * claimed in advance.
+ *
+ * Locking a free row to take it makes every allocation in the same pod or physical network queue up on the same rows,
+ * and concurrent allocations deadlock on them. Instead, a block of free rows is marked with a claim id by one update
+ * that runs in its own short transaction, and the ids are kept in memory for each key. Handing out an id does not
+ * touch the database. The caller takes the row with a conditional update of that row alone. The update fails if the
+ * row was taken some other way in the meantime, and then the caller asks for the next id.
+ *
+ * The claim is only a hint that keeps management servers from working on the same rows, the free condition of the
+ * conditional update is what keeps two allocations from getting the same row. The table needs a claim column that
+ * taking a row resets to null. Claims of a management server are cleared when it stops, starts, or leaves the cluster.
+ */
+public class ClaimedBlockAllocator {
+    private static final Logger s_logger = Logger.getLogger(ClaimedBlockAllocator.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+
+    private final String _table;
+    private final String _keyColumn;
+    private final String _freeCondition;
+    private volatile int _blockSize;
+
+    private final ConcurrentHashMap<Long, Queue<Long>> _blocks = new ConcurrentHashMap<Long, Queue<Long>>();
+    private final AtomicLong _claimSequence = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong _claims = new AtomicLong();
+    private final AtomicLong _claimedRows = new AtomicLong();
+    private final AtomicLong _handedOut = new AtomicLong();
+
+    /**
+     * @param table table in the cloud database, with an id and a claim column.
+     * @param keyColumn column the blocks are claimed by, like the pod or the physical network.
+     * @param freeCondition sql condition a row has to meet to be claimed.
+     * @param blockSize rows claimed at a time, 0 to not claim any.
+     */
+    public ClaimedBlockAllocator(final String table, final String keyColumn, final String freeCondition, final int blockSize) {
+        _table = table;
+        _keyColumn = keyColumn;
+        _freeCondition = freeCondition;
+        _blockSize = blockSize;
+    }
+
+    /**
+     * @return id of a row claimed for the key, it was free when it got claimed. null if there is no free row left to
+     *         claim, the last ones may be claimed by other management servers though.
+     */
+    public Long next(final long key) {
+        final int blockSize = _blockSize;
+        if (blockSize <= 0) {
+            return null;
+        }
+
+        final Queue<Long> block = getBlock(key);
+        Long id = block.poll();
+        if (id == null) {
+            synchronized (block) {
+                id = block.poll();
+                if (id == null) {
+                    final List<Long> ids = claim(key, ManagementServerNode.getManagementServerId() + "-" + _claimSequence.incrementAndGet(), blockSize);
+                    _claims.incrementAndGet();
+                    _claimedRows.addAndGet(ids.size());
+                    block.addAll(ids);
+                    id = block.poll();
+                }
+            }
+        }
+        if (id != null) {
+            _handedOut.incrementAndGet();
+        }
+        return id;
+    }
+
+    /**
+     * Puts the id back into the block of the key if the transaction in progress, the one that took the row, is rolled
+     * back. The row is then free again and still claimed by this management server, so it would not be handed out
+     * again otherwise until the claims are released.
+     */
+    public void putBackOnRollback(final long key, final long id) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn == null) {
+            return;
+        }
+        txn.runAfterRollback(new Runnable() {
+            @Override
+            public void run() {
+                getBlock(key).add(id);
+                _handedOut.decrementAndGet();
+            }
+        });
+    }
+
+    private Queue<Long> getBlock(final long key) {
+        Queue<Long> block = _blocks.get(key);
+        if (block == null) {
+            final Queue<Long> created = new ConcurrentLinkedQueue<Long>();
+            block = _blocks.putIfAbsent(key, created);
+            if (block == null) {
+                block = created;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Marks up to count free rows of the key with the claim id and returns their ids.
+     */
+    protected List<Long> claim(final long key, final String claimId, final int count) {
+        final List<Long> ids = new ArrayList<Long>();
+        try (Connection conn = TransactionLegacy.getStandaloneConnectionWithException()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement pstmt = conn.prepareStatement("UPDATE `cloud`.`" + _table + "` SET claim=? WHERE " + _keyColumn + "=? AND claim IS NULL AND " +
+                        _freeCondition + " LIMIT ?")) {
+                    pstmt.setString(1, claimId);
+                    pstmt.setLong(2, key);
+                    pstmt.setInt(3, count);
+                    pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM `cloud`.`" + _table + "` WHERE claim=? AND " + _freeCondition)) {
+                    pstmt.setString(1, claimId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getLong(1));
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (final SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (final SQLException e) {
+            s_logger.warn("Unable to claim free rows of " + _table + " for " + _keyColumn + " " + key, e);
+            ids.clear();
+        }
+        return ids;
+    }
+
+    /**
+     * Clears the claims of a management server so that the other servers can hand its rows out. The blocks held in
+     * memory are dropped if the claims are those of this server.
+     */
+    public void releaseClaims(final long msid) {
+        if (msid == ManagementServerNode.getManagementServerId()) {
+            _blocks.clear();
+        }
+        try (Connection conn = TransactionLegacy.getStandaloneConnectionWithException();
+                PreparedStatement pstmt = conn.prepareStatement("UPDATE `cloud`.`" + _table + "` SET claim=NULL WHERE claim LIKE ?")) {
+            conn.setAutoCommit(true);
+            pstmt.setString(1, msid + "-%");
+            final int released = pstmt.executeUpdate();
+            if (released > 0 && s_logger.isDebugEnabled()) {
+                s_logger.debug("Released " + released + " rows of " + _table + " claimed by management server " + msid);
+            }
+        } catch (final SQLException e) {
+            s_logger.warn("Unable to release the rows of " + _table + " claimed by management server " + msid, e);
+        }
+    }
+
+    public int getBlockSize() {
+        return _blockSize;
+    }
+
+    public void setBlockSize(final int blockSize) {
+        _blockSize = blockSize;
+    }
+
+    /**
+     * @return ids claimed and not handed out yet.
+     */
+    public int getHeld() {
+        int held = 0;
+        for (final Queue<Long> block : _blocks.values()) {
+            held += block.size();
+        }
+        return held;
+    }
+
+    public long getClaims() {
+        return _claims.get();
+    }
+
+    public long getClaimedRows() {
+        return _claimedRows.get();
+    }
+
+    public long getHandedOut() {
+        return _handedOut.get();
+    }
+}
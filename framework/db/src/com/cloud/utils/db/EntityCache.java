@@ -0,0 +1,44 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps the entities a DAO finds by id in a cache, for reference data that is read all the time and rarely changes.
+ *
+ * The cache is kept coherent across the management servers: changes made through any DAO of the cached tables evict
+ * the entity here and on the peers once they are committed. Changes made with plain SQL are only picked up when the
+ * entry expires. A cache.size parameter given to the DAO overrides the size set here.
+ */
+@Target(TYPE)
+@Retention(RUNTIME)
+public @interface EntityCache {
+    /**
+     * @return maximum number of entities kept.
+     */
+    int size() default 1000;
+
+    /**
+     * @return seconds an entity is kept before it is read again.
+     */
+    int timeToLive() default 600;
+}
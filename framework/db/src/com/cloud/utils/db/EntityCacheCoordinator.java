@@ -0,0 +1,128 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.StringUtils;
+
+/**
+ * Keeps the entity caches of the DAOs coherent.
+ *
+ * A change committed through a DAO evicts the entity from the caches of the other DAOs mapped to one of its tables,
+ * and is passed on to the peers through the {@link PeerNotifier}, the cluster manager sets one up when it starts.
+ * The peers hand the messages they receive to {@link #invalidateFromPeer(String)}.
+ */
+public class EntityCacheCoordinator {
+    private static final Logger s_logger = Logger.getLogger(EntityCacheCoordinator.class);
+
+    public static final String MESSAGE_INVALIDATED = "EntityCache.Invalidated";
+
+    private static final EntityCacheCoordinator s_instance = new EntityCacheCoordinator();
+
+    public interface PeerNotifier {
+        void notifyPeers(String message);
+    }
+
+    private final List<GenericDaoBase<?, ?>> _daos = new CopyOnWriteArrayList<GenericDaoBase<?, ?>>();
+    private volatile PeerNotifier _peerNotifier;
+
+    public static EntityCacheCoordinator getInstance() {
+        return s_instance;
+    }
+
+    public void setPeerNotifier(final PeerNotifier peerNotifier) {
+        _peerNotifier = peerNotifier;
+    }
+
+    void register(final GenericDaoBase<?, ?> dao) {
+        if (!_daos.contains(dao)) {
+            _daos.add(dao);
+        }
+    }
+
+    /**
+     * @return true if the entities of one of the tables are cached by another DAO than the given one.
+     */
+    boolean isCachedElsewhere(final GenericDaoBase<?, ?> dao) {
+        for (final GenericDaoBase<?, ?> cached : _daos) {
+            if (cached != dao && mapsAny(cached, dao.getCacheTables())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once a change made through the DAO is committed or rolled back.
+     *
+     * @param id of the changed entity, null if any entity of the tables may have changed.
+     */
+    void invalidated(final GenericDaoBase<?, ?> dao, final Object id) {
+        final Collection<String> tables = dao.getCacheTables();
+        final String key = id == null ? null : id.toString();
+        for (final GenericDaoBase<?, ?> cached : _daos) {
+            if (cached != dao && mapsAny(cached, tables)) {
+                cached.evictFromCache(key);
+            }
+        }
+
+        final PeerNotifier notifier = _peerNotifier;
+        if (notifier != null) {
+            try {
+                notifier.notifyPeers(System.currentTimeMillis() + ":" + StringUtils.join(tables, ",") + ":" + (key == null ? "" : key));
+            } catch (final Exception e) {
+                s_logger.warn("Unable to notify the peers of the change to " + tables, e);
+            }
+        }
+    }
+
+    /**
+     * Evicts what changed on a peer, the message is the one handed to the {@link PeerNotifier} there.
+     */
+    public void invalidateFromPeer(final String message) {
+        final String[] parts = message.split(":", 3);
+        if (parts.length != 3) {
+            s_logger.warn("Ignoring malformed entity cache invalidation: " + message);
+            return;
+        }
+
+        final long latency = System.currentTimeMillis() - Long.parseLong(parts[0]);
+        final List<String> tables = Arrays.asList(parts[1].split(","));
+        final String key = parts[2].isEmpty() ? null : parts[2];
+        for (final GenericDaoBase<?, ?> cached : _daos) {
+            if (mapsAny(cached, tables)) {
+                cached.evictFromCache(key);
+                cached.getCacheStatistics().peerInvalidated(latency);
+            }
+        }
+    }
+
+    private static boolean mapsAny(final GenericDaoBase<?, ?> dao, final Collection<String> tables) {
+        for (final String table : tables) {
+            if (dao.getCacheTables().contains(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import javax.management.StandardMBean;
+
+import net.sf.ehcache.Cache;
+
+public class EntityCacheMBeanImpl extends StandardMBean implements EntityCacheMBean {
+    private final Cache _cache;
+    private final EntityCacheStatistics _statistics;
+
+    public EntityCacheMBeanImpl(final Cache cache, final EntityCacheStatistics statistics) {
+        super(EntityCacheMBean.class, false);
+        _cache = cache;
+        _statistics = statistics;
+    }
+
+    @Override
+    public String getName() {
+        return _cache.getName();
+    }
+
+    @Override
+    public int getSize() {
+        return _cache.getSize();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return _cache.getCacheConfiguration().getMaxEntriesLocalHeap();
+    }
+
+    @Override
+    public long getTimeToLive() {
+        return _cache.getCacheConfiguration().getTimeToLiveSeconds();
+    }
+
+    @Override
+    public long getHits() {
+        return _statistics.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return _statistics.getMisses();
+    }
+
+    @Override
+    public double getHitRate() {
+        return _statistics.getHitRate();
+    }
+
+    @Override
+    public long getEvictions() {
+        return _statistics.getEvictions();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return _statistics.getInvalidations();
+    }
+
+    @Override
+    public long getPeerInvalidations() {
+        return _statistics.getPeerInvalidations();
+    }
+
+    @Override
+    public long getAveragePeerInvalidationMillis() {
+        return _statistics.getAveragePeerInvalidationMillis();
+    }
+
+    @Override
+    public long getMaxPeerInvalidationMillis() {
+        return _statistics.getMaxPeerInvalidationMillis();
+    }
+
+    @Override
+    public void clear() {
+        _cache.removeAll();
+    }
+}
@@ -0,0 +1,107 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the entity cache of a DAO.
+ */
+public class EntityCacheStatistics {
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _peerInvalidations = new AtomicLong();
+    private final AtomicLong _peerInvalidationMillis = new AtomicLong();
+    private final AtomicLong _maxPeerInvalidationMillis = new AtomicLong();
+
+    void hit() {
+        _hits.incrementAndGet();
+    }
+
+    void miss() {
+        _misses.incrementAndGet();
+    }
+
+    /**
+     * An entry was dropped because the cache was full or the entry expired.
+     */
+    void evicted() {
+        _evictions.incrementAndGet();
+    }
+
+    /**
+     * An entry was dropped because a change was committed on this management server.
+     */
+    void invalidated() {
+        _invalidations.incrementAndGet();
+    }
+
+    /**
+     * An entry was dropped because a change was committed on a peer.
+     *
+     * @param millis time between the commit on the peer and the eviction here.
+     */
+    void peerInvalidated(final long millis) {
+        _peerInvalidations.incrementAndGet();
+        final long latency = Math.max(0, millis);
+        _peerInvalidationMillis.addAndGet(latency);
+        long max = _maxPeerInvalidationMillis.get();
+        while (latency > max && !_maxPeerInvalidationMillis.compareAndSet(max, latency)) {
+            max = _maxPeerInvalidationMillis.get();
+        }
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * @return percentage of the lookups served from the cache.
+     */
+    public double getHitRate() {
+        final long hits = _hits.get();
+        final long lookups = hits + _misses.get();
+        return lookups == 0 ? 0 : hits * 100.0 / lookups;
+    }
+
+    public long getEvictions() {
+        return _evictions.get();
+    }
+
+    public long getInvalidations() {
+        return _invalidations.get();
+    }
+
+    public long getPeerInvalidations() {
+        return _peerInvalidations.get();
+    }
+
+    public long getAveragePeerInvalidationMillis() {
+        final long count = _peerInvalidations.get();
+        return count == 0 ? 0 : _peerInvalidationMillis.get() / count;
+    }
+
+    public long getMaxPeerInvalidationMillis() {
+        return _maxPeerInvalidationMillis.get();
+    }
+}
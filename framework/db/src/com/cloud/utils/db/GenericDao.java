@@ -199,6 +199,22 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans, sending the inserts to the database in
+     * batches.  The id field of each entity is updated with its new id but
+     * unlike persist the rows are not read back.
+     * @param entities the beans to persist.
+     **/
+    void persistAll(List<T> entities);
+
+    /**
+     * Update the entity beans, entities with the same changes are updated
+     * in one batch.
+     * @param entities beans created by this dao and then changed.
+     * @return rows updated.
+     */
+    int updateAll(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -222,6 +238,13 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     boolean expunge(ID id);
 
+    /**
+     * Expunge the rows in batches.
+     * @param ids
+     * @return rows deleted.
+     */
+    int expungeAll(List<ID> ids);
+
     /**
      * remove the entity bean specified by the search criteria
      * @param sc
@@ -275,5 +298,19 @@ public interface GenericDao<T, ID extends Serializable> {
      */
     Pair<List<T>, Integer> searchAndDistinctCount(final SearchCriteria<T> sc, final Filter filter);
 
+    /**
+     * Keyset paging: returns the rows that follow the given id in the order of the ids, rather than skipping an
+     * offset, so that a deep page costs as much as the first one. The count is the one of all the rows matching sc,
+     * it is kept for a few seconds so that paging through a large result does not count it again for every page.
+     *
+     * @param sc search criteria, the condition on the id is added to it.
+     * @param after id of the last row of the previous page, null for the first page.
+     * @param ascending order of the ids.
+     * @param limit page size, null for all the rows.
+     * @param distinct count distinct ids, for searches on views that have several rows per entity.
+     * @return the page and the count.
+     */
+    Pair<List<T>, Integer> searchAndCountAfter(SearchCriteria<T> sc, ID after, boolean ascending, Long limit, boolean distinct);
+
     Map<String, Attribute> getAllAttributes();
 }
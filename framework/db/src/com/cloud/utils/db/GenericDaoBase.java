@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.MalformedURLException;
@@ -39,11 +40,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
@@ -63,7 +68,9 @@ import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.NoOp;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 
 import org.apache.log4j.Logger;
 
@@ -77,6 +84,7 @@ import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.crypt.DBEncryptionUtil;
 import com.cloud.utils.db.SearchCriteria.SelectType;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.Ip;
 import com.cloud.utils.net.NetUtils;
 
@@ -119,6 +127,13 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
+    // statements sent to the database at once by the batch operations
+    protected final static int BATCH_SIZE = 500;
+
+    // how long the counts of searchAndCountAfter are kept, and how many of them per dao
+    protected final static long COUNT_CACHE_MILLIS = 30000;
+    protected final static int MAX_CACHED_COUNTS = 1000;
+
     protected final static Map<Class<?>, GenericDao<?, ? extends Serializable>> s_daoMaps = new ConcurrentHashMap<Class<?>, GenericDao<?, ? extends Serializable>>(71);
 
     protected Class<T> _entityBeanType;
@@ -148,6 +163,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected Map<String, Attribute> _allAttributes;
     protected List<Attribute> _ecAttributes;
     protected Map<Pair<String, String>, Attribute> _allColumns;
+    protected ResultSetMapper<T> _mapper;
+    protected final Map<String, Pair<Long, Integer>> _cachedCounts = new ConcurrentHashMap<String, Pair<Long, Integer>>();
+    // entities that are only read are handed out without the enhancement that records their changes
+    protected boolean _readOnly;
     protected Enhancer _enhancer;
     protected Factory _factory;
     protected Enhancer _searchEnhancer;
@@ -228,6 +247,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         _allAttributes = generator.getAllAttributes();
         _allColumns = generator.getAllColumns();
+        _mapper = new ResultSetMapper<T>(this, _entityBeanType, _allColumns);
+        _readOnly = _entityBeanType.isAnnotationPresent(ReadOnly.class);
 
         _selectByIdSql = buildSelectByIdSql(createPartialSelectSql(null, true));
         _removeSql = generator.buildRemoveSql();
@@ -787,9 +808,6 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected int update(ID id, UpdateBuilder ub, T entity) {
-        if (_cache != null) {
-            _cache.remove(id);
-        }
         SearchCriteria<T> sc = createSearchCriteria();
         sc.addAnd(_idAttributes.get(_table)[0], SearchCriteria.Op.EQ, id);
         TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -803,7 +821,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Unable to persist element collection", e);
         }
 
-        int rowsUpdated = update(ub, sc, null);
+        int rowsUpdated = doUpdate(ub, sc, null);
+        invalidateCache(id);
 
         txn.commit();
 
@@ -811,6 +830,12 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     public int update(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
+        final int rowsUpdated = doUpdate(ub, sc, rows);
+        invalidateCache(null);
+        return rowsUpdated;
+    }
+
+    private int doUpdate(UpdateBuilder ub, final SearchCriteria<?> sc, Integer rows) {
         StringBuilder sql = null;
         PreparedStatement pstmt = null;
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -940,20 +965,15 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     @DB()
-    @SuppressWarnings("unchecked")
     public T findById(final ID id) {
-        T result = null;
-        if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = lockRow(id, null);
-            } else {
-                result = (T)element.getObjectValue();
-            }
-        } else {
-            result = lockRow(id, null);
+        if (_cache == null) {
+            return lockRow(id, null);
         }
-        return result;
+        final T result = getCached(id);
+        if (result == null) {
+            return findAndCache(id, false);
+        }
+        return isRemoved(result) ? null : result;
     }
 
     @Override
@@ -975,18 +995,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @Override
     @DB()
     public T findByIdIncludingRemoved(final ID id) {
-        T result = null;
-        if (_cache != null) {
-            final Element element = _cache.get(id);
-            if (element == null) {
-                result = findById(id, true, null);
-            } else {
-                result = (T)element.getObjectValue();
-            }
-        } else {
-            result = findById(id, true, null);
+        if (_cache == null) {
+            return findById(id, true, null);
         }
-        return result;
+        final T result = getCached(id);
+        return result == null ? findAndCache(id, true) : result;
     }
 
     @Override
@@ -997,7 +1010,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
 
         if (_cache != null) {
-            _cache.remove(id);
+            evict(id);
         }
         return lockRow(id, null);
     }
@@ -1187,17 +1200,50 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 }
                 pstmt.executeUpdate();
             }
+            invalidateCache(id);
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
     }
 
+    @Override
+    public int expungeAll(final List<ID> ids) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rows = 0;
+        try {
+            txn.start();
+            for (final Pair<String, Attribute[]> deleteSql : _deleteSqls) {
+                final Attribute[] attrs = deleteSql.second();
+
+                pstmt = txn.prepareAutoCloseStatement(deleteSql.first());
+
+                // the rows of the table deleted last are the ones counted
+                rows = 0;
+                for (int i = 0; i < ids.size(); i++) {
+                    for (int j = 0; j < attrs.length; j++) {
+                        prepareAttribute(j + 1, pstmt, attrs[j], ids.get(i));
+                    }
+                    pstmt.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0 || i + 1 == ids.size()) {
+                        rows += executeBatch(pstmt);
+                    }
+                }
+            }
+            for (final ID id : ids) {
+                invalidateCache(id);
+            }
+
+            txn.commit();
+            return rows;
+        } catch (final SQLException e) {
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+    }
+
     // FIXME: Does not work for joins.
     @Override
     public int expunge(final SearchCriteria<T> sc) {
@@ -1223,7 +1269,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            final int rows = pstmt.executeUpdate();
+            invalidateCache(null);
+            return rows;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1325,6 +1373,64 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return new Pair<List<T>, Integer>(objects, count);
     }
 
+    @Override
+    @DB()
+    public Pair<List<T>, Integer> searchAndCountAfter(SearchCriteria<T> sc, final ID after, final boolean ascending, final Long limit, final boolean distinct) {
+        if (sc == null) {
+            sc = createSearchCriteria();
+        }
+        if (_removed != null) {
+            sc.addAnd(_removed.second().field.getName(), SearchCriteria.Op.NULL);
+        }
+        final Integer count = getCachedCount(sc, distinct);
+        if (after != null) {
+            sc.addAnd(_idAttributes.get(_table)[0], ascending ? SearchCriteria.Op.GT : SearchCriteria.Op.LT, after);
+        }
+        final Filter filter = new Filter(_entityBeanType, _idField.getName(), ascending, limit != null ? 0L : null, limit);
+        final List<T> objects = searchIncludingRemoved(sc, filter, null, false);
+        return new Pair<List<T>, Integer>(objects, count);
+    }
+
+    /**
+     * Counts are keyed by the where clause and the values bound to it, joins included, so the same search by the
+     * same caller finds the count of the previous page.
+     */
+    protected Integer getCachedCount(final SearchCriteria<T> sc, final boolean distinct) {
+        final StringBuilder key = new StringBuilder(distinct ? "D " : "C ");
+        appendCountKey(key, sc);
+        final long now = System.currentTimeMillis();
+        final Pair<Long, Integer> cached = _cachedCounts.get(key.toString());
+        if (cached != null && cached.first() > now) {
+            return cached.second();
+        }
+
+        final Integer count = distinct ? getDistinctCount(sc) : getCount(sc);
+        if (_cachedCounts.size() >= MAX_CACHED_COUNTS) {
+            _cachedCounts.clear();
+        }
+        _cachedCounts.put(key.toString(), new Pair<Long, Integer>(now + COUNT_CACHE_MILLIS, count));
+        return count;
+    }
+
+    private static void appendCountKey(final StringBuilder key, final SearchCriteria<?> sc) {
+        key.append(sc.getWhereClause());
+        for (final Pair<Attribute, Object> value : sc.getValues()) {
+            final Object obj = value.second();
+            final String str = obj instanceof Object[] ? Arrays.deepToString((Object[])obj) : String.valueOf(obj);
+            key.append(' ').append(str.length()).append(':').append(str);
+        }
+        final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+        if (joins != null) {
+            for (final JoinBuilder<SearchCriteria<?>> join : joins) {
+                key.append(' ').append(join.getType().getName()).append(' ').append(join.getSecondAttribute().table).append('.')
+                    .append(join.getSecondAttribute().columnName).append('=').append(join.getFirstAttribute().table).append('.')
+                    .append(join.getFirstAttribute().columnName).append(" (");
+                appendCountKey(key, join.getT());
+                key.append(')');
+            }
+        }
+    }
+
     @Override
     @DB()
     public List<T> search(final SearchCriteria<T> sc, final Filter filter, final boolean enableQueryCache) {
@@ -1347,6 +1453,70 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return update(ub, sc, rows);
     }
 
+    @Override
+    public int updateAll(final List<T> entities) {
+        final Attribute idAttribute = _idAttributes.get(_table)[0];
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        int rows = 0;
+        try {
+            txn.start();
+
+            // entities that changed the same columns share the statement, only the values differ
+            final Map<String, List<T>> batches = new LinkedHashMap<String, List<T>>();
+            for (final T entity : entities) {
+                assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+                final UpdateBuilder ub = getUpdateBuilder(entity);
+                if (ub.getCollectionChanges() != null) {
+                    rows += update(getId(entity), ub, entity);
+                    continue;
+                }
+                final StringBuilder sql = ub.toSql(_tables);
+                if (sql == null) {
+                    continue;
+                }
+                List<T> batch = batches.get(sql.toString());
+                if (batch == null) {
+                    batch = new ArrayList<T>();
+                    batches.put(sql.toString(), batch);
+                }
+                batch.add(entity);
+            }
+
+            for (final Map.Entry<String, List<T>> batch : batches.entrySet()) {
+                final List<T> batched = batch.getValue();
+                final SearchCriteria<T> sc = createSearchCriteria();
+                sc.addAnd(idAttribute, SearchCriteria.Op.EQ, getId(batched.get(0)));
+                pstmt = txn.prepareAutoCloseStatement(batch.getKey() + sc.getWhereClause());
+                for (int i = 0; i < batched.size(); i++) {
+                    final T entity = batched.get(i);
+                    final UpdateBuilder ub = getUpdateBuilder(entity);
+                    int index = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : ub.getChanges()) {
+                        prepareAttribute(index++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(index, pstmt, idAttribute, getId(entity));
+                    pstmt.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0 || i + 1 == batched.size()) {
+                        rows += executeBatch(pstmt);
+                    }
+                }
+                for (final T entity : batched) {
+                    getUpdateBuilder(entity).clear();
+                    invalidateCache(getId(entity));
+                }
+            }
+
+            txn.commit();
+            return rows;
+        } catch (final SQLException e) {
+            if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+    }
+
     @Override
     @DB()
     public int update(final T entity, final SearchCriteria<T> sc) {
@@ -1435,6 +1605,106 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    public void persistAll(final List<T> entities) {
+        final List<T> created = new ArrayList<T>(entities.size());
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                persist(entity);
+            } else {
+                created.add(entity);
+            }
+        }
+        if (created.isEmpty()) {
+            return;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            // the ids generated by the first table are set on the entities before the rows of the other tables go in
+            boolean first = true;
+            for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                final Attribute[] attrs = pair.second();
+
+                pstmt = first ? txn.prepareAutoCloseStatement(pair.first(), Statement.RETURN_GENERATED_KEYS) : txn.prepareAutoCloseStatement(pair.first());
+
+                int from = 0;
+                for (int i = 0; i < created.size(); i++) {
+                    prepareAttributes(pstmt, created.get(i), attrs, 1);
+                    pstmt.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0 || i + 1 == created.size()) {
+                        pstmt.executeBatch();
+                        if (first && _idField != null) {
+                            setGeneratedIds(pstmt, created.subList(from, i + 1));
+                        }
+                        from = i + 1;
+                    }
+                }
+                first = false;
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                for (final T entity : created) {
+                    HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+                    for (Attribute attr : _ecAttributes) {
+                        Object ec = attr.field.get(entity);
+                        if (ec != null) {
+                            ecAttributes.put(attr, ec);
+                        }
+                    }
+
+                    insertElementCollection(entity, _idAttributes.get(_table)[0], getId(entity), ecAttributes);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        }
+    }
+
+    private void setGeneratedIds(final PreparedStatement pstmt, final List<T> entities) throws SQLException, IllegalAccessException {
+        final ResultSet rs = pstmt.getGeneratedKeys();
+        if (rs == null) {
+            return;
+        }
+        for (final T entity : entities) {
+            if (!rs.next()) {
+                return;
+            }
+            _idField.set(entity, rs.getObject(1));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ID getId(final T entity) {
+        try {
+            return (ID)_idField.get(entity);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("How can it be illegal access...come on", e);
+        }
+    }
+
+    /**
+     * @return rows changed by the statements of the batch, a statement that changed an unknown number of rows counts as one.
+     */
+    private static int executeBatch(final PreparedStatement pstmt) throws SQLException {
+        int rows = 0;
+        for (final int count : pstmt.executeBatch()) {
+            rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return rows;
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1616,49 +1886,24 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
-        final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        final T entity = _readOnly ? _mapper.newInstance() : (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
-        }
-
         return entity;
     }
 
     @DB()
     protected T toVO(ResultSet result, boolean cache) throws SQLException {
-        T entity;
-        try {
-            entity = _entityBeanType.newInstance();
-        } catch (InstantiationException e1) {
-            throw new CloudRuntimeException("Unable to instantiate entity", e1);
-        } catch (IllegalAccessException e1) {
-            throw new CloudRuntimeException("Illegal Access", e1);
-        }
+        T entity = _mapper.newInstance();
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
-        }
 
         return entity;
     }
 
     @DB()
     protected void toEntityBean(final ResultSet result, final T entity) throws SQLException {
-        ResultSetMetaData meta = result.getMetaData();
-        for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
-            setField(entity, result, meta, index);
-        }
+        _mapper.fill(result, entity);
         for (Attribute attr : _ecAttributes) {
             loadCollection(entity, attr);
         }
@@ -1750,6 +1995,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             pstmt = txn.prepareAutoCloseStatement(sql.toString());
 
             pstmt.executeUpdate();
+            invalidateCache(null);
             txn.commit();
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on " + pstmt, e);
@@ -1789,10 +2035,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             final int result = pstmt.executeUpdate();
+            invalidateCache(id);
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1813,24 +2057,219 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected Cache _cache;
+    protected EntityCacheStatistics _cacheStatistics;
+    private Field[] _cacheFields;
+    // bumped before entries are evicted, so that a lookup racing with a change does not cache what it read
+    private final AtomicLong _cacheGeneration = new AtomicLong();
+    private EntityCacheCoordinator _cacheCoordinator = EntityCacheCoordinator.getInstance();
 
+    /**
+     * The cache is set up from the cache.size, cache.time.to.live and cache.time.to.idle parameters if given, from the
+     * {@link EntityCache} annotation of the DAO otherwise.
+     */
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
         final String value = (String)params.get("cache.size");
+        final EntityCache annotation = getClass().getAnnotation(EntityCache.class);
 
-        if (value != null) {
+        if (value != null || annotation != null) {
             final CacheManager cm = CacheManager.create();
-            final int maxElements = NumbersUtil.parseInt(value, 0);
-            final int live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
-            final int idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
-            _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
+            final int maxElements;
+            final int live;
+            final int idle;
+            if (value != null) {
+                maxElements = NumbersUtil.parseInt(value, 0);
+                live = NumbersUtil.parseInt((String)params.get("cache.time.to.live"), 300);
+                idle = NumbersUtil.parseInt((String)params.get("cache.time.to.idle"), 300);
+            } else {
+                maxElements = annotation.size();
+                live = annotation.timeToLive();
+                idle = 0;
+            }
+            // a DAO may be set up more than once in the same process, by tests in particular
+            String cacheName = getName();
+            for (int i = 2; cm.cacheExists(cacheName); i++) {
+                cacheName = getName() + "-" + i;
+            }
+            _cache = new Cache(cacheName, maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
             cm.addCache(_cache);
             s_logger.info("Cache created: " + _cache.toString());
+
+            _cacheStatistics = new EntityCacheStatistics();
+            _cacheFields = getCacheFields();
+            _cache.getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+                @Override
+                public void notifyElementEvicted(final Ehcache cache, final Element element) {
+                    _cacheStatistics.evicted();
+                }
+
+                @Override
+                public void notifyElementExpired(final Ehcache cache, final Element element) {
+                    _cacheStatistics.evicted();
+                }
+            });
+            _cacheCoordinator.register(this);
+            try {
+                JmxUtil.registerMBean("EntityCache", cacheName, new EntityCacheMBeanImpl(_cache, _cacheStatistics));
+            } catch (final Exception e) {
+                s_logger.error("Failed to register MBean", e);
+            }
         } else {
             _cache = null;
         }
     }
 
+    public EntityCacheStatistics getCacheStatistics() {
+        return _cacheStatistics;
+    }
+
+    protected void setCacheCoordinator(final EntityCacheCoordinator cacheCoordinator) {
+        _cacheCoordinator = cacheCoordinator;
+    }
+
+    Set<String> getCacheTables() {
+        return _idAttributes.keySet();
+    }
+
+    /**
+     * @return a copy of the cached entity, so that callers changing it do not change what the others get.
+     */
+    @SuppressWarnings("unchecked")
+    protected T getCached(final ID id) {
+        final Element element = _cache.get(id);
+        if (element == null) {
+            _cacheStatistics.miss();
+            return null;
+        }
+        _cacheStatistics.hit();
+        return copyOf((T)element.getObjectValue());
+    }
+
+    protected T findAndCache(final ID id, final boolean removed) {
+        final long generation = _cacheGeneration.get();
+        final T result = findById(id, removed, null);
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        // what is read in a transaction may not be committed yet
+        if (result != null && (txn == null || !txn.dbTxnStarted())) {
+            _cache.put(new Element(id, copyOf(result)));
+            if (_cacheGeneration.get() != generation) {
+                _cache.remove(id);
+            }
+        }
+        return result;
+    }
+
+    protected boolean isRemoved(final T entity) {
+        try {
+            return _removed != null && _removed.second().field.get(entity) != null;
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to read " + _removed.second().field, e);
+        }
+    }
+
+    /**
+     * Evicts the entity, or every entity if the id is null, from the caches of this management server right away,
+     * and from the caches of this and the other management servers once the transaction in progress completes.
+     * Called after the change is made, so that what is read in between is evicted again.
+     */
+    protected void invalidateCache(final ID id) {
+        if (_cache != null) {
+            evict(id);
+        } else if (!_cacheCoordinator.isCachedElsewhere(this)) {
+            return;
+        }
+
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (_cache != null) {
+                    evict(id);
+                    _cacheStatistics.invalidated();
+                }
+                _cacheCoordinator.invalidated(GenericDaoBase.this, id);
+            }
+        };
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn == null) {
+            task.run();
+        } else {
+            txn.runAfterCompletion(task);
+        }
+    }
+
+    private void evict(final Object key) {
+        _cacheGeneration.incrementAndGet();
+        if (key == null) {
+            _cache.removeAll();
+        } else {
+            _cache.remove(key);
+        }
+    }
+
+    /**
+     * Evicts an entity changed through another DAO.
+     *
+     * @param id string form of the id, null to evict every entity.
+     */
+    void evictFromCache(final String id) {
+        if (_cache == null) {
+            return;
+        }
+        // ids of other types evict everything
+        final Class<?> type = _idField.getType();
+        Object key = null;
+        if (id != null) {
+            try {
+                if (type == Long.class || type == long.class) {
+                    key = Long.valueOf(id);
+                } else if (type == Integer.class || type == int.class) {
+                    key = Integer.valueOf(id);
+                } else if (type == String.class) {
+                    key = id;
+                }
+            } catch (final NumberFormatException e) {
+                s_logger.debug("Evicting all of " + getName() + " for id " + id);
+            }
+        }
+        evict(key);
+    }
+
+    private Field[] getCacheFields() {
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = _entityBeanType; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T copyOf(final T entity) {
+        final T copy = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
+        try {
+            for (final Field field : _cacheFields) {
+                Object value = field.get(entity);
+                if (value instanceof Date) {
+                    value = ((Date)value).clone();
+                } else if (value instanceof List) {
+                    value = new ArrayList<Object>((List<?>)value);
+                } else if (value instanceof Set) {
+                    value = new HashSet<Object>((Set<?>)value);
+                } else if (value instanceof Map) {
+                    value = new HashMap<Object, Object>((Map<?, ?>)value);
+                }
+                field.set(copy, value);
+            }
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to copy " + entity, e);
+        }
+        return copy;
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -1841,8 +2280,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
         createCache(params);
         final boolean load = Boolean.parseBoolean((String)params.get("cache.preload"));
-        if (load) {
-            listAll();
+        if (load && _cache != null) {
+            for (final T entity : listAll()) {
+                try {
+                    _cache.put(new Element(_idField.get(entity), copyOf(entity)));
+                } catch (final IllegalAccessException e) {
+                    s_logger.debug("Can't put it in the cache", e);
+                }
+            }
         }
 
         return true;
@@ -20,12 +20,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.StandardMBean;
 
@@ -52,6 +54,29 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private static final String SELECT_THREAD_LOCKS_SQL = SELECT_SQL + " WHERE mac=? AND ip=?";
     private static final String CLEANUP_THREAD_LOCKS_SQL = "DELETE FROM op_lock WHERE mac=? AND ip=? AND thread=?";
 
+    // Waiters are woken up as soon as the lock is released on this server or a peer tells us
+    // about a release; the backoff only matters when such a notification is missed.
+    private static final long MIN_WAIT_BACKOFF = 50; // milliseconds
+    private static final long MAX_WAIT_BACKOFF = 2000; // milliseconds
+    private static final int MAX_WAIT_STATS = 1024;
+    private static final String OTHER_LOCKS_STATS_KEY = "*";
+
+    /**
+     * Gets told about lock waits and releases that other management servers may be interested in.
+     */
+    public interface LockWaitListener {
+        /**
+         * Threads on this server started waiting for a lock held by someone else. Called once until the lock is
+         * released, however many threads wait for it.
+         */
+        void onLockWait(String key);
+
+        /**
+         * This server released a lock that threads on other servers are waiting for.
+         */
+        void onLockReleased(String key);
+    }
+
     TimeZone _gmtTimeZone = TimeZone.getTimeZone("GMT");
 
     private final long _msId;
@@ -60,6 +85,12 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     private ConnectionConcierge _concierge = null;
     private static ThreadLocal<Count> s_tls = new ThreadLocal<Count>();
 
+    private final Map<String, LockWaiters> _waiters = new HashMap<String, LockWaiters>();
+    // locks held by this server, the value tells whether threads on other servers wait for it
+    private final ConcurrentHashMap<String, Boolean> _heldLocks = new ConcurrentHashMap<String, Boolean>();
+    private final Map<String, LockWaitStats> _waitStats = new HashMap<String, LockWaitStats>();
+    private volatile LockWaitListener _lockWaitListener;
+
     private Merovingian2(long msId) {
         super(MerovingianMBean.class, false);
         _msId = msId;
@@ -126,31 +157,140 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Acquiring lck-" + key + " with wait time of " + timeInSeconds);
         }
-        long startTime = InaccurateClock.getTime();
+        long startTime = System.currentTimeMillis();
+        long backoff = MIN_WAIT_BACKOFF;
+        LockWaiters waiters = null;
+        boolean acquired = false;
 
-        while ((InaccurateClock.getTime() - startTime) < (timeInSeconds * 1000l)) {
-            int count = owns(key);
+        try {
+            while ((System.currentTimeMillis() - startTime) < (timeInSeconds * 1000l)) {
+                long generation = waiters != null ? waiters.getGeneration() : 0;
+                int count = owns(key);
+
+                if (count >= 1) {
+                    acquired = increment(key, threadName, threadId);
+                    return acquired;
+                } else if (count == 0) {
+                    if (doAcquire(key, threadName, threadId)) {
+                        acquired = true;
+                        return true;
+                    }
+                }
 
-            if (count >= 1) {
-                return increment(key, threadName, threadId);
-            } else if (count == 0) {
-                if (doAcquire(key, threadName, threadId)) {
-                    return true;
+                if (waiters == null) {
+                    // Try once more right after registering so that a release in between is not missed.
+                    waiters = addWaiter(key);
+                    continue;
                 }
-            }
-            try {
+
+                // The holder is told once per release that threads here wait, not once per waiting thread.
+                LockWaitListener listener = _lockWaitListener;
+                if (listener != null && waiters.announce(generation)) {
+                    listener.onLockWait(key);
+                }
+
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Sleeping more time while waiting for lck-" + key);
+                    s_logger.trace("Waiting up to " + backoff + "ms for lck-" + key + " to be released");
                 }
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                s_logger.debug("[ignored] interupted while aquiring " + key);
+                waiters.await(generation, backoff);
+                backoff = Math.min(backoff * 2, MAX_WAIT_BACKOFF);
+            }
+            String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((System.currentTimeMillis() - startTime)/1000) +  "seconds";
+            Exception e = new CloudRuntimeException(msg);
+            s_logger.warn(msg, e);
+            return false;
+        } finally {
+            if (waiters != null) {
+                removeWaiter(key, waiters);
             }
+            recordWait(key, System.currentTimeMillis() - startTime, acquired);
+        }
+    }
+
+    protected LockWaiters addWaiter(String key) {
+        synchronized (_waiters) {
+            LockWaiters waiters = _waiters.get(key);
+            if (waiters == null) {
+                waiters = new LockWaiters();
+                _waiters.put(key, waiters);
+            }
+            waiters.count++;
+            return waiters;
+        }
+    }
+
+    protected void removeWaiter(String key, LockWaiters waiters) {
+        synchronized (_waiters) {
+            waiters.count--;
+            if (waiters.count == 0) {
+                _waiters.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Wakes up the threads on this server that are waiting for the lock.
+     * Called on local releases and when a peer tells us it released the lock.
+     */
+    public void wakeupWaiters(String key) {
+        LockWaiters waiters;
+        synchronized (_waiters) {
+            waiters = _waiters.get(key);
+        }
+        if (waiters != null) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Waking up waiters of lck-" + key);
+            }
+            waiters.signal();
+        }
+    }
+
+    /**
+     * A thread on another server waits for the lock, so tell it when we release the lock.
+     */
+    public void onRemoteWait(String key) {
+        _heldLocks.replace(key, Boolean.FALSE, Boolean.TRUE);
+    }
+
+    public void setLockWaitListener(LockWaitListener listener) {
+        _lockWaitListener = listener;
+    }
+
+    protected void recordWait(String key, long waitTime, boolean acquired) {
+        synchronized (_waitStats) {
+            LockWaitStats stats = _waitStats.get(key);
+            if (stats == null) {
+                if (_waitStats.size() >= MAX_WAIT_STATS) {
+                    key = OTHER_LOCKS_STATS_KEY;
+                    stats = _waitStats.get(key);
+                }
+                if (stats == null) {
+                    stats = new LockWaitStats();
+                    _waitStats.put(key, stats);
+                }
+            }
+            stats.record(waitTime, acquired);
+        }
+    }
+
+    @Override
+    public List<Map<String, String>> getLockWaitTimes() {
+        List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+        synchronized (_waitStats) {
+            for (Map.Entry<String, LockWaitStats> entry : _waitStats.entrySet()) {
+                Map<String, String> map = entry.getValue().toMap();
+                map.put("key", entry.getKey());
+                results.add(map);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void resetLockWaitTimes() {
+        synchronized (_waitStats) {
+            _waitStats.clear();
         }
-        String msg = "Timed out on acquiring lock " + key + " .  Waited for " + ((InaccurateClock.getTime() - startTime)/1000) +  "seconds";
-        Exception e = new CloudRuntimeException(msg);
-        s_logger.warn(msg, e);
-        return false;
     }
 
     protected boolean increment(String key, String threadName, int threadId) {
@@ -189,6 +329,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     if (s_logger.isTraceEnabled()) {
                         s_logger.trace("Acquired for lck-" + key);
                     }
+                    _heldLocks.put(key, Boolean.FALSE);
                     incrCount();
                     return true;
                 }
@@ -226,6 +367,7 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     }
 
     public void cleanupThisServer() {
+        _heldLocks.clear();
         cleanupForServer(_msId);
     }
 
@@ -270,8 +412,11 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
                     rel_sql_pstmt.setString(1, key);
                     rel_sql_pstmt.setLong(2, _msId);
                     int result = rel_sql_pstmt.executeUpdate();
-                    if (result == 1 && s_logger.isTraceEnabled()) {
-                        s_logger.trace("lck-" + key + " removed");
+                    if (result == 1) {
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("lck-" + key + " removed");
+                        }
+                        lockReleased(key);
                     }
                     decrCount();
                 }catch (Exception e) {
@@ -290,6 +435,16 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
         }
     }
 
+    protected void lockReleased(String key) {
+        // forget the lock before waking anyone, a woken waiter may take it and record itself as the holder
+        Boolean remoteWaiters = _heldLocks.remove(key);
+        wakeupWaiters(key);
+        LockWaitListener listener = _lockWaitListener;
+        if (Boolean.TRUE.equals(remoteWaiters) && listener != null) {
+            listener.onLockReleased(key);
+        }
+    }
+
     protected Map<String, String> toLock(ResultSet rs) throws SQLException {
         Map<String, String> map = new HashMap<String, String>();
         map.put("key", rs.getString(1));
@@ -412,4 +567,80 @@ public class Merovingian2 extends StandardMBean implements MerovingianMBean {
     protected static class Count {
         public int count = 0;
     }
+
+    protected static class LockWaiters {
+        int count = 0;
+        private long _generation = 0;
+        private long _announced = -1;
+
+        synchronized long getGeneration() {
+            return _generation;
+        }
+
+        synchronized void signal() {
+            _generation++;
+            notifyAll();
+        }
+
+        /**
+         * @return true for the first waiter that asks since the lock was last released.
+         */
+        synchronized boolean announce(long generation) {
+            if (_generation != generation || _announced == generation) {
+                return false;
+            }
+            _announced = generation;
+            return true;
+        }
+
+        synchronized void await(long generation, long timeout) {
+            if (_generation != generation) {
+                return;
+            }
+            try {
+                wait(timeout);
+            } catch (InterruptedException e) {
+                s_logger.debug("[ignored] interupted while waiting for a lock to be released");
+            }
+        }
+    }
+
+    protected static class LockWaitStats {
+        // upper bounds of the wait time buckets in milliseconds, the last bucket is everything above
+        static final long[] BUCKETS = {1, 10, 100, 1000, 5000, 30000};
+
+        final long[] counts = new long[BUCKETS.length + 1];
+        long acquired = 0;
+        long timedOut = 0;
+        long totalWait = 0;
+        long maxWait = 0;
+
+        void record(long waitTime, boolean success) {
+            int i = 0;
+            while (i < BUCKETS.length && waitTime >= BUCKETS[i]) {
+                i++;
+            }
+            counts[i]++;
+            if (success) {
+                acquired++;
+            } else {
+                timedOut++;
+            }
+            totalWait += waitTime;
+            maxWait = Math.max(maxWait, waitTime);
+        }
+
+        Map<String, String> toMap() {
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("acquired", Long.toString(acquired));
+            map.put("timedOut", Long.toString(timedOut));
+            map.put("totalWaitMs", Long.toString(totalWait));
+            map.put("maxWaitMs", Long.toString(maxWait));
+            for (int i = 0; i < BUCKETS.length; i++) {
+                map.put("lt" + BUCKETS[i] + "ms", Long.toString(counts[i]));
+            }
+            map.put("ge" + BUCKETS[BUCKETS.length - 1] + "ms", Long.toString(counts[BUCKETS.length]));
+            return map;
+        }
+    }
 }
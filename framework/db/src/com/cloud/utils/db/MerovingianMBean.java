@@ -28,4 +28,11 @@ public interface MerovingianMBean {
     boolean releaseLockAsLastResortAndIReallyKnowWhatIAmDoing(String key);
 
     void cleanupForServer(long msId);
+
+    /**
+     * @return wait time histogram of each lock acquired through this server
+     */
+    List<Map<String, String>> getLockWaitTimes();
+
+    void resetLockWaitTimes();
 }
@@ -0,0 +1,326 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Table;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.Pair;
+import com.cloud.utils.crypt.DBEncryptionUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Fills the entities of a DAO from the rows of a result set.
+ *
+ * A setter is bound to the field of every column when the DAO is created, with the conversion for the type of the
+ * field already chosen, so filling an entity is one direct call for each column instead of a reflective set behind
+ * the checks of the type and of the annotations of the field. The columns of a result set are matched to the setters
+ * once for the whole result set instead of once for every row. Types that are rarely mapped go through
+ * GenericDaoBase.setField as before.
+ */
+class ResultSetMapper<T> {
+    private final GenericDaoBase<T, ?> _dao;
+    private final Map<Pair<String, String>, Attribute> _columns;
+    private final String _viewName;
+    private final Map<Attribute, Setter> _setters;
+    private final MethodHandle _constructor;
+    private final ThreadLocal<Mapping> _mapping = new ThreadLocal<Mapping>();
+
+    ResultSetMapper(final GenericDaoBase<T, ?> dao, final Class<T> entityType, final Map<Pair<String, String>, Attribute> columns) {
+        _dao = dao;
+        _columns = columns;
+        // mysql returns the name of the table behind a view, the columns of views are also looked up by their label
+        final Table table = entityType.getAnnotation(Table.class);
+        _viewName = table != null ? table.name() : null;
+
+        _setters = new HashMap<Attribute, Setter>(columns.size());
+        for (final Attribute attr : columns.values()) {
+            if (attr.field != null) {
+                _setters.put(attr, createSetter(attr.field));
+            }
+        }
+
+        MethodHandle constructor = null;
+        try {
+            final Constructor<T> ctor = entityType.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            constructor = MethodHandles.lookup().unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+        } catch (final NoSuchMethodException e) {
+            // only the enhanced entities can be created
+        } catch (final IllegalAccessException e) {
+            // abstract entity, only the enhanced entities can be created
+        }
+        _constructor = constructor;
+    }
+
+    /**
+     * @return a plain instance of the entity.
+     */
+    @SuppressWarnings("unchecked")
+    T newInstance() {
+        if (_constructor == null) {
+            throw new CloudRuntimeException("Unable to instantiate entity");
+        }
+        try {
+            return (T)_constructor.invokeExact();
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Unable to instantiate entity", e);
+        }
+    }
+
+    /**
+     * Sets the columns of the current row of the result set on the entity.
+     */
+    void fill(final ResultSet rs, final Object entity) throws SQLException {
+        final Setter[] setters = getSetters(rs);
+        for (int i = 0; i < setters.length; i++) {
+            try {
+                setters[i].set(entity, rs, i + 1);
+            } catch (final SQLException e) {
+                throw e;
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new CloudRuntimeException("Yikes! ", e);
+            }
+        }
+    }
+
+    private Setter[] getSetters(final ResultSet rs) throws SQLException {
+        final Mapping mapping = _mapping.get();
+        if (mapping != null && mapping._resultSet.get() == rs) {
+            return mapping._setters;
+        }
+
+        final ResultSetMetaData meta = rs.getMetaData();
+        final Setter[] setters = new Setter[meta.getColumnCount()];
+        for (int index = 1; index <= setters.length; index++) {
+            Attribute attr = _columns.get(new Pair<String, String>(meta.getTableName(index), meta.getColumnName(index)));
+            if (attr == null && _viewName != null) {
+                attr = _columns.get(new Pair<String, String>(_viewName, meta.getColumnLabel(index)));
+            }
+            final Setter setter = attr != null ? _setters.get(attr) : null;
+            if (setter == null) {
+                throw new CloudRuntimeException("How come I can't find " + meta.getCatalogName(index) + "." + meta.getColumnName(index));
+            }
+            setters[index - 1] = setter;
+        }
+        _mapping.set(new Mapping(rs, setters));
+        return setters;
+    }
+
+    private Setter createSetter(final Field field) {
+        final Class<?> type = field.getType();
+        if (Modifier.isFinal(field.getModifiers())) {
+            return createFallbackSetter(field);
+        }
+
+        if (type == String.class) {
+            final Encrypt encrypt = field.getAnnotation(Encrypt.class);
+            final boolean encrypted = encrypt != null && encrypt.encrypt();
+            final MethodHandle setter = bind(field, Object.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final byte[] bytes = rs.getBytes(index);
+                    String value = null;
+                    if (bytes != null) {
+                        value = new String(bytes, StandardCharsets.UTF_8);
+                        if (encrypted) {
+                            value = DBEncryptionUtil.decrypt(value);
+                        }
+                    }
+                    setter.invokeExact(entity, (Object)value);
+                }
+            };
+        } else if (type == long.class) {
+            final MethodHandle setter = bind(field, long.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getLong(index));
+                }
+            };
+        } else if (type == Long.class) {
+            final MethodHandle setter = bind(field, Object.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final long value = rs.getLong(index);
+                    setter.invokeExact(entity, (Object)(rs.wasNull() ? null : Long.valueOf(value)));
+                }
+            };
+        } else if (type == int.class) {
+            final MethodHandle setter = bind(field, int.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getInt(index));
+                }
+            };
+        } else if (type == Integer.class) {
+            final MethodHandle setter = bind(field, Object.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final int value = rs.getInt(index);
+                    setter.invokeExact(entity, (Object)(rs.wasNull() ? null : Integer.valueOf(value)));
+                }
+            };
+        } else if (type == boolean.class) {
+            final MethodHandle setter = bind(field, boolean.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getBoolean(index));
+                }
+            };
+        } else if (type == Boolean.class) {
+            final MethodHandle setter = bind(field, Object.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final boolean value = rs.getBoolean(index);
+                    setter.invokeExact(entity, (Object)(rs.wasNull() ? null : Boolean.valueOf(value)));
+                }
+            };
+        } else if (type == short.class) {
+            final MethodHandle setter = bind(field, short.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getShort(index));
+                }
+            };
+        } else if (type == double.class) {
+            final MethodHandle setter = bind(field, double.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getDouble(index));
+                }
+            };
+        } else if (type == float.class) {
+            final MethodHandle setter = bind(field, float.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    setter.invokeExact(entity, rs.getFloat(index));
+                }
+            };
+        } else if (type == Date.class) {
+            final MethodHandle setter = bind(field, Object.class);
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final Date value = rs.getDate(index) == null ? null : DateUtil.parseDateString(GenericDaoBase.s_gmtTimeZone, rs.getString(index));
+                    setter.invokeExact(entity, (Object)value);
+                }
+            };
+        } else if (type.isEnum()) {
+            return createEnumSetter(field);
+        }
+        return createFallbackSetter(field);
+    }
+
+    private Setter createEnumSetter(final Field field) {
+        final Enumerated enumerated = field.getAnnotation(Enumerated.class);
+        final EnumType enumType = (enumerated == null) ? EnumType.STRING : enumerated.value();
+        final Object[] constants = field.getType().getEnumConstants();
+        final MethodHandle setter = bind(field, Object.class);
+        // a value that matches no constant leaves the field as it is
+        if (enumType == EnumType.ORDINAL) {
+            return new Setter() {
+                @Override
+                public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                    final int ordinal = rs.getInt(index);
+                    if (ordinal >= 0 && ordinal < constants.length) {
+                        setter.invokeExact(entity, constants[ordinal]);
+                    }
+                }
+            };
+        }
+
+        final Map<String, Object> byName = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = constants.length - 1; i >= 0; i--) {
+            byName.put(((Enum<?>)constants[i]).name(), constants[i]);
+        }
+        return new Setter() {
+            @Override
+            public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                final String name = rs.getString(index);
+                final Object value = name != null ? byName.get(name) : null;
+                if (value != null) {
+                    setter.invokeExact(entity, value);
+                }
+            }
+        };
+    }
+
+    private Setter createFallbackSetter(final Field field) {
+        return new Setter() {
+            @Override
+            public void set(final Object entity, final ResultSet rs, final int index) throws Throwable {
+                _dao.setField(entity, field, rs, index);
+            }
+        };
+    }
+
+    private static MethodHandle bind(final Field field, final Class<?> type) {
+        try {
+            return MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, type));
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Unable to access " + field, e);
+        }
+    }
+
+    interface Setter {
+        void set(Object entity, ResultSet rs, int index) throws Throwable;
+    }
+
+    private static class Mapping {
+        final WeakReference<ResultSet> _resultSet;
+        final Setter[] _setters;
+
+        Mapping(final ResultSet resultSet, final Setter[] setters) {
+            _resultSet = new WeakReference<ResultSet>(resultSet);
+            _setters = setters;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Column;
 import javax.persistence.Transient;
@@ -59,6 +60,8 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
 
     ArrayList<Condition> _conditions;
     ArrayList<Attribute> _specifiedAttrs;
+    // where clauses generated for the criteria of this builder, by the shape of their parameters
+    final Map<String, String> _whereClauses = new ConcurrentHashMap<String, String>();
 
     protected HashMap<String, JoinBuilder<SearchBase<?, ?, ?>>> _joins;
     protected ArrayList<Select> _selects;
@@ -31,6 +31,8 @@ import com.cloud.utils.db.SearchBase.Select;
  * big joins or high performance searches, it is much better to
  */
 public class SearchCriteria<K> {
+    private static final int MAX_WHERE_CLAUSES = 32;
+
     public enum Op {
         GT(" > ? ", 1), GTEQ(" >= ? ", 1), LT(" < ? ", 1), LTEQ(" <= ? ", 1), EQ(" = ? ", 1), NEQ(" != ? ", 1), BETWEEN(" BETWEEN ? AND ? ", 2), NBETWEEN(
                 " NOT BETWEEN ? AND ? ",
@@ -92,10 +94,12 @@ public class SearchCriteria<K> {
     private final List<Object> _groupByValues;
     private final Class<K> _resultType;
     private final SelectType _selectType;
+    private final Map<String, String> _whereClauses;
 
     protected SearchCriteria(SearchBase<?, ?, K> sb) {
         this._attrs = sb._attrs;
         this._conditions = sb._conditions;
+        this._whereClauses = sb._whereClauses;
         this._additionals = new ArrayList<Condition>();
         this._counter = 0;
         this._joins = null;
@@ -243,12 +247,19 @@ public class SearchCriteria<K> {
     }
 
     public String getWhereClause() {
+        // the where clause only depends on which parameters are set and how many values they have, criteria created
+        // from the same builder mostly look the same so the clause is generated once for each shape
+        final String shape = getShape();
+        if (shape != null) {
+            final String where = _whereClauses.get(shape);
+            if (where != null) {
+                return where;
+            }
+        }
+
         StringBuilder sql = new StringBuilder();
         int i = 0;
         for (Condition condition : _conditions) {
-            if (condition.isPreset()) {
-                _params.put(condition.name, condition.presets);
-            }
             Object[] params = _params.get(condition.name);
             if ((condition.op == null || condition.op.params == 0) || (params != null)) {
                 condition.toSql(sql, params, i++);
@@ -265,7 +276,41 @@ public class SearchCriteria<K> {
             }
         }
 
-        return sql.toString();
+        final String where = sql.toString();
+        if (shape != null && _whereClauses.size() < MAX_WHERE_CLAUSES) {
+            _whereClauses.put(shape, where);
+        }
+        return where;
+    }
+
+    /**
+     * Applies the presets and describes the parameters set on the conditions.
+     *
+     * @return null if the where clause depends on more than the shape of the parameters.
+     */
+    private String getShape() {
+        boolean cacheable = _additionals.isEmpty();
+        StringBuilder shape = new StringBuilder(_conditions.size() * 2);
+        for (Condition condition : _conditions) {
+            if (condition.isPreset()) {
+                _params.put(condition.name, condition.presets);
+            }
+            Object[] params = _params.get(condition.name);
+            if (condition.op == Op.SC && params != null) {
+                cacheable = false;
+            }
+            // the clause depends on the number of values, e.g. IN with one value is written as =, and on a leading null
+            if (params == null) {
+                shape.append('-');
+            } else {
+                shape.append(params.length);
+                if (params.length > 0 && params[0] == null) {
+                    shape.append('n');
+                }
+            }
+            shape.append(',');
+        }
+        return cacheable ? shape.toString() : null;
     }
 
     public List<Pair<Attribute, Object>> getValues() {
@@ -38,10 +38,13 @@ import org.apache.commons.dbcp.DriverManagerConnectionFactory;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.dbcp.PoolingDataSource;
 import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.commons.pool.impl.StackKeyedObjectPoolFactory;
 import org.apache.log4j.Logger;
 
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.PropertiesUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
@@ -103,6 +106,8 @@ public class TransactionLegacy implements Closeable {
     private long _txnTime;
     private Statement _stmt;
     private String _creator;
+    private final LinkedList<Runnable> _afterCompletion = new LinkedList<Runnable>();
+    private final LinkedList<Runnable> _afterRollback = new LinkedList<Runnable>();
 
     public static TransactionLegacy currentTxn() {
         return currentTxn(true);
@@ -208,6 +213,50 @@ public class TransactionLegacy implements Closeable {
         return _txn;
     }
 
+    /**
+     * Runs the task once the database transaction in progress is committed or rolled back, right away if there is
+     * none. Exceptions thrown by the task are logged.
+     */
+    public void runAfterCompletion(final Runnable task) {
+        if (_txn) {
+            _afterCompletion.add(task);
+        } else {
+            runTask(task);
+        }
+    }
+
+    /**
+     * Runs the task if the database transaction in progress is rolled back, and drops it once the transaction commits.
+     * Without a transaction in progress the changes are already committed, and the task is dropped right away.
+     * Exceptions thrown by the task are logged.
+     */
+    public void runAfterRollback(final Runnable task) {
+        if (_txn) {
+            _afterRollback.add(task);
+        }
+    }
+
+    protected void afterRollback() {
+        while (!_afterRollback.isEmpty()) {
+            runTask(_afterRollback.removeFirst());
+        }
+    }
+
+    protected void afterCompletion() {
+        _afterRollback.clear();
+        while (!_afterCompletion.isEmpty()) {
+            runTask(_afterCompletion.removeFirst());
+        }
+    }
+
+    private void runTask(final Runnable task) {
+        try {
+            task.run();
+        } catch (final Exception e) {
+            s_logger.warn("Unable to run " + task + " after the transaction completed", e);
+        }
+    }
+
     public static Connection getStandaloneConnectionWithException() throws SQLException {
         Connection conn = s_ds.getConnection();
         if (s_connLogger.isTraceEnabled()) {
@@ -641,6 +690,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        afterCompletion();
 
         closeConnection();
 
@@ -737,7 +787,10 @@ public class TransactionLegacy implements Closeable {
             return true;
         } catch (final SQLException e) {
             rollbackTransaction();
+            afterRollback();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
+        } finally {
+            afterCompletion();
         }
     }
 
@@ -854,6 +907,9 @@ public class TransactionLegacy implements Closeable {
             closeConnection();
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
+        } finally {
+            afterRollback();
+            afterCompletion();
         }
     }
 
@@ -869,6 +925,8 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            afterRollback();
+            afterCompletion();
         }
     }
 
@@ -920,6 +978,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            afterCompletion();
         }
     }
 
@@ -1061,6 +1120,7 @@ public class TransactionLegacy implements Closeable {
             final long cloudTimeBtwEvictionRunsMillis = Long.parseLong(dbProps.getProperty("db.cloud.timeBetweenEvictionRunsMillis"));
             final long cloudMinEvcitableIdleTimeMillis = Long.parseLong(dbProps.getProperty("db.cloud.minEvictableIdleTimeMillis"));
             final boolean cloudPoolPreparedStatements = Boolean.parseBoolean(dbProps.getProperty("db.cloud.poolPreparedStatements"));
+            final int cloudMaxOpenPreparedStatements = NumbersUtil.parseInt(dbProps.getProperty("db.cloud.maxOpenPreparedStatements"), 100);
             final String url = dbProps.getProperty("db.cloud.url.params");
 
             String cloudDbHAParams = null;
@@ -1090,7 +1150,11 @@ public class TransactionLegacy implements Closeable {
 
             final ConnectionFactory cloudConnectionFactory = new DriverManagerConnectionFactory(cloudConnectionUri, cloudUsername, cloudPassword);
 
-            final KeyedObjectPoolFactory poolableObjFactory = (cloudPoolPreparedStatements ? new StackKeyedObjectPoolFactory() : null);
+            // Statements are cached for each connection by their sql, the ones idle the longest are dropped once the connection
+            // holds the maximum number of statements. Statements in use are never refused, so a leaked statement can't block the connection.
+            final KeyedObjectPoolFactory poolableObjFactory =
+                    (cloudPoolPreparedStatements ? new GenericKeyedObjectPoolFactory(null, -1, GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, 0, 1, cloudMaxOpenPreparedStatements)
+                            : null);
 
             final PoolableConnectionFactory cloudPoolableConnectionFactory =
                     new PoolableConnectionFactory(cloudConnectionFactory, cloudConnectionPool, poolableObjFactory, cloudValidationQuery, false, false, isolationLevel);
@@ -18,6 +18,7 @@ package com.cloud.utils.db;
 
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -34,7 +35,15 @@ public class UpdateBuilder implements MethodInterceptor {
 
     protected UpdateBuilder(GenericDaoBase<?, ?> dao) {
         _dao = dao;
-        _changes = new HashMap<String, Ternary<Attribute, Boolean, Object>>();
+        // most entities are only read, the map is created on the first change
+        _changes = null;
+    }
+
+    private Map<String, Ternary<Attribute, Boolean, Object>> changes() {
+        if (_changes == null) {
+            _changes = new HashMap<String, Ternary<Attribute, Boolean, Object>>();
+        }
+        return _changes;
     }
 
     @Override
@@ -63,7 +72,7 @@ public class UpdateBuilder implements MethodInterceptor {
         assert (attr == null || attr.isUpdatable()) : "Updating an attribute that's not updatable: " + field;
         if (attr != null) {
             if (attr.attache == null) {
-                _changes.put(field, new Ternary<Attribute, Boolean, Object>(attr, null, value));
+                changes().put(field, new Ternary<Attribute, Boolean, Object>(attr, null, value));
             } else {
                 if (_collectionChanges == null) {
                     _collectionChanges = new HashMap<Attribute, Object>();
@@ -95,7 +104,7 @@ public class UpdateBuilder implements MethodInterceptor {
     }
 
     public void set(Object entity, Attribute attr, Object value) {
-        _changes.put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, null, value));
+        changes().put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, null, value));
         try {
             attr.field.set(entity, value);
         } catch (IllegalArgumentException e) {
@@ -106,19 +115,19 @@ public class UpdateBuilder implements MethodInterceptor {
     }
 
     public void incr(Attribute attr, Object value) {
-        _changes.put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, true, value));
+        changes().put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, true, value));
     }
 
     public void decr(Attribute attr, Object value) {
-        _changes.put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, false, value));
+        changes().put(attr.field.getName(), new Ternary<Attribute, Boolean, Object>(attr, false, value));
     }
 
     public boolean hasChanges() {
-        return (_changes.size() + (_collectionChanges != null ? _collectionChanges.size() : 0)) != 0;
+        return ((_changes != null ? _changes.size() : 0) + (_collectionChanges != null ? _collectionChanges.size() : 0)) != 0;
     }
 
     public boolean has(String name) {
-        return _changes.containsKey(name);
+        return _changes != null && _changes.containsKey(name);
     }
 
     public Map<Attribute, Object> getCollectionChanges() {
@@ -126,7 +135,9 @@ public class UpdateBuilder implements MethodInterceptor {
     }
 
     public void clear() {
-        _changes.clear();
+        if (_changes != null) {
+            _changes.clear();
+        }
         if (_collectionChanges != null) {
             _collectionChanges.clear();
             _collectionChanges = null;
@@ -134,7 +145,7 @@ public class UpdateBuilder implements MethodInterceptor {
     }
 
     public StringBuilder toSql(String tables) {
-        if (_changes.isEmpty()) {
+        if (_changes == null || _changes.isEmpty()) {
             return null;
         }
 
@@ -142,6 +153,9 @@ public class UpdateBuilder implements MethodInterceptor {
     }
 
     public Collection<Ternary<Attribute, Boolean, Object>> getChanges() {
+        if (_changes == null) {
+            return Collections.emptyList();
+        }
         return _changes.values();
     }
 }
@@ -0,0 +1,152 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.junit.Test;
+
+import com.cloud.utils.db.ClaimedBlockAllocator;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class ClaimedBlockAllocatorTest {
+
+    /**
+     * Claims the ids of a range in memory instead of in the database.
+     */
+    private static class RangeAllocator extends ClaimedBlockAllocator {
+        private final AtomicLong _nextId = new AtomicLong(1);
+        private final long _lastId;
+        final List<String> _claimIds = Collections.synchronizedList(new ArrayList<String>());
+
+        RangeAllocator(final long lastId, final int blockSize) {
+            super("op_test_alloc", "key_id", "taken IS NULL", blockSize);
+            _lastId = lastId;
+        }
+
+        @Override
+        protected List<Long> claim(final long key, final String claimId, final int count) {
+            _claimIds.add(claimId);
+            final List<Long> ids = new ArrayList<Long>();
+            for (int i = 0; i < count; i++) {
+                final long id = _nextId.getAndIncrement();
+                if (id > _lastId) {
+                    break;
+                }
+                ids.add(id);
+            }
+            return ids;
+        }
+    }
+
+    @Test
+    public void idsAreHandedOutFromClaimedBlocks() {
+        final RangeAllocator allocator = new RangeAllocator(20, 8);
+        for (long i = 1; i <= 10; i++) {
+            assertEquals(i, allocator.next(1).longValue());
+        }
+        assertEquals(2, allocator.getClaims());
+        assertEquals(16, allocator.getClaimedRows());
+        assertEquals(10, allocator.getHandedOut());
+        assertEquals(6, allocator.getHeld());
+        assertTrue(allocator._claimIds.get(0).startsWith(ManagementServerNode.getManagementServerId() + "-"));
+    }
+
+    @Test
+    public void nothingLeftToClaim() {
+        final RangeAllocator allocator = new RangeAllocator(3, 8);
+        for (int i = 0; i < 3; i++) {
+            allocator.next(1);
+        }
+        assertNull(allocator.next(1));
+        assertEquals(2, allocator.getClaims());
+    }
+
+    @Test
+    public void zeroBlockSizeDisablesClaims() {
+        final RangeAllocator allocator = new RangeAllocator(20, 0);
+        assertNull(allocator.next(1));
+        assertEquals(0, allocator.getClaims());
+        allocator.setBlockSize(4);
+        assertEquals(1, allocator.next(1).longValue());
+        assertEquals(4, allocator.getClaimedRows());
+    }
+
+    @Test
+    public void rolledBackTakesAreHandedOutAgain() {
+        final RangeAllocator allocator = new RangeAllocator(20, 1);
+        final TransactionLegacy txn = TransactionLegacy.open("ClaimedBlockAllocatorTest");
+        try {
+            txn.start();
+            final long rolledBack = allocator.next(1);
+            allocator.putBackOnRollback(1, rolledBack);
+            txn.rollback();
+            assertEquals(1, allocator.getHeld());
+            assertEquals(0, allocator.getHandedOut());
+
+            txn.start();
+            assertEquals(rolledBack, allocator.next(1).longValue());
+            allocator.putBackOnRollback(1, rolledBack);
+            txn.commit();
+            assertEquals(0, allocator.getHeld());
+            assertEquals(1, allocator.getClaims());
+
+            // taken without a transaction of its own, the row is already committed
+            allocator.putBackOnRollback(1, allocator.next(1));
+            txn.start();
+            txn.rollback();
+            assertEquals(0, allocator.getHeld());
+            assertEquals(2, allocator.getHandedOut());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void concurrentCallersGetDistinctIds() throws InterruptedException {
+        final RangeAllocator allocator = new RangeAllocator(4000, 16);
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        ids.add(allocator.next(i % 2));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(4000, ids.size());
+        assertEquals(4000, allocator.getHandedOut());
+        assertEquals(0, allocator.getHeld());
+    }
+}
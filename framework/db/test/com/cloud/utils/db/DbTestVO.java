@@ -39,18 +39,36 @@ public class DbTestVO {
     @Column(name = "fld_string")
     String fieldString;
 
+    public long getId() {
+        return id;
+    }
+
     public String getFieldString() {
         return fieldString;
     }
 
+    public void setFieldString(String fieldString) {
+        this.fieldString = fieldString;
+    }
+
     public int getFieldInt() {
         return fieldInt;
     }
 
+    public void setFieldInt(int fieldInt) {
+        this.fieldInt = fieldInt;
+    }
+
     public long getFieldLong() {
         return fieldLong;
     }
 
     public DbTestVO() {
     }
+
+    public DbTestVO(int fieldInt, long fieldLong, String fieldString) {
+        this.fieldInt = fieldInt;
+        this.fieldLong = fieldLong;
+        this.fieldString = fieldString;
+    }
 }
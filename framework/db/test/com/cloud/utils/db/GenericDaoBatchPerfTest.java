@@ -0,0 +1,170 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.cloud.utils.component.ComponentContext;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Compares inserting, updating and deleting rows one at a time with the batch operations of the dao, both inside one
+ * transaction the way the managers do it. Uses the test database like TransactionTest and is excluded from the
+ * regular build, run it explicitly to get the numbers.
+ */
+public class GenericDaoBatchPerfTest {
+    private static final int ROWS = 2000;
+    private static final int ROUNDS = 3;
+
+    @BeforeClass
+    public static void oneTimeSetup() {
+        execute("CREATE TABLE `cloud`.`test` (" + "`id` bigint unsigned NOT NULL UNIQUE AUTO_INCREMENT," + "`fld_int` int unsigned,"
+                + "`fld_long` bigint unsigned," + "`fld_string` varchar(255)," + "PRIMARY KEY (`id`)" + ") ENGINE=InnoDB DEFAULT CHARSET=utf8;");
+    }
+
+    @After
+    public void tearDown() {
+        execute("truncate table `cloud`.`test`");
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() {
+        execute("DROP TABLE IF EXISTS `cloud`.`test`");
+    }
+
+    private static void execute(String sql) {
+        try (
+                Connection conn = TransactionLegacy.getStandaloneConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql);
+            ) {
+            pstmt.execute();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Problem with sql", e);
+        }
+    }
+
+    private static List<DbTestVO> createEntities() {
+        List<DbTestVO> entities = new ArrayList<DbTestVO>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            entities.add(new DbTestVO(i, i, "Record " + i));
+        }
+        return entities;
+    }
+
+    private static List<Long> getIds(List<DbTestVO> entities) {
+        List<Long> ids = new ArrayList<Long>(entities.size());
+        for (DbTestVO entity : entities) {
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    private static long run(TransactionCallbackNoReturn work) {
+        long start = System.nanoTime();
+        Transaction.execute(work);
+        return System.nanoTime() - start;
+    }
+
+    private static void print(String name, long single, long batch) {
+        System.out.println(name + " " + ROWS + " rows: " + single / 1000000 + " ms one by one, " + batch / 1000000 + " ms in batches, speedup " + (double)single / batch);
+    }
+
+    @Test
+    public void testThroughput() {
+        final DbTestDao dao = ComponentContext.inject(DbTestDao.class);
+        for (int round = 0; round < ROUNDS; round++) {
+            final List<DbTestVO> single = createEntities();
+            long persist = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (DbTestVO entity : single) {
+                        dao.persist(entity);
+                    }
+                }
+            });
+            final List<DbTestVO> batch = createEntities();
+            long persistAll = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    dao.persistAll(batch);
+                }
+            });
+            Assert.assertEquals(ROWS * 2, dao.listAll().size());
+            Assert.assertEquals("Record 7", dao.findById(batch.get(7).getId()).getFieldString());
+
+            final List<DbTestVO> singleRows = new ArrayList<DbTestVO>(ROWS);
+            final List<DbTestVO> batchRows = new ArrayList<DbTestVO>(ROWS);
+            for (Long id : getIds(single)) {
+                DbTestVO row = dao.findById(id);
+                row.setFieldInt(row.getFieldInt() + 1);
+                singleRows.add(row);
+            }
+            for (Long id : getIds(batch)) {
+                DbTestVO row = dao.findById(id);
+                row.setFieldInt(row.getFieldInt() + 1);
+                batchRows.add(row);
+            }
+            long update = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (DbTestVO row : singleRows) {
+                        dao.update(row.getId(), row);
+                    }
+                }
+            });
+            long updateAll = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    Assert.assertEquals(ROWS, dao.updateAll(batchRows));
+                }
+            });
+            Assert.assertEquals(8, dao.findById(batch.get(7).getId()).getFieldInt());
+
+            long expunge = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (Long id : getIds(single)) {
+                        dao.expunge(id);
+                    }
+                }
+            });
+            long expungeAll = run(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    Assert.assertEquals(ROWS, dao.expungeAll(getIds(batch)));
+                }
+            });
+            Assert.assertTrue(dao.listAll().isEmpty());
+
+            if (round == ROUNDS - 1) {
+                print("persist", persist, persistAll);
+                print("update", update, updateAll);
+                print("expunge", expunge, expungeAll);
+            }
+        }
+    }
+}
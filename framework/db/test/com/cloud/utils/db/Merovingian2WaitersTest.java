@@ -0,0 +1,87 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Merovingian2WaitersTest {
+
+    @Test
+    public void testSignalWakesUpWaiter() throws InterruptedException {
+        final Merovingian2.LockWaiters waiters = new Merovingian2.LockWaiters();
+        final long generation = waiters.getGeneration();
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                waiters.signal();
+            }
+        });
+        releaser.start();
+
+        long start = System.currentTimeMillis();
+        waiters.await(generation, 10000);
+        Assert.assertTrue("Waiter should be woken up by the release", System.currentTimeMillis() - start < 5000);
+        releaser.join();
+    }
+
+    @Test
+    public void testMissedSignalDoesNotBlock() {
+        Merovingian2.LockWaiters waiters = new Merovingian2.LockWaiters();
+        long generation = waiters.getGeneration();
+        waiters.signal();
+
+        long start = System.currentTimeMillis();
+        waiters.await(generation, 10000);
+        Assert.assertTrue("A release before the wait should not block the waiter", System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testWaitIsAnnouncedOncePerRelease() {
+        Merovingian2.LockWaiters waiters = new Merovingian2.LockWaiters();
+        long generation = waiters.getGeneration();
+        Assert.assertTrue(waiters.announce(generation));
+        Assert.assertFalse("Other waiters should not tell the holder again", waiters.announce(generation));
+
+        waiters.signal();
+        Assert.assertFalse("A waiter that missed the release should retry first", waiters.announce(generation));
+        Assert.assertTrue("The next holder should be told again", waiters.announce(waiters.getGeneration()));
+    }
+
+    @Test
+    public void testWaitStatsBuckets() {
+        Merovingian2.LockWaitStats stats = new Merovingian2.LockWaitStats();
+        stats.record(0, true);
+        stats.record(50, true);
+        stats.record(40000, false);
+
+        Map<String, String> map = stats.toMap();
+        Assert.assertEquals("2", map.get("acquired"));
+        Assert.assertEquals("1", map.get("timedOut"));
+        Assert.assertEquals("1", map.get("lt1ms"));
+        Assert.assertEquals("1", map.get("lt100ms"));
+        Assert.assertEquals("1", map.get("ge30000ms"));
+        Assert.assertEquals("40000", map.get("maxWaitMs"));
+    }
+}
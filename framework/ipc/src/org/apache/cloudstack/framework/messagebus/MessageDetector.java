@@ -25,13 +25,19 @@ public class MessageDetector implements MessageSubscriber {
 
     private MessageBus _messageBus;
     private String[] _subjects;
+    private boolean _signalled;
 
     public MessageDetector() {
         _messageBus = null;
         _subjects = null;
     }
 
-    public void waitAny(long timeoutInMiliseconds) {
+    /**
+     * Waits for a message on any of the subjects, messages published since the last wait count as well.
+     *
+     * @return true if a message was published, false if the wait timed out.
+     */
+    public boolean waitAny(long timeoutInMiliseconds) {
         if (timeoutInMiliseconds < 100) {
             s_logger.warn("waitAny is passed with a too short time-out interval. " + timeoutInMiliseconds + "ms");
             timeoutInMiliseconds = 100;
@@ -39,10 +45,15 @@ public class MessageDetector implements MessageSubscriber {
 
         synchronized (this) {
             try {
-                wait(timeoutInMiliseconds);
+                if (!_signalled) {
+                    wait(timeoutInMiliseconds);
+                }
             } catch (InterruptedException e) {
                 s_logger.debug("[ignored] interupted while waiting on any message.");
             }
+            boolean signalled = _signalled;
+            _signalled = false;
+            return signalled;
         }
     }
 
@@ -74,6 +85,7 @@ public class MessageDetector implements MessageSubscriber {
     public void onPublishMessage(String senderAddress, String subject, Object args) {
         if (subjectMatched(subject)) {
             synchronized (this) {
+                _signalled = true;
                 notifyAll();
             }
         }
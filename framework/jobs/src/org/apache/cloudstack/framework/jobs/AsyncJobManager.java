@@ -126,6 +126,14 @@ public interface AsyncJobManager extends Manager {
 
     AsyncJob queryJob(long jobId, boolean updatePollTime);
 
+    /**
+     * Queries a job, waiting for it to complete first if it is still in progress.
+     *
+     * @param waitInMilliSeconds longest time to wait for the job to complete, capped by job.query.max.wait.seconds
+     * @return the job, which may still be in progress if the wait timed out
+     */
+    AsyncJob queryJob(long jobId, boolean updatePollTime, long waitInMilliSeconds);
+
     String marshallResultObject(Serializable obj);
 
     Object unmarshallResultObject(AsyncJob job);
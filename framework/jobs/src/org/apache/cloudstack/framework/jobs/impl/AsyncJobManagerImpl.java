@@ -49,6 +49,7 @@ import org.apache.cloudstack.framework.jobs.dao.AsyncJobJournalDao;
 import org.apache.cloudstack.framework.jobs.dao.SyncQueueItemDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.MessageDetector;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.jobs.JobInfo;
 import org.apache.cloudstack.jobs.JobInfo.Status;
@@ -56,6 +57,7 @@ import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
 import org.slf4j.MDC;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.DateUtil;
@@ -92,6 +94,8 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final ConfigKey<Integer> VmJobLockTimeout = new ConfigKey<Integer>("Advanced",
             Integer.class, "vm.job.lock.timeout", "1800",
             "Time in seconds to wait in acquiring lock to submit a vm worker job", false);
+    private static final ConfigKey<Integer> JobQueryMaxWaitSeconds = new ConfigKey<Integer>("Advanced", Integer.class, "job.query.max.wait.seconds", "60",
+        "Longest time (in seconds) a job query waits for the job to complete", true, ConfigKey.Scope.Global);
 
     private static final Logger s_logger = Logger.getLogger(AsyncJobManagerImpl.class);
 
@@ -100,6 +104,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;                // 10 seconds
+    private static final int MAX_COMPLETED_JOBS_IN_MEMORY = 10000;
+    // waiters look the job up in the database at least once in this many check intervals, even when signalled
+    private static final int WAIT_DB_CHECK_INTERVALS = 5;
 
     @Inject
     private SyncQueueItemDao _queueItemDao;
@@ -119,12 +126,15 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private AsyncJobMonitor _jobMonitor;
     @Inject
     private VMInstanceDao _vmInstanceDao;
+    @Inject
+    private ClusterManager _clusterMgr;
 
     private volatile long _executionRunNumber = 1;
 
     private final ScheduledExecutorService _heartbeatScheduler = Executors.newScheduledThreadPool(1, new NamedThreadFactory("AsyncJobMgr-Heartbeat"));
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
+    private final AsyncJobStateRegistry _jobStates = new AsyncJobStateRegistry(MAX_COMPLETED_JOBS_IN_MEMORY);
 
     @Override
     public String getConfigComponentName() {
@@ -133,7 +143,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout};
+        return new ConfigKey<?>[] {JobExpireMinutes, JobCancelThresholdMinutes, VmJobLockTimeout, JobQueryMaxWaitSeconds};
     }
 
     @Override
@@ -305,7 +315,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         scheduleExecution(jobToWakeup, false);
                 }
         */
+        _jobStates.jobCompleted(jobId, job);
         _messageBus.publish(null, AsyncJob.Topics.JOB_STATE, PublishScope.GLOBAL, jobId);
+        _clusterMgr.publishToPeers(AsyncJob.Topics.JOB_STATE, String.valueOf(jobId));
     }
 
     @Override
@@ -419,15 +431,39 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public AsyncJob queryJob(long jobId, boolean updatePollTime) {
-        AsyncJobVO job = _jobDao.findById(jobId);
+        AsyncJobVO job = _jobStates.getCompletedJob(jobId);
+        if (job != null) {
+            // the job no longer changes, there is no point in recording that it is still being polled
+            return job;
+        }
 
-        if (updatePollTime) {
+        job = _jobDao.findById(jobId);
+
+        if (job != null && updatePollTime) {
             job.setLastPolled(DateUtil.currentGMTTime());
             _jobDao.update(jobId, job);
         }
+        if (job != null && job.getStatus().done()) {
+            _jobStates.jobCompleted(jobId, job);
+        }
         return job;
     }
 
+    @Override
+    public AsyncJob queryJob(long jobId, boolean updatePollTime, long waitInMilliSeconds) {
+        AsyncJob job = queryJob(jobId, updatePollTime);
+        if (job == null || job.getStatus().done() || waitInMilliSeconds <= 0) {
+            return job;
+        }
+
+        try {
+            _jobStates.awaitCompletion(jobId, Math.min(waitInMilliSeconds, JobQueryMaxWaitSeconds.value() * 1000L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return queryJob(jobId, false);
+    }
+
     private void scheduleExecution(final AsyncJobVO job) {
         scheduleExecution(job, false);
     }
@@ -684,16 +720,29 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         String[] topics = Arrays.copyOf(wakeupTopicsOnMessageBus, wakeupTopicsOnMessageBus.length + 1);
         topics[topics.length - 1] = AsyncJob.Topics.JOB_STATE;
 
+        final long jobId = job.getId();
         msgDetector.open(_messageBus, topics);
         try {
             long startTick = System.currentTimeMillis();
+            long lastDbCheck = startTick;
             while (timeoutInMiliseconds < 0 || System.currentTimeMillis() - startTick < timeoutInMiliseconds) {
-                msgDetector.waitAny(checkIntervalInMilliSeconds);
-                job = _jobDao.findById(job.getId());
-                if (job != null && job.getStatus().done()) {
+                boolean signalled = msgDetector.waitAny(checkIntervalInMilliSeconds);
+                if (_jobStates.isCompleted(jobId)) {
                     return true;
                 }
 
+                // check the database in case the completion was not announced to us or already dropped from the registry,
+                // other jobs keep signalling busy waiters so that alone is no reason to skip it for good
+                long now = System.currentTimeMillis();
+                if (!signalled || now - lastDbCheck >= checkIntervalInMilliSeconds * WAIT_DB_CHECK_INTERVALS) {
+                    lastDbCheck = now;
+                    AsyncJobVO jobVo = _jobDao.findById(jobId);
+                    if (jobVo != null && jobVo.getStatus().done()) {
+                        _jobStates.jobCompleted(jobId, jobVo);
+                        return true;
+                    }
+                }
+
                 if (predicate.checkCondition()) {
                     return true;
                 }
@@ -992,9 +1041,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     private void cleanupLeftOverJobs(final long msid) {
         try {
-            Transaction.execute(new TransactionCallbackNoReturn() {
+            List<AsyncJobVO> jobs = Transaction.execute(new TransactionCallback<List<AsyncJobVO>>() {
                 @Override
-                public void doInTransactionWithoutResult(TransactionStatus status) {
+                public List<AsyncJobVO> doInTransaction(TransactionStatus status) {
                     // purge sync queue item running on this ms node
                     _queueMgr.cleanupActiveQueueItems(msid, true);
                     // reset job status for all jobs running on this ms node
@@ -1013,8 +1062,12 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                         }
                         _queueMgr.purgeAsyncJobQueueItemId(job.getId());
                     }
+                    return jobs;
                 }
             });
+            for (AsyncJobVO job : jobs) {
+                _jobStates.jobCompleted(job.getId(), job);
+            }
         } catch (Throwable e) {
             s_logger.warn("Unexpected exception in cleaning up left over jobs for mamagement server node " + msid, e);
         }
@@ -1037,6 +1090,16 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public boolean start() {
+        _messageBus.subscribe(AsyncJob.Topics.JOB_STATE, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                // jobs completed here are recorded before the message goes out, peers only send the job id
+                if (args instanceof String) {
+                    _jobStates.jobCompleted(Long.parseLong((String)args), null);
+                }
+            }
+        });
+
         cleanupLeftOverJobs(getMsid());
 
         _heartbeatScheduler.scheduleAtFixedRate(getHeartbeatTask(), HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which jobs have completed, so waiters and job queries do not have to go to the database to find out.
+ *
+ * Jobs completed on this management server are kept with their final state. Jobs completed on a peer are only known
+ * by id until their final state is loaded once from the database. Only the most recently completed jobs are kept;
+ * a job that is not known here may still have completed, so callers fall back to the database.
+ */
+public class AsyncJobStateRegistry {
+    private final Map<Long, AsyncJobVO> _completedJobs;
+    private final Map<Long, Waiter> _waiters = new HashMap<Long, Waiter>();
+
+    private static class Waiter {
+        private final CountDownLatch _completed = new CountDownLatch(1);
+        private int _count;
+    }
+
+    public AsyncJobStateRegistry(final int maxCompletedJobs) {
+        _completedJobs = new LinkedHashMap<Long, AsyncJobVO>(Math.min(maxCompletedJobs, 1024), 0.75f, false) {
+            private static final long serialVersionUID = -3539006244786291467L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, AsyncJobVO> eldest) {
+                return size() > maxCompletedJobs;
+            }
+        };
+    }
+
+    /**
+     * Records the completion of a job and wakes up the threads waiting for it.
+     *
+     * @param job the job in its final state, or null if only the id is known, e.g. the job completed on a peer.
+     */
+    public synchronized void jobCompleted(final long jobId, final AsyncJobVO job) {
+        if (job != null || !_completedJobs.containsKey(jobId)) {
+            _completedJobs.put(jobId, job);
+        }
+        final Waiter waiter = _waiters.remove(jobId);
+        if (waiter != null) {
+            waiter._completed.countDown();
+        }
+    }
+
+    public synchronized boolean isCompleted(final long jobId) {
+        return _completedJobs.containsKey(jobId);
+    }
+
+    /**
+     * @return the final state of the job, or null if the job has not completed or its final state is not known here.
+     *         The returned job is shared and must not be modified.
+     */
+    public synchronized AsyncJobVO getCompletedJob(final long jobId) {
+        return _completedJobs.get(jobId);
+    }
+
+    /**
+     * Waits until the job completes.
+     *
+     * @return true if the job completed, false if the time ran out first.
+     */
+    public boolean awaitCompletion(final long jobId, final long timeoutInMilliSeconds) throws InterruptedException {
+        final Waiter waiter;
+        synchronized (this) {
+            if (_completedJobs.containsKey(jobId)) {
+                return true;
+            }
+            Waiter existing = _waiters.get(jobId);
+            if (existing == null) {
+                existing = new Waiter();
+                _waiters.put(jobId, existing);
+            }
+            existing._count++;
+            waiter = existing;
+        }
+
+        try {
+            return waiter._completed.await(timeoutInMilliSeconds, TimeUnit.MILLISECONDS);
+        } finally {
+            synchronized (this) {
+                if (--waiter._count == 0 && _waiters.get(jobId) == waiter) {
+                    _waiters.remove(jobId);
+                }
+            }
+        }
+    }
+
+    public synchronized int getCompletedJobCount() {
+        return _completedJobs.size();
+    }
+
+    public synchronized int getWaitingJobCount() {
+        return _waiters.size();
+    }
+}
@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.cloudstack.framework.jobs.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncJobStateRegistryTest {
+
+    @Test
+    public void testCompletedJobIsRemembered() throws InterruptedException {
+        AsyncJobStateRegistry registry = new AsyncJobStateRegistry(10);
+        AsyncJobVO job = new AsyncJobVO();
+        registry.jobCompleted(1L, job);
+
+        Assert.assertTrue(registry.isCompleted(1L));
+        Assert.assertSame(job, registry.getCompletedJob(1L));
+        Assert.assertTrue(registry.awaitCompletion(1L, 0));
+        Assert.assertFalse(registry.isCompleted(2L));
+        Assert.assertNull(registry.getCompletedJob(2L));
+    }
+
+    @Test
+    public void testPeerCompletionDoesNotDropKnownState() {
+        AsyncJobStateRegistry registry = new AsyncJobStateRegistry(10);
+        registry.jobCompleted(1L, null);
+        Assert.assertTrue(registry.isCompleted(1L));
+        Assert.assertNull(registry.getCompletedJob(1L));
+
+        AsyncJobVO job = new AsyncJobVO();
+        registry.jobCompleted(1L, job);
+        registry.jobCompleted(1L, null);
+        Assert.assertSame(job, registry.getCompletedJob(1L));
+    }
+
+    @Test
+    public void testOnlyRecentJobsAreKept() {
+        AsyncJobStateRegistry registry = new AsyncJobStateRegistry(3);
+        for (long id = 1; id <= 5; id++) {
+            registry.jobCompleted(id, null);
+        }
+        Assert.assertEquals(3, registry.getCompletedJobCount());
+        Assert.assertFalse(registry.isCompleted(2L));
+        Assert.assertTrue(registry.isCompleted(5L));
+    }
+
+    @Test
+    public void testWaitersAreWokenUp() throws InterruptedException {
+        final AsyncJobStateRegistry registry = new AsyncJobStateRegistry(10);
+        final AtomicBoolean completed = new AtomicBoolean();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    completed.set(registry.awaitCompletion(7L, 30000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        while (registry.getWaitingJobCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        registry.jobCompleted(7L, null);
+        waiter.join(30000);
+        Assert.assertTrue(completed.get());
+        Assert.assertEquals(0, registry.getWaitingJobCount());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws InterruptedException {
+        AsyncJobStateRegistry registry = new AsyncJobStateRegistry(10);
+        Assert.assertFalse(registry.awaitCompletion(7L, 10));
+        Assert.assertEquals(0, registry.getWaitingJobCount());
+    }
+}
@@ -24,15 +24,21 @@ import com.cloud.utils.component.AdapterBase;
 import com.cloud.utils.component.PluggableService;
 import com.google.common.base.Strings;
 import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Local(value = APIChecker.class)
 public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements APIChecker {
@@ -41,9 +47,13 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
     private AccountService accountService;
     @Inject
     private RoleService roleService;
+    @Inject
+    private MessageBus messageBus;
 
     private List<PluggableService> services;
     private Map<RoleType, Set<String>> annotationRoleBasedApisMap = new HashMap<>();
+    private final ConcurrentHashMap<Long, RolePermissionTable> rolePermissionTables = new ConcurrentHashMap<>();
+    private final AtomicLong rolePermissionsVersion = new AtomicLong();
 
     protected DynamicRoleBasedAPIAccessChecker() {
         super();
@@ -71,36 +81,56 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
             throw new PermissionDeniedException("The account id=" + user.getAccountId() + "for user id=" + user.getId() + "is null");
         }
 
-        final Role accountRole = roleService.findRole(account.getRoleId());
-        if (accountRole == null || accountRole.getId() < 1L) {
+        final RolePermissionTable permissionTable = getRolePermissionTable(account.getRoleId());
+        if (permissionTable == null) {
             denyApiAccess(commandName);
         }
 
-        // Allow all APIs for root admins
-        if (accountRole.getRoleType() == RoleType.Admin && accountRole.getId() == RoleType.Admin.getId()) {
-            return true;
+        if (!permissionTable.isAllowed(commandName)) {
+            denyApiAccess(commandName);
         }
+        return true;
+    }
 
-        // Check against current list of permissions
-        for (final RolePermission permission : roleService.findAllPermissionsBy(accountRole.getId())) {
-            if (permission.getRule().matches(commandName)) {
-                if (RolePermission.Permission.ALLOW.equals(permission.getPermission())) {
-                    return true;
-                } else {
-                    denyApiAccess(commandName);
-                }
+    private RolePermissionTable getRolePermissionTable(final Long roleId) {
+        if (roleId == null) {
+            return null;
+        }
+        RolePermissionTable permissionTable = rolePermissionTables.get(roleId);
+        // a change is published to every management server, a server that missed it reads the role again after a while
+        if (permissionTable == null || permissionTable.isExpired(getRolePermissionsTtlMillis())) {
+            final long version = rolePermissionsVersion.get();
+            final Role accountRole = roleService.findRole(roleId);
+            if (accountRole == null || accountRole.getId() < 1L) {
+                return null;
+            }
+            // Allow all APIs for root admins, no need to look at the permissions
+            final boolean rootAdmin = accountRole.getRoleType() == RoleType.Admin && accountRole.getId() == RoleType.Admin.getId();
+            final List<RolePermission> permissions = rootAdmin ? Collections.<RolePermission>emptyList() : roleService.findAllPermissionsBy(accountRole.getId());
+            permissionTable = new RolePermissionTable(accountRole.getRoleType(), rootAdmin, permissions);
+            // a table compiled while the role was changing is used for this call only
+            if (version == rolePermissionsVersion.get()) {
+                rolePermissionTables.put(roleId, permissionTable);
             }
         }
+        return permissionTable;
+    }
 
-        // Check annotations
-        if (annotationRoleBasedApisMap.get(accountRole.getRoleType()) != null
-                && annotationRoleBasedApisMap.get(accountRole.getRoleType()).contains(commandName)) {
-            return true;
-        }
+    protected long getRolePermissionsTtlMillis() {
+        return RoleService.DynamicApiCheckerCacheTtl.value() * 1000L;
+    }
 
-        // Default deny all
-        denyApiAccess(commandName);
-        return false;
+    /**
+     * Drops the compiled permissions of a role, they are compiled again on the next api call of an account having it
+     * @param roleId the changed role, null for all roles
+     */
+    public void invalidateRolePermissions(final Long roleId) {
+        rolePermissionsVersion.incrementAndGet();
+        if (roleId == null) {
+            rolePermissionTables.clear();
+        } else {
+            rolePermissionTables.remove(roleId);
+        }
     }
 
     public void addApiToRoleBasedAnnotationsMap(final RoleType roleType, final String commandName) {
@@ -110,6 +140,8 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         final Set<String> commands = annotationRoleBasedApisMap.get(roleType);
         if (commands != null && !commands.contains(commandName)) {
             commands.add(commandName);
+            // the decisions cached so far did not know about this api
+            invalidateRolePermissions(null);
         }
     }
 
@@ -121,6 +153,13 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
 
     @Override
     public boolean start() {
+        // roles and role permissions changed on this or any other management server
+        messageBus.subscribe(RoleService.MESSAGE_ROLE_CHANGED_EVENT, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                invalidateRolePermissions(Long.valueOf((String)args));
+            }
+        });
         for (PluggableService service : services) {
             for (Class<?> clz : service.getCommands()) {
                 APICommand command = clz.getAnnotation(APICommand.class);
@@ -141,4 +180,79 @@ public class DynamicRoleBasedAPIAccessChecker extends AdapterBase implements API
         this.services = services;
     }
 
+    /**
+     * The permissions of a role compiled for lookups: rules naming an api are found by hash lookup, wildcard
+     * rules are matched with their precompiled patterns. The resulting decision is cached per api name.
+     */
+    private class RolePermissionTable {
+        private static final int MAX_CACHED_DECISIONS = 4096;
+
+        private final RoleType roleType;
+        private final boolean rootAdmin;
+        private final Map<String, Integer> exactRules = new HashMap<>();
+        private final List<Rule> wildcardRules = new ArrayList<>();
+        private final List<Integer> wildcardPositions = new ArrayList<>();
+        private final List<RolePermission.Permission> permissions = new ArrayList<>();
+        private final ConcurrentHashMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+        private final long compiledAt = System.currentTimeMillis();
+
+        RolePermissionTable(final RoleType roleType, final boolean rootAdmin, final List<RolePermission> rolePermissions) {
+            this.roleType = roleType;
+            this.rootAdmin = rootAdmin;
+            for (final RolePermission rolePermission : rolePermissions) {
+                final Rule rule = rolePermission.getRule();
+                final int position = permissions.size();
+                permissions.add(rolePermission.getPermission());
+                if (rule.isWildcard()) {
+                    wildcardRules.add(rule);
+                    wildcardPositions.add(position);
+                } else {
+                    final String name = rule.getRuleString().toLowerCase();
+                    if (!exactRules.containsKey(name)) {
+                        exactRules.put(name, position);
+                    }
+                }
+            }
+        }
+
+        boolean isExpired(final long ttlMillis) {
+            return System.currentTimeMillis() - compiledAt >= ttlMillis;
+        }
+
+        boolean isAllowed(final String commandName) {
+            if (rootAdmin) {
+                return true;
+            }
+            if (Strings.isNullOrEmpty(commandName)) {
+                return false;
+            }
+            Boolean allowed = decisions.get(commandName);
+            if (allowed == null) {
+                allowed = decide(commandName);
+                if (decisions.size() < MAX_CACHED_DECISIONS) {
+                    decisions.put(commandName, allowed);
+                }
+            }
+            return allowed;
+        }
+
+        private boolean decide(final String commandName) {
+            // the first permission of the role matching the api decides, as they are ordered
+            final Integer exactPosition = exactRules.get(commandName.toLowerCase());
+            int matchingPosition = exactPosition != null ? exactPosition : Integer.MAX_VALUE;
+            for (int i = 0; i < wildcardRules.size() && wildcardPositions.get(i) < matchingPosition; i++) {
+                if (wildcardRules.get(i).matches(commandName)) {
+                    matchingPosition = wildcardPositions.get(i);
+                    break;
+                }
+            }
+            if (matchingPosition != Integer.MAX_VALUE) {
+                return RolePermission.Permission.ALLOW.equals(permissions.get(matchingPosition));
+            }
+
+            // Check annotations
+            final Set<String> annotatedApis = annotationRoleBasedApisMap.get(roleType);
+            return annotatedApis != null && annotatedApis.contains(commandName);
+        }
+    }
 }
@@ -31,6 +31,7 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collections;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -161,4 +162,58 @@ public class DynamicRoleBasedAPIAccessCheckerTest extends TestCase {
         assertTrue(apiAccessChecker.checkAccess(getTestUser(), allowedApiName));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRolePermissionsOrderCheckAccess() {
+        final RolePermission denyPermission = new RolePermissionVO(1L, "*Vm*", RolePermission.Permission.DENY, null);
+        final RolePermission allowPermission = new RolePermissionVO(1L, "listVms", RolePermission.Permission.ALLOW, null);
+        final RolePermission allowAllPermission = new RolePermissionVO(1L, "*", RolePermission.Permission.ALLOW, null);
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Arrays.asList(denyPermission, allowPermission, allowAllPermission));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), "listZones"));
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), "LISTVMS");
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+    }
+
+    @Test
+    public void testCompiledRolePermissionsAreCachedAndInvalidated() {
+        final String allowedApiName = "someAllowedApi";
+        final RolePermission permission = new RolePermissionVO(1L, allowedApiName, RolePermission.Permission.ALLOW, null);
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Collections.singletonList(permission));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(apiAccessChecker.checkAccess(getTestUser(), allowedApiName));
+        }
+        Mockito.verify(roleService, Mockito.times(1)).findRole(Mockito.anyLong());
+        Mockito.verify(roleService, Mockito.times(1)).findAllPermissionsBy(Mockito.anyLong());
+
+        // the permission is revoked, possibly on another management server
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Collections.<RolePermission>emptyList());
+        apiAccessChecker.invalidateRolePermissions(getTestRole().getId());
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), allowedApiName);
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+        Mockito.verify(roleService, Mockito.times(2)).findAllPermissionsBy(Mockito.anyLong());
+    }
+
+    @Test
+    public void testCompiledRolePermissionsExpire() {
+        final String allowedApiName = "someAllowedApi";
+        final RolePermission permission = new RolePermissionVO(1L, allowedApiName, RolePermission.Permission.ALLOW, null);
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Collections.singletonList(permission));
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), allowedApiName));
+
+        // the permission is revoked on another management server and the change is never received here
+        Mockito.when(roleService.findAllPermissionsBy(Mockito.anyLong())).thenReturn(Collections.<RolePermission>emptyList());
+        assertTrue(apiAccessChecker.checkAccess(getTestUser(), allowedApiName));
+        Mockito.doReturn(0L).when(apiAccessChecker).getRolePermissionsTtlMillis();
+        try {
+            apiAccessChecker.checkAccess(getTestUser(), allowedApiName);
+            fail("Exception was expected");
+        } catch (PermissionDeniedException ignored) {
+        }
+        Mockito.verify(roleService, Mockito.times(2)).findAllPermissionsBy(Mockito.anyLong());
+    }
+}
@@ -259,6 +259,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     private final Map <String, String> _pifs = new HashMap<String, String>();
     private final Map<String, VmStats> _vmStats = new ConcurrentHashMap<String, VmStats>();
+    private final LibvirtDomainDefinitionCache _domainDefinitions = new LibvirtDomainDefinitionCache();
 
     protected static final HashMap<DomainState, PowerState> s_powerStatesTable;
     static {
@@ -1326,6 +1327,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 }
             }
 
+            invalidateDomainDefinition(vmName);
             conn.domainCreateXML(domainXML, 0);
         } catch (final LibvirtException e) {
             throw e;
@@ -1540,6 +1542,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTO.getType()).plug(nicTO, "Other PV", "").toString());
+        invalidateDomainDefinition(vmName);
     }
 
 
@@ -1551,6 +1554,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (final InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                invalidateDomainDefinition(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (final VifDriver vifDriver : getAllVifDrivers()) {
@@ -2398,6 +2402,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
             throw e;
         } finally {
+            invalidateDomainDefinition(vmName);
             if (dm != null) {
                 try {
                     dm.free();
@@ -2875,6 +2880,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             s_logger.debug("Interrupted sleep");
             return ie.getMessage();
         } finally {
+            invalidateDomainDefinition(vmName);
             try {
                 if (dm != null) {
                     dm.free();
@@ -2979,12 +2985,11 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     }
 
     public List<InterfaceDef> getInterfaces(final Connect conn, final String vmName) {
-        final LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
         Domain dm = null;
         try {
             dm = conn.domainLookupByName(vmName);
-            parser.parseDomainXML(dm.getXMLDesc(0));
-            return parser.getInterfaces();
+            final LibvirtDomainXMLParser parser = _domainDefinitions.get(vmName, dm);
+            return parser != null ? new ArrayList<InterfaceDef>(parser.getInterfaces()) : new ArrayList<InterfaceDef>();
 
         } catch (final LibvirtException e) {
             s_logger.debug("Failed to get dom xml: " + e.toString());
@@ -3001,12 +3006,11 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
     }
 
     public List<DiskDef> getDisks(final Connect conn, final String vmName) {
-        final LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
         Domain dm = null;
         try {
             dm = conn.domainLookupByName(vmName);
-            parser.parseDomainXML(dm.getXMLDesc(0));
-            return parser.getDisks();
+            final LibvirtDomainXMLParser parser = _domainDefinitions.get(vmName, dm);
+            return parser != null ? new ArrayList<DiskDef>(parser.getDisks()) : new ArrayList<DiskDef>();
 
         } catch (final LibvirtException e) {
             s_logger.debug("Failed to get dom xml: " + e.toString());
@@ -3022,6 +3026,17 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
+    /**
+     * To be called whenever the devices of a domain change, or the domain goes away, see LibvirtDomainDefinitionCache.
+     */
+    public void invalidateDomainDefinition(final String vmName) {
+        _domainDefinitions.invalidate(vmName);
+    }
+
+    public LibvirtDomainDefinitionCache getDomainDefinitionCache() {
+        return _domainDefinitions;
+    }
+
     private String executeBashScript(final String script) {
         final Script command = new Script("/bin/bash", _timeout, s_logger);
         command.add("-c");
@@ -3074,7 +3089,31 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         Calendar _timestamp;
     }
 
+    /**
+     * Stats of the VMs of a connection, what is the same for all of them is only fetched once.
+     * The VMs whose stats can not be read are left out.
+     */
+    public Map<String, VmStatsEntry> getVmStats(final Connect conn, final List<String> vmNames) throws LibvirtException {
+        final NodeInfo node = conn.nodeInfo();
+        final Map<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (final String vmName : vmNames) {
+            try {
+                final VmStatsEntry statEntry = getVmStat(conn, vmName, node);
+                if (statEntry != null) {
+                    stats.put(vmName, statEntry);
+                }
+            } catch (final LibvirtException e) {
+                s_logger.warn("Can't get vm stats: " + e.toString() + ", continue");
+            }
+        }
+        return stats;
+    }
+
     public VmStatsEntry getVmStat(final Connect conn, final String vmName) throws LibvirtException {
+        return getVmStat(conn, vmName, null);
+    }
+
+    private VmStatsEntry getVmStat(final Connect conn, final String vmName, NodeInfo node) throws LibvirtException {
         Domain dm = null;
         try {
             dm = getDomain(conn, vmName);
@@ -3103,7 +3142,9 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 elapsedTime = now.getTimeInMillis() - oldStats._timestamp.getTimeInMillis();
                 double utilization = (info.cpuTime - oldStats._usedTime) / ((double)elapsedTime * 1000000);
 
-                final NodeInfo node = conn.nodeInfo();
+                if (node == null) {
+                    node = conn.nodeInfo();
+                }
                 utilization = utilization / node.cpus;
                 if (utilization > 0) {
                     stats.setCPUUtilization(utilization * 100);
@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.resource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.libvirt.Domain;
+import org.libvirt.LibvirtException;
+
+/**
+ * Parsed definitions of the domains on this host, so that the stats and the nic lookups do not fetch and parse the
+ * domain XML every time.
+ *
+ * A definition is only used while the domain keeps the id it had when the definition was parsed, libvirt hands out a
+ * new id when a domain is started, created again or migrated in. Attaching or detaching a device keeps the id, so the
+ * resource invalidates the definition whenever it changes the devices of a domain, and definitions expire after a
+ * while in case the devices were changed behind the agent's back.
+ */
+public class LibvirtDomainDefinitionCache {
+    private static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    private final Map<String, Definition> _definitions = new ConcurrentHashMap<String, Definition>();
+    // a definition parsed while the cache was invalidated may be the old one, it is not kept
+    private final AtomicLong _invalidations = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * @return the parsed definition of the domain, null if its XML could not be parsed.
+     */
+    public LibvirtDomainXMLParser get(final String vmName, final Domain dm) throws LibvirtException {
+        final int id = dm.getID();
+        final long now = System.currentTimeMillis();
+        final Definition definition = _definitions.get(vmName);
+        if (definition != null && definition._id == id && definition._expires > now) {
+            _hits.incrementAndGet();
+            return definition._parser;
+        }
+
+        _misses.incrementAndGet();
+        final long invalidations = _invalidations.get();
+        final LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
+        if (!parser.parseDomainXML(dm.getXMLDesc(0))) {
+            return null;
+        }
+        _definitions.put(vmName, new Definition(id, now + MAX_AGE_MILLIS, parser));
+        if (_invalidations.get() != invalidations) {
+            _definitions.remove(vmName);
+        }
+        return parser;
+    }
+
+    public void invalidate(final String vmName) {
+        _invalidations.incrementAndGet();
+        _definitions.remove(vmName);
+    }
+
+    public int size() {
+        return _definitions.size();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    private static class Definition {
+        final int _id;
+        final long _expires;
+        final LibvirtDomainXMLParser _parser;
+
+        Definition(final int id, final long expires, final LibvirtDomainXMLParser parser) {
+            _id = id;
+            _expires = expires;
+            _parser = parser;
+        }
+    }
+}
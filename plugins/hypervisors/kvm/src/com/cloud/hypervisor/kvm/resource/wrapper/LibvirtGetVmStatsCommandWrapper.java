@@ -19,8 +19,11 @@
 
 package com.cloud.hypervisor.kvm.resource.wrapper;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.libvirt.Connect;
@@ -44,21 +47,21 @@ public final class LibvirtGetVmStatsCommandWrapper extends CommandWrapper<GetVmS
         final List<String> vmNames = command.getVmNames();
         try {
             final HashMap<String, VmStatsEntry> vmStatsNameMap = new HashMap<String, VmStatsEntry>();
-            for (final String vmName : vmNames) {
-
-                final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
+            final LibvirtUtilitiesHelper libvirtUtilitiesHelper = libvirtComputingResource.getLibvirtUtilitiesHelper();
 
+            // the stats are read per connection, so that what they have in common is only fetched once
+            final Map<Connect, List<String>> vmNamesByConn = new LinkedHashMap<Connect, List<String>>();
+            for (final String vmName : vmNames) {
                 final Connect conn = libvirtUtilitiesHelper.getConnectionByVmName(vmName);
-                try {
-                    final VmStatsEntry statEntry = libvirtComputingResource.getVmStat(conn, vmName);
-                    if (statEntry == null) {
-                        continue;
-                    }
-
-                    vmStatsNameMap.put(vmName, statEntry);
-                } catch (LibvirtException e) {
-                    s_logger.warn("Can't get vm stats: " + e.toString() + ", continue");
+                List<String> names = vmNamesByConn.get(conn);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    vmNamesByConn.put(conn, names);
                 }
+                names.add(vmName);
+            }
+            for (final Map.Entry<Connect, List<String>> entry : vmNamesByConn.entrySet()) {
+                vmStatsNameMap.putAll(libvirtComputingResource.getVmStats(entry.getKey(), entry.getValue()));
             }
             return new GetVmStatsAnswer(command, vmStatsNameMap);
         } catch (final LibvirtException e) {
@@ -944,6 +944,7 @@ public class KVMStorageProcessor implements StorageProcessor {
             }
             throw e;
         } finally {
+            resource.invalidateDomainDefinition(vmName);
             if (dm != null) {
                 try {
                     dm.free();
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.LibvirtException;
+
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.InterfaceDef;
+
+public class LibvirtDomainDefinitionCacheTest {
+
+    static String createDomainXML(String vmName, int nics, int disks) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<domain type='kvm' id='12'>\n");
+        xml.append("  <name>").append(vmName).append("</name>\n");
+        xml.append("  <uuid>1e8a2ee0-6d1d-4d59-9d5f-3b5e16b1d1a1</uuid>\n");
+        xml.append("  <description>CentOS 7</description>\n");
+        xml.append("  <memory unit='KiB'>2097152</memory>\n  <currentMemory unit='KiB'>2097152</currentMemory>\n");
+        xml.append("  <vcpu placement='static'>2</vcpu>\n  <cputune><shares>2000</shares></cputune>\n");
+        xml.append("  <os><type arch='x86_64' machine='pc-i440fx-rhel7.0.0'>hvm</type><boot dev='cdrom'/><boot dev='hd'/></os>\n");
+        xml.append("  <features><acpi/><apic/><pae/></features>\n");
+        xml.append("  <clock offset='utc'/>\n  <on_poweroff>destroy</on_poweroff>\n  <on_reboot>restart</on_reboot>\n  <on_crash>destroy</on_crash>\n");
+        xml.append("  <devices>\n    <emulator>/usr/libexec/qemu-kvm</emulator>\n");
+        for (int i = 0; i < disks; i++) {
+            xml.append("    <disk type='file' device='disk'>\n");
+            xml.append("      <driver name='qemu' type='qcow2' cache='none'/>\n");
+            xml.append("      <source file='/mnt/1e8a2ee0-6d1d-4d59-9d5f-3b5e16b1d1a1/0b9a5c7e-2f4c-4b63-8a44-6e3b1c2d").append(1000 + i).append("'/>\n");
+            xml.append("      <target dev='vd").append((char)('a' + i)).append("' bus='virtio'/>\n");
+            xml.append("      <serial>0b9a5c7e2f4c4b638a44</serial>\n");
+            xml.append("      <iotune><read_bytes_sec>10485760</read_bytes_sec><write_bytes_sec>10485760</write_bytes_sec></iotune>\n");
+            xml.append("    </disk>\n");
+        }
+        xml.append("    <disk type='file' device='cdrom'>\n      <driver name='qemu' type='raw' cache='none'/>\n");
+        xml.append("      <target dev='hdc' bus='ide'/>\n      <readonly/>\n    </disk>\n");
+        for (int i = 0; i < nics; i++) {
+            xml.append("    <interface type='bridge'>\n");
+            xml.append("      <mac address='06:e4:30:00:00:").append(String.format("%02x", i)).append("'/>\n");
+            xml.append("      <source bridge='breth1-").append(100 + i).append("'/>\n");
+            xml.append("      <bandwidth><inbound average='25600' peak='25600'/><outbound average='25600' peak='25600'/></bandwidth>\n");
+            xml.append("      <target dev='vnet").append(i).append("'/>\n");
+            xml.append("      <model type='virtio'/>\n");
+            xml.append("    </interface>\n");
+        }
+        xml.append("    <serial type='pty'><target port='0'/></serial>\n    <console type='pty'><target type='serial' port='0'/></console>\n");
+        xml.append("    <input type='tablet' bus='usb'/>\n");
+        xml.append("    <graphics type='vnc' port='5901' autoport='yes' listen='10.1.1.10'><listen type='address' address='10.1.1.10'/></graphics>\n");
+        xml.append("    <video><model type='cirrus' vram='16384' heads='1'/></video>\n");
+        xml.append("  </devices>\n</domain>\n");
+        return xml.toString();
+    }
+
+    static Domain createDomain(String vmName, int id) throws LibvirtException {
+        Domain domain = mock(Domain.class);
+        when(domain.getID()).thenReturn(id);
+        when(domain.getXMLDesc(0)).thenReturn(createDomainXML(vmName, 2, 2));
+        return domain;
+    }
+
+    @Test
+    public void testDefinitionIsParsedOnce() throws LibvirtException {
+        LibvirtDomainDefinitionCache cache = new LibvirtDomainDefinitionCache();
+        Domain domain = createDomain("i-2-10-VM", 12);
+
+        LibvirtDomainXMLParser parser = cache.get("i-2-10-VM", domain);
+        assertEquals(2, parser.getInterfaces().size());
+        assertEquals(3, parser.getDisks().size());
+        assertSame(parser, cache.get("i-2-10-VM", domain));
+        verify(domain, times(1)).getXMLDesc(0);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testNewDomainIdIsParsedAgain() throws LibvirtException {
+        LibvirtDomainDefinitionCache cache = new LibvirtDomainDefinitionCache();
+        LibvirtDomainXMLParser parser = cache.get("i-2-10-VM", createDomain("i-2-10-VM", 12));
+
+        Domain restarted = createDomain("i-2-10-VM", 13);
+        LibvirtDomainXMLParser reparsed = cache.get("i-2-10-VM", restarted);
+        verify(restarted, times(1)).getXMLDesc(0);
+        assertEquals(parser.getInterfaces().size(), reparsed.getInterfaces().size());
+        assertSame(reparsed, cache.get("i-2-10-VM", restarted));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws LibvirtException {
+        LibvirtDomainDefinitionCache cache = new LibvirtDomainDefinitionCache();
+        Domain domain = createDomain("i-2-10-VM", 12);
+        cache.get("i-2-10-VM", domain);
+
+        cache.invalidate("i-2-10-VM");
+        assertEquals(0, cache.size());
+        cache.get("i-2-10-VM", domain);
+        verify(domain, times(2)).getXMLDesc(0);
+    }
+
+    @Test
+    public void testInvalidXMLIsNotCached() throws LibvirtException {
+        LibvirtDomainDefinitionCache cache = new LibvirtDomainDefinitionCache();
+        Domain domain = mock(Domain.class);
+        when(domain.getXMLDesc(0)).thenReturn("<domain");
+        assertNull(cache.get("i-2-10-VM", domain));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testResourceServesDevicesFromTheCache() throws LibvirtException {
+        Connect conn = mock(Connect.class);
+        Domain domain = createDomain("i-2-10-VM", 12);
+        when(conn.domainLookupByName("i-2-10-VM")).thenReturn(domain);
+        LibvirtComputingResource resource = new LibvirtComputingResource();
+
+        List<InterfaceDef> nics = resource.getInterfaces(conn, "i-2-10-VM");
+        List<DiskDef> disks = resource.getDisks(conn, "i-2-10-VM");
+        assertEquals("vnet1", nics.get(1).getDevName());
+        assertEquals("vdb", disks.get(1).getDiskLabel());
+        verify(domain, times(1)).getXMLDesc(0);
+
+        resource.invalidateDomainDefinition("i-2-10-VM");
+        resource.getInterfaces(conn, "i-2-10-VM");
+        verify(domain, times(2)).getXMLDesc(0);
+    }
+}
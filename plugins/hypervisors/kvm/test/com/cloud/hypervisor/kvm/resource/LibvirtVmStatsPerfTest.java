@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.cloud.hypervisor.kvm.resource;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.libvirt.Connect;
+import org.libvirt.Domain;
+import org.libvirt.DomainBlockStats;
+import org.libvirt.DomainInfo;
+import org.libvirt.DomainInterfaceStats;
+import org.libvirt.LibvirtException;
+import org.libvirt.MemoryStatistic;
+import org.libvirt.NodeInfo;
+
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.DiskDef;
+import com.cloud.hypervisor.kvm.resource.LibvirtVMDef.InterfaceDef;
+
+/**
+ * Measures the stats of a host with 200 VMs on a mocked libvirt connection, reading the domain definitions every
+ * time like the agent used to against the cached definitions.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class LibvirtVmStatsPerfTest {
+    private static final int VMS = 200;
+    private static final int ROUNDS = 50;
+
+    private static Connect createConnect(List<String> vmNames) throws LibvirtException {
+        Connect conn = mock(Connect.class);
+        NodeInfo node = new NodeInfo();
+        node.cpus = 32;
+        when(conn.nodeInfo()).thenReturn(node);
+        DomainInfo info = new DomainInfo();
+        info.nrVirtCpu = 2;
+        info.maxMem = 2097152;
+        info.memory = 2097152;
+        for (int i = 0; i < VMS; i++) {
+            String vmName = "i-2-" + i + "-VM";
+            vmNames.add(vmName);
+            Domain domain = LibvirtDomainDefinitionCacheTest.createDomain(vmName, i + 1);
+            when(domain.getInfo()).thenReturn(info);
+            when(domain.memoryStats(anyInt())).thenReturn(new MemoryStatistic[0]);
+            when(domain.interfaceStats(anyString())).thenReturn(new DomainInterfaceStats());
+            when(domain.blockStats(anyString())).thenReturn(new DomainBlockStats());
+            when(conn.domainLookupByName(vmName)).thenReturn(domain);
+        }
+        return conn;
+    }
+
+    private static long run(String name, LibvirtComputingResource resource, Connect conn, List<String> vmNames, boolean bulk) throws LibvirtException {
+        long start = 0;
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            if (i == ROUNDS) {
+                start = System.nanoTime();
+            }
+            if (bulk) {
+                Map<String, VmStatsEntry> stats = resource.getVmStats(conn, vmNames);
+                Assert.assertEquals(VMS, stats.size());
+            } else {
+                for (String vmName : vmNames) {
+                    Assert.assertNotNull(resource.getVmStat(conn, vmName));
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println(name + ": " + nanos / ROUNDS / 1000 + " us per GetVmStatsCommand of " + VMS + " VMs");
+        return nanos;
+    }
+
+    @Test
+    public void testVmStats() throws LibvirtException {
+        List<String> vmNames = new ArrayList<String>();
+        Connect conn = createConnect(vmNames);
+
+        LibvirtComputingResource uncached = new LibvirtComputingResource() {
+            @Override
+            public List<InterfaceDef> getInterfaces(Connect conn, String vmName) {
+                LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
+                try {
+                    parser.parseDomainXML(conn.domainLookupByName(vmName).getXMLDesc(0));
+                } catch (LibvirtException e) {
+                    Assert.fail(e.getMessage());
+                }
+                return parser.getInterfaces();
+            }
+
+            @Override
+            public List<DiskDef> getDisks(Connect conn, String vmName) {
+                LibvirtDomainXMLParser parser = new LibvirtDomainXMLParser();
+                try {
+                    parser.parseDomainXML(conn.domainLookupByName(vmName).getXMLDesc(0));
+                } catch (LibvirtException e) {
+                    Assert.fail(e.getMessage());
+                }
+                return parser.getDisks();
+            }
+        };
+        long before = run("parsed per request", uncached, conn, vmNames, false);
+
+        LibvirtComputingResource cached = new LibvirtComputingResource();
+        long after = run("cached definitions", cached, conn, vmNames, true);
+        System.out.println("speedup " + (double)before / after + ", definitions cached " + cached.getDomainDefinitionCache().size());
+    }
+}
@@ -0,0 +1,338 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.resource;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.manager.SimulatorManager;
+import com.cloud.host.dao.HostDaoImpl;
+import com.cloud.simulator.MockHost;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.vm.VirtualMachine.PowerState;
+import com.cloud.vm.VirtualMachineManager;
+import com.cloud.vm.VirtualMachinePowerStateSyncImpl;
+import com.cloud.vm.dao.NicDaoImpl;
+import com.cloud.vm.dao.VMInstanceDaoImpl;
+
+/**
+ * Feeds the VM state report of a simulated host with 10000 VMs to the power state sync, with the real VMInstanceDaoImpl
+ * running on a connection that keeps the vm_instance rows in memory and counts the statements sent to it.
+ */
+public class AgentRoutingResourcePowerStateSyncTest {
+    private static final int VM_COUNT = 10000;
+    private static final long HOST_ID = 1L;
+    // the vm_instance columns the rows hold, in this order
+    private static final String[] COLUMNS = {"id", "name", "instance_name", "state", "host_id", "power_state", "power_host",
+            "power_state_update_count", "power_state_update_time"};
+
+    AgentRoutingResource resource;
+    VirtualMachinePowerStateSyncImpl powerStateSync;
+    MessageBus messageBus;
+    TransactionLegacy txn;
+    Map<String, PowerState> vmStates = new HashMap<String, PowerState>();
+    Map<Long, Object[]> rows = new LinkedHashMap<Long, Object[]>();
+    List<String> executed = new ArrayList<String>();
+    int batchedRows;
+
+    @Before
+    public void setup() throws Exception {
+        for (long i = 1; i <= VM_COUNT; i++) {
+            String instanceName = "i-2-" + i + "-VM";
+            rows.put(i, new Object[] {i, "vm" + i, instanceName, "Running", HOST_ID, null, null, 0, null});
+            vmStates.put(instanceName, PowerState.PowerOn);
+        }
+
+        SimulatorManager simMgr = mock(SimulatorManager.class);
+        when(simMgr.getVmStates("sim-host")).thenReturn(vmStates);
+        MockHost host = mock(MockHost.class);
+        when(host.getName()).thenReturn("sim-host");
+        resource = new AgentRoutingResource(1L, SimulatorManager.AgentType.Routing, simMgr, "sim-host");
+        resource._simMgr = simMgr;
+        resource.agentHost = host;
+
+        VMInstanceDaoImpl instanceDao = new VMInstanceDaoImpl();
+        setField(VMInstanceDaoImpl.class, instanceDao, "_hostDao", new HostDaoImpl());
+        setField(VMInstanceDaoImpl.class, instanceDao, "_nicDao", new NicDaoImpl());
+        Method init = VMInstanceDaoImpl.class.getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(instanceDao);
+        messageBus = mock(MessageBus.class);
+
+        powerStateSync = new VirtualMachinePowerStateSyncImpl();
+        setField(VirtualMachinePowerStateSyncImpl.class, powerStateSync, "_instanceDao", instanceDao);
+        setField(VirtualMachinePowerStateSyncImpl.class, powerStateSync, "_messageBus", messageBus);
+
+        txn = TransactionLegacy.open("AgentRoutingResourcePowerStateSyncTest");
+        txn.transitToUserManagedConnection(createConnection());
+    }
+
+    @After
+    public void tearDown() {
+        txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+        txn.close();
+    }
+
+    private void setField(Class<?> clazz, Object target, String name, Object value) throws Exception {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Test
+    public void testStatementsPerPing() {
+        Map<String, HostVmStateReportEntry> report = resource.getHostVmStateReport();
+        Assert.assertEquals(VM_COUNT, report.size());
+
+        powerStateSync.processHostVmStatePingReport(HOST_ID, report);
+
+        // the VMs of the report are read with one query, written with one batch and the missing ones looked up with one more query
+        Assert.assertEquals(3, executed.size());
+        Assert.assertTrue(executed.get(0).startsWith("SELECT"));
+        Assert.assertTrue(executed.get(1).startsWith("UPDATE `cloud`.`vm_instance` SET power_state"));
+        Assert.assertTrue(executed.get(2).startsWith("SELECT"));
+        Assert.assertEquals(VM_COUNT, batchedRows);
+        for (Object[] row : rows.values()) {
+            Assert.assertEquals("PowerOn", row[5]);
+            Assert.assertEquals(HOST_ID, row[6]);
+            Assert.assertEquals(1, row[7]);
+        }
+        ArgumentCaptor<Object> published = ArgumentCaptor.forClass(Object.class);
+        verify(messageBus, times(1)).publish(anyString(), eq(VirtualMachineManager.Topics.VM_POWER_STATE), eq(PublishScope.GLOBAL), published.capture());
+        Assert.assertEquals(VM_COUNT, ((Collection<?>)published.getValue()).size());
+
+        // the same state is counted up by the next two pings, still with one batch each
+        powerStateSync.processHostVmStatePingReport(HOST_ID, resource.getHostVmStateReport());
+        powerStateSync.processHostVmStatePingReport(HOST_ID, resource.getHostVmStateReport());
+        Assert.assertEquals(9, executed.size());
+        Assert.assertEquals(3 * VM_COUNT, batchedRows);
+        for (Object[] row : rows.values()) {
+            Assert.assertEquals(3, row[7]);
+        }
+
+        // from then on a ping only reads
+        powerStateSync.processHostVmStatePingReport(HOST_ID, resource.getHostVmStateReport());
+        Assert.assertEquals(11, executed.size());
+        Assert.assertTrue(executed.get(9).startsWith("SELECT"));
+        Assert.assertTrue(executed.get(10).startsWith("SELECT"));
+        Assert.assertEquals(3 * VM_COUNT, batchedRows);
+        verify(messageBus, times(3)).publish(anyString(), eq(VirtualMachineManager.Topics.VM_POWER_STATE), eq(PublishScope.GLOBAL), any());
+    }
+
+    private Connection createConnection() {
+        return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareStatement")) {
+                    return createStatement((String)args[0]);
+                }
+                if (method.getName().equals("isValid")) {
+                    return true;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private PreparedStatement createStatement(final String sql) {
+        final Map<Integer, Object> params = new HashMap<Integer, Object>();
+        final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>>();
+        return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    Object value = name.equals("setNull") ? null : args[1];
+                    // the DAO binds strings as UTF-8 bytes
+                    params.put((Integer)args[0], value instanceof byte[] ? new String((byte[])value, StandardCharsets.UTF_8) : value);
+                    return null;
+                }
+                if (name.equals("addBatch")) {
+                    batch.add(new HashMap<Integer, Object>(params));
+                    params.clear();
+                    return null;
+                }
+                if (name.equals("executeBatch")) {
+                    executed.add(sql);
+                    batchedRows += batch.size();
+                    int[] counts = new int[batch.size()];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = updatePowerState(batch.get(i));
+                    }
+                    batch.clear();
+                    return counts;
+                }
+                if (name.equals("executeQuery")) {
+                    executed.add(sql);
+                    return createResultSet(select(params.values()));
+                }
+                if (name.startsWith("execute")) {
+                    executed.add(sql);
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * Applies one row of the power state UPDATE: state, host, count and time are set where id, count and time still match.
+     */
+    private int updatePowerState(Map<Integer, Object> params) {
+        Object[] row = rows.get(params.get(5));
+        if (row == null || !params.get(6).equals(row[7]) || (params.get(7) == null ? row[8] != null : !params.get(7).equals(row[8]))) {
+            return 0;
+        }
+        row[5] = params.get(1);
+        row[6] = params.get(2);
+        row[7] = params.get(3);
+        row[8] = params.get(4);
+        return 1;
+    }
+
+    /**
+     * Returns the rows the two queries of a ping ask for, the ones with a bound instance name or with a bound host and state.
+     */
+    private List<Object[]> select(Collection<Object> params) {
+        List<Object[]> result = new ArrayList<Object[]>();
+        for (Object[] row : rows.values()) {
+            if (params.contains(row[2]) || params.contains(row[4]) && params.contains(row[3])) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    private ResultSet createResultSet(final List<Object[]> result) {
+        final ResultSetMetaData metaData = (ResultSetMetaData)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getColumnCount")) {
+                            return COLUMNS.length;
+                        }
+                        if (method.getName().equals("getTableName")) {
+                            return "vm_instance";
+                        }
+                        if (method.getName().equals("getColumnName") || method.getName().equals("getColumnLabel")) {
+                            return COLUMNS[(Integer)args[0] - 1];
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+        final int[] position = {-1};
+        final boolean[] wasNull = {false};
+        return (ResultSet)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++position[0] < result.size();
+                }
+                if (name.equals("getMetaData")) {
+                    return metaData;
+                }
+                if (name.equals("wasNull")) {
+                    return wasNull[0];
+                }
+                if (name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer) {
+                    Object value = result.get(position[0])[(Integer)args[0] - 1];
+                    wasNull[0] = value == null;
+                    return toColumnType(value, method.getReturnType());
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object toColumnType(Object value, Class<?> type) {
+        if (value == null) {
+            return defaultValue(type);
+        }
+        if (type == String.class) {
+            return value.toString();
+        }
+        if (type == byte[].class) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if (type == long.class) {
+            return ((Number)value).longValue();
+        }
+        if (type == int.class) {
+            return ((Number)value).intValue();
+        }
+        if (type == java.sql.Date.class) {
+            // only checked for null, the mapper parses the date from the string
+            return new java.sql.Date(0);
+        }
+        return value;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == short.class) {
+            return (short)0;
+        }
+        if (type == byte.class) {
+            return (byte)0;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        return null;
+    }
+}
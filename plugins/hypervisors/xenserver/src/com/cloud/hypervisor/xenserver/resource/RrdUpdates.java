@@ -0,0 +1,173 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The averages of the columns of an rrd_updates export that were asked for.
+ *
+ * The export is read as a stream: only the legend entries and the values of the columns the filter accepted are
+ * kept, as sums and counts per column, instead of building the whole document in memory. On a host with many VMs the
+ * export has thousands of columns and most of its values are never looked at.
+ */
+public class RrdUpdates {
+
+    private static final XMLInputFactory s_inputFactory = XMLInputFactory.newInstance();
+    static {
+        s_inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        s_inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    public interface ColumnFilter {
+        /**
+         * @return true if the values of the column with this legend entry, like AVERAGE:vm:uuid:cpu0, are needed.
+         */
+        boolean accept(String type, String uuid, String name);
+    }
+
+    private final int _rows;
+    private final String[] _types;
+    private final String[] _uuids;
+    private final String[] _names;
+    private final double[] _sums;
+    private final int[] _counts;
+
+    private RrdUpdates(final int rows, final List<String[]> legend, final double[] sums, final int[] counts) {
+        _rows = rows;
+        _types = new String[legend.size()];
+        _uuids = new String[legend.size()];
+        _names = new String[legend.size()];
+        for (int i = 0; i < legend.size(); i++) {
+            _types[i] = legend.get(i)[1];
+            _uuids[i] = legend.get(i)[2];
+            _names[i] = legend.get(i)[3];
+        }
+        _sums = sums;
+        _counts = counts;
+    }
+
+    public static RrdUpdates parse(final InputStream in, final ColumnFilter filter) throws XMLStreamException {
+        final XMLStreamReader reader = s_inputFactory.createXMLStreamReader(in);
+        try {
+            return parse(reader, filter);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static RrdUpdates parse(final XMLStreamReader reader, final ColumnFilter filter) throws XMLStreamException {
+        final List<String[]> legend = new ArrayList<String[]>();
+        // for each column of the export, its index in the accepted columns or -1
+        final List<Integer> columns = new ArrayList<Integer>();
+        int[] indexes = null;
+        double[] sums = null;
+        int[] counts = null;
+        int rows = 0;
+        int column = -1;
+
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            final String element = reader.getLocalName();
+            if ("entry".equals(element)) {
+                final String[] entry = reader.getElementText().split(":");
+                if (entry.length == 4 && filter.accept(entry[1], entry[2], entry[3])) {
+                    columns.add(legend.size());
+                    legend.add(entry);
+                } else {
+                    columns.add(-1);
+                }
+            } else if ("data".equals(element)) {
+                indexes = new int[columns.size()];
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i] = columns.get(i);
+                }
+                sums = new double[legend.size()];
+                counts = new int[legend.size()];
+            } else if ("row".equals(element)) {
+                rows++;
+                column = -1;
+            } else if ("v".equals(element) && indexes != null) {
+                column++;
+                if (column < indexes.length && indexes[column] >= 0) {
+                    final double value = parseValue(reader.getElementText());
+                    if (!Double.isNaN(value)) {
+                        sums[indexes[column]] += value;
+                        counts[indexes[column]]++;
+                    }
+                }
+            }
+        }
+
+        if (indexes == null) {
+            throw new XMLStreamException("No data in rrd updates");
+        }
+        return new RrdUpdates(rows, legend, sums, counts);
+    }
+
+    private static double parseValue(final String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (final NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    public int getRows() {
+        return _rows;
+    }
+
+    /**
+     * @return the number of columns the filter accepted.
+     */
+    public int getColumns() {
+        return _types.length;
+    }
+
+    public String getType(final int column) {
+        return _types[column];
+    }
+
+    public String getUuid(final int column) {
+        return _uuids[column];
+    }
+
+    public String getName(final int column) {
+        return _names[column];
+    }
+
+    /**
+     * @return the average of the values of the column over all rows, leaving out the rows without a value, or 0 if
+     *         the average is not a finite number.
+     */
+    public double getAverage(final int column) {
+        final double average = _counts[column] == 0 ? _sums[column] : _sums[column] / _counts[column];
+        if (Double.isNaN(average) || Double.isInfinite(average)) {
+            return 0;
+        }
+        return average;
+    }
+}
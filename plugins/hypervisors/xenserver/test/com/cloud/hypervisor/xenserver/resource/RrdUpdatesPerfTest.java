@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares the time it takes to get the averages of all vm columns out of a recorded rrd_updates export, with the
+ * streaming parser and with a DOM walk the way the stats used to be collected.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class RrdUpdatesPerfTest {
+    private static final int ROUNDS = 500;
+
+    private static byte[] load(final String fixture) throws IOException {
+        try (InputStream in = RrdUpdatesPerfTest.class.getResourceAsStream("/rrd/" + fixture)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static double streaming(final byte[] xml) throws Exception {
+        final RrdUpdates updates = RrdUpdates.parse(new ByteArrayInputStream(xml), RrdUpdatesTest.accept("vm", null));
+        double total = 0;
+        for (int col = 0; col < updates.getColumns(); col++) {
+            total += updates.getAverage(col);
+        }
+        return total;
+    }
+
+    private static String value(final Node node) {
+        return node.getChildNodes().item(0).getNodeValue();
+    }
+
+    private static double dom(final byte[] xml) throws Exception {
+        final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        final NodeList children = doc.getDocumentElement().getChildNodes();
+        final Node meta = children.item(0);
+        final Node data = children.item(1);
+        int rows = 0;
+        Node legend = null;
+        for (int i = 0; i < meta.getChildNodes().getLength(); i++) {
+            final Node n = meta.getChildNodes().item(i);
+            if (n.getNodeName().equals("rows")) {
+                rows = Integer.parseInt(value(n));
+            } else if (n.getNodeName().equals("legend")) {
+                legend = n;
+            }
+        }
+        double total = 0;
+        for (int col = 0; col < legend.getChildNodes().getLength(); col++) {
+            if (!value(legend.getChildNodes().item(col)).split(":")[1].equals("vm")) {
+                continue;
+            }
+            double sum = 0;
+            int used = 0;
+            for (int row = 0; row < rows; row++) {
+                final double v = Double.valueOf(value(data.getChildNodes().item(rows - 1 - row).getChildNodes().item(col + 1)));
+                if (!Double.isNaN(v)) {
+                    sum += v;
+                    used++;
+                }
+            }
+            total += used == 0 ? sum : sum / used;
+        }
+        return total;
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final byte[] xml = load("vm_rrd_updates.xml");
+        Assert.assertEquals(dom(xml), streaming(xml), 1e-3);
+
+        long start = 0;
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            if (i == ROUNDS) {
+                start = System.nanoTime();
+            }
+            dom(xml);
+        }
+        final long domNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            if (i == ROUNDS) {
+                start = System.nanoTime();
+            }
+            streaming(xml);
+        }
+        final long streamingNanos = System.nanoTime() - start;
+
+        System.out.println("dom: " + domNanos / ROUNDS / 1000 + " us per export, streaming: " + streamingNanos / ROUNDS / 1000 + " us per export, speedup "
+                + (double)domNanos / streamingNanos);
+    }
+}
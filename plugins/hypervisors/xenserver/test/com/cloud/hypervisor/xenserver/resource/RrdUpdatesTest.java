@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xenserver.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RrdUpdatesTest {
+    static final String HOST_UUID = "2f1ba926-94a0-48e2-ac32-fc4049ecc5a2";
+    static final String VM_UUID = "5a74451f-811d-45aa-bd70-a0a9d9a91cf1";
+
+    static RrdUpdates parse(final String fixture, final RrdUpdates.ColumnFilter filter) throws IOException, XMLStreamException {
+        try (InputStream in = RrdUpdatesTest.class.getResourceAsStream("/rrd/" + fixture)) {
+            return RrdUpdates.parse(in, filter);
+        }
+    }
+
+    static RrdUpdates.ColumnFilter accept(final String type, final String uuid) {
+        return new RrdUpdates.ColumnFilter() {
+            @Override
+            public boolean accept(final String columnType, final String columnUuid, final String name) {
+                return columnType.equals(type) && (uuid == null || columnUuid.equals(uuid));
+            }
+        };
+    }
+
+    private static RrdUpdates parseString(final String xml) throws XMLStreamException {
+        return RrdUpdates.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), accept("host", null));
+    }
+
+    private static int find(final RrdUpdates updates, final String name) {
+        for (int col = 0; col < updates.getColumns(); col++) {
+            if (updates.getName(col).equals(name)) {
+                return col;
+            }
+        }
+        Assert.fail("No column " + name);
+        return -1;
+    }
+
+    @Test
+    public void testHostUpdates() throws Exception {
+        RrdUpdates updates = parse("host_rrd_updates.xml", accept("host", null));
+        Assert.assertEquals(19, updates.getRows());
+        Assert.assertEquals(14, updates.getColumns());
+        Assert.assertEquals(HOST_UUID, updates.getUuid(0));
+        Assert.assertEquals("host", updates.getType(0));
+        Assert.assertEquals(0.44190147368421046, updates.getAverage(find(updates, "cpu_avg")), 1e-9);
+        Assert.assertEquals(268000000.0, updates.getAverage(find(updates, "memory_total_kib")), 1e-3);
+        Assert.assertEquals(120009473.68421052, updates.getAverage(find(updates, "memory_free_kib")), 1e-3);
+        // one of the rows has no value
+        Assert.assertEquals(487409.77777777775, updates.getAverage(find(updates, "pif_eth0_rx")), 1e-6);
+    }
+
+    @Test
+    public void testOnlyAcceptedColumnsAreKept() throws Exception {
+        RrdUpdates updates = parse("vm_rrd_updates.xml", accept("vm", VM_UUID));
+        Assert.assertEquals(11, updates.getColumns());
+        for (int col = 0; col < updates.getColumns(); col++) {
+            Assert.assertEquals(VM_UUID, updates.getUuid(col));
+        }
+        Assert.assertEquals(0.5474029473684211, updates.getAverage(find(updates, "cpu0")), 1e-9);
+        Assert.assertEquals(744981333.3333334, updates.getAverage(find(updates, "memory_internal_free")), 1e-3);
+        Assert.assertEquals(3479200.0, updates.getAverage(find(updates, "vbd_xvdb_write")), 1e-6);
+
+        Assert.assertEquals(0, parse("vm_rrd_updates.xml", accept("host", null)).getColumns());
+        Assert.assertEquals(660, parse("vm_rrd_updates.xml", accept("vm", null)).getColumns());
+    }
+
+    @Test
+    public void testValuesThatAreNotNumbers() throws Exception {
+        RrdUpdates updates = parseString("<xport><meta><rows>2</rows><columns>4</columns><legend>"
+                + "<entry>AVERAGE:host:h:cpu0</entry><entry>AVERAGE:host:h:cpu1</entry><entry>broken</entry><entry>AVERAGE:host:h:cpu2</entry>"
+                + "</legend></meta><data>"
+                + "<row><t>2</t><v>NaN</v><v>Infinity</v><v>1.0</v><v>0.5</v></row>"
+                + "<row><t>1</t><v>NaN</v><v>1.0</v><v>1.0</v><v>-inf</v></row>"
+                + "</data></xport>");
+        Assert.assertEquals(3, updates.getColumns());
+        Assert.assertEquals("cpu2", updates.getName(2));
+        Assert.assertEquals(0, updates.getAverage(0), 0);
+        Assert.assertEquals(0, updates.getAverage(1), 0);
+        Assert.assertEquals(0.5, updates.getAverage(2), 0);
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void testNotAnExport() throws Exception {
+        parseString("<html><body>Unauthorized</body></html>");
+    }
+}
@@ -42,6 +42,18 @@ public class LdapConfiguration implements Configurable{
     private static final ConfigKey<Boolean> ldapEnableNestedGroups = new ConfigKey<Boolean>(Boolean.class, "ldap.nested.groups.enable", "Advanced", "true",
                                                                                             "if true, nested groups will also be queried", true, ConfigKey.Scope.Global, null);
 
+    private static final ConfigKey<Integer> ldapConnectionPoolSize = new ConfigKey<Integer>(Integer.class, "ldap.connection.pool.size", "Advanced", "10",
+                                                                                            "maximum number of connections kept open to the ldap servers for searching users, 0 to connect for every search", true, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Long> ldapConnectionPoolTimeout = new ConfigKey<Long>(Long.class, "ldap.connection.pool.timeout", "Advanced", "5000",
+                                                                                         "time in milli sec to wait for a free connection once all of them are in use", true, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Integer> ldapCacheTtl = new ConfigKey<Integer>(Integer.class, "ldap.cache.ttl", "Advanced", "60",
+                                                                                  "seconds a user found in ldap is remembered, changes to the user in ldap can take as long to be seen, 0 to search ldap on every login", true, ConfigKey.Scope.Global, null);
+
+    private static final ConfigKey<Integer> ldapNegativeCacheTtl = new ConfigKey<Integer>(Integer.class, "ldap.cache.negative.ttl", "Advanced", "10",
+                                                                                          "seconds a user not found in ldap is remembered, 0 to not remember them", true, ConfigKey.Scope.Global, null);
+
     private final static int scope = SearchControls.SUBTREE_SCOPE;
 
     @Inject
@@ -175,6 +187,22 @@ public class LdapConfiguration implements Configurable{
         return ldapPageSize.value();
     }
 
+    public int getConnectionPoolSize() {
+        return ldapConnectionPoolSize.value();
+    }
+
+    public long getConnectionPoolTimeout() {
+        return ldapConnectionPoolTimeout.value();
+    }
+
+    public int getCacheTtl() {
+        return ldapCacheTtl.value();
+    }
+
+    public int getNegativeCacheTtl() {
+        return ldapNegativeCacheTtl.value();
+    }
+
     public LdapUserManager.Provider getLdapProvider() {
         LdapUserManager.Provider provider;
         try {
@@ -197,6 +225,7 @@ public class LdapConfiguration implements Configurable{
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {ldapReadTimeout, ldapPageSize, ldapProvider, ldapEnableNestedGroups};
+        return new ConfigKey<?>[] {ldapReadTimeout, ldapPageSize, ldapProvider, ldapEnableNestedGroups, ldapConnectionPoolSize, ldapConnectionPoolTimeout, ldapCacheTtl,
+                ldapNegativeCacheTtl};
     }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ package org.apache.cloudstack.ldap;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.naming.Context;
@@ -29,10 +31,15 @@ import org.apache.log4j.Logger;
 
 public class LdapContextFactory {
     private static final Logger s_logger = Logger.getLogger(LdapContextFactory.class.getName());
+    private static final long POOL_MAX_IDLE_MILLIS = 5 * 60 * 1000;
 
     @Inject
     private LdapConfiguration _ldapConfiguration;
 
+    private LdapContextPool _pool;
+    private String _poolKey;
+    private final Map<LdapContext, LdapContextPool> _borrowed = new ConcurrentHashMap<LdapContext, LdapContextPool>();
+
     public LdapContextFactory() {
     }
 
@@ -40,8 +47,86 @@ public class LdapContextFactory {
         _ldapConfiguration = ldapConfiguration;
     }
 
+    /**
+     * @return a context bound as the bind principal to the configured servers, taken from the pool unless pooling is
+     *         disabled. It must be given back with {@link #releaseBindContext(LdapContext, boolean)}.
+     */
     public LdapContext createBindContext() throws NamingException, IOException {
-        return createBindContext(null);
+        final LdapContextPool pool = getCurrentPool();
+        if (pool == null) {
+            return createBindContext(null);
+        }
+        final LdapContext context = pool.borrow(_ldapConfiguration.getConnectionPoolTimeout());
+        _borrowed.put(context, pool);
+        return context;
+    }
+
+    /**
+     * Gives back a context from {@link #createBindContext()}, or closes it if it was not pooled.
+     *
+     * @param reusable false when an operation on the context failed in a way that may have broken its connection.
+     */
+    public void releaseBindContext(final LdapContext context, final boolean reusable) {
+        if (context == null) {
+            return;
+        }
+        final LdapContextPool pool = _borrowed.remove(context);
+        if (pool != null) {
+            pool.release(context, reusable);
+            return;
+        }
+        try {
+            context.close();
+        } catch (final NamingException e) {
+            s_logger.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the pool for the current servers and bind credentials, a new one when they changed since the last
+     *         call, or null if pooling is disabled.
+     */
+    private synchronized LdapContextPool getCurrentPool() {
+        final int size = _ldapConfiguration.getConnectionPoolSize();
+        if (size <= 0) {
+            closePool();
+            return null;
+        }
+        final String providerUrl = _ldapConfiguration.getProviderUrl();
+        final String bindPrincipal = _ldapConfiguration.getBindPrincipal();
+        final String bindPassword = _ldapConfiguration.getBindPassword();
+        final String key = providerUrl + "\n" + bindPrincipal + "\n" + bindPassword + "\n" + size;
+        if (_pool == null || !key.equals(_poolKey)) {
+            closePool();
+            final String name = bindPrincipal == null ? providerUrl : providerUrl + " as " + bindPrincipal;
+            s_logger.info("Pooling up to " + size + " ldap connections to " + name);
+            _pool = new LdapContextPool(name, size, POOL_MAX_IDLE_MILLIS, new LdapContextPool.Connector() {
+                @Override
+                public LdapContext connect() throws NamingException, IOException {
+                    final Hashtable<String, String> environment = getEnvironment(bindPrincipal, bindPassword, providerUrl, true);
+                    // the connection is pooled here, the jndi pool would only keep a second one around
+                    environment.put("com.sun.jndi.ldap.connect.pool", "false");
+                    return new InitialLdapContext(environment, null);
+                }
+            });
+            _poolKey = key;
+        }
+        return _pool;
+    }
+
+    private void closePool() {
+        if (_pool != null) {
+            _pool.close();
+            _pool = null;
+            _poolKey = null;
+        }
+    }
+
+    /**
+     * @return the pool of bind contexts, null if none was needed yet or pooling is disabled.
+     */
+    public synchronized LdapContextPool getPool() {
+        return _pool;
     }
 
     public LdapContext createBindContext(final String providerUrl) throws NamingException, IOException {
@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ldap;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded pool of contexts bound with the same credentials to the same ldap servers.
+ *
+ * A context is used by one caller at a time, once all of them are in use callers wait for one to be released. The
+ * most recently released context is handed out first so that the others go idle, contexts idle for longer than
+ * the idle timeout are closed rather than reused as servers tend to drop idle connections.
+ */
+public class LdapContextPool {
+    private static final Logger s_logger = Logger.getLogger(LdapContextPool.class.getName());
+
+    public interface Connector {
+        LdapContext connect() throws NamingException, IOException;
+    }
+
+    private final String _name;
+    private final Connector _connector;
+    private final int _size;
+    private final long _maxIdleMillis;
+    private final Semaphore _permits;
+    private final BlockingDeque<Idle> _idle = new LinkedBlockingDeque<Idle>();
+    private volatile boolean _closed;
+
+    private final AtomicLong _connects = new AtomicLong();
+    private final AtomicLong _connectNanos = new AtomicLong();
+    private final AtomicLong _waits = new AtomicLong();
+
+    public LdapContextPool(final String name, final int size, final long maxIdleMillis, final Connector connector) {
+        _name = name;
+        _size = size;
+        _maxIdleMillis = maxIdleMillis;
+        _connector = connector;
+        _permits = new Semaphore(size, true);
+    }
+
+    /**
+     * @return a context that must be given back with {@link #release(LdapContext, boolean)}.
+     * @throws NamingException if no context was released within the timeout, or connecting failed.
+     */
+    public LdapContext borrow(final long timeoutMillis) throws NamingException, IOException {
+        if (_closed) {
+            throw new NamingException("Ldap connection pool for " + _name + " is closed");
+        }
+        if (!_permits.tryAcquire()) {
+            _waits.incrementAndGet();
+            try {
+                if (!_permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new NamingException("Timed out after " + timeoutMillis + " ms waiting for a connection to " + _name);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NamingException("Interrupted while waiting for a connection to " + _name);
+            }
+        }
+
+        boolean borrowed = false;
+        try {
+            Idle idle;
+            while ((idle = _idle.pollFirst()) != null) {
+                if (System.currentTimeMillis() - idle._since <= _maxIdleMillis) {
+                    borrowed = true;
+                    return idle._context;
+                }
+                close(idle._context);
+            }
+            final long start = System.nanoTime();
+            final LdapContext context = _connector.connect();
+            _connects.incrementAndGet();
+            _connectNanos.addAndGet(System.nanoTime() - start);
+            borrowed = true;
+            return context;
+        } finally {
+            if (!borrowed) {
+                _permits.release();
+            }
+        }
+    }
+
+    /**
+     * @param reusable false when the context failed in a way that may have broken its connection, it is closed then.
+     */
+    public void release(final LdapContext context, final boolean reusable) {
+        try {
+            if (reusable && !_closed) {
+                // controls like paging are set per request, they must not leak to the next user of the context
+                context.setRequestControls(null);
+                _idle.offerFirst(new Idle(context));
+            } else {
+                close(context);
+            }
+        } catch (final NamingException e) {
+            close(context);
+        } finally {
+            _permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle contexts, the ones in use are closed when they are released.
+     */
+    public void close() {
+        _closed = true;
+        Idle idle;
+        while ((idle = _idle.pollFirst()) != null) {
+            close(idle._context);
+        }
+    }
+
+    private void close(final LdapContext context) {
+        try {
+            context.close();
+        } catch (final NamingException e) {
+            s_logger.debug("Failed to close ldap context to " + _name + ": " + e.getMessage());
+        }
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    public int getInUse() {
+        return _size - _permits.availablePermits();
+    }
+
+    public int getIdle() {
+        return _idle.size();
+    }
+
+    /**
+     * @return number of contexts created, each of them a bind to the server.
+     */
+    public long getConnects() {
+        return _connects.get();
+    }
+
+    public long getAverageConnectMillis() {
+        final long connects = _connects.get();
+        return connects == 0 ? 0 : _connectNanos.get() / connects / 1000000;
+    }
+
+    /**
+     * @return number of times a caller had to wait for a context to be released.
+     */
+    public long getWaits() {
+        return _waits.get();
+    }
+
+    private static class Idle {
+        private final LdapContext _context;
+        private final long _since = System.currentTimeMillis();
+
+        Idle(final LdapContext context) {
+            _context = context;
+        }
+    }
+}
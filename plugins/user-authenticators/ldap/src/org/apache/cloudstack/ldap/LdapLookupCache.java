@@ -0,0 +1,136 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ldap;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+
+/**
+ * Remembers the result of ldap lookups for a while, so that a burst of logins does not search the directory for
+ * every one of them. Lookups that found nothing are remembered as well, for a shorter time, since mistyped or
+ * unknown user names are retried just as often. Passwords are never cached, they are always checked by binding
+ * to the server.
+ */
+public class LdapLookupCache<V> {
+    // random user names must not grow the cache without bounds
+    private static final int MAX_ENTRIES = 10000;
+
+    public interface Loader<V> {
+        /**
+         * @return the value, or null if the directory does not have it.
+         */
+        V load() throws NamingException, IOException;
+    }
+
+    private final ConcurrentMap<String, Cached<V>> _entries = new ConcurrentHashMap<String, Cached<V>>();
+    private volatile long _ttlMillis;
+    private volatile long _negativeTtlMillis;
+
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _negativeHits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    public LdapLookupCache(final long ttlMillis, final long negativeTtlMillis) {
+        _ttlMillis = ttlMillis;
+        _negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * @return the cached value, or the value loaded when there is none or it expired. Failures of the loader are
+     *         not cached.
+     */
+    public V get(final String key, final Loader<V> loader) throws NamingException, IOException {
+        final long now = System.currentTimeMillis();
+        final Cached<V> entry = _entries.get(key);
+        if (entry != null && entry._expires > now) {
+            if (entry._value == null) {
+                _negativeHits.incrementAndGet();
+            } else {
+                _hits.incrementAndGet();
+            }
+            return entry._value;
+        }
+
+        _misses.incrementAndGet();
+        final V value = loader.load();
+        final long ttl = value == null ? _negativeTtlMillis : _ttlMillis;
+        if (ttl > 0) {
+            if (_entries.size() >= MAX_ENTRIES) {
+                expire();
+                if (_entries.size() >= MAX_ENTRIES) {
+                    _entries.clear();
+                }
+            }
+            _entries.put(key, new Cached<V>(value, now + ttl));
+        } else if (entry != null) {
+            _entries.remove(key, entry);
+        }
+        return value;
+    }
+
+    public void invalidate() {
+        _entries.clear();
+    }
+
+    /**
+     * Drops the expired entries, they are otherwise only replaced when looked up again.
+     */
+    private void expire() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, Cached<V>> entry : _entries.entrySet()) {
+            if (entry.getValue()._expires <= now) {
+                _entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public void setTtl(final long ttlMillis, final long negativeTtlMillis) {
+        _ttlMillis = ttlMillis;
+        _negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getNegativeHits() {
+        return _negativeHits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    private static class Cached<V> {
+        private final V _value;
+        private final long _expires;
+
+        Cached(final V value, final long expires) {
+            _value = value;
+            _expires = expires;
+        }
+    }
+}
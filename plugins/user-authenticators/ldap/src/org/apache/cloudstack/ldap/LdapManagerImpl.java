@@ -20,8 +20,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 import javax.naming.ldap.LdapContext;
 
@@ -48,6 +50,7 @@ import org.apache.cloudstack.ldap.dao.LdapConfigurationDao;
 
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.utils.Pair;
+import com.cloud.utils.mgmt.JmxUtil;
 
 @Component
 @Local(value = LdapManager.class)
@@ -68,6 +71,8 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
     @Inject
     LdapTrustMapDao _ldapTrustMapDao;
 
+    private final LdapStatistics _statistics = new LdapStatistics();
+    private final LdapLookupCache<LdapUser> _userCache = new LdapLookupCache<LdapUser>(0, 0);
 
     public LdapManagerImpl() {
         super();
@@ -82,6 +87,15 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
         _ldapConfiguration = ldapConfiguration;
     }
 
+    @PostConstruct
+    public void init() {
+        try {
+            JmxUtil.registerMBean("LdapManager", "LdapManagerImpl", new LdapManagerMBeanImpl(_statistics, _userCache, _ldapContextFactory));
+        } catch (Exception e) {
+            s_logger.error("Failed to register MBean", e);
+        }
+    }
+
     @Override
     public LdapConfigurationResponse addConfiguration(final String hostname, final int port) throws InvalidParameterValueException {
         LdapConfigurationVO configuration = _ldapConfigurationDao.findByHostname(hostname);
@@ -92,6 +106,7 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
                 context = _ldapContextFactory.createBindContext(providerUrl);
                 configuration = new LdapConfigurationVO(hostname, port);
                 _ldapConfigurationDao.persist(configuration);
+                _userCache.invalidate();
                 s_logger.info("Added new ldap server with hostname: " + hostname);
                 return new LdapConfigurationResponse(hostname, port);
             } catch (NamingException | IOException e) {
@@ -107,14 +122,19 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
 
     @Override
     public boolean canAuthenticate(final String principal, final String password) {
+        final long start = System.nanoTime();
+        boolean bound = false;
         try {
             final LdapContext context = _ldapContextFactory.createUserContext(principal, password);
             closeContext(context);
+            bound = true;
             return true;
         } catch (NamingException | IOException e) {
             s_logger.debug("Exception while doing an LDAP bind for user "+" "+principal, e);
             s_logger.info("Failed to authenticate user: " + principal + ". incorrect password.");
             return false;
+        } finally {
+            _statistics.bound(System.nanoTime() - start, bound);
         }
     }
 
@@ -155,6 +175,7 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
             throw new InvalidParameterValueException("Cannot find configuration with hostname " + hostname);
         } else {
             _ldapConfigurationDao.remove(configuration.getId());
+            _userCache.invalidate();
             s_logger.info("Removed ldap server with hostname: " + hostname);
             return new LdapConfigurationResponse(configuration.getHostname(), configuration.getPort());
         }
@@ -176,63 +197,117 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
         return cmdList;
     }
 
-    @Override
-    public LdapUser getUser(final String username) throws NoLdapUserMatchingQueryException {
+    private interface LdapSearch<T> {
+        T search(LdapUserManager userManager, LdapContext context) throws NamingException, IOException;
+    }
+
+    /**
+     * Runs a search with a bind context, which is given back to the pool afterwards unless the search failed in a way
+     * that may have broken its connection.
+     */
+    private <T> T search(final LdapSearch<T> search) throws NamingException, IOException {
         LdapContext context = null;
+        boolean reusable = false;
+        final long start = System.nanoTime();
         try {
             context = _ldapContextFactory.createBindContext();
+            final T result = search.search(_ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()), context);
+            reusable = true;
+            return result;
+        } catch (final NameNotFoundException e) {
+            reusable = true;
+            throw e;
+        } finally {
+            _statistics.searched(System.nanoTime() - start);
+            _ldapContextFactory.releaseBindContext(context, reusable);
+        }
+    }
 
-            final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUser(escapedUsername, context);
+    /**
+     * Looks a single user up, logins look up the same users over and over so the result is cached, whether the user
+     * was found or not.
+     *
+     * @return null if there is no such user.
+     */
+    private LdapUser findUser(final String key, final LdapSearch<LdapUser> search) throws NamingException, IOException {
+        _userCache.setTtl(_ldapConfiguration.getCacheTtl() * 1000L, _ldapConfiguration.getNegativeCacheTtl() * 1000L);
+        return _userCache.get(key, new LdapLookupCache.Loader<LdapUser>() {
+            @Override
+            public LdapUser load() throws NamingException, IOException {
+                try {
+                    return search(search);
+                } catch (final NameNotFoundException e) {
+                    return null;
+                }
+            }
+        });
+    }
 
+    @Override
+    public LdapUser getUser(final String username) throws NoLdapUserMatchingQueryException {
+        final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
+        try {
+            final LdapUser user = findUser("user\n" + escapedUsername, new LdapSearch<LdapUser>() {
+                @Override
+                public LdapUser search(final LdapUserManager userManager, final LdapContext context) throws NamingException, IOException {
+                    return userManager.getUser(escapedUsername, context);
+                }
+            });
+            if (user != null) {
+                return user;
+            }
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ",e);
-            throw new NoLdapUserMatchingQueryException("No Ldap User found for username: "+username);
-        } finally {
-            closeContext(context);
         }
+        throw new NoLdapUserMatchingQueryException("No Ldap User found for username: "+username);
     }
 
     @Override
     public LdapUser getUser(final String username, final String type, final String name) throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
+        final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
         try {
-            context = _ldapContextFactory.createBindContext();
-            final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUser(escapedUsername, type, name, context);
+            final LdapUser user = findUser(type + "\n" + name + "\n" + escapedUsername, new LdapSearch<LdapUser>() {
+                @Override
+                public LdapUser search(final LdapUserManager userManager, final LdapContext context) throws NamingException, IOException {
+                    return userManager.getUser(escapedUsername, type, name, context);
+                }
+            });
+            if (user != null) {
+                return user;
+            }
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ",e);
-            throw new NoLdapUserMatchingQueryException("No Ldap User found for username: "+username + "name: " + name + "of type: " + type);
-        } finally {
-            closeContext(context);
         }
+        throw new NoLdapUserMatchingQueryException("No Ldap User found for username: "+username + "name: " + name + "of type: " + type);
     }
 
     @Override
     public List<LdapUser> getUsers() throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
         try {
-            context = _ldapContextFactory.createBindContext();
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUsers(context);
+            return search(new LdapSearch<List<LdapUser>>() {
+                @Override
+                public List<LdapUser> search(final LdapUserManager userManager, final LdapContext context) throws NamingException, IOException {
+                    return userManager.getUsers(context);
+                }
+            });
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ",e);
             throw new NoLdapUserMatchingQueryException("*");
-        } finally {
-            closeContext(context);
         }
     }
 
     @Override
-    public List<LdapUser> getUsersInGroup(String groupName) throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
+    public List<LdapUser> getUsersInGroup(final String groupName) throws NoLdapUserMatchingQueryException {
         try {
-            context = _ldapContextFactory.createBindContext();
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUsersInGroup(groupName, context);
+            return search(new LdapSearch<List<LdapUser>>() {
+                @Override
+                public List<LdapUser> search(final LdapUserManager userManager, final LdapContext context) throws NamingException, IOException {
+                    return userManager.getUsersInGroup(groupName, context);
+                }
+            });
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap NamingException: ",e);
             throw new NoLdapUserMatchingQueryException("groupName=" + groupName);
-        } finally {
-            closeContext(context);
         }
     }
 
@@ -251,16 +326,17 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
 
     @Override
     public List<LdapUser> searchUsers(final String username) throws NoLdapUserMatchingQueryException {
-        LdapContext context = null;
+        final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
         try {
-            context = _ldapContextFactory.createBindContext();
-            final String escapedUsername = LdapUtils.escapeLDAPSearchFilter(username);
-            return _ldapUserManagerFactory.getInstance(_ldapConfiguration.getLdapProvider()).getUsers("*" + escapedUsername + "*", context);
+            return search(new LdapSearch<List<LdapUser>>() {
+                @Override
+                public List<LdapUser> search(final LdapUserManager userManager, final LdapContext context) throws NamingException, IOException {
+                    return userManager.getUsers("*" + escapedUsername + "*", context);
+                }
+            });
         } catch (NamingException | IOException e) {
             s_logger.debug("ldap Exception: ",e);
             throw new NoLdapUserMatchingQueryException(username);
-        } finally {
-            closeContext(context);
         }
     }
 
@@ -281,4 +357,12 @@ public class LdapManagerImpl implements LdapManager, LdapValidator {
     public LdapTrustMapVO getDomainLinkedToLdap(long domainId){
         return _ldapTrustMapDao.findByDomainId(domainId);
     }
+
+    public LdapStatistics getStatistics() {
+        return _statistics;
+    }
+
+    public LdapLookupCache<LdapUser> getUserCache() {
+        return _userCache;
+    }
 }
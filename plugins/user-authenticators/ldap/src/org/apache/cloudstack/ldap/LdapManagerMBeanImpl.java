@@ -0,0 +1,123 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ldap;
+
+import javax.management.StandardMBean;
+
+public class LdapManagerMBeanImpl extends StandardMBean implements LdapManagerMBean {
+    private final LdapStatistics _statistics;
+    private final LdapLookupCache<LdapUser> _cache;
+    private final LdapContextFactory _contextFactory;
+
+    public LdapManagerMBeanImpl(final LdapStatistics statistics, final LdapLookupCache<LdapUser> cache, final LdapContextFactory contextFactory) {
+        super(LdapManagerMBean.class, false);
+        _statistics = statistics;
+        _cache = cache;
+        _contextFactory = contextFactory;
+    }
+
+    @Override
+    public long getBinds() {
+        return _statistics.getBinds();
+    }
+
+    @Override
+    public long getBindFailures() {
+        return _statistics.getBindFailures();
+    }
+
+    @Override
+    public long getAverageBindMillis() {
+        return _statistics.getAverageBindMillis();
+    }
+
+    @Override
+    public long getMaxBindMillis() {
+        return _statistics.getMaxBindMillis();
+    }
+
+    @Override
+    public long getSearches() {
+        return _statistics.getSearches();
+    }
+
+    @Override
+    public long getAverageSearchMillis() {
+        return _statistics.getAverageSearchMillis();
+    }
+
+    @Override
+    public long getMaxSearchMillis() {
+        return _statistics.getMaxSearchMillis();
+    }
+
+    @Override
+    public int getPoolSize() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getSize();
+    }
+
+    @Override
+    public int getPoolInUse() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getInUse();
+    }
+
+    @Override
+    public int getPoolIdle() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getIdle();
+    }
+
+    @Override
+    public long getPoolConnects() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getConnects();
+    }
+
+    @Override
+    public long getPoolWaits() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getWaits();
+    }
+
+    @Override
+    public long getAverageConnectMillis() {
+        final LdapContextPool pool = _contextFactory.getPool();
+        return pool == null ? 0 : pool.getAverageConnectMillis();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return _cache.size();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return _cache.getHits();
+    }
+
+    @Override
+    public long getCacheNegativeHits() {
+        return _cache.getNegativeHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return _cache.getMisses();
+    }
+}
@@ -0,0 +1,91 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ldap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of the binds that check user passwords and of the searches that look users up.
+ */
+public class LdapStatistics {
+    private final Latency _binds = new Latency();
+    private final Latency _searches = new Latency();
+    private final AtomicLong _bindFailures = new AtomicLong();
+
+    public void bound(final long nanos, final boolean success) {
+        _binds.add(nanos);
+        if (!success) {
+            _bindFailures.incrementAndGet();
+        }
+    }
+
+    public void searched(final long nanos) {
+        _searches.add(nanos);
+    }
+
+    public long getBinds() {
+        return _binds._count.get();
+    }
+
+    public long getBindFailures() {
+        return _bindFailures.get();
+    }
+
+    public long getAverageBindMillis() {
+        return _binds.getAverageMillis();
+    }
+
+    public long getMaxBindMillis() {
+        return _binds.getMaxMillis();
+    }
+
+    public long getSearches() {
+        return _searches._count.get();
+    }
+
+    public long getAverageSearchMillis() {
+        return _searches.getAverageMillis();
+    }
+
+    public long getMaxSearchMillis() {
+        return _searches.getMaxMillis();
+    }
+
+    private static class Latency {
+        private final AtomicLong _count = new AtomicLong();
+        private final AtomicLong _nanos = new AtomicLong();
+        private final AtomicLong _maxNanos = new AtomicLong();
+
+        void add(final long nanos) {
+            _count.incrementAndGet();
+            _nanos.addAndGet(nanos);
+            long max = _maxNanos.get();
+            while (nanos > max && !_maxNanos.compareAndSet(max, nanos)) {
+                max = _maxNanos.get();
+            }
+        }
+
+        long getAverageMillis() {
+            final long count = _count.get();
+            return count == 0 ? 0 : _nanos.get() / count / 1000000;
+        }
+
+        long getMaxMillis() {
+            return _maxNanos.get() / 1000000;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -126,7 +127,7 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
         if (result!= null && result.size() == 1) {
             return result.get(0);
         } else {
-            throw new NamingException("No user found for username " + username);
+            throw new NameNotFoundException("No user found for username " + username);
         }
     }
 
@@ -226,7 +227,7 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
         if (result.hasMoreElements()) {
             return createUser(result.nextElement());
         } else {
-            throw new NamingException("No user found for dn " + userdn);
+            throw new NameNotFoundException("No user found for dn " + userdn);
         }
     }
 
@@ -255,7 +256,7 @@ public class OpenLdapUserManagerImpl implements LdapUserManager {
         if (users.size() == 1) {
             return users.get(0);
         } else {
-            throw new NamingException("No user found for basedn " + basedn + " and searchString " + searchString);
+            throw new NameNotFoundException("No user found for basedn " + basedn + " and searchString " + searchString);
         }
     }
 
@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package groovy.org.apache.cloudstack.ldap
+
+import org.apache.cloudstack.ldap.LdapContextPool
+
+import javax.naming.NamingException
+import javax.naming.ldap.LdapContext
+
+class LdapContextPoolSpec extends spock.lang.Specification {
+    def "Test that a released context is reused"() {
+        given: "A pool of two contexts"
+        def connector = Mock(LdapContextPool.Connector)
+        def pool = new LdapContextPool("ldap://localhost:389", 2, 60000, connector)
+        def context = Mock(LdapContext)
+        when: "A context is borrowed twice in a row"
+        def first = pool.borrow(100)
+        pool.release(first, true)
+        def second = pool.borrow(100)
+        then: "The server is bound to only once"
+        1 * connector.connect() >> context
+        first == context
+        second == context
+        pool.getConnects() == 1
+        pool.getInUse() == 1
+        pool.getIdle() == 0
+    }
+
+    def "Test that the pool is bounded"() {
+        given: "A pool of a single context which is in use"
+        def connector = Mock(LdapContextPool.Connector)
+        connector.connect() >> Mock(LdapContext)
+        def pool = new LdapContextPool("ldap://localhost:389", 1, 60000, connector)
+        pool.borrow(100)
+        when: "Another context is borrowed"
+        pool.borrow(100)
+        then: "The caller times out waiting for it"
+        thrown NamingException
+        pool.getWaits() == 1
+        pool.getInUse() == 1
+    }
+
+    def "Test that a broken context is not reused"() {
+        given: "A pool with a context that failed"
+        def connector = Mock(LdapContextPool.Connector)
+        def pool = new LdapContextPool("ldap://localhost:389", 2, 60000, connector)
+        def broken = Mock(LdapContext)
+        def fresh = Mock(LdapContext)
+        when: "The context is released as not reusable and another one is borrowed"
+        pool.release(pool.borrow(100), false)
+        def context = pool.borrow(100)
+        then: "The broken context is closed and a new one is created"
+        2 * connector.connect() >>> [broken, fresh]
+        1 * broken.close()
+        context == fresh
+    }
+
+    def "Test that idle contexts expire"() {
+        given: "A pool whose contexts expire as soon as they are idle"
+        def connector = Mock(LdapContextPool.Connector)
+        def pool = new LdapContextPool("ldap://localhost:389", 2, -1, connector)
+        def idle = Mock(LdapContext)
+        def fresh = Mock(LdapContext)
+        when: "A context is released and borrowed again"
+        pool.release(pool.borrow(100), true)
+        pool.borrow(100)
+        then: "The idle context is closed and a new one is created"
+        2 * connector.connect() >>> [idle, fresh]
+        1 * idle.close()
+    }
+
+    def "Test that a failed connect gives the slot back"() {
+        given: "A pool of a single context whose server is down"
+        def connector = Mock(LdapContextPool.Connector)
+        connector.connect() >> { throw new NamingException("down") }
+        def pool = new LdapContextPool("ldap://localhost:389", 1, 60000, connector)
+        when: "A context is borrowed"
+        pool.borrow(100)
+        then: "The connect failure is thrown and the pool has no context in use"
+        thrown NamingException
+        pool.getInUse() == 0
+    }
+
+    def "Test that closing the pool closes idle and released contexts"() {
+        given: "A pool with an idle context and a context in use"
+        def connector = Mock(LdapContextPool.Connector)
+        def idle = Mock(LdapContext)
+        def used = Mock(LdapContext)
+        connector.connect() >>> [idle, used]
+        def pool = new LdapContextPool("ldap://localhost:389", 2, 60000, connector)
+        def first = pool.borrow(100)
+        def second = pool.borrow(100)
+        pool.release(first, true)
+        when: "The pool is closed and the context in use released"
+        pool.close()
+        pool.release(second, true)
+        then: "Both contexts are closed"
+        1 * idle.close()
+        1 * used.close()
+        pool.getIdle() == 0
+    }
+}
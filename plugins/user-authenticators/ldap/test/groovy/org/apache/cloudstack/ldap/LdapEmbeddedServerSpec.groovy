@@ -0,0 +1,149 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package groovy.org.apache.cloudstack.ldap
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig
+import com.unboundid.ldap.listener.InMemoryListenerConfig
+import org.apache.cloudstack.ldap.LdapConfiguration
+import org.apache.cloudstack.ldap.LdapContextFactory
+import org.apache.cloudstack.ldap.LdapManagerImpl
+import org.apache.cloudstack.ldap.LdapUserManager
+import org.apache.cloudstack.ldap.LdapUserManagerFactory
+import org.apache.cloudstack.ldap.NoLdapUserMatchingQueryException
+import org.apache.cloudstack.ldap.OpenLdapUserManagerImpl
+import org.apache.cloudstack.ldap.dao.LdapConfigurationDaoImpl
+import spock.lang.Shared
+
+import javax.naming.directory.SearchControls
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class LdapEmbeddedServerSpec extends spock.lang.Specification {
+    @Shared
+    InMemoryDirectoryServer server
+
+    LdapContextFactory ldapContextFactory
+
+    def setupSpec() {
+        def config = new InMemoryDirectoryServerConfig("dc=cloudstack,dc=org")
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0))
+        config.setSchema(null)
+        server = new InMemoryDirectoryServer(config)
+        server.importFromLDIF(true, "test/resources/cloudstack.org.ldif")
+        server.startListening()
+    }
+
+    def cleanup() {
+        ldapContextFactory?.getPool()?.close()
+    }
+
+    def cleanupSpec() {
+        server.shutDown(true)
+    }
+
+    def createLdapManager(int poolSize, int cacheTtl) {
+        def ldapConfiguration = Mock(LdapConfiguration)
+        ldapConfiguration.getFactory() >> "com.sun.jndi.ldap.LdapCtxFactory"
+        ldapConfiguration.getProviderUrl() >> "ldap://localhost:" + server.getListenPort()
+        ldapConfiguration.getAuthentication() >> "none"
+        ldapConfiguration.getSSLStatus() >> false
+        ldapConfiguration.getReadTimeout() >> 1000L
+        ldapConfiguration.getBaseDn() >> "dc=cloudstack,dc=org"
+        ldapConfiguration.getScope() >> SearchControls.SUBTREE_SCOPE
+        ldapConfiguration.getUserObject() >> "inetOrgPerson"
+        ldapConfiguration.getUsernameAttribute() >> "uid"
+        ldapConfiguration.getEmailAttribute() >> "mail"
+        ldapConfiguration.getFirstnameAttribute() >> "givenname"
+        ldapConfiguration.getLastnameAttribute() >> "sn"
+        ldapConfiguration.getCommonNameAttribute() >> "cn"
+        ldapConfiguration.getReturnAttributes() >> (["uid", "mail", "givenname", "sn", "cn"] as String[])
+        ldapConfiguration.getLdapPageSize() >> 100
+        ldapConfiguration.getLdapProvider() >> LdapUserManager.Provider.OPENLDAP
+        ldapConfiguration.getConnectionPoolSize() >> poolSize
+        ldapConfiguration.getConnectionPoolTimeout() >> 5000L
+        ldapConfiguration.getCacheTtl() >> cacheTtl
+        ldapConfiguration.getNegativeCacheTtl() >> cacheTtl
+
+        def ldapUserManagerFactory = Mock(LdapUserManagerFactory)
+        ldapUserManagerFactory.getInstance(_) >> new OpenLdapUserManagerImpl(ldapConfiguration)
+        ldapContextFactory = new LdapContextFactory(ldapConfiguration)
+        return new LdapManagerImpl(Mock(LdapConfigurationDaoImpl), ldapContextFactory, ldapUserManagerFactory, ldapConfiguration)
+    }
+
+    def "Test that repeated lookups of a user are answered from the cache"() {
+        given: "A manager with caching enabled"
+        def ldapManager = createLdapManager(2, 60)
+        when: "The same user is looked up several times"
+        def users = (1..5).collect { ldapManager.getUser("rmurphy") }
+        then: "The directory is searched only once"
+        users.every { it.getEmail() == "rmurphy@cloudstack.org" }
+        ldapManager.getStatistics().getSearches() == 1
+        ldapManager.getUserCache().getMisses() == 1
+        ldapManager.getUserCache().getHits() == 4
+    }
+
+    def "Test that unknown users are cached too"() {
+        given: "A manager with caching enabled"
+        def ldapManager = createLdapManager(2, 60)
+        when: "A user that does not exist is looked up twice"
+        def failures = 0
+        2.times {
+            try {
+                ldapManager.getUser("nobody")
+            } catch (NoLdapUserMatchingQueryException e) {
+                failures++
+            }
+        }
+        then: "Both lookups fail but the directory is searched only once"
+        failures == 2
+        ldapManager.getStatistics().getSearches() == 1
+        ldapManager.getUserCache().getNegativeHits() == 1
+    }
+
+    def "Test that a burst of lookups shares the pooled connections"() {
+        given: "A manager with a pool of two connections and no cache"
+        def ldapManager = createLdapManager(2, 0)
+        def usernames = ["rmurphy", "bbrewer", "zwilkinson", "ashingleton", "cpears", "tmilewski", "epara", "elamb"]
+        def executor = Executors.newFixedThreadPool(8)
+        when: "Every user is looked up concurrently, several times"
+        def futures = (1..5).collectMany { usernames }.collect { username ->
+            executor.submit({ ldapManager.getUser(username).getUsername() } as Callable)
+        }
+        def found = futures.collect { it.get() }
+        executor.shutdown()
+        then: "All lookups succeed over at most two binds"
+        found.size() == 40
+        found.toSet() == usernames.toSet()
+        ldapManager.getStatistics().getSearches() == 40
+        ldapContextFactory.getPool().getConnects() <= 2
+        ldapContextFactory.getPool().getInUse() == 0
+    }
+
+    def "Test that passwords are always checked against the directory"() {
+        given: "A manager with caching enabled"
+        def ldapManager = createLdapManager(2, 60)
+        when: "A user authenticates with the right and a wrong password"
+        def good = ldapManager.canAuthenticate("cn=Ryan Murphy,dc=cloudstack,dc=org", "password")
+        def bad = ldapManager.canAuthenticate("cn=Ryan Murphy,dc=cloudstack,dc=org", "wrong")
+        then: "Both binds are made and recorded"
+        good
+        !bad
+        ldapManager.getStatistics().getBinds() == 2
+        ldapManager.getStatistics().getBindFailures() == 1
+    }
+}
@@ -0,0 +1,92 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package groovy.org.apache.cloudstack.ldap
+
+import org.apache.cloudstack.ldap.LdapLookupCache
+
+import javax.naming.NamingException
+
+class LdapLookupCacheSpec extends spock.lang.Specification {
+    def "Test that a found value is cached"() {
+        given: "A cache with a long ttl"
+        def cache = new LdapLookupCache<String>(60000, 60000)
+        def loader = Mock(LdapLookupCache.Loader)
+        when: "The same key is looked up twice"
+        def first = cache.get("rmurphy", loader)
+        def second = cache.get("rmurphy", loader)
+        then: "The directory is searched once"
+        1 * loader.load() >> "cn=Ryan Murphy,dc=cloudstack,dc=org"
+        first == "cn=Ryan Murphy,dc=cloudstack,dc=org"
+        second == first
+        cache.getHits() == 1
+        cache.getMisses() == 1
+    }
+
+    def "Test that a missing value is cached"() {
+        given: "A cache with a long negative ttl"
+        def cache = new LdapLookupCache<String>(60000, 60000)
+        def loader = Mock(LdapLookupCache.Loader)
+        when: "An unknown key is looked up twice"
+        def first = cache.get("nobody", loader)
+        def second = cache.get("nobody", loader)
+        then: "The directory is searched once"
+        1 * loader.load() >> null
+        first == null
+        second == null
+        cache.getNegativeHits() == 1
+    }
+
+    def "Test that nothing is cached with a ttl of 0"() {
+        given: "A cache with no ttl"
+        def cache = new LdapLookupCache<String>(0, 0)
+        def loader = Mock(LdapLookupCache.Loader)
+        when: "A key is looked up twice"
+        cache.get("rmurphy", loader)
+        cache.get("rmurphy", loader)
+        then: "The directory is searched every time"
+        2 * loader.load() >> "cn=Ryan Murphy,dc=cloudstack,dc=org"
+        cache.size() == 0
+    }
+
+    def "Test that failures are not cached"() {
+        given: "A cache with a long ttl"
+        def cache = new LdapLookupCache<String>(60000, 60000)
+        def loader = Mock(LdapLookupCache.Loader)
+        loader.load() >> { throw new NamingException("down") } >> "cn=Ryan Murphy,dc=cloudstack,dc=org"
+        when: "A lookup fails"
+        cache.get("rmurphy", loader)
+        then: "The failure is thrown"
+        thrown NamingException
+        when: "The key is looked up again"
+        def result = cache.get("rmurphy", loader)
+        then: "The directory is searched again"
+        result == "cn=Ryan Murphy,dc=cloudstack,dc=org"
+    }
+
+    def "Test that invalidate drops all entries"() {
+        given: "A cache with an entry"
+        def cache = new LdapLookupCache<String>(60000, 60000)
+        def loader = Mock(LdapLookupCache.Loader)
+        cache.get("rmurphy", loader)
+        when: "The cache is invalidated and the key looked up again"
+        cache.invalidate()
+        cache.get("rmurphy", loader)
+        then: "The directory is searched again"
+        1 * loader.load() >> "cn=Ryan Murphy,dc=cloudstack,dc=org"
+        cache.getMisses() == 2
+    }
+}
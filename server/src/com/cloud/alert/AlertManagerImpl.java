@@ -92,6 +92,9 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     private static final long INITIAL_CAPACITY_CHECK_DELAY = 30L * 1000L; // thirty seconds expressed in milliseconds
 
+    static final ConfigKey<Integer> CapacityReconcileInterval = new ConfigKey<Integer>("Alert", Integer.class, "capacity.reconcile.interval", "3600",
+        "The interval in seconds between full recalculations of the storage pool capacities, in between they are kept current as volumes change state", true);
+
     private static final DecimalFormat DfPct = new DecimalFormat("###.##");
     private static final DecimalFormat DfWhole = new DecimalFormat("########");
 
@@ -127,6 +130,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     private Timer _timer = null;
     private long _capacityCheckPeriod = 60L * 60L * 1000L; // one hour by default
+    private volatile long _lastCapacityRecalculation = 0;
     private double _publicIPCapacityThreshold = 0.75;
     private double _privateIPCapacityThreshold = 0.75;
     private double _secondaryStorageCapacityThreshold = 0.75;
@@ -259,93 +263,112 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     @Override
     public void recalculateCapacity() {
-        // FIXME: the right way to do this is to register a listener (see RouterStatsListener, VMSyncListener)
-        //        for the vm sync state.  The listener model has connects/disconnects to keep things in sync much better
-        //        than this model right now, so when a VM is started, we update the amount allocated, and when a VM
-        //        is stopped we updated the amount allocated, and when VM sync reports a changed state, we update
-        //        the amount allocated.  Hopefully it's limited to 3 entry points and will keep the amount allocated
-        //        per host accurate.
+        // The capacity manager keeps the storage pool capacities current from the volume state transitions, this full
+        // recalculation only reconciles them with the actual allocations and reports the drift.
 
         try {
 
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("recalculating system capacity");
-                s_logger.debug("Executing cpu/ram capacity update");
             }
 
-            // Calculate CPU and RAM capacities
-            //     get all hosts...even if they are not in 'UP' state
-            List<HostVO> hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
-            if (hosts != null) {
-                for (HostVO host : hosts) {
-                    _capacityMgr.updateCapacityForHost(host);
-                }
-            }
+            recalculateHostCapacity();
+
             if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Done executing cpu/ram capacity update");
                 s_logger.debug("Executing storage capacity update");
             }
-            // Calculate storage pool capacity
+            // Calculate storage pool capacity, each pool takes the changes recorded for it so far
             List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
             for (StoragePoolVO pool : storagePools) {
-                long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
-                if (pool.isShared()) {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
-                } else {
-                    _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
-                }
+                _capacityMgr.updateCapacityForStoragePool(pool);
             }
 
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Done executing storage capacity update");
-                s_logger.debug("Executing capacity updates for public ip and Vlans");
             }
 
-            List<DataCenterVO> datacenters = _dcDao.listAll();
-            for (DataCenterVO datacenter : datacenters) {
-                long dcId = datacenter.getId();
+            recalculateNetworkCapacity();
+            _lastCapacityRecalculation = System.currentTimeMillis();
 
-                //NOTE
-                //What happens if we have multiple vlans? Dashboard currently shows stats
-                //with no filter based on a vlan
-                //ideal way would be to remove out the vlan param, and filter only on dcId
-                //implementing the same
-
-                // Calculate new Public IP capacity for Virtual Network
-                if (datacenter.getNetworkType() == NetworkType.Advanced) {
-                    createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_VIRTUAL_NETWORK_PUBLIC_IP, datacenter.getAllocationState());
-                }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Done recalculating system capacity");
+            }
+        } catch (Throwable t) {
+            s_logger.error("Caught exception in recalculating capacity", t);
+        }
+    }
 
-                // Calculate new Public IP capacity for Direct Attached Network
-                createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_DIRECT_ATTACHED_PUBLIC_IP, datacenter.getAllocationState());
+    /**
+     * Recalculates the cpu and memory capacities of the hosts, which also releases the capacity reserved for VMs
+     * stopped longer than capacity.skipcounting.hours.
+     */
+    private void recalculateHostCapacity() {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Executing cpu/ram capacity update");
+        }
 
-                if (datacenter.getNetworkType() == NetworkType.Advanced) {
-                    //Calculate VLAN's capacity
-                    createOrUpdateVlanCapacity(dcId, datacenter.getAllocationState());
-                }
+        // Calculate CPU and RAM capacities
+        //     get all hosts...even if they are not in 'UP' state
+        List<HostVO> hosts = _resourceMgr.listAllNotInMaintenanceHostsInOneZone(Host.Type.Routing, null);
+        if (hosts != null) {
+            for (HostVO host : hosts) {
+                _capacityMgr.updateCapacityForHost(host);
             }
+        }
 
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Done capacity updates for public ip and Vlans");
-                s_logger.debug("Executing capacity updates for private ip");
-            }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Done executing cpu/ram capacity update");
+        }
+    }
+
+    /**
+     * Updates the capacities the volume state transitions do not keep current: public and private ips and vlans.
+     */
+    private void recalculateNetworkCapacity() {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Executing capacity updates for public ip and Vlans");
+        }
 
-            // Calculate new Private IP capacity
-            List<HostPodVO> pods = _podDao.listAll();
-            for (HostPodVO pod : pods) {
-                long podId = pod.getId();
-                long dcId = pod.getDataCenterId();
+        List<DataCenterVO> datacenters = _dcDao.listAll();
+        for (DataCenterVO datacenter : datacenters) {
+            long dcId = datacenter.getId();
 
-                createOrUpdateIpCapacity(dcId, podId, Capacity.CAPACITY_TYPE_PRIVATE_IP, _configMgr.findPodAllocationState(pod));
+            //NOTE
+            //What happens if we have multiple vlans? Dashboard currently shows stats
+            //with no filter based on a vlan
+            //ideal way would be to remove out the vlan param, and filter only on dcId
+            //implementing the same
+
+            // Calculate new Public IP capacity for Virtual Network
+            if (datacenter.getNetworkType() == NetworkType.Advanced) {
+                createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_VIRTUAL_NETWORK_PUBLIC_IP, datacenter.getAllocationState());
             }
 
-            if (s_logger.isDebugEnabled()) {
-                s_logger.debug("Done executing capacity updates for private ip");
-                s_logger.debug("Done recalculating system capacity");
+            // Calculate new Public IP capacity for Direct Attached Network
+            createOrUpdateIpCapacity(dcId, null, Capacity.CAPACITY_TYPE_DIRECT_ATTACHED_PUBLIC_IP, datacenter.getAllocationState());
+
+            if (datacenter.getNetworkType() == NetworkType.Advanced) {
+                //Calculate VLAN's capacity
+                createOrUpdateVlanCapacity(dcId, datacenter.getAllocationState());
             }
+        }
 
-        } catch (Throwable t) {
-            s_logger.error("Caught exception in recalculating capacity", t);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Done capacity updates for public ip and Vlans");
+            s_logger.debug("Executing capacity updates for private ip");
+        }
+
+        // Calculate new Private IP capacity
+        List<HostPodVO> pods = _podDao.listAll();
+        for (HostPodVO pod : pods) {
+            long podId = pod.getId();
+            long dcId = pod.getDataCenterId();
+
+            createOrUpdateIpCapacity(dcId, podId, Capacity.CAPACITY_TYPE_PRIVATE_IP, _configMgr.findPodAllocationState(pod));
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Done executing capacity updates for private ip");
         }
     }
 
@@ -429,7 +452,17 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     public void checkForAlerts() {
 
-        recalculateCapacity();
+        if (System.currentTimeMillis() - _lastCapacityRecalculation >= CapacityReconcileInterval.value() * 1000L) {
+            recalculateCapacity();
+        } else {
+            try {
+                _capacityMgr.flushCapacityDeltas();
+                recalculateHostCapacity();
+                recalculateNetworkCapacity();
+            } catch (Throwable t) {
+                s_logger.error("Caught exception in recalculating capacity", t);
+            }
+        }
 
         // abort if we can't possibly send an alert...
         if (_emailAlert == null) {
@@ -849,7 +882,7 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {CPUCapacityThreshold, MemoryCapacityThreshold, StorageAllocatedCapacityThreshold, StorageCapacityThreshold};
+        return new ConfigKey<?>[] {CPUCapacityThreshold, MemoryCapacityThreshold, StorageAllocatedCapacityThreshold, StorageCapacityThreshold, CapacityReconcileInterval};
     }
 
     @Override
@@ -1742,7 +1742,7 @@ public class ApiResponseHelper implements ResponseGenerator {
             _accountMgr.checkAccess(caller, null, true, jobOwner);
         }
 
-        return createAsyncJobResponse(_jobMgr.queryJob(cmd.getId(), true));
+        return createAsyncJobResponse(_jobMgr.queryJob(cmd.getId(), true, cmd.getTimeout() * 1000L));
     }
 
     public AsyncJobResponse createAsyncJobResponse(AsyncJob job) {
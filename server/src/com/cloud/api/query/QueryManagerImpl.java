@@ -31,6 +31,7 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -133,6 +134,7 @@ import com.cloud.api.query.dao.VolumeJoinDao;
 import com.cloud.api.query.vo.AccountJoinVO;
 import com.cloud.api.query.vo.AffinityGroupJoinVO;
 import com.cloud.api.query.vo.AsyncJobJoinVO;
+import com.cloud.api.query.vo.BaseViewVO;
 import com.cloud.api.query.vo.DataCenterJoinVO;
 import com.cloud.api.query.vo.DiskOfferingJoinVO;
 import com.cloud.api.query.vo.DomainJoinVO;
@@ -505,6 +507,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        setNextPage(response, cmd, result.first(), false);
         return response;
     }
 
@@ -611,6 +614,9 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
              * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
              * == null) { pendingEvents.add(event); } } return pendingEvents;
              */
+        } else if (cmd.isKeysetPaging()) {
+            // newest first, like createDate
+            eventPair = _eventJoinDao.searchAndCountAfter(sc, cmd.getNextPageId(), false, cmd.getPageSizeVal(), false);
         } else {
             eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
         }
@@ -765,9 +771,31 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
                 result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
+        setNextPage(response, cmd, result.first(), true);
         return response;
     }
 
+    /**
+     * With keyset paging, a full page hands out the id of its last entity as the nextpage of the response.
+     */
+    private static void setNextPage(ListResponse<?> response, BaseListCmd cmd, List<? extends BaseViewVO> rows, boolean ascending) {
+        Long pageSize = cmd.getPageSizeVal();
+        if (!cmd.isKeysetPaging() || pageSize == null) {
+            return;
+        }
+        // views can have several rows per entity
+        Set<Long> ids = new HashSet<Long>();
+        long last = ascending ? Long.MIN_VALUE : Long.MAX_VALUE;
+        for (BaseViewVO row : rows) {
+            if (ids.add(row.getId())) {
+                last = ascending ? Math.max(last, row.getId()) : Math.min(last, row.getId());
+            }
+        }
+        if (ids.size() >= pageSize) {
+            response.setNextPage(BaseListCmd.toNextPage(last));
+        }
+    }
+
     private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -1013,9 +1041,14 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair;
+        if (cmd.isKeysetPaging()) {
+            uniqueVmPair = _userVmJoinDao.searchAndCountAfter(sc, cmd.getNextPageId(), true, cmd.getPageSizeVal(), true);
+        } else {
+            uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        }
         Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+        if (count.intValue() == 0 || uniqueVmPair.first().isEmpty()) {
             // handle empty result cases
             return uniqueVmPair;
         }
@@ -1721,6 +1754,7 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             }
         }
         response.setResponses(volumeResponses, result.second());
+        setNextPage(response, cmd, result.first(), false);
         return response;
     }
 
@@ -1851,9 +1885,15 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         sc.setParameters("state", Volume.State.Destroy);
 
         // search Volume details by ids
-        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair;
+        if (cmd.isKeysetPaging()) {
+            // newest first, like created
+            uniqueVolPair = _volumeJoinDao.searchAndCountAfter(sc, cmd.getNextPageId(), false, cmd.getPageSizeVal(), false);
+        } else {
+            uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        }
         Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
+        if (count.intValue() == 0 || uniqueVolPair.first().isEmpty()) {
             // empty result
             return uniqueVolPair;
         }
@@ -30,9 +30,11 @@ import org.apache.cloudstack.api.InternalIdentity;
 
 import com.cloud.user.Account.State;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "account_view")
+@ReadOnly
 public class AccountJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
@@ -26,10 +26,12 @@ import javax.persistence.Table;
 import org.apache.cloudstack.acl.ControlledEntity;
 import org.apache.cloudstack.affinity.AffinityGroup;
 
+import com.cloud.utils.db.ReadOnly;
 import com.cloud.vm.VirtualMachine;
 
 @Entity
 @Table(name = "affinity_group_view")
+@ReadOnly
 public class AffinityGroupJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
@@ -29,9 +29,11 @@ import org.apache.cloudstack.api.ApiCommandJobType;
 import org.apache.cloudstack.framework.jobs.AsyncJob;
 
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name="async_job_view")
+@ReadOnly
 public class AsyncJobJoinVO extends BaseViewVO implements ControlledViewEntity { //InternalIdentity, Identity {
     @Id
     @Column(name = "id")
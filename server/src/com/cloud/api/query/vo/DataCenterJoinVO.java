@@ -31,9 +31,11 @@ import org.apache.cloudstack.api.InternalIdentity;
 import com.cloud.dc.DataCenter.NetworkType;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "data_center_view")
+@ReadOnly
 public class DataCenterJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
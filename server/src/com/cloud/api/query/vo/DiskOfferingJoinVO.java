@@ -29,9 +29,11 @@ import org.apache.cloudstack.api.InternalIdentity;
 
 import com.cloud.offering.DiskOffering.Type;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "disk_offering_view")
+@ReadOnly
 public class DiskOfferingJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
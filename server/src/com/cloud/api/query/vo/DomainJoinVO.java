@@ -25,11 +25,13 @@ import javax.persistence.Table;
 import com.cloud.domain.Domain;
 import com.cloud.domain.DomainVO;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.InternalIdentity;
 
 @Entity
 @Table(name="domain_view")
+@ReadOnly
 public class DomainJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
@@ -32,11 +32,13 @@ import com.cloud.network.Networks.TrafficType;
 import com.cloud.network.router.VirtualRouter;
 import com.cloud.network.router.VirtualRouter.RedundantState;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
 
 @Entity
 @Table(name = "domain_router_view")
+@ReadOnly
 public class DomainRouterJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
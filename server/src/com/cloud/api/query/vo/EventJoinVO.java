@@ -28,9 +28,11 @@ import javax.persistence.Table;
 import com.cloud.event.Event;
 import com.cloud.event.Event.State;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "event_view")
+@ReadOnly
 public class EventJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
@@ -36,6 +36,7 @@ import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.org.Cluster;
 import com.cloud.resource.ResourceState;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import org.apache.cloudstack.outofbandmanagement.OutOfBandManagement;
 
 /**
@@ -44,6 +45,7 @@ import org.apache.cloudstack.outofbandmanagement.OutOfBandManagement;
  */
 @Entity
 @Table(name = "host_view")
+@ReadOnly
 public class HostJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
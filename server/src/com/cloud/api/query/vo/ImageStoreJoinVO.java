@@ -31,6 +31,7 @@ import org.apache.cloudstack.api.InternalIdentity;
 import com.cloud.storage.DataStoreRole;
 import com.cloud.storage.ScopeType;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 /**
  * Image Data Store DB view.
@@ -38,6 +39,7 @@ import com.cloud.utils.db.GenericDao;
  */
 @Entity
 @Table(name = "image_store_view")
+@ReadOnly
 public class ImageStoreJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
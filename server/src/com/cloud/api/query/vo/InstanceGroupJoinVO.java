@@ -24,10 +24,12 @@ import javax.persistence.Id;
 import javax.persistence.Table;
 
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import com.cloud.vm.InstanceGroup;
 
 @Entity
 @Table(name = "instance_group_view")
+@ReadOnly
 public class InstanceGroupJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
@@ -26,9 +26,11 @@ import javax.persistence.Table;
 import org.apache.cloudstack.api.InternalIdentity;
 
 import com.cloud.projects.ProjectAccount.Role;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "project_account_view")
+@ReadOnly
 public class ProjectAccountJoinVO extends BaseViewVO implements InternalIdentity {
 
     @Id
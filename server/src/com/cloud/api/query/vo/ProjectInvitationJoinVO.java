@@ -28,9 +28,11 @@ import javax.persistence.Table;
 import com.cloud.projects.ProjectInvitation;
 import com.cloud.projects.ProjectInvitation.State;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "project_invitation_view")
+@ReadOnly
 public class ProjectInvitationJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
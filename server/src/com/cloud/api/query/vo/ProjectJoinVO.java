@@ -31,9 +31,11 @@ import org.apache.cloudstack.api.InternalIdentity;
 import com.cloud.projects.Project.State;
 import com.cloud.server.ResourceTag.ResourceObjectType;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "project_view")
+@ReadOnly
 public class ProjectJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
@@ -25,9 +25,11 @@ import javax.persistence.Table;
 
 import com.cloud.server.ResourceTag;
 import com.cloud.server.ResourceTag.ResourceObjectType;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "resource_tag_view")
+@ReadOnly
 public class ResourceTagJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
@@ -26,9 +26,11 @@ import javax.persistence.Table;
 import com.cloud.network.security.SecurityGroup;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 import com.cloud.server.ResourceTag.ResourceObjectType;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "security_group_view")
+@ReadOnly
 public class SecurityGroupJoinVO extends BaseViewVO implements ControlledViewEntity {
 
     @Id
@@ -29,9 +29,11 @@ import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.InternalIdentity;
 
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "service_offering_view")
+@ReadOnly
 public class ServiceOfferingJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
@@ -34,6 +34,7 @@ import com.cloud.storage.ScopeType;
 import com.cloud.storage.Storage.StoragePoolType;
 import com.cloud.storage.StoragePoolStatus;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 /**
  * Storage Pool DB view.
@@ -41,6 +42,7 @@ import com.cloud.utils.db.GenericDao;
  */
 @Entity
 @Table(name = "storage_pool_view")
+@ReadOnly
 public class StoragePoolJoinVO extends BaseViewVO implements InternalIdentity, Identity {
 
     @Id
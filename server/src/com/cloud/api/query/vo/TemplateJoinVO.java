@@ -35,9 +35,11 @@ import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
 import com.cloud.template.VirtualMachineTemplate;
 import com.cloud.template.VirtualMachineTemplate.State;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "template_view")
+@ReadOnly
 public class TemplateJoinVO extends BaseViewWithTagInformationVO implements ControlledViewEntity {
 
     @Column(name = "uuid")
@@ -29,9 +29,11 @@ import org.apache.cloudstack.api.InternalIdentity;
 import com.cloud.user.UserAccount;
 import com.cloud.utils.db.Encrypt;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 
 @Entity
 @Table(name = "user_view")
+@ReadOnly
 public class UserAccountJoinVO extends BaseViewVO implements InternalIdentity, Identity, ControlledViewEntity {
 
     @Id
@@ -35,11 +35,13 @@ import com.cloud.network.Networks.TrafficType;
 import com.cloud.storage.Storage.StoragePoolType;
 import com.cloud.storage.Volume;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
 
 @Entity
 @Table(name = "user_vm_view")
+@ReadOnly
 @AttributeOverride( name="id", column = @Column(name = "id", updatable = false, nullable = false) )
 public class UserVmJoinVO extends BaseViewWithTagInformationVO implements ControlledViewEntity {
 
@@ -31,10 +31,12 @@ import com.cloud.storage.Storage;
 import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
 import com.cloud.storage.Volume;
 import com.cloud.utils.db.GenericDao;
+import com.cloud.utils.db.ReadOnly;
 import com.cloud.vm.VirtualMachine;
 
 @Entity
 @Table(name = "volume_view")
+@ReadOnly
 public class VolumeJoinVO extends BaseViewWithTagInformationVO implements ControlledViewEntity {
 
     @Column(name = "uuid")
@@ -0,0 +1,387 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.AsyncJobResponse;
+import org.apache.cloudstack.api.response.AuthenticationCmdResponse;
+import org.apache.cloudstack.api.response.CreateCmdResponse;
+import org.apache.cloudstack.api.response.ExceptionResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.apache.cloudstack.context.CallContext;
+
+import com.cloud.api.ApiServer;
+import com.cloud.serializer.Param;
+import com.cloud.utils.encoding.URLEncoder;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Writes the JSON form of an API response in a single pass over the response objects.
+ *
+ * The same traversal writes the view returned to the client and the view written to the
+ * access log, which leaves out sensitive fields.  The output matches what the Gson builders
+ * of ApiResponseGsonHelper produce after ApiResponseSerializer.unescape(), while the field
+ * metadata of every class is reflected only once.
+ */
+public class ApiResponseJsonWriter {
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    private static final ConcurrentHashMap<Class<?>, FieldInfo[]> s_fields = new ConcurrentHashMap<Class<?>, FieldInfo[]>();
+    private static final ThreadLocal<SimpleDateFormat> s_dateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DATE_FORMAT);
+        }
+    };
+
+    private final Appendable _out;
+    private final Appendable _log;
+    private final boolean _encode;
+    private Short _callerType;
+
+    /**
+     * @param out where the response for the client is written
+     * @param log where the response for the access log is written, can be null
+     */
+    public ApiResponseJsonWriter(Appendable out, Appendable log) {
+        _out = out;
+        _log = log;
+        _encode = ApiServer.isEncodeApiResponse();
+    }
+
+    public void write(ResponseObject result) {
+        try {
+            writeResponse(result);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to write response " + result.getResponseName(), e);
+        }
+    }
+
+    protected void writeResponse(ResponseObject result) throws IOException {
+        append("{\"", true).append(result.getResponseName(), true).append("\":", true);
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse<?>)result).getResponses();
+            Integer count = ((ListResponse<?>)result).getCount();
+            boolean nonZeroCount = (count != null && count.longValue() != 0);
+            append("{", true);
+            if (nonZeroCount) {
+                append("\"", true).append(ApiConstants.COUNT, true).append("\":", true).append(count.toString(), true);
+            }
+            if (responses != null && !responses.isEmpty()) {
+                if (nonZeroCount) {
+                    append(",", true);
+                }
+                append("\"", true).append(responses.get(0).getObjectName(), true).append("\":[", true);
+                for (int i = 0; i < responses.size(); i++) {
+                    if (i > 0) {
+                        append(",", true);
+                    }
+                    writeObject(responses.get(i), true);
+                }
+                append("]", true);
+                String nextPage = ((ListResponse<?>)result).getNextPage();
+                if (nextPage != null) {
+                    append(",\"", true).append(ApiConstants.NEXT_PAGE, true).append("\":\"", true).append(nextPage, true).append("\"", true);
+                }
+            }
+            append("}", true);
+        } else if (result instanceof SuccessResponse) {
+            append("{\"success\":\"", true).append(String.valueOf(((SuccessResponse)result).getSuccess()), true).append("\"}", true);
+        } else if (result instanceof ExceptionResponse || result instanceof AsyncJobResponse || result instanceof CreateCmdResponse ||
+                result instanceof AuthenticationCmdResponse) {
+            writeObject(result, true);
+        } else {
+            append("{\"", true).append(result.getObjectName(), true).append("\":", true);
+            writeObject(result, true);
+            append("}", true);
+        }
+        append("}", true);
+    }
+
+    protected void writeObject(Object obj, boolean toLog) throws IOException {
+        append("{", toLog);
+        boolean firstOut = true;
+        boolean firstLog = true;
+        for (FieldInfo info : getFields(obj.getClass())) {
+            if (!isAuthorized(info)) {
+                continue;
+            }
+            Object value;
+            try {
+                value = info.field.get(obj);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("Unable to read " + info.field, e);
+            }
+            if (value == null) {
+                continue;
+            }
+
+            boolean logField = toLog && _log != null && !info.sensitive;
+            _out.append(firstOut ? "\"" : ",\"");
+            firstOut = false;
+            if (logField) {
+                _log.append(firstLog ? "\"" : ",\"");
+                firstLog = false;
+            }
+            append(info.name, logField).append("\":", logField);
+            writeValue(value, info.type, logField);
+        }
+        append("}", toLog);
+    }
+
+    protected void writeValue(Object value, Type declaredType, boolean toLog) throws IOException {
+        if (value == null) {
+            append("null", toLog);
+        } else if (declaredType == ResponseObject.class && value instanceof ResponseObject) {
+            writeWrappedResponse((ResponseObject)value, toLog);
+        } else if (value instanceof String) {
+            writeString(encode((String)value), toLog);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            append(value.toString(), toLog);
+        } else if (value instanceof Character) {
+            writeString(value.toString(), toLog);
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>)value).name(), toLog);
+        } else if (value instanceof Date) {
+            writeString(s_dateFormat.get().format((Date)value), toLog);
+        } else if (value instanceof Map) {
+            Type valueType = getTypeArgument(declaredType, 1);
+            append("{", toLog);
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                if (!first) {
+                    append(",", toLog);
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), toLog);
+                append(":", toLog);
+                writeValue(entry.getValue(), valueType, toLog);
+            }
+            append("}", toLog);
+        } else if (value instanceof Collection) {
+            Type elementType = getTypeArgument(declaredType, 0);
+            append("[", toLog);
+            boolean first = true;
+            for (Object element : (Collection<?>)value) {
+                if (!first) {
+                    append(",", toLog);
+                }
+                first = false;
+                writeValue(element, elementType, toLog);
+            }
+            append("]", toLog);
+        } else if (value.getClass().isArray()) {
+            Type elementType = value.getClass().getComponentType();
+            append("[", toLog);
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    append(",", toLog);
+                }
+                writeValue(Array.get(value, i), elementType, toLog);
+            }
+            append("]", toLog);
+        } else {
+            writeObject(value, toLog);
+        }
+    }
+
+    /**
+     * Fields declared as ResponseObject, like the job result of an async job, are written
+     * the way ResponseObjectTypeAdapter does it.
+     */
+    protected void writeWrappedResponse(ResponseObject response, boolean toLog) throws IOException {
+        if (response instanceof SuccessResponse) {
+            append("{\"success\":", toLog).append(String.valueOf(((SuccessResponse)response).getSuccess()), toLog).append("}", toLog);
+        } else if (response instanceof ExceptionResponse) {
+            ExceptionResponse exception = (ExceptionResponse)response;
+            append("{\"errorcode\":", toLog).append(String.valueOf(exception.getErrorCode()), toLog).append(",\"errortext\":", toLog);
+            writeString(exception.getErrorText(), toLog);
+            append("}", toLog);
+        } else {
+            append("{", toLog);
+            writeString(response.getObjectName(), toLog);
+            append(":", toLog);
+            writeObject(response, toLog);
+            append("}", toLog);
+        }
+    }
+
+    protected void writeString(String value, boolean toLog) throws IOException {
+        if (value == null) {
+            append("null", toLog);
+            return;
+        }
+        append("\"", toLog);
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c == '\b') {
+                replacement = "\\b";
+            } else if (c == '\f') {
+                replacement = "\\f";
+            } else if (c < 0x20) {
+                replacement = String.format("\\u%04x", (int)c);
+            } else {
+                continue;
+            }
+            if (last < i) {
+                append(value, last, i, toLog);
+            }
+            append(replacement, toLog);
+            last = i + 1;
+        }
+        if (last < length) {
+            append(value, last, length, toLog);
+        }
+        append("\"", toLog);
+    }
+
+    protected boolean isAuthorized(FieldInfo info) {
+        if (info.authorized.length == 0) {
+            return true;
+        }
+        if (_callerType == null) {
+            _callerType = CallContext.current().getCallingAccount().getType();
+        }
+        for (RoleType allowedRole : info.authorized) {
+            if (allowedRole.getAccountType() == _callerType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected String encode(String value) {
+        if (!_encode) {
+            return value;
+        }
+        try {
+            return new URLEncoder().encode(value).replaceAll("\\+", "%20");
+        } catch (Exception e) {
+            return value;
+        }
+    }
+
+    private ApiResponseJsonWriter append(String str, boolean toLog) throws IOException {
+        _out.append(str);
+        if (toLog && _log != null) {
+            _log.append(str);
+        }
+        return this;
+    }
+
+    private void append(String str, int start, int end, boolean toLog) throws IOException {
+        _out.append(str, start, end);
+        if (toLog && _log != null) {
+            _log.append(str, start, end);
+        }
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType)type).getActualTypeArguments();
+            if (args.length > index) {
+                Type arg = args[index];
+                if (arg instanceof WildcardType) {
+                    arg = ((WildcardType)arg).getUpperBounds()[0];
+                }
+                return arg;
+            }
+        }
+        return Object.class;
+    }
+
+    protected static FieldInfo[] getFields(Class<?> clazz) {
+        FieldInfo[] fields = s_fields.get(clazz);
+        if (fields == null) {
+            List<FieldInfo> infos = new ArrayList<FieldInfo>();
+            Set<String> names = new HashSet<String>();
+            // same order as Gson: fields of the class itself first, then the ones of its super classes
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if ((field.getModifiers() & (Modifier.TRANSIENT | Modifier.STATIC)) != 0 || field.isSynthetic()) {
+                        continue;
+                    }
+                    FieldInfo info = new FieldInfo(field);
+                    // a field shadowing one of a super class with the same name, like jobstatus of AsyncJobResponse, wins
+                    if (names.add(info.name)) {
+                        field.setAccessible(true);
+                        infos.add(info);
+                    }
+                }
+            }
+            fields = infos.toArray(new FieldInfo[infos.size()]);
+            s_fields.put(clazz, fields);
+        }
+        return fields;
+    }
+
+    protected static class FieldInfo {
+        final Field field;
+        final String name;
+        final Type type;
+        final RoleType[] authorized;
+        final boolean sensitive;
+
+        FieldInfo(Field field) {
+            this.field = field;
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            name = serializedName != null ? serializedName.value() : field.getName();
+            type = field.getGenericType();
+            Param param = field.getAnnotation(Param.class);
+            authorized = param != null ? param.authorized() : new RoleType[0];
+            sensitive = param != null && param.isSensitive();
+        }
+    }
+}
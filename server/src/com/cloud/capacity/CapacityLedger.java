@@ -0,0 +1,117 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.utils.Pair;
+
+/**
+ * Changes of the used capacity recorded as they happen, waiting to be written to the capacity table.
+ *
+ * Changes to the same capacity row add up in memory, so writing them is one update per row however many changes
+ * the row got since the last flush. The full recalculation of the capacities only reconciles the table with the
+ * actual allocations from time to time, the differences it finds are counted here as drift.
+ */
+public class CapacityLedger {
+    private Map<Pair<Long, Short>, Long> _pending = new HashMap<Pair<Long, Short>, Long>();
+
+    private final AtomicLong _recorded = new AtomicLong();
+    private final AtomicLong _flushed = new AtomicLong();
+    private final AtomicLong _driftedRows = new AtomicLong();
+    private final AtomicLong _drift = new AtomicLong();
+
+    public void record(final long hostOrPoolId, final short capacityType, final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        add(new Pair<Long, Short>(hostOrPoolId, capacityType), delta);
+        _recorded.incrementAndGet();
+    }
+
+    private synchronized void add(final Pair<Long, Short> key, final long delta) {
+        final Long pending = _pending.get(key);
+        final long sum = pending == null ? delta : pending + delta;
+        if (sum == 0) {
+            _pending.remove(key);
+        } else {
+            _pending.put(key, sum);
+        }
+    }
+
+    /**
+     * @return the changes recorded since the last call, by host or pool id and capacity type.
+     */
+    public synchronized Map<Pair<Long, Short>, Long> drain() {
+        final Map<Pair<Long, Short>, Long> pending = _pending;
+        _pending = new HashMap<Pair<Long, Short>, Long>();
+        return pending;
+    }
+
+    /**
+     * @return the change recorded for one capacity row since the last flush, which is then no longer pending.
+     */
+    public synchronized long take(final long hostOrPoolId, final short capacityType) {
+        final Long pending = _pending.remove(new Pair<Long, Short>(hostOrPoolId, capacityType));
+        return pending == null ? 0 : pending;
+    }
+
+    /**
+     * Puts back changes that could not be written, they go out with the next flush.
+     */
+    public void restore(final Map<Pair<Long, Short>, Long> deltas) {
+        for (final Map.Entry<Pair<Long, Short>, Long> entry : deltas.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void flushed(final int rows) {
+        _flushed.addAndGet(rows);
+    }
+
+    /**
+     * Records a capacity row the recalculation found off from the actual allocations.
+     */
+    public void drifted(final long expected, final long recorded) {
+        if (expected != recorded) {
+            _driftedRows.incrementAndGet();
+            _drift.addAndGet(Math.abs(expected - recorded));
+        }
+    }
+
+    public synchronized int getPendingRows() {
+        return _pending.size();
+    }
+
+    public long getRecorded() {
+        return _recorded.get();
+    }
+
+    public long getFlushedRows() {
+        return _flushed.get();
+    }
+
+    public long getDriftedRows() {
+        return _driftedRows.get();
+    }
+
+    public long getDrift() {
+        return _drift.get();
+    }
+}
@@ -17,11 +17,14 @@
 package com.cloud.capacity;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -40,6 +43,8 @@ import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.messagebus.PublishScope;
+import org.apache.cloudstack.managed.context.ManagedContextRunnable;
+import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.agent.AgentManager;
@@ -75,6 +80,7 @@ import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.DateUtil;
@@ -103,6 +109,10 @@ import com.cloud.vm.snapshot.dao.VMSnapshotDao;
 public class CapacityManagerImpl extends ManagerBase implements CapacityManager, StateListener<State, VirtualMachine.Event, VirtualMachine>, Listener, ResourceListener,
         Configurable {
     private static final Logger s_logger = Logger.getLogger(CapacityManagerImpl.class);
+
+    static final ConfigKey<Integer> CapacityLedgerFlushInterval = new ConfigKey<Integer>("Advanced", Integer.class, "capacity.ledger.flush.interval", "5",
+        "Interval in seconds between writes of the capacity changes recorded from volume state transitions", false);
+
     @Inject
     CapacityDao _capacityDao;
     @Inject
@@ -142,6 +152,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    PrimaryDataStoreDao _storagePoolDao;
+    final CapacityLedger _ledger = new CapacityLedger();
+    // a flush and the recount of a storage pool must not interleave, the recount would be overwritten by or add up with
+    // changes the flush took before it
+    private final Object _capacityFlushLock = new Object();
     private int _vmCapacityReleaseInterval;
     private ScheduledExecutorService _executor;
     long _extraBytesPerVolume = 0;
@@ -157,6 +173,7 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
         _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("HostCapacity-Checker"));
         VirtualMachine.State.getStateMachine().registerListener(this);
+        Volume.State.getStateMachine().registerListener(new VolumeCapacityListener());
         _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr), true, false, false);
         _agentManager.registerForHostEvents(new ComputeCapacityListener(_capacityDao, this), true, false, false);
 
@@ -167,15 +184,105 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     public boolean start() {
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_PREPARE_MAINTENANCE_AFTER, this);
         _resourceMgr.registerResourceEvent(ResourceListener.EVENT_CANCEL_MAINTENANCE_AFTER, this);
+        int flushInterval = CapacityLedgerFlushInterval.value();
+        _executor.scheduleWithFixedDelay(new CapacityLedgerFlushTask(), flushInterval, flushInterval, TimeUnit.SECONDS);
         return true;
     }
 
     @Override
     public boolean stop() {
         _executor.shutdownNow();
+        flushCapacityDeltas();
         return true;
     }
 
+    @Override
+    public void flushCapacityDeltas() {
+        synchronized (_capacityFlushLock) {
+            flushCapacityDeltasLocked();
+        }
+    }
+
+    private void flushCapacityDeltasLocked() {
+        final Map<Pair<Long, Short>, Long> deltas = _ledger.drain();
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try {
+            Transaction.execute(new TransactionCallbackNoReturn() {
+                @Override
+                public void doInTransactionWithoutResult(TransactionStatus status) {
+                    List<CapacityVO> changed = new ArrayList<CapacityVO>(deltas.size());
+                    for (Map.Entry<Pair<Long, Short>, Long> delta : deltas.entrySet()) {
+                        CapacityVO capacity = _capacityDao.findByHostIdType(delta.getKey().first(), delta.getKey().second());
+                        if (capacity == null) {
+                            // the next recalculation creates the capacity with the right value
+                            continue;
+                        }
+                        capacity = _capacityDao.lockRow(capacity.getId(), true);
+                        capacity.setUsedCapacity(Math.max(0, capacity.getUsedCapacity() + delta.getValue()));
+                        changed.add(capacity);
+                    }
+                    // every row changes the used capacity only, so the updates go out in one batch
+                    _capacityDao.updateAll(changed);
+                    _ledger.flushed(changed.size());
+                }
+            });
+        } catch (Exception e) {
+            s_logger.warn("Failed to write " + deltas.size() + " capacity changes, will try again with the next flush", e);
+            _ledger.restore(deltas);
+        }
+    }
+
+    protected class CapacityLedgerFlushTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                flushCapacityDeltas();
+            } catch (Throwable t) {
+                s_logger.error("Exception while writing capacity changes", t);
+            }
+        }
+    }
+
+    /**
+     * Keeps the allocated capacity of the storage pools current as volumes get created on them and destroyed.
+     * Resizes and VM snapshots are not tracked, the next recalculation picks them up.
+     */
+    protected class VolumeCapacityListener implements StateListener<Volume.State, Volume.Event, Volume> {
+        @Override
+        public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vol, boolean status, Object opaque) {
+            return true;
+        }
+
+        @Override
+        public boolean postStateTransitionEvent(StateMachine2.Transition<Volume.State, Volume.Event> transition, Volume vol, boolean status, Object opaque) {
+            if (!status || vol.getPoolId() == null || vol.getSize() == null) {
+                return true;
+            }
+
+            Volume.State oldState = transition.getCurrentState();
+            Volume.State newState = transition.getToState();
+            long size = vol.getSize() + _extraBytesPerVolume;
+            if (newState == Volume.State.Ready && (oldState == Volume.State.Creating || oldState == Volume.State.Copying)) {
+                recordPoolCapacity(vol.getPoolId(), size);
+            } else if (newState == Volume.State.Destroy && oldState == Volume.State.Ready) {
+                recordPoolCapacity(vol.getPoolId(), -size);
+            }
+            return true;
+        }
+    }
+
+    private void recordPoolCapacity(long poolId, long delta) {
+        StoragePoolVO pool = _storagePoolDao.findById(poolId);
+        if (pool == null || pool.isManaged()) {
+            // the allocated capacity of managed storage comes from its driver
+            return;
+        }
+        _ledger.record(poolId, pool.isShared() ? Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED : Capacity.CAPACITY_TYPE_LOCAL_STORAGE, delta);
+    }
+
     @DB
     @Override
     public boolean releaseVmCapacity(VirtualMachine vm, final boolean moveFromReserved, final boolean moveToReservered, final Long hostId) {
@@ -581,6 +688,35 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
         return totalAllocatedSize;
     }
 
+    /**
+     * The changes recorded for the pool so far are for volumes whose state change is already committed, so the recount
+     * includes them. They are taken out of the ledger instead of being written on top of the recount.
+     */
+    @Override
+    public void updateCapacityForStoragePool(StoragePoolVO pool) {
+        short capacityType = pool.isShared() ? Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED : Capacity.CAPACITY_TYPE_LOCAL_STORAGE;
+        synchronized (_capacityFlushLock) {
+            long pending = _ledger.take(pool.getId(), capacityType);
+            try {
+                long allocated = getAllocatedPoolCapacity(pool, null);
+                CapacityVO capacity = _capacityDao.findByHostIdType(pool.getId(), capacityType);
+                if (capacity != null) {
+                    long recorded = Math.max(0, capacity.getUsedCapacity() + pending);
+                    if (recorded != allocated) {
+                        s_logger.warn("Allocated capacity of storage pool " + pool.getId() + " drifted, recorded: " + recorded + " actual: " + allocated);
+                        _ledger.drifted(allocated, recorded);
+                    }
+                }
+                _storageMgr.createCapacityEntry(pool, capacityType, allocated);
+            } catch (RuntimeException e) {
+                if (pending != 0) {
+                    _ledger.restore(Collections.singletonMap(new Pair<Long, Short>(pool.getId(), capacityType), pending));
+                }
+                throw e;
+            }
+        }
+    }
+
     @DB
     @Override
     public void updateCapacityForHost(final Host host) {
@@ -706,7 +842,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     cpuCap.setReservedCapacity(reservedCpu);
                 }
                 if (cpuCap.getUsedCapacity() != usedCpu) {
-                    s_logger.debug("Calibrate used cpu for host: " + host.getId() + " old usedCpu:" + cpuCap.getUsedCapacity() + " new usedCpu:" + usedCpu);
+                    s_logger.warn("Calibrate used cpu for host: " + host.getId() + " old usedCpu:" + cpuCap.getUsedCapacity() + " new usedCpu:" + usedCpu);
+                    _ledger.drifted(usedCpu, cpuCap.getUsedCapacity());
                     cpuCap.setUsedCapacity(usedCpu);
                 }
             }
@@ -738,7 +875,8 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                      * state(starting/migrating) that I don't know on which host
                      * they are allocated
                      */
-                    s_logger.debug("Calibrate used memory for host: " + host.getId() + " old usedMem: " + memCap.getUsedCapacity() + " new usedMem: " + usedMemory);
+                    s_logger.warn("Calibrate used memory for host: " + host.getId() + " old usedMem: " + memCap.getUsedCapacity() + " new usedMem: " + usedMemory);
+                    _ledger.drifted(usedMemory, memCap.getUsedCapacity());
                     memCap.setUsedCapacity(usedMemory);
                 }
             }
@@ -1101,6 +1239,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     @Override
     public ConfigKey<?>[] getConfigKeys() {
         return new ConfigKey<?>[] {CpuOverprovisioningFactor, MemOverprovisioningFactor, StorageCapacityDisableThreshold, StorageOverprovisioningFactor,
-            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion};
+            StorageAllocatedCapacityDisableThreshold, StorageOperationsExcludeCluster, VmwareCreateCloneFull, ImageStoreNFSVersion, CapacityLedgerFlushInterval};
     }
 }
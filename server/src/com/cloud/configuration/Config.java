@@ -349,6 +349,14 @@ public enum Config {
             "100",
             "The number of outstanding security group work items that can be queued to a host. If exceeded, work items will get dropped to conserve memory. Security Group Sync will take care of ensuring that the host gets updated eventually",
             null),
+    SecurityGroupWorkRulesetsPerRequest(
+            "Network",
+            ManagementServer.class,
+            Integer.class,
+            "network.securitygroups.work.rulesets.per.request",
+            "100",
+            "The number of queued security group work items a worker takes at a time, the rulesets of those for vms on the same host are sent to it in one request",
+            null),
 
     SecurityGroupDefaultAdding(
             "Network",
@@ -667,6 +675,10 @@ public enum Config {
     XapiWait("Advanced", AgentManager.class, Integer.class, "xapiwait", "60", "Time (in seconds) to wait for XAPI to return", null),
     MigrateWait("Advanced", AgentManager.class, Integer.class, "migratewait", "3600", "Time (in seconds) to wait for VM migrate finish", null),
     HAWorkers("Advanced", AgentManager.class, Integer.class, "ha.workers", "5", "Number of ha worker threads.", null),
+    HAWorkersRestart("Advanced", HighAvailabilityManager.class, Integer.class, "ha.workers.restart", null, "Number of ha worker threads restarting VMs, ha.workers if not set.", null),
+    HAWorkersMigration("Advanced", HighAvailabilityManager.class, Integer.class, "ha.workers.migration", null, "Number of ha worker threads migrating VMs off hosts, ha.workers if not set.", null),
+    HAWorkersStop("Advanced", HighAvailabilityManager.class, Integer.class, "ha.workers.stop", null, "Number of ha worker threads stopping VMs, ha.workers if not set.", null),
+    HAWorkersDestroy("Advanced", HighAvailabilityManager.class, Integer.class, "ha.workers.destroy", null, "Number of ha worker threads destroying VMs, ha.workers if not set.", null),
     MountParent(
             "Advanced",
             ManagementServer.class,
@@ -873,6 +885,14 @@ public enum Config {
             "The interval (in milliseconds) when vm stats are retrieved from agents.",
             null),
     VmDiskStatsInterval("Advanced", ManagementServer.class, Integer.class, "vm.disk.stats.interval", "0", "Interval (in seconds) to report vm disk statistics.", null),
+    StatsCollectionWorkers(
+            "Advanced",
+            ManagementServer.class,
+            Integer.class,
+            "stats.collection.workers",
+            "16",
+            "The number of hosts host and vm stats are retrieved from at the same time.",
+            null),
     VmTransitionWaitInterval(
             "Advanced",
             ManagementServer.class,
@@ -1315,6 +1335,14 @@ public enum Config {
             "Interval (in days) to check sanity of usage data",
             null),
     UsageAggregationTimezone("Usage", ManagementServer.class, String.class, "usage.aggregation.timezone", "GMT", "The timezone to use for usage stats aggregation", null),
+    UsageParseWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.parse.workers",
+            "4",
+            "Number of account partitions the usage job parses in parallel, each in its own usage DB transaction. The usage records of the partitions are held in memory and saved in the usage job's transaction once all partitions have parsed; 1 parses all accounts serially",
+            null),
     TrafficSentinelIncludeZones(
             "Usage",
             ManagementServer.class,
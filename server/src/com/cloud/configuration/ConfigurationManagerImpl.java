@@ -75,6 +75,8 @@ import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.region.PortableIp;
 import org.apache.cloudstack.region.PortableIpDao;
 import org.apache.cloudstack.region.PortableIpRange;
@@ -95,6 +97,7 @@ import com.cloud.alert.AlertManager;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.AccountVlanMapVO;
 import com.cloud.dc.ClusterDetailsDao;
@@ -234,6 +237,10 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
     @Inject
     ConfigDepot _configDepot;
     @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    MessageBus _messageBus;
+    @Inject
     HostPodDao _podDao;
     @Inject
     HostDao _hostDao;
@@ -372,6 +379,17 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         populateConfigValuesForValidationSet();
         weightBasedParametersForValidation();
         overProvisioningFactorsForValidation();
+
+        // other management servers tell us about their changes so we do not serve stale cached values
+        _messageBus.subscribe(MESSAGE_CONFIG_CHANGED_EVENT, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                final String[] change = ((String)args).split(":", 3);
+                final ConfigKey.Scope scope = ConfigKey.Scope.valueOf(change[1]);
+                final Long resourceId = change[2].isEmpty() ? null : Long.valueOf(change[2]);
+                _configDepot.invalidateConfigCache(change[0], scope, resourceId);
+            }
+        });
         return true;
     }
 
@@ -541,6 +559,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            notifyConfigChanged(name, ConfigKey.Scope.valueOf(scope), resourceId);
             return value;
         }
 
@@ -631,9 +650,15 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        notifyConfigChanged(name, ConfigKey.Scope.Global, null);
         return _configDao.getValue(name);
     }
 
+    private void notifyConfigChanged(final String name, final ConfigKey.Scope scope, final Long resourceId) {
+        _configDepot.invalidateConfigCache(name, scope, resourceId);
+        _clusterMgr.publishToPeers(MESSAGE_CONFIG_CHANGED_EVENT, name + ":" + scope + ":" + (resourceId != null ? resourceId : ""));
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_CONFIGURATION_VALUE_EDIT, eventDescription = "updating configuration")
     public Configuration updateConfiguration(final UpdateCfgCmd cmd) throws InvalidParameterValueException {
@@ -0,0 +1,188 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+
+/**
+ * In memory queue of the HA work items this management server may process, ordered by the time they are due.
+ *
+ * The op_ha_work table stays the source of truth: an item is always taken in the database before it is processed,
+ * so the same item can be queued on every management server and only one of them works on it. Items that never
+ * made it into the queue, because they were scheduled while this server was down for instance, are found by
+ * scanning the table once in a while.
+ */
+public class HaWorkQueue {
+
+    /**
+     * Each pool has its own workers, so that a burst of one kind of work can not hold up the others.
+     */
+    public enum Pool {
+        Restart, Migration, Stop, Destroy;
+
+        public static Pool of(final WorkType type) {
+            switch (type) {
+            case HA:
+                return Restart;
+            case Migration:
+                return Migration;
+            case Destroy:
+                return Destroy;
+            default:
+                return Stop;
+            }
+        }
+    }
+
+    private final Map<Pool, DelayQueue<Item>> _queues = new EnumMap<Pool, DelayQueue<Item>>(Pool.class);
+    private final Map<Pool, AtomicLong> _processed = new EnumMap<Pool, AtomicLong>(Pool.class);
+    private final Set<Long> _queued = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final AtomicLong _restarts = new AtomicLong();
+    private final AtomicLong _restartMillis = new AtomicLong();
+    private final AtomicLong _maxRestartMillis = new AtomicLong();
+
+    public HaWorkQueue() {
+        for (final Pool pool : Pool.values()) {
+            _queues.put(pool, new DelayQueue<Item>());
+            _processed.put(pool, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param timeToTry when the work is due, in the unit of time_to_try.
+     * @return false if the work item is already queued.
+     */
+    public boolean offer(final long workId, final WorkType type, final long timeToTry) {
+        return offer(new Item(workId, type, timeToTry, 0));
+    }
+
+    /**
+     * Queues an item that could not be taken again, a little later.
+     *
+     * @return false if the item was retried too often already.
+     */
+    public boolean retry(final Item item, final int maxAttempts) {
+        if (item.getAttempts() >= maxAttempts) {
+            return false;
+        }
+        return offer(new Item(item.getWorkId(), item.getWorkType(), (System.currentTimeMillis() >> 10) + 1, item.getAttempts() + 1));
+    }
+
+    private boolean offer(final Item item) {
+        if (!_queued.add(item.getWorkId())) {
+            return false;
+        }
+        _queues.get(Pool.of(item.getWorkType())).offer(item);
+        return true;
+    }
+
+    /**
+     * @return the next due item of the pool, or null if none became due within the timeout.
+     */
+    public Item poll(final Pool pool, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final Item item = _queues.get(pool).poll(timeout, unit);
+        if (item != null) {
+            _queued.remove(item.getWorkId());
+            _processed.get(pool).incrementAndGet();
+        }
+        return item;
+    }
+
+    /**
+     * Records the time it took to get a VM running again, from the moment the HA work was scheduled.
+     */
+    public void restarted(final long millis) {
+        _restarts.incrementAndGet();
+        _restartMillis.addAndGet(millis);
+        long max = _maxRestartMillis.get();
+        while (millis > max && !_maxRestartMillis.compareAndSet(max, millis)) {
+            max = _maxRestartMillis.get();
+        }
+    }
+
+    public int getQueueDepth(final Pool pool) {
+        return _queues.get(pool).size();
+    }
+
+    public long getProcessed(final Pool pool) {
+        return _processed.get(pool).get();
+    }
+
+    public long getRestarts() {
+        return _restarts.get();
+    }
+
+    public long getAverageRestartMillis() {
+        final long restarts = _restarts.get();
+        return restarts == 0 ? 0 : _restartMillis.get() / restarts;
+    }
+
+    public long getMaxRestartMillis() {
+        return _maxRestartMillis.get();
+    }
+
+    public static class Item implements Delayed {
+        private final long _workId;
+        private final WorkType _workType;
+        private final long _timeToTry;
+        private final int _attempts;
+
+        Item(final long workId, final WorkType workType, final long timeToTry, final int attempts) {
+            _workId = workId;
+            _workType = workType;
+            _timeToTry = timeToTry;
+            _attempts = attempts;
+        }
+
+        public long getWorkId() {
+            return _workId;
+        }
+
+        public WorkType getWorkType() {
+            return _workType;
+        }
+
+        public int getAttempts() {
+            return _attempts;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert((_timeToTry << 10) - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            final Item other = (Item)o;
+            if (_timeToTry != other._timeToTry) {
+                return _timeToTry < other._timeToTry ? -1 : 1;
+            }
+            return _workId < other._workId ? -1 : _workId == other._workId ? 0 : 1;
+        }
+    }
+}
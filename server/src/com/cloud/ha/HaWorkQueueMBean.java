@@ -0,0 +1,40 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Map;
+
+public interface HaWorkQueueMBean {
+    /**
+     * @return number of work items waiting in each worker pool, including the ones not due yet
+     */
+    Map<String, Integer> getQueueDepths();
+
+    Map<String, Long> getProcessed();
+
+    /**
+     * @return number of VMs restarted by HA
+     */
+    long getRestarts();
+
+    /**
+     * @return average time from scheduling the HA work, usually when the host was found down, to the VM running again
+     */
+    long getAverageRestartMillis();
+
+    long getMaxRestartMillis();
+}
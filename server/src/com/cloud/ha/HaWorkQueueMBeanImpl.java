@@ -0,0 +1,64 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+public class HaWorkQueueMBeanImpl extends StandardMBean implements HaWorkQueueMBean {
+    private final HaWorkQueue _queue;
+
+    public HaWorkQueueMBeanImpl(HaWorkQueue queue) {
+        super(HaWorkQueueMBean.class, false);
+        _queue = queue;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> stats = new HashMap<String, Integer>();
+        for (HaWorkQueue.Pool pool : HaWorkQueue.Pool.values()) {
+            stats.put(pool.toString(), _queue.getQueueDepth(pool));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getProcessed() {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        for (HaWorkQueue.Pool pool : HaWorkQueue.Pool.values()) {
+            stats.put(pool.toString(), _queue.getProcessed(pool));
+        }
+        return stats;
+    }
+
+    @Override
+    public long getRestarts() {
+        return _queue.getRestarts();
+    }
+
+    @Override
+    public long getAverageRestartMillis() {
+        return _queue.getAverageRestartMillis();
+    }
+
+    @Override
+    public long getMaxRestartMillis() {
+        return _queue.getMaxRestartMillis();
+    }
+}
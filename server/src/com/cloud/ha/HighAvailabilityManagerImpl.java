@@ -32,11 +32,14 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.NDC;
 import org.apache.cloudstack.engine.orchestration.service.VolumeOrchestrationService;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
 import org.apache.cloudstack.managed.context.ManagedContext;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.configuration.Config;
@@ -72,6 +75,7 @@ import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
@@ -82,7 +86,8 @@ import com.cloud.vm.dao.VMInstanceDao;
 /**
  * HighAvailabilityManagerImpl coordinates the HA process. VMs are registered with the HA Manager for HA. The request is stored
  * within a database backed work queue. HAManager has a number of workers that pick up these work items to perform HA on the
- * VMs.
+ * VMs. New work items are handed to the workers through an in memory queue, on this and the other management servers;
+ * the database is scanned once in a while for work items that did not make it into the queue.
  *
  * The HA process goes as follows: 1. Check with the list of Investigators to determine that the VM is no longer running. If a
  * Investigator finds the VM is still alive, the HA process is stopped and the state of the VM reverts back to its previous
@@ -94,7 +99,8 @@ import com.cloud.vm.dao.VMInstanceDao;
  * the VM.
  *
  * @config {@table || Param Name | Description | Values | Default || || workers | number of worker threads to spin off to do the
- *         processing | int | 1 || || time.to.sleep | Time to sleep if no work items are found | seconds | 60 || || max.retries
+ *         processing, for each type of work | int | 1 || || time.to.sleep | Time between scans for work items that are not
+ *         queued | seconds | 60 || || max.retries
  *         | number of times to retry start | int | 5 || || time.between.failure | Time elapsed between failures before we
  *         consider it as another retry | seconds | 3600 || || time.between.cleanup | Time to wait before the cleanup thread
  *         runs | seconds | 86400 || || force.ha | Force HA to happen even if the VM says no | boolean | false || ||
@@ -104,7 +110,12 @@ import com.cloud.vm.dao.VMInstanceDao;
 public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvailabilityManager, ClusterManagerListener {
 
     protected static final Logger s_logger = Logger.getLogger(HighAvailabilityManagerImpl.class);
+    public static final String MESSAGE_HA_WORK_SCHEDULED_EVENT = "Message.HaWork.Scheduled.Event";
+    /* A work item that is not found yet may belong to a transaction that is not committed yet, try it again shortly */
+    private static final int MAX_TAKE_ATTEMPTS = 3;
+
     WorkerThread[] _workers;
+    final HaWorkQueue _workQueue = new HaWorkQueue();
     boolean _stopped;
     long _timeToSleep;
     @Inject
@@ -180,6 +191,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     ConfigurationDao _configDao;
     @Inject
     VolumeOrchestrationService volumeMgr;
+    @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    MessageBus _messageBus;
 
     String _instance;
     ScheduledExecutorService _executor;
@@ -300,13 +315,16 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work);
         }
-        wakeupWorkers();
+        queueWork(work);
     }
 
-    protected void wakeupWorkers() {
-        for (WorkerThread worker : _workers) {
-            worker.wakup();
-        }
+    /**
+     * Hands a new work item to the workers of this and the other management servers, whichever takes it first
+     * processes it.
+     */
+    protected void queueWork(final HaWorkVO work) {
+        _workQueue.offer(work.getId(), work.getWorkType(), work.getTimeToTry());
+        _clusterMgr.publishToPeers(MESSAGE_HA_WORK_SCHEDULED_EVENT, work.getId() + ":" + work.getWorkType() + ":" + work.getTimeToTry());
     }
 
     @Override
@@ -314,7 +332,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         if (vm.getHostId() != null) {
             final HaWorkVO work = new HaWorkVO(vm.getId(), vm.getType(), WorkType.Migration, Step.Scheduled, vm.getHostId(), vm.getState(), 0, vm.getUpdated());
             _haDao.persist(work);
-            wakeupWorkers();
+            queueWork(work);
         }
         return true;
     }
@@ -409,7 +427,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             s_logger.info("Schedule vm for HA:  " + vm);
         }
 
-        wakeupWorkers();
+        queueWork(work);
 
     }
 
@@ -598,6 +616,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             VMInstanceVO started = _instanceDao.findById(vm.getId());
             if (started != null && started.getState() == VirtualMachine.State.Running) {
                 s_logger.info("VM is now restarted: " + vmId + " on " + started.getHostId());
+                if (work.getCreated() != null) {
+                    _workQueue.restarted(System.currentTimeMillis() - work.getCreated().getTime());
+                }
                 return null;
             }
 
@@ -656,7 +677,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Scheduled " + work.toString());
         }
-        wakeupWorkers();
+        queueWork(work);
     }
 
     @Override
@@ -825,6 +846,9 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             work.setStep(Step.Done);
         }
         _haDao.update(work.getId(), work);
+        if (!Step.Done.equals(work.getStep())) {
+            _workQueue.offer(work.getId(), wt, work.getTimeToTry());
+        }
     }
 
     @Override
@@ -836,10 +860,14 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         String value = params.get(Config.HAWorkers.key());
         final int count = NumbersUtil.parseInt(value, 1);
-        _workers = new WorkerThread[count];
-        for (int i = 0; i < _workers.length; i++) {
-            _workers[i] = new WorkerThread("HA-Worker-" + i);
+        final List<WorkerThread> workers = new ArrayList<WorkerThread>();
+        for (final HaWorkQueue.Pool pool : HaWorkQueue.Pool.values()) {
+            final int poolSize = NumbersUtil.parseInt(params.get(getWorkersConfig(pool).key()), count);
+            for (int i = 0; i < poolSize; i++) {
+                workers.add(new WorkerThread("HA-Worker-" + pool + "-" + i, pool));
+            }
         }
+        _workers = workers.toArray(new WorkerThread[workers.size()]);
 
         value = params.get("force.ha");
         _forceHA = Boolean.parseBoolean(value);
@@ -881,9 +909,36 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         _executor = Executors.newScheduledThreadPool(count, new NamedThreadFactory("HA"));
 
+        _messageBus.subscribe(MESSAGE_HA_WORK_SCHEDULED_EVENT, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(final String senderAddress, final String subject, final Object args) {
+                final String[] work = ((String)args).split(":");
+                _workQueue.offer(Long.parseLong(work[0]), WorkType.valueOf(work[1]), Long.parseLong(work[2]));
+            }
+        });
+
+        try {
+            JmxUtil.registerMBean("HaWorkQueue", "HighAvailabilityManager", new HaWorkQueueMBeanImpl(_workQueue));
+        } catch (final Exception e) {
+            s_logger.warn("Unable to register the HA work queue MBean", e);
+        }
+
         return true;
     }
 
+    private static Config getWorkersConfig(final HaWorkQueue.Pool pool) {
+        switch (pool) {
+        case Restart:
+            return Config.HAWorkersRestart;
+        case Migration:
+            return Config.HAWorkersMigration;
+        case Destroy:
+            return Config.HAWorkersDestroy;
+        default:
+            return Config.HAWorkersStop;
+        }
+    }
+
     @Override
     public boolean start() {
         _stopped = false;
@@ -893,6 +948,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
 
         _executor.scheduleAtFixedRate(new CleanupTask(), _timeBetweenCleanups, _timeBetweenCleanups, TimeUnit.SECONDS);
+        _executor.scheduleWithFixedDelay(new WorkScanTask(), 0, _timeToSleep, TimeUnit.MILLISECONDS);
 
         return true;
     }
@@ -901,8 +957,6 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     public boolean stop() {
         _stopped = true;
 
-        wakeupWorkers();
-
         _executor.shutdown();
 
         return true;
@@ -921,9 +975,35 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
     }
 
+    /**
+     * Queues the work items that are due soon and were not handed to the workers yet: scheduled while this management
+     * server was down, released by a management server that left, or whose notification got lost.
+     */
+    protected class WorkScanTask extends ManagedContextRunnable {
+        @Override
+        protected void runInContext() {
+            try {
+                int queued = 0;
+                for (final HaWorkVO work : _haDao.listUntakenWork((System.currentTimeMillis() + _timeToSleep) >> 10)) {
+                    if (_workQueue.offer(work.getId(), work.getWorkType(), work.getTimeToTry())) {
+                        queued++;
+                    }
+                }
+                if (queued > 0 && s_logger.isDebugEnabled()) {
+                    s_logger.debug("Queued " + queued + " HA work items found in the database");
+                }
+            } catch (Exception e) {
+                s_logger.warn("Error while scanning for HA work", e);
+            }
+        }
+    }
+
     protected class WorkerThread extends Thread {
-        public WorkerThread(String name) {
+        private final HaWorkQueue.Pool _pool;
+
+        public WorkerThread(String name, HaWorkQueue.Pool pool) {
             super(name);
+            _pool = pool;
         }
 
         @Override
@@ -943,18 +1023,25 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         private void runWithContext() {
             HaWorkVO work = null;
             try {
-                s_logger.trace("Checking the database for work");
-                work = _haDao.take(_serverId);
+                final HaWorkQueue.Item item;
+                try {
+                    item = _workQueue.poll(_pool, 1, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    s_logger.info("Interrupted");
+                    return;
+                }
+                if (item == null) {
+                    return;
+                }
+
+                work = _haDao.take(item.getWorkId(), _serverId);
                 if (work == null) {
-                    try {
-                        synchronized (this) {
-                            wait(_timeToSleep);
-                        }
-                        return;
-                    } catch (final InterruptedException e) {
-                        s_logger.info("Interrupted");
-                        return;
+                    if (_haDao.findById(item.getWorkId()) == null) {
+                        _workQueue.retry(item, MAX_TAKE_ATTEMPTS);
+                    } else if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Work " + item.getWorkId() + " has been taken already");
                     }
+                    return;
                 }
 
                 NDC.push("work-" + work.getId());
@@ -968,10 +1055,6 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                 }
             }
         }
-
-        public synchronized void wakup() {
-            notifyAll();
-        }
     }
 
     @Override
@@ -983,6 +1066,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         for (ManagementServerHost node : nodeList) {
             _haDao.releaseWorkItems(node.getMsid());
         }
+        _executor.execute(new WorkScanTask());
     }
 
     @Override
@@ -32,6 +32,23 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Takes a specific HA work item, if it is due and nobody took it yet.
+     *
+     * @param workId id of the work item.
+     * @param serverId server that is taking this.
+     * @return WorkVO if it was taken by this call; null otherwise.
+     */
+    HaWorkVO take(long workId, long serverId);
+
+    /**
+     * Lists the work items nobody has taken yet.
+     *
+     * @param time work items due after this time are left out, in the unit of time_to_try.
+     * @return list of WorkVO or empty list.
+     */
+    List<HaWorkVO> listUntakenWork(long time);
+
     /**
      * Finds all the work items related to this instance.
      *
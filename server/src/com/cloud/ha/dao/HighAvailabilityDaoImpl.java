@@ -176,6 +176,40 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         }
     }
 
+    @Override
+    public HaWorkVO take(final long workId, final long serverId) {
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            txn.start();
+            final HaWorkVO work = lockRow(workId, true);
+            if (work == null || work.getServerId() != null || work.getDateTaken() != null || work.getStep() == Step.Done || work.getStep() == Step.Cancelled
+                    || work.getTimeToTry() > System.currentTimeMillis() >> 10) {
+                txn.commit();
+                return null;
+            }
+
+            work.setServerId(serverId);
+            work.setDateTaken(new Date());
+
+            update(work.getId(), work);
+
+            txn.commit();
+
+            return work;
+
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Unable to execute take", e);
+        }
+    }
+
+    @Override
+    public List<HaWorkVO> listUntakenWork(final long time) {
+        final SearchCriteria<HaWorkVO> sc = TBASearch.create();
+        sc.setParameters("time", time);
+        sc.setParameters("step", Step.Done, Step.Cancelled);
+        return listBy(sc);
+    }
+
     @Override
     public List<HaWorkVO> findPreviousHA(final long instanceId) {
         final SearchCriteria<HaWorkVO> sc = PreviousInstanceSearch.create();
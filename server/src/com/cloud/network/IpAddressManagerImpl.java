@@ -18,6 +18,7 @@ package com.cloud.network;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +46,9 @@ import org.apache.log4j.Logger;
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
 import com.cloud.api.ApiDBUtils;
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.ClusterManagerListener;
+import com.cloud.cluster.ManagementServerHost;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.AccountVlanMapVO;
@@ -58,6 +62,7 @@ import com.cloud.dc.Vlan.VlanType;
 import com.cloud.dc.VlanVO;
 import com.cloud.dc.dao.AccountVlanMapDao;
 import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.dc.dao.DataCenterIpAddressDao;
 import com.cloud.dc.dao.DataCenterVnetDao;
 import com.cloud.dc.dao.DomainVlanMapDao;
 import com.cloud.dc.dao.PodVlanMapDao;
@@ -169,9 +174,12 @@ import com.cloud.vm.dao.NicSecondaryIpDao;
 import com.cloud.vm.dao.UserVmDao;
 import com.cloud.vm.dao.VMInstanceDao;
 
-public class IpAddressManagerImpl extends ManagerBase implements IpAddressManager, Configurable {
+public class IpAddressManagerImpl extends ManagerBase implements IpAddressManager, ClusterManagerListener, Configurable {
     private static final Logger s_logger = Logger.getLogger(IpAddressManagerImpl.class);
 
+    // free public addresses read at a time to pick one from
+    private static final int PUBLIC_IP_CANDIDATES = 32;
+
     @Inject
     NetworkOrchestrationService _networkMgr = null;
     @Inject
@@ -279,6 +287,10 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
     PortableIpDao _portableIpDao;
     @Inject
     VpcDao _vpcDao;
+    @Inject
+    DataCenterIpAddressDao _privateIpAddressDao;
+    @Inject
+    ClusterManager _clusterMgr;
     SearchBuilder<IPAddressVO> AssignIpAddressSearch;
     SearchBuilder<IPAddressVO> AssignIpAddressFromPodVlanSearch;
 
@@ -403,6 +415,10 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
 
         Network.State.getStateMachine().registerListener(new NetworkStateListener(_configDao));
 
+        _privateIpAddressDao.setClaimBlockSize(AllocationClaimBlockSize.value());
+        _datacenterVnetDao.setClaimBlockSize(AllocationClaimBlockSize.value());
+        _clusterMgr.registerListener(this);
+
         s_logger.info("Network Manager is configured.");
 
         return true;
@@ -660,6 +676,32 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
         return fetchNewPublicIp(dcId, podId, vlanDbIds, owner, type, networkId, false, true, requestedIp, isSystem, null, null);
     }
 
+    /**
+     * Takes one of the free public addresses matching the search criteria. Locking the first free row made every
+     * concurrent allocation from the same range wait for it, instead a window of free addresses is read without locks
+     * and they are tried in random order, each with an update of its row alone that only succeeds if the address is
+     * still free. It only comes down to a lock when every address of the window got taken in the meantime.
+     *
+     * @return the address, marked allocated in the current transaction, or null if there is no free address left.
+     */
+    private IPAddressVO takeFreePublicIp(SearchCriteria<IPAddressVO> sc) {
+        Filter window = new Filter(IPAddressVO.class, "vlanId", true, 0l, (long)PUBLIC_IP_CANDIDATES);
+        List<IPAddressVO> candidates = _ipAddressDao.search(sc, window);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Collections.shuffle(candidates);
+        Date now = new Date();
+        for (IPAddressVO candidate : candidates) {
+            if (_ipAddressDao.allocateIfFree(candidate.getId(), now)) {
+                return _ipAddressDao.findById(candidate.getId());
+            }
+        }
+
+        List<IPAddressVO> addrs = _ipAddressDao.lockRows(sc, new Filter(IPAddressVO.class, "vlanId", true, 0l, 1l), true);
+        return addrs.isEmpty() ? null : addrs.get(0);
+    }
+
     @DB
     public PublicIp fetchNewPublicIp(final long dcId, final Long podId, final List<Long> vlanDbIds, final Account owner, final VlanType vlanUse, final Long guestNetworkId,
             final boolean sourceNat, final boolean assign, final String requestedIp, final boolean isSystem, final Long vpcId, final Boolean displayIp)
@@ -734,23 +776,21 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
                     errorMessage.append(": requested ip " + requestedIp + " is not available");
                 }
 
-                Filter filter = new Filter(IPAddressVO.class, "vlanId", true, 0l, 1l);
-
-                List<IPAddressVO> addrs = _ipAddressDao.lockRows(sc, filter, true);
+                IPAddressVO addr = takeFreePublicIp(sc);
 
                 // If all the dedicated IPs of the owner are in use fetch an IP from the system pool
-                if (addrs.size() == 0 && fetchFromDedicatedRange) {
+                if (addr == null && fetchFromDedicatedRange) {
                     // Verify if account is allowed to acquire IPs from the system
                     boolean useSystemIps = UseSystemPublicIps.valueIn(owner.getId());
                     if (useSystemIps && nonDedicatedVlanDbIds != null && !nonDedicatedVlanDbIds.isEmpty()) {
                         fetchFromDedicatedRange = false;
                         sc.setParameters("vlanId", nonDedicatedVlanDbIds.toArray());
                                 errorMessage.append(", vlanId id=" + Arrays.toString(nonDedicatedVlanDbIds.toArray()));
-                        addrs = _ipAddressDao.lockRows(sc, filter, true);
+                        addr = takeFreePublicIp(sc);
                     }
                 }
 
-                if (addrs.size() == 0) {
+                if (addr == null) {
                     if (podId != null) {
                         InsufficientAddressCapacityException ex = new InsufficientAddressCapacityException("Insufficient address capacity", Pod.class, podId);
                         // for now, we hardcode the table names, but we should ideally do a lookup for the tablename from the VO object.
@@ -763,8 +803,6 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
                     throw ex;
                 }
 
-                assert (addrs.size() == 1) : "Return size is incorrect: " + addrs.size();
-
                 if (!fetchFromDedicatedRange && VlanType.VirtualNetwork.equals(vlanUse)) {
                     // Check that the maximum number of public IPs for the given accountId will not be exceeded
                     try {
@@ -775,7 +813,6 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
                     }
                 }
 
-                IPAddressVO addr = addrs.get(0);
                 addr.setSourceNat(sourceNat);
                 addr.setAllocatedTime(new Date());
                 addr.setAllocatedInDomainId(owner.getDomainId());
@@ -2012,6 +2049,23 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
         return acquireGuestIpAddress(network, requestedIp);
     }
 
+    @Override
+    public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
+    }
+
+    @Override
+    public void onManagementNodeLeft(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
+        for (ManagementServerHost node : nodeList) {
+            // hand the addresses and vnets the node claimed, and did not take, to the remaining nodes
+            _privateIpAddressDao.releaseClaims(node.getMsid());
+            _datacenterVnetDao.releaseClaims(node.getMsid());
+        }
+    }
+
+    @Override
+    public void onManagementNodeIsolated() {
+    }
+
     @Override
     public String getConfigComponentName() {
         return IpAddressManager.class.getSimpleName();
@@ -2019,6 +2073,6 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {UseSystemPublicIps};
+        return new ConfigKey<?>[] {UseSystemPublicIps, AllocationClaimBlockSize};
     }
 }
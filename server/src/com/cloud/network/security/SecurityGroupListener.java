@@ -106,12 +106,14 @@ public class SecurityGroupListener implements Listener {
                         }
                     }
                 }
-
-                if (_workTracker != null)
-                    _workTracker.processAnswers(agentId, seq, answers);
             }
         }
 
+        // the rulesets of many vms can be answered at once, they were sent as one request
+        if (_workTracker != null && answers.length > 0 && answers[0] instanceof SecurityGroupRuleAnswer) {
+            _workTracker.processAnswers(agentId, seq, answers);
+        }
+
         if (affectedVms.size() > 0) {
             _securityGroupManager.scheduleRulesetUpdateToHosts(affectedVms, false, new Long(10 * 1000l));
         }
@@ -16,7 +16,9 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,15 +31,18 @@ import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.managed.context.ManagedContext;
 
+import com.cloud.agent.api.Command.OnError;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
 import com.cloud.agent.manager.Commands;
 import com.cloud.configuration.Config;
 import com.cloud.exception.AgentUnavailableException;
+import com.cloud.network.security.SecurityGroupRulesetCache.Loader;
 import com.cloud.network.security.SecurityGroupWork.Step;
 import com.cloud.network.security.SecurityRule.SecurityRuleType;
 import com.cloud.uservm.UserVm;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Profiler;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.NicVO;
@@ -48,9 +53,21 @@ import com.cloud.vm.VirtualMachine.State;
  *
  */
 public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
+    // how long an expanded group may be reused within a burst of updates
+    private static final long RULESET_CACHE_MAX_AGE_MS = 2000;
+
     SecurityGroupWorkQueue _workQueue = new LocalSecurityGroupWorkQueue();
     SecurityGroupWorkTracker _workTracker;
     SecurityManagerMBeanImpl _mBean;
+    SecurityGroupRulesetCache _rulesetCache = new SecurityGroupRulesetCache(RULESET_CACHE_MAX_AGE_MS);
+    int _rulesetsPerRequest;
+
+    private final Loader _groupRulesLoader = new Loader() {
+        @Override
+        public Map<PortAndProto, Set<String>> load(long securityGroupId, SecurityRuleType type) {
+            return generateRulesForGroup(securityGroupId, type);
+        }
+    };
 
     @Inject
     ManagedContext _managedContext;
@@ -113,6 +130,14 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         p.start();
         int updated = 0;
         if (updateSeqno) {
+            // rules or group members changed, the change is only visible to the workers once the caller's transaction commits
+            _rulesetCache.changeStarted();
+            TransactionLegacy.currentTxn().runAfterCompletion(new Runnable() {
+                @Override
+                public void run() {
+                    _rulesetCache.changeCompleted();
+                }
+            });
             updated = _rulesetLogDao.createOrUpdate(workItems);
             if (updated < workItems.size()) {
                 throw new CloudRuntimeException("Failed to create ruleset log entries");
@@ -140,43 +165,92 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
-            for (SecurityGroupWork work : workItems) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Processing " + work.getInstanceId());
+            workItems = _workQueue.getWork(_rulesetsPerRequest);
+            sendRulesetUpdates(workItems);
+        } catch (InterruptedException e1) {
+            s_logger.warn("SG work: caught InterruptException", e1);
+        }
+    }
+
+    public void sendRulesetUpdates(SecurityGroupWork work) {
+        List<SecurityGroupWork> workItems = new ArrayList<SecurityGroupWork>(1);
+        workItems.add(work);
+        sendRulesetUpdates(workItems);
+    }
+
+    /**
+     * Sends the rulesets of the vms, the rulesets of the vms running on the same host go in one request.
+     */
+    public void sendRulesetUpdates(List<SecurityGroupWork> workItems) {
+        Map<Long, Commands> cmdsPerAgent = new HashMap<Long, Commands>();
+        Map<Long, List<SecurityGroupWork>> workPerAgent = new HashMap<Long, List<SecurityGroupWork>>();
+        for (SecurityGroupWork work : workItems) {
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Processing " + work.getInstanceId());
+            }
+
+            try {
+                VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
+                if (rulesetLog == null) {
+                    s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
+                    continue;
+                }
+                work.setLogsequenceNumber(rulesetLog.getLogsequence());
+                UserVm vm = _userVMDao.findById(work.getInstanceId());
+                SecurityGroupRulesCmd cmd = generateRulesetCmd(vm, work);
+                if (cmd == null) {
+                    continue;
+                }
+                Commands cmds = cmdsPerAgent.get(vm.getHostId());
+                if (cmds == null) {
+                    // the rulesets of the other vms still get programmed when one of them fails
+                    cmds = new Commands(OnError.Continue);
+                    cmdsPerAgent.put(vm.getHostId(), cmds);
+                    workPerAgent.put(vm.getHostId(), new ArrayList<SecurityGroupWork>());
                 }
+                cmds.addCommand(cmd);
+                workPerAgent.get(vm.getHostId()).add(work);
+            } catch (Exception e) {
+                s_logger.error("Problem during SG work " + work, e);
+                work.setStep(Step.Error);
+            }
+        }
 
-                try {
-                    VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
-                    if (rulesetLog == null) {
-                        s_logger.warn("Could not find ruleset log for vm " + work.getInstanceId());
-                        continue;
-                    }
-                    work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
+        for (Map.Entry<Long, Commands> entry : cmdsPerAgent.entrySet()) {
+            Long agentId = entry.getKey();
+            try {
+                _agentMgr.send(agentId, entry.getValue(), _answerListener);
+                for (SecurityGroupWork work : workPerAgent.get(agentId)) {
                     _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
-                } catch (Exception e) {
-                    s_logger.error("Problem during SG work " + work, e);
+                }
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("SecurityGroupManager v2: sent " + entry.getValue().size() + " ruleset updates to host " + agentId + " curr queue size=" + _workQueue.size());
+                }
+            } catch (AgentUnavailableException e) {
+                s_logger.debug("Unable to send updates for " + entry.getValue().size() + " vms (agentid=" + agentId + ")");
+                _workTracker.handleException(agentId);
+            } catch (Exception e) {
+                s_logger.error("Problem sending SG work to host " + agentId, e);
+                for (SecurityGroupWork work : workPerAgent.get(agentId)) {
                     work.setStep(Step.Error);
                 }
             }
-        } catch (InterruptedException e1) {
-            s_logger.warn("SG work: caught InterruptException", e1);
         }
     }
 
-    public void sendRulesetUpdates(SecurityGroupWork work) {
+    /**
+     * @return the ruleset of the vm, or null if it is not running on a host.
+     */
+    protected SecurityGroupRulesCmd generateRulesetCmd(UserVm vm, SecurityGroupWork work) {
         Long userVmId = work.getInstanceId();
-        UserVm vm = _userVMDao.findById(userVmId);
-
         if (vm != null && vm.getState() == State.Running) {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
             }
-            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
             Long agentId = vm.getHostId();
             if (agentId != null) {
+                Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
+                Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
                 String privateIp = vm.getPrivateIpAddress();
                 NicVO nic = _nicDao.findByIp4AddressAndVmId(privateIp, vm.getId());
                 List<String> nicSecIps = null;
@@ -194,16 +268,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         cmd.getIngressRuleSet().size() + ":egress num rules=" + cmd.getEgressRuleSet().size() + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" +
                         cmd.getSignature());
                 }
-                Commands cmds = new Commands(cmd);
-                try {
-                    _agentMgr.send(agentId, cmds, _answerListener);
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("SecurityGroupManager v2: sent ruleset updates for " + vm.getInstanceName() + " curr queue size=" + _workQueue.size());
-                    }
-                } catch (AgentUnavailableException e) {
-                    s_logger.debug("Unable to send updates for vm: " + userVmId + "(agentid=" + agentId + ")");
-                    _workTracker.handleException(agentId);
-                }
+                return cmd;
             }
         } else {
             if (s_logger.isDebugEnabled()) {
@@ -213,6 +278,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                     s_logger.debug("Could not find vm: No rules sent to vm " + userVmId);
             }
         }
+        return null;
     }
 
     @Override
@@ -221,10 +287,8 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
     }
 
     /*
-     * Same as the superclass, except that we use the  ip address(es) returned from the join
-     * made with the nics table when retrieving the SecurityGroupVmMapVO. If a vm has a single
-     * nic then that nic is the default and then this query is correct. If the vm has multiple nics
-     * then we get all ips, including the default nic ip. This is also probably the correct behavior.
+     * Same as the superclass, except that the rules of each group, with the groups they allow expanded, come from
+     * the ruleset cache: all the members of a group need the same rules when it changes.
      */
     @Override
     protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type) {
@@ -233,28 +297,51 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
 
         List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(userVmId);
         for (SecurityGroupVMMapVO mapVO : groupsForVm) {
-            List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(mapVO.getSecurityGroupId(), type);
-            for (SecurityGroupRuleVO rule : rules) {
-                PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
-                Set<String> cidrs = allowed.get(portAndProto);
+            Map<PortAndProto, Set<String>> groupRules = _rulesetCache.get(mapVO.getSecurityGroupId(), type, _groupRulesLoader);
+            for (Map.Entry<PortAndProto, Set<String>> rule : groupRules.entrySet()) {
+                Set<String> cidrs = allowed.get(rule.getKey());
                 if (cidrs == null) {
                     cidrs = new TreeSet<String>(new CidrComparator());
+                    allowed.put(rule.getKey(), cidrs);
                 }
-                if (rule.getAllowedNetworkId() != null) {
-                    List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
-                    for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
-                        //here, we differ from the superclass: instead of creating N more queries to the
-                        //nics table, we use what's already there in the VO since the listBySecurityGroup already
-                        //did a join with the nics table
-                        String cidr = ngmapVO.getGuestIpAddress() + "/32";
-                        cidrs.add(cidr);
-                    }
-                } else if (rule.getAllowedSourceIpCidr() != null) {
-                    cidrs.add(rule.getAllowedSourceIpCidr());
-                }
-                if (cidrs.size() > 0) {
-                    allowed.put(portAndProto, cidrs);
+                cidrs.addAll(rule.getValue());
+            }
+        }
+
+        return allowed;
+    }
+
+    /*
+     * We use the ip address(es) returned from the join made with the nics table when retrieving the
+     * SecurityGroupVmMapVO. If a vm has a single nic then that nic is the default and then this query is correct.
+     * If the vm has multiple nics then we get all ips, including the default nic ip. This is also probably the
+     * correct behavior.
+     */
+    protected Map<PortAndProto, Set<String>> generateRulesForGroup(long securityGroupId, SecurityRuleType type) {
+
+        Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
+
+        List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(securityGroupId, type);
+        for (SecurityGroupRuleVO rule : rules) {
+            PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
+            Set<String> cidrs = allowed.get(portAndProto);
+            if (cidrs == null) {
+                cidrs = new TreeSet<String>(new CidrComparator());
+            }
+            if (rule.getAllowedNetworkId() != null) {
+                List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
+                for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
+                    //here, we differ from the superclass: instead of creating N more queries to the
+                    //nics table, we use what's already there in the VO since the listBySecurityGroup already
+                    //did a join with the nics table
+                    String cidr = ngmapVO.getGuestIpAddress() + "/32";
+                    cidrs.add(cidr);
                 }
+            } else if (rule.getAllowedSourceIpCidr() != null) {
+                cidrs.add(rule.getAllowedSourceIpCidr());
+            }
+            if (cidrs.size() > 0) {
+                allowed.put(portAndProto, cidrs);
             }
         }
 
@@ -269,6 +356,10 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return _workQueue;
     }
 
+    public SecurityGroupRulesetCache getRulesetCache() {
+        return _rulesetCache;
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         _mBean = new SecurityManagerMBeanImpl(this);
@@ -280,6 +371,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         boolean result = super.configure(name, params);
         Map<String, String> configs = _configDao.getConfiguration("Network", params);
         int bufferLength = NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkPerAgentMaxQueueSize.key()), 100);
+        _rulesetsPerRequest = Math.max(1, NumbersUtil.parseInt(configs.get(Config.SecurityGroupWorkRulesetsPerRequest.key()), 100));
         _workTracker = new SecurityGroupWorkTracker(_agentMgr, _answerListener, bufferLength);
         _answerListener.setWorkDispatcher(_workTracker);
         return result;
@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+import com.cloud.utils.Pair;
+
+/**
+ * Caches the rules of each security group, with the cidrs of the running members of the groups they allow already
+ * expanded. When a group changes, all its members need their ruleset, and without the cache the same groups were
+ * expanded from the database again for each of them.
+ *
+ * A change to the rules or to the members of any group is made in a transaction that also bumps the ruleset log
+ * sequence of the affected vms. From the start of such a change until its transaction completes, the cache is not used:
+ * a group loaded meanwhile may or may not see the change, and a vm that already reads the new sequence must not get a
+ * ruleset built from the old rows. Completing the change drops every cached group. Entries also expire after a short
+ * time, in case a group changes without going through the ruleset log. The cached rules are shared, callers must not
+ * modify them.
+ */
+public class SecurityGroupRulesetCache {
+
+    public interface Loader {
+        Map<PortAndProto, Set<String>> load(long securityGroupId, SecurityRuleType type);
+    }
+
+    private final long _maxAgeMillis;
+    private final ConcurrentHashMap<Pair<Long, SecurityRuleType>, Entry> _entries = new ConcurrentHashMap<Pair<Long, SecurityRuleType>, Entry>();
+    private final AtomicLong _generation = new AtomicLong();
+    private final AtomicInteger _pendingChanges = new AtomicInteger();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _loads = new AtomicLong();
+
+    public SecurityGroupRulesetCache(final long maxAgeMillis) {
+        _maxAgeMillis = maxAgeMillis;
+    }
+
+    public Map<PortAndProto, Set<String>> get(final long securityGroupId, final SecurityRuleType type, final Loader loader) {
+        if (_pendingChanges.get() > 0) {
+            _loads.incrementAndGet();
+            return loader.load(securityGroupId, type);
+        }
+
+        final Pair<Long, SecurityRuleType> key = new Pair<Long, SecurityRuleType>(securityGroupId, type);
+        final long generation = _generation.get();
+        final long now = System.currentTimeMillis();
+
+        Entry entry = _entries.get(key);
+        if (entry == null || !entry.isCurrent(generation, now)) {
+            final Entry fresh = new Entry(generation, now);
+            if (entry == null ? _entries.putIfAbsent(key, fresh) == null : _entries.replace(key, entry, fresh)) {
+                entry = fresh;
+            } else {
+                // another thread replaced it first, or the cache got invalidated in between
+                entry = _entries.get(key);
+                if (entry == null) {
+                    entry = fresh;
+                }
+            }
+        }
+        return entry.get(securityGroupId, type, loader);
+    }
+
+    /**
+     * Called before rules or group members change in a transaction, the cache is bypassed until
+     * {@link #changeCompleted()} is called for it.
+     */
+    public void changeStarted() {
+        _pendingChanges.incrementAndGet();
+        invalidate();
+    }
+
+    /**
+     * Called once the transaction of a change committed or rolled back.
+     */
+    public void changeCompleted() {
+        // groups loaded while the change was in progress must not be used afterwards
+        invalidate();
+        _pendingChanges.decrementAndGet();
+    }
+
+    /**
+     * Drops every cached group.
+     */
+    public void invalidate() {
+        _generation.incrementAndGet();
+        _entries.clear();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getLoads() {
+        return _loads.get();
+    }
+
+    private class Entry {
+        final long _generation;
+        final long _created;
+        Map<PortAndProto, Set<String>> _rules;
+
+        Entry(final long generation, final long created) {
+            _generation = generation;
+            _created = created;
+        }
+
+        boolean isCurrent(final long generation, final long now) {
+            return _generation == generation && now - _created <= _maxAgeMillis;
+        }
+
+        // members of a group loading at the same time wait for the first one instead of all going to the database
+        synchronized Map<PortAndProto, Set<String>> get(final long securityGroupId, final SecurityRuleType type, final Loader loader) {
+            if (_rules == null) {
+                _rules = loader.load(securityGroupId, type);
+                _loads.incrementAndGet();
+            } else {
+                _hits.incrementAndGet();
+            }
+            return _rules;
+        }
+    }
+}
@@ -146,4 +146,14 @@ public class SecurityManagerMBeanImpl extends StandardMBean implements SecurityG
     public void clearSchedulerQueueVeryDangerous() {
         _sgMgr.clearWorkQueue();
     }
+
+    @Override
+    public long getRulesetCacheHits() {
+        return _sgMgr.getRulesetCache().getHits();
+    }
+
+    @Override
+    public long getRulesetCacheLoads() {
+        return _sgMgr.getRulesetCache().getLoads();
+    }
 }
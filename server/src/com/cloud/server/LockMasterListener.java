@@ -18,6 +18,10 @@ package com.cloud.server;
 
 import java.util.List;
 
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+
+import com.cloud.cluster.ClusterManager;
 import com.cloud.cluster.ClusterManagerListener;
 import com.cloud.cluster.ManagementServerHost;
 import com.cloud.utils.db.Merovingian2;
@@ -25,14 +29,47 @@ import com.cloud.utils.db.Merovingian2;
 /**
  * when a management server is down.
  *
+ * It also relays lock waits and releases between management servers so that
+ * threads waiting for a lock held by a peer are woken up when it is released.
  */
-public class LockMasterListener implements ClusterManagerListener {
+public class LockMasterListener implements ClusterManagerListener, Merovingian2.LockWaitListener {
+    public static final String MESSAGE_LOCK_WAIT_EVENT = "Message.LockWait.Event";
+    public static final String MESSAGE_LOCK_RELEASE_EVENT = "Message.LockRelease.Event";
+
     Merovingian2 _lockMaster;
+    ClusterManager _clusterMgr;
 
     public LockMasterListener(long msId) {
         _lockMaster = Merovingian2.createLockMaster(msId);
     }
 
+    public void startLockNotifications(ClusterManager clusterMgr, MessageBus messageBus) {
+        _clusterMgr = clusterMgr;
+        messageBus.subscribe(MESSAGE_LOCK_WAIT_EVENT, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                _lockMaster.onRemoteWait((String)args);
+            }
+        });
+        messageBus.subscribe(MESSAGE_LOCK_RELEASE_EVENT, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                _lockMaster.wakeupWaiters((String)args);
+            }
+        });
+        _lockMaster.setLockWaitListener(this);
+    }
+
+    @Override
+    public void onLockWait(String key) {
+        _clusterMgr.publishToPeers(MESSAGE_LOCK_WAIT_EVENT, key);
+    }
+
+    @Override
+    public void onLockReleased(String key) {
+        _clusterMgr.publishToPeers(MESSAGE_LOCK_RELEASE_EVENT, key);
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
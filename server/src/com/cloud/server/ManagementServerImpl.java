@@ -516,6 +516,7 @@ import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.framework.security.keystore.KeystoreManager;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.storage.datastore.db.ImageStoreDao;
@@ -824,6 +825,9 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
     @Inject
     ClusterManager _clusterMgr;
 
+    @Inject
+    MessageBus _messageBus;
+
     @Inject
     protected AffinityGroupVMMapDao _affinityGroupVMMapDao;
 
@@ -906,6 +910,7 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
         }
 
         _clusterMgr.registerListener(_lockMasterListener);
+        _lockMasterListener.startLockNotifications(_clusterMgr, _messageBus);
 
         enableAdminUser("password");
         return true;
@@ -1009,9 +1014,11 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
             result = false;
             return result;
         }
+        final List<Long> eventIds = new ArrayList<Long>(events.size());
         for (final EventVO event : events) {
-            _eventDao.remove(event.getId());
+            eventIds.add(event.getId());
         }
+        _eventDao.expungeAll(eventIds);
         return result;
     }
 
@@ -3091,9 +3098,11 @@ public class ManagementServerImpl extends ManagerBase implements ManagementServe
                     s_logger.debug("Deleting events older than: " + purgeTime.toString());
                     final List<EventVO> oldEvents = _eventDao.listOlderEvents(purgeTime);
                     s_logger.debug("Found " + oldEvents.size() + " events to be purged");
+                    final List<Long> oldEventIds = new ArrayList<Long>(oldEvents.size());
                     for (final EventVO event : oldEvents) {
-                        _eventDao.expunge(event.getId());
+                        oldEventIds.add(event.getId());
                     }
+                    _eventDao.expungeAll(oldEventIds);
                 } catch (final Exception e) {
                     s_logger.error("Exception ", e);
                 } finally {
@@ -23,14 +23,20 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 
@@ -116,11 +122,15 @@ import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
 import com.cloud.utils.db.TransactionStatus;
+import com.cloud.utils.fsm.StateListener;
+import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.MacAddress;
 import com.cloud.vm.UserVmManager;
 import com.cloud.vm.UserVmVO;
 import com.cloud.vm.VMInstanceVO;
 import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.VirtualMachine.State;
 import com.cloud.vm.VmStats;
 import com.cloud.vm.dao.UserVmDao;
 import com.cloud.vm.dao.VMInstanceDao;
@@ -150,7 +160,13 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
 
     private static StatsCollector s_instance = null;
 
+    static final String HOST_STATS_ROUND = "HostStats";
+    static final String VM_STATS_ROUND = "VmStats";
+
     private ScheduledExecutorService _executor = null;
+    private ThreadPoolExecutor _collectionExecutor = null;
+    private int _collectionWorkers = 16;
+    private StatsCollectorMBeanImpl _mBean;
     @Inject
     private AgentManager _agentMgr;
     @Inject
@@ -213,7 +229,7 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
     private ImageStoreDetailsUtil imageStoreDetailsUtil;
 
     private ConcurrentHashMap<Long, HostStats> _hostStats = new ConcurrentHashMap<Long, HostStats>();
-    private final ConcurrentHashMap<Long, VmStats> _VmStats = new ConcurrentHashMap<Long, VmStats>();
+    private VmStatsStore _vmStats = new VmStatsStore(1024);
     private final ConcurrentHashMap<Long, VolumeStats> _volumeStats = new ConcurrentHashMap<Long, VolumeStats>();
     private ConcurrentHashMap<Long, StorageStats> _storageStats = new ConcurrentHashMap<Long, StorageStats>();
     private ConcurrentHashMap<Long, StorageStats> _storagePoolStats = new ConcurrentHashMap<Long, StorageStats>();
@@ -262,9 +278,46 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
         return true;
     }
 
+    @Override
+    public boolean stop() {
+        if (_collectionExecutor != null) {
+            _collectionExecutor.shutdownNow();
+        }
+        return true;
+    }
+
     private void init(Map<String, String> configs) {
         _executor = Executors.newScheduledThreadPool(6, new NamedThreadFactory("StatsCollector"));
 
+        _vmStats = new VmStatsStore(1024);
+        // the stats of a vm are kept while it is stopped, and dropped once it is expunged
+        VirtualMachine.State.getStateMachine().registerListener(new StateListener<State, VirtualMachine.Event, VirtualMachine>() {
+            @Override
+            public boolean preStateTransitionEvent(State oldState, VirtualMachine.Event event, State newState, VirtualMachine vo, boolean status, Object opaque) {
+                return true;
+            }
+
+            @Override
+            public boolean postStateTransitionEvent(StateMachine2.Transition<State, VirtualMachine.Event> transition, VirtualMachine vo, boolean status, Object opaque) {
+                if (status && transition.getToState() == State.Expunging) {
+                    _vmStats.remove(vo.getId());
+                }
+                return true;
+            }
+        });
+        _collectionWorkers = Math.max(1, NumbersUtil.parseInt(configs.get("stats.collection.workers"), 16));
+        _collectionExecutor = new ThreadPoolExecutor(_collectionWorkers, _collectionWorkers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("StatsCollectionWorker"));
+        _collectionExecutor.allowCoreThreadTimeOut(true);
+        if (_mBean == null) {
+            _mBean = new StatsCollectorMBeanImpl(this);
+            try {
+                JmxUtil.registerMBean("StatsCollector", "StatsCollector", _mBean);
+            } catch (Exception e) {
+                s_logger.warn("Failed to register StatsCollector MBean", e);
+            }
+        }
+
         hostOutOfBandManagementStatsInterval = OutOfBandManagementService.SyncThreadInterval.value();
         hostStatsInterval = NumbersUtil.parseLong(configs.get("host.stats.interval"), 60000L);
         hostAndVmStatsInterval = NumbersUtil.parseLong(configs.get("vm.stats.interval"), 60000L);
@@ -399,35 +452,33 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.L2Networking.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalDhcp.toString());
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.BaremetalPxe.toString());
-                ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<Long, HostStats>();
                 List<HostVO> hosts = _hostDao.search(sc, null);
+                final ConcurrentHashMap<Long, HostStats> hostStats = new ConcurrentHashMap<Long, HostStats>();
+                // Check for GPUs on all the hosts managed by CloudStack unless the ones having them are known
+                final Set<Long> gpuEnabledHostIds = hostIds != null ? new HashSet<Long>(hostIds) : null;
+
+                List<HostStatsWork> works = new ArrayList<HostStatsWork>(hosts.size());
                 for (HostVO host : hosts) {
-                    HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
-                    if (stats != null) {
-                        hostStats.put(host.getId(), stats);
-                    } else {
-                        s_logger.warn("Received invalid host stats for host: " + host.getId());
-                    }
-                }
-                _hostStats = hostStats;
-                // Get a subset of hosts with GPU support from the list of "hosts"
-                List<HostVO> gpuEnabledHosts = new ArrayList<HostVO>();
-                if (hostIds != null) {
-                    for (HostVO host : hosts) {
-                        if (hostIds.contains(host.getId())) {
-                            gpuEnabledHosts.add(host);
+                    works.add(new HostStatsWork(host) {
+                        @Override
+                        protected void collect(HostVO host) {
+                            HostStatsEntry stats = (HostStatsEntry)_resourceMgr.getHostStatistics(host.getId());
+                            if (stats != null) {
+                                hostStats.put(host.getId(), stats);
+                            } else {
+                                s_logger.warn("Received invalid host stats for host: " + host.getId());
+                            }
+                            if (gpuEnabledHostIds == null || gpuEnabledHostIds.contains(host.getId())) {
+                                HashMap<String, HashMap<String, VgpuTypesInfo>> groupDetails = _resourceMgr.getGPUStatistics(host);
+                                if (groupDetails != null) {
+                                    _resourceMgr.updateGPUDetails(host.getId(), groupDetails);
+                                }
+                            }
                         }
-                    }
-                } else {
-                    // Check for all the hosts managed by CloudStack.
-                    gpuEnabledHosts = hosts;
-                }
-                for (HostVO host : gpuEnabledHosts) {
-                    HashMap<String, HashMap<String, VgpuTypesInfo>> groupDetails = _resourceMgr.getGPUStatistics(host);
-                    if (groupDetails != null) {
-                        _resourceMgr.updateGPUDetails(host.getId(), groupDetails);
-                    }
+                    });
                 }
+                collectFromHosts(HOST_STATS_ROUND, works, hostStatsInterval);
+                _hostStats = hostStats;
                 hostIds = _hostGpuGroupsDao.listHostIds();
             } catch (Throwable t) {
                 s_logger.error("Error trying to retrieve host stats", t);
@@ -482,112 +533,281 @@ public class StatsCollector extends ManagerBase implements ComponentMethodInterc
                 sc.addAnd("type", SearchCriteria.Op.NEQ, Host.Type.SecondaryStorageVM.toString());
                 List<HostVO> hosts = _hostDao.search(sc, null);
 
-                /* HashMap for metrics to be send to Graphite */
-                HashMap metrics = new HashMap<String, Integer>();
-
+                List<HostStatsWork> works = new ArrayList<HostStatsWork>(hosts.size());
                 for (HostVO host : hosts) {
-                    List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
-                    List<Long> vmIds = new ArrayList<Long>();
+                    works.add(new HostStatsWork(host) {
+                        @Override
+                        protected void collect(HostVO host) {
+                            collectVmStats(host);
+                        }
+                    });
+                }
+                collectFromHosts(VM_STATS_ROUND, works, hostAndVmStatsInterval);
+            } catch (Throwable t) {
+                s_logger.error("Error trying to retrieve VM stats", t);
+            }
+        }
+    }
 
-                    for (UserVmVO vm : vms) {
-                        vmIds.add(vm.getId());
-                    }
+    protected void collectVmStats(HostVO host) {
+        List<UserVmVO> vms = _userVmDao.listRunningByHostId(host.getId());
+        List<Long> vmIds = new ArrayList<Long>(vms.size());
+        // the uuids of the running vms are the names used for the external stats, no need to look the vms up again
+        Map<Long, String> vmNames = new HashMap<Long, String>(vms.size());
+        for (UserVmVO vm : vms) {
+            vmIds.add(vm.getId());
+            vmNames.put(vm.getId(), vm.getUuid());
+        }
 
-                    try {
-                        HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+        HashMap<Long, VmStatsEntry> vmStatsById = _userVmMgr.getVirtualMachineStatistics(host.getId(), host.getName(), vmIds);
+        if (vmStatsById == null) {
+            return;
+        }
+        // the metrics take the values of this round, merging adds the network and disk counters up
+        HashMap metrics = buildVmMetrics(vmStatsById, vmNames);
+        _vmStats.mergeAll(vmStatsById);
+
+        /**
+         * Send the metrics to a external stats collector
+         * We send it on a per-host basis to prevent that we flood the host
+         * Currently only Graphite is supported
+         */
+        if (!metrics.isEmpty() && externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+            sendVmMetrics(host, metrics);
+        }
+    }
 
-                        if (vmStatsById != null) {
-                            VmStatsEntry statsInMemory = null;
+    protected HashMap buildVmMetrics(Map<Long, VmStatsEntry> vmStatsById, Map<Long, String> vmNames) {
+        /* HashMap for metrics to be send to Graphite */
+        HashMap metrics = new HashMap<String, Integer>();
+
+        for (Map.Entry<Long, VmStatsEntry> entry : vmStatsById.entrySet()) {
+            Long vmId = entry.getKey();
+            VmStatsEntry statsForCurrentIteration = entry.getValue();
+
+            /**
+             * Add statistics to HashMap only when they should be send to a external stats collector
+             * Performance wise it seems best to only append to the HashMap when needed
+             */
+            String vmName = vmNames.get(vmId);
+            if (externalStatsEnabled && vmName != null) {
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.num", statsForCurrentIteration.getNumCPUs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.utilization", statsForCurrentIteration.getCPUUtilization());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.read_kbs", statsForCurrentIteration.getNetworkReadKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.write_kbs", statsForCurrentIteration.getNetworkWriteKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_kbs", statsForCurrentIteration.getDiskWriteKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_kbs", statsForCurrentIteration.getDiskReadKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_iops", statsForCurrentIteration.getDiskWriteIOs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_iops", statsForCurrentIteration.getDiskReadIOs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.total_kbs", statsForCurrentIteration.getMemoryKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.internalfree_kbs", statsForCurrentIteration.getIntFreeMemoryKBs());
+                metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.target_kbs", statsForCurrentIteration.getTargetMemoryKBs());
+            }
+        }
+        return metrics;
+    }
 
-                            Set<Long> vmIdSet = vmStatsById.keySet();
-                            for (Long vmId : vmIdSet) {
-                                VmStatsEntry statsForCurrentIteration = vmStatsById.get(vmId);
-                                statsInMemory = (VmStatsEntry)_VmStats.get(vmId);
-
-                                if (statsInMemory == null) {
-                                    //no stats exist for this vm, directly persist
-                                    _VmStats.put(vmId, statsForCurrentIteration);
-                                } else {
-                                    //update each field
-                                    statsInMemory.setCPUUtilization(statsForCurrentIteration.getCPUUtilization());
-                                    statsInMemory.setNumCPUs(statsForCurrentIteration.getNumCPUs());
-                                    statsInMemory.setNetworkReadKBs(statsInMemory.getNetworkReadKBs() + statsForCurrentIteration.getNetworkReadKBs());
-                                    statsInMemory.setNetworkWriteKBs(statsInMemory.getNetworkWriteKBs() + statsForCurrentIteration.getNetworkWriteKBs());
-                                    statsInMemory.setDiskWriteKBs(statsInMemory.getDiskWriteKBs() + statsForCurrentIteration.getDiskWriteKBs());
-                                    statsInMemory.setDiskReadIOs(statsInMemory.getDiskReadIOs() + statsForCurrentIteration.getDiskReadIOs());
-                                    statsInMemory.setDiskWriteIOs(statsInMemory.getDiskWriteIOs() + statsForCurrentIteration.getDiskWriteIOs());
-                                    statsInMemory.setDiskReadKBs(statsInMemory.getDiskReadKBs() + statsForCurrentIteration.getDiskReadKBs());
-                                    statsInMemory.setMemoryKBs(statsForCurrentIteration.getMemoryKBs());
-                                    statsInMemory.setIntFreeMemoryKBs(statsForCurrentIteration.getIntFreeMemoryKBs());
-                                    statsInMemory.setTargetMemoryKBs(statsForCurrentIteration.getTargetMemoryKBs());
-
-                                    _VmStats.put(vmId, statsInMemory);
-                                }
+    protected void sendVmMetrics(HostVO host, HashMap metrics) {
+        int port = externalStatsPort == -1 ? 2003 : externalStatsPort;
 
-                                /**
-                                 * Add statistics to HashMap only when they should be send to a external stats collector
-                                 * Performance wise it seems best to only append to the HashMap when needed
-                                 */
-                                if (externalStatsEnabled) {
-                                    VMInstanceVO vmVO = _vmInstance.findById(vmId);
-                                    String vmName = vmVO.getUuid();
-
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.num", statsForCurrentIteration.getNumCPUs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".cpu.utilization", statsForCurrentIteration.getCPUUtilization());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.read_kbs", statsForCurrentIteration.getNetworkReadKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".network.write_kbs", statsForCurrentIteration.getNetworkWriteKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_kbs", statsForCurrentIteration.getDiskWriteKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_kbs", statsForCurrentIteration.getDiskReadKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.write_iops", statsForCurrentIteration.getDiskWriteIOs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".disk.read_iops", statsForCurrentIteration.getDiskReadIOs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.total_kbs", statsForCurrentIteration.getMemoryKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.internalfree_kbs", statsForCurrentIteration.getIntFreeMemoryKBs());
-                                    metrics.put(externalStatsPrefix + "cloudstack.stats.instances." + vmName + ".memory.target_kbs", statsForCurrentIteration.getTargetMemoryKBs());
+        s_logger.debug("Sending VmStats of host " + host.getId() + " to Graphite host " + externalStatsHost + ":" + port);
 
-                                }
+        try {
+            GraphiteClient g = new GraphiteClient(externalStatsHost, port);
+            g.sendMetrics(metrics);
+        } catch (GraphiteException e) {
+            s_logger.debug("Failed sending VmStats to Graphite host " + externalStatsHost + ":" + port + ": " + e.getMessage());
+        }
+    }
 
-                            }
+    /**
+     * Sends the stats commands of a round to the hosts on the collection workers, so at most
+     * stats.collection.workers hosts are waited for at the same time. A round does not take longer
+     * than its interval, hosts that did not answer by then are cancelled and counted as timed out.
+     */
+    protected CollectionRound collectFromHosts(String name, List<HostStatsWork> works, long timeout) {
+        CollectionRound round = new CollectionRound(name, works.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(works.size());
+        for (HostStatsWork work : works) {
+            futures.add(_collectionExecutor.submit(work));
+        }
 
-                            /**
-                             * Send the metrics to a external stats collector
-                             * We send it on a per-host basis to prevent that we flood the host
-                             * Currently only Graphite is supported
-                             */
-                            if (!metrics.isEmpty()) {
-                                if (externalStatsType != null && externalStatsType == ExternalStatsProtocol.GRAPHITE) {
+        long deadline = round.getStarted() + timeout;
+        boolean interrupted = false;
+        for (int i = 0; i < works.size(); i++) {
+            HostStatsWork work = works.get(i);
+            Future<?> future = futures.get(i);
+            try {
+                if (interrupted) {
+                    throw new TimeoutException();
+                }
+                future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                round.done(work);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                round.timedOut();
+                s_logger.warn(name + " collection of host " + work.getHost().getId() + " did not finish within " + timeout + " ms");
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+                round.timedOut();
+            } catch (ExecutionException e) {
+                round.failed();
+                s_logger.debug(name + " collection of host " + work.getHost().getId() + " failed", e.getCause());
+            }
+        }
+        round.finish();
+        if (_mBean != null) {
+            _mBean.recordRound(round);
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(round.toString());
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return round;
+    }
 
-                                    if (externalStatsPort == -1) {
-                                        externalStatsPort = 2003;
-                                    }
+    int getCollectionWorkers() {
+        return _collectionWorkers;
+    }
 
-                                    s_logger.debug("Sending VmStats of host " + host.getId() + " to Graphite host " + externalStatsHost + ":" + externalStatsPort);
+    int getCollectionQueueSize() {
+        return _collectionExecutor != null ? _collectionExecutor.getQueue().size() : 0;
+    }
 
-                                    try {
-                                        GraphiteClient g = new GraphiteClient(externalStatsHost, externalStatsPort);
-                                        g.sendMetrics(metrics);
-                                    } catch (GraphiteException e) {
-                                        s_logger.debug("Failed sending VmStats to Graphite host " + externalStatsHost + ":" + externalStatsPort + ": " + e.getMessage());
-                                    }
+    /**
+     * Collects the stats of one host on a collection worker and keeps track of how long the host took.
+     */
+    abstract class HostStatsWork extends ManagedContextRunnable {
+        private final HostVO _host;
+        private volatile long _latency;
+        private volatile boolean _failed;
 
-                                    metrics.clear();
-                                }
-                            }
-                        }
+        HostStatsWork(HostVO host) {
+            _host = host;
+        }
 
-                    } catch (Exception e) {
-                        s_logger.debug("Failed to get VM stats for host with ID: " + host.getId());
-                        continue;
-                    }
+        @Override
+        protected void runInContext() {
+            long started = System.currentTimeMillis();
+            try {
+                collect(_host);
+            } catch (Exception e) {
+                _failed = true;
+                s_logger.debug("Failed to collect stats of host with ID: " + _host.getId(), e);
+            } finally {
+                _latency = System.currentTimeMillis() - started;
+                if (_mBean != null) {
+                    _mBean.recordHostLatency(_host.getId(), _latency);
                 }
+            }
+        }
 
-            } catch (Throwable t) {
-                s_logger.error("Error trying to retrieve VM stats", t);
+        protected abstract void collect(HostVO host);
+
+        public HostVO getHost() {
+            return _host;
+        }
+
+        public long getLatency() {
+            return _latency;
+        }
+
+        public boolean isFailed() {
+            return _failed;
+        }
+    }
+
+    static class CollectionRound {
+        private final String _name;
+        private final int _hosts;
+        private final long _started = System.currentTimeMillis();
+        private long _finished;
+        private int _collected;
+        private int _timeouts;
+        private int _failures;
+        private long _maxLatency;
+        private long _totalLatency;
+
+        CollectionRound(String name, int hosts) {
+            _name = name;
+            _hosts = hosts;
+        }
+
+        void done(HostStatsWork work) {
+            if (work.isFailed()) {
+                _failures++;
+            } else {
+                _collected++;
             }
+            _totalLatency += work.getLatency();
+            _maxLatency = Math.max(_maxLatency, work.getLatency());
+        }
+
+        void timedOut() {
+            _timeouts++;
+        }
+
+        void failed() {
+            _failures++;
+        }
+
+        void finish() {
+            _finished = System.currentTimeMillis();
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public int getHosts() {
+            return _hosts;
+        }
+
+        public long getStarted() {
+            return _started;
+        }
+
+        public long getFinished() {
+            return _finished;
+        }
+
+        public long getDuration() {
+            return _finished - _started;
+        }
+
+        public int getCollected() {
+            return _collected;
+        }
+
+        public int getTimeouts() {
+            return _timeouts;
+        }
+
+        public int getFailures() {
+            return _failures;
+        }
+
+        public long getMaxLatency() {
+            return _maxLatency;
+        }
+
+        public long getAverageLatency() {
+            int answered = _collected + _failures;
+            return answered > 0 ? _totalLatency / answered : 0;
+        }
+
+        @Override
+        public String toString() {
+            return _name + " round of " + _hosts + " hosts took " + getDuration() + " ms: " + _collected + " collected, " + _timeouts + " timed out, " + _failures +
+                " failed, host latency avg " + getAverageLatency() + " ms max " + _maxLatency + " ms";
         }
     }
 
     public VmStats getVmStats(long id) {
-        return _VmStats.get(id);
+        return _vmStats.get(id);
     }
 
     class VmDiskStatsUpdaterTask extends ManagedContextRunnable {
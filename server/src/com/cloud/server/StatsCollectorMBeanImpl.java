@@ -0,0 +1,85 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.StandardMBean;
+
+public class StatsCollectorMBeanImpl extends StandardMBean implements StatsCollectorMBean {
+    private final StatsCollector _statsCollector;
+    private final Map<Long, Long> _hostLatencies = new ConcurrentHashMap<Long, Long>();
+    private volatile Map<String, Long> _hostStatsRound = new HashMap<String, Long>();
+    private volatile Map<String, Long> _vmStatsRound = new HashMap<String, Long>();
+
+    protected StatsCollectorMBeanImpl(StatsCollector statsCollector) {
+        super(StatsCollectorMBean.class, false);
+        _statsCollector = statsCollector;
+    }
+
+    public void recordHostLatency(long hostId, long latencyMs) {
+        _hostLatencies.put(hostId, latencyMs);
+    }
+
+    public void removeHost(long hostId) {
+        _hostLatencies.remove(hostId);
+    }
+
+    public void recordRound(StatsCollector.CollectionRound round) {
+        Map<String, Long> stats = new HashMap<String, Long>();
+        stats.put("durationMs", round.getDuration());
+        stats.put("hosts", (long)round.getHosts());
+        stats.put("collected", (long)round.getCollected());
+        stats.put("timeouts", (long)round.getTimeouts());
+        stats.put("failures", (long)round.getFailures());
+        stats.put("maxHostLatencyMs", round.getMaxLatency());
+        stats.put("avgHostLatencyMs", round.getAverageLatency());
+        stats.put("finished", round.getFinished());
+        if (round.getName().equals(StatsCollector.HOST_STATS_ROUND)) {
+            _hostStatsRound = stats;
+        } else {
+            _vmStatsRound = stats;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getHostStatsRound() {
+        return _hostStatsRound;
+    }
+
+    @Override
+    public Map<String, Long> getVmStatsRound() {
+        return _vmStatsRound;
+    }
+
+    @Override
+    public Map<Long, Long> getHostLatencies() {
+        return new HashMap<Long, Long>(_hostLatencies);
+    }
+
+    @Override
+    public int getCollectionWorkers() {
+        return _statsCollector.getCollectionWorkers();
+    }
+
+    @Override
+    public int getCollectionQueueSize() {
+        return _statsCollector.getCollectionQueueSize();
+    }
+}
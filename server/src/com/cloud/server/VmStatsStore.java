@@ -0,0 +1,280 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.vm.VmStats;
+
+/**
+ * In-memory store of the latest stats of every vm, kept in primitive columns instead of one VmStatsEntry per vm.
+ *
+ * Every vm gets a row in parallel arrays holding its stats. The row of a vm id is found through an open addressing
+ * table with linear probing, so the only per-vm objects are array slots. The row of a vm is removed once the vm is
+ * expunged.
+ *
+ * Readers get a snapshot VmStatsEntry and never see a vm half way through an update.
+ */
+public class VmStatsStore {
+
+    private static final int CPU_UTILIZATION = 0;
+    private static final int NETWORK_READ_KBS = 1;
+    private static final int NETWORK_WRITE_KBS = 2;
+    private static final int DISK_READ_IOS = 3;
+    private static final int DISK_WRITE_IOS = 4;
+    private static final int DISK_READ_KBS = 5;
+    private static final int DISK_WRITE_KBS = 6;
+    private static final int MEMORY_KBS = 7;
+    private static final int INT_FREE_MEMORY_KBS = 8;
+    private static final int TARGET_MEMORY_KBS = 9;
+    private static final int VALUES = 10;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    // open addressing table: vm id and row of the vm, an id of 0 marks a free slot
+    private long[] _ids;
+    private int[] _rows;
+    private int _mask;
+
+    // rows, the stats of row r start at r * VALUES, the vm of each row is kept to move the last row into a removed one
+    private double[] _values;
+    private int[] _numCpus;
+    private long[] _rowIds;
+    private int _size;
+
+    public VmStatsStore(int expectedVms) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedVms * 2) {
+            capacity <<= 1;
+        }
+        _ids = new long[capacity];
+        _rows = new int[capacity];
+        _mask = capacity - 1;
+
+        int rows = Math.max(MIN_CAPACITY, expectedVms);
+        _values = new double[rows * VALUES];
+        _numCpus = new int[rows];
+        _rowIds = new long[rows];
+    }
+
+    /**
+     * Merges the stats of a vm from the last round into the store. The network and disk counters add up over the
+     * rounds, the other stats replace the ones in the store. The entry itself is left as reported.
+     */
+    public void merge(long vmId, VmStatsEntry stats) {
+        _lock.writeLock().lock();
+        try {
+            mergeLocked(vmId, stats);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges the stats of all the vms reported by a host while holding the write lock only once.
+     */
+    public void mergeAll(Map<Long, VmStatsEntry> statsByVmId) {
+        _lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, VmStatsEntry> entry : statsByVmId.entrySet()) {
+                mergeLocked(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the stats of the vm, or null if no stats have been collected for it.
+     */
+    public VmStats get(long vmId) {
+        _lock.readLock().lock();
+        try {
+            int row = findRow(vmId);
+            if (row < 0) {
+                return null;
+            }
+            int offset = row * VALUES;
+            VmStatsEntry stats = new VmStatsEntry();
+            stats.setCPUUtilization(_values[offset + CPU_UTILIZATION]);
+            stats.setNetworkReadKBs(_values[offset + NETWORK_READ_KBS]);
+            stats.setNetworkWriteKBs(_values[offset + NETWORK_WRITE_KBS]);
+            stats.setDiskReadIOs(_values[offset + DISK_READ_IOS]);
+            stats.setDiskWriteIOs(_values[offset + DISK_WRITE_IOS]);
+            stats.setDiskReadKBs(_values[offset + DISK_READ_KBS]);
+            stats.setDiskWriteKBs(_values[offset + DISK_WRITE_KBS]);
+            stats.setMemoryKBs(_values[offset + MEMORY_KBS]);
+            stats.setIntFreeMemoryKBs(_values[offset + INT_FREE_MEMORY_KBS]);
+            stats.setTargetMemoryKBs(_values[offset + TARGET_MEMORY_KBS]);
+            stats.setNumCPUs(_numCpus[row]);
+            stats.setEntityType("vm");
+            return stats;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the stats of a vm, called once the vm is expunged.
+     */
+    public void remove(long vmId) {
+        _lock.writeLock().lock();
+        try {
+            removeLocked(vmId);
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        _lock.readLock().lock();
+        try {
+            return _size;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    private void mergeLocked(long vmId, VmStatsEntry stats) {
+        if (vmId <= 0) {
+            throw new IllegalArgumentException("Invalid vm id " + vmId);
+        }
+        int row = findRow(vmId);
+        if (row < 0) {
+            row = addRow(vmId);
+        }
+
+        // the values of a new row are 0, so its totals start with the first round
+        int offset = row * VALUES;
+        _values[offset + CPU_UTILIZATION] = stats.getCPUUtilization();
+        _values[offset + NETWORK_READ_KBS] += stats.getNetworkReadKBs();
+        _values[offset + NETWORK_WRITE_KBS] += stats.getNetworkWriteKBs();
+        _values[offset + DISK_READ_IOS] += stats.getDiskReadIOs();
+        _values[offset + DISK_WRITE_IOS] += stats.getDiskWriteIOs();
+        _values[offset + DISK_READ_KBS] += stats.getDiskReadKBs();
+        _values[offset + DISK_WRITE_KBS] += stats.getDiskWriteKBs();
+        _values[offset + MEMORY_KBS] = stats.getMemoryKBs();
+        _values[offset + INT_FREE_MEMORY_KBS] = stats.getIntFreeMemoryKBs();
+        _values[offset + TARGET_MEMORY_KBS] = stats.getTargetMemoryKBs();
+        _numCpus[row] = stats.getNumCPUs();
+    }
+
+    private void removeLocked(long vmId) {
+        int slot = findSlot(vmId);
+        if (slot < 0) {
+            return;
+        }
+        int row = _rows[slot];
+        deleteSlot(slot);
+
+        // the last row takes the place of the removed one, so the rows stay dense
+        int last = --_size;
+        if (row != last) {
+            System.arraycopy(_values, last * VALUES, _values, row * VALUES, VALUES);
+            _numCpus[row] = _numCpus[last];
+            _rowIds[row] = _rowIds[last];
+            _rows[findSlot(_rowIds[row])] = row;
+        }
+        Arrays.fill(_values, last * VALUES, (last + 1) * VALUES, 0);
+        _numCpus[last] = 0;
+        _rowIds[last] = 0;
+    }
+
+    private int findRow(long vmId) {
+        int slot = findSlot(vmId);
+        return slot < 0 ? -1 : _rows[slot];
+    }
+
+    private int findSlot(long vmId) {
+        int slot = hash(vmId) & _mask;
+        while (_ids[slot] != 0) {
+            if (_ids[slot] == vmId) {
+                return slot;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Frees a slot of the table and moves the following ids of its probe sequence back, so lookups need no tombstones.
+     */
+    private void deleteSlot(int slot) {
+        int free = slot;
+        int next = (free + 1) & _mask;
+        while (_ids[next] != 0) {
+            int home = hash(_ids[next]) & _mask;
+            // the id can move to the free slot if that slot lies between its home slot and its current one
+            if (((next - home) & _mask) >= ((next - free) & _mask)) {
+                _ids[free] = _ids[next];
+                _rows[free] = _rows[next];
+                free = next;
+            }
+            next = (next + 1) & _mask;
+        }
+        _ids[free] = 0;
+        _rows[free] = 0;
+    }
+
+    private int addRow(long vmId) {
+        if ((_size + 1) * 2 > _ids.length) {
+            rehash(_ids.length * 2);
+        }
+        int row = _size++;
+        if (row == _numCpus.length) {
+            int rows = row + (row >> 1);
+            _values = Arrays.copyOf(_values, rows * VALUES);
+            _numCpus = Arrays.copyOf(_numCpus, rows);
+            _rowIds = Arrays.copyOf(_rowIds, rows);
+        }
+        _rowIds[row] = vmId;
+        insert(vmId, row);
+        return row;
+    }
+
+    private void insert(long vmId, int row) {
+        int slot = hash(vmId) & _mask;
+        while (_ids[slot] != 0) {
+            slot = (slot + 1) & _mask;
+        }
+        _ids[slot] = vmId;
+        _rows[slot] = row;
+    }
+
+    private void rehash(int capacity) {
+        long[] ids = _ids;
+        int[] rows = _rows;
+        _ids = new long[capacity];
+        _rows = new int[capacity];
+        _mask = capacity - 1;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != 0) {
+                insert(ids[i], rows[i]);
+            }
+        }
+    }
+
+    private static int hash(long vmId) {
+        long h = vmId * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
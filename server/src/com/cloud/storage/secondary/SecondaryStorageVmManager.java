@@ -18,6 +18,8 @@ package com.cloud.storage.secondary;
 
 import java.util.List;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
+
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.host.HostVO;
@@ -35,6 +37,10 @@ public interface SecondaryStorageVmManager extends Manager {
 
     public static final String ALERT_SUBJECT = "secondarystoragevm-alert";
 
+    ConfigKey<Integer> DownloadConnections = new ConfigKey<Integer>("Advanced", Integer.class, "secstorage.download.connections", "1",
+            "The number of connections the secondary storage vm uses to download a template or volume from an http server that accepts range requests."
+                    + " Takes effect when the secondary storage vm is restarted", false);
+
     public SecondaryStorageVmVO startSecStorageVm(long ssVmVmId);
 
     public boolean stopSecStorageVm(long ssVmVmId);
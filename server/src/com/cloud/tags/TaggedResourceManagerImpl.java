@@ -233,6 +233,7 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
         Transaction.execute(new TransactionCallbackNoReturn() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
+                List<ResourceTagVO> createdTags = new ArrayList<ResourceTagVO>(tags.size() * resourceIds.size());
                 for (String key : tags.keySet()) {
                     for (String resourceId : resourceIds) {
                         if (!resourceType.resourceTagsSupport())  {
@@ -265,11 +266,12 @@ public class TaggedResourceManagerImpl extends ManagerBase implements TaggedReso
                             throw new InvalidParameterValueException("Value for the key " + key + " is either null or empty");
                         }
 
-                        ResourceTagVO resourceTag = new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid);
-                        resourceTag = _resourceTagDao.persist(resourceTag);
-                        resourceTags.add(resourceTag);
+                        createdTags.add(new ResourceTagVO(key, value, accountDomainPair.first(), accountDomainPair.second(), id, resourceType, customer, resourceUuid));
                     }
                 }
+                // the tags carry all their values, they are inserted in one batch instead of being read back one by one
+                _resourceTagDao.persistAll(createdTags);
+                resourceTags.addAll(createdTags);
             }
         });
 
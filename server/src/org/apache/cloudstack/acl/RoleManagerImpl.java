@@ -16,6 +16,7 @@
 // under the License.
 package org.apache.cloudstack.acl;
 
+import com.cloud.cluster.ClusterManager;
 import com.cloud.event.ActionEvent;
 import com.cloud.event.EventTypes;
 import com.cloud.exception.PermissionDeniedException;
@@ -44,6 +45,8 @@ import org.apache.cloudstack.api.command.admin.acl.UpdateRolePermissionCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -60,6 +63,10 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     private RoleDao roleDao;
     @Inject
     private RolePermissionsDao rolePermissionsDao;
+    @Inject
+    private ClusterManager clusterManager;
+    @Inject
+    private MessageBus messageBus;
 
     private void checkCallerAccess() {
         if (!isEnabled()) {
@@ -75,6 +82,14 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
     }
 
+    /**
+     * Tells the api checkers of this and the other management servers to drop what they know about the role
+     */
+    private void notifyRoleChanged(final long roleId) {
+        messageBus.publish(null, MESSAGE_ROLE_CHANGED_EVENT, PublishScope.LOCAL, String.valueOf(roleId));
+        clusterManager.publishToPeers(MESSAGE_ROLE_CHANGED_EVENT, String.valueOf(roleId));
+    }
+
     @Override
     public boolean isEnabled() {
         File apiCmdFile = PropertiesUtil.findConfigFile(PropertiesUtil.getDefaultApiCommandsFileName());
@@ -148,7 +163,9 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         if (!Strings.isNullOrEmpty(description)) {
             roleVO.setDescription(description);
         }
-        return roleDao.update(role.getId(), roleVO);
+        final boolean updated = roleDao.update(role.getId(), roleVO);
+        notifyRoleChanged(role.getId());
+        return updated;
     }
 
     @Override
@@ -163,7 +180,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
         }
         List<? extends Account> accounts = accountDao.findAccountsByRole(role.getId());
         if (accounts == null || accounts.size() == 0) {
-            return Transaction.execute(new TransactionCallback<Boolean>() {
+            final boolean removed = Transaction.execute(new TransactionCallback<Boolean>() {
                 @Override
                 public Boolean doInTransaction(TransactionStatus status) {
                     List<? extends RolePermission> rolePermissions = rolePermissionsDao.findAllByRoleIdSorted(role.getId());
@@ -175,6 +192,8 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
                     return roleDao.remove(role.getId());
                 }
             });
+            notifyRoleChanged(role.getId());
+            return removed;
         }
         throw new PermissionDeniedException("Found accounts that have role in use, won't allow to delete role");
     }
@@ -183,26 +202,36 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_CREATE, eventDescription = "creating Role Permission")
     public RolePermission createRolePermission(final Role role, final Rule rule, final RolePermission.Permission permission, final String description) {
         checkCallerAccess();
-        return Transaction.execute(new TransactionCallback<RolePermissionVO>() {
+        final RolePermission rolePermission = Transaction.execute(new TransactionCallback<RolePermissionVO>() {
             @Override
             public RolePermissionVO doInTransaction(TransactionStatus status) {
                 return rolePermissionsDao.persist(new RolePermissionVO(role.getId(), rule.toString(), permission, description));
             }
         });
+        notifyRoleChanged(role.getId());
+        return rolePermission;
     }
 
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_UPDATE, eventDescription = "updating Role Permission order")
     public boolean updateRolePermission(final Role role, final List<RolePermission> newOrder) {
         checkCallerAccess();
-        return role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        final boolean updated = role != null && newOrder != null && rolePermissionsDao.update(role, newOrder);
+        if (updated) {
+            notifyRoleChanged(role.getId());
+        }
+        return updated;
     }
 
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_ROLE_PERMISSION_DELETE, eventDescription = "deleting Role Permission")
     public boolean deleteRolePermission(final RolePermission rolePermission) {
         checkCallerAccess();
-        return rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        final boolean removed = rolePermission != null && rolePermissionsDao.remove(rolePermission.getId());
+        if (removed) {
+            notifyRoleChanged(rolePermission.getRoleId());
+        }
+        return removed;
     }
 
     @Override
@@ -245,7 +274,7 @@ public class RoleManagerImpl extends ManagerBase implements RoleService, Configu
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[]{RoleService.EnableDynamicApiChecker};
+        return new ConfigKey<?>[]{RoleService.EnableDynamicApiChecker, RoleService.DynamicApiCheckerCacheTtl};
     }
 
     @Override
@@ -0,0 +1,198 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.host.HostVO;
+import com.cloud.utils.db.Attribute;
+import com.cloud.utils.db.GenericDaoBase;
+
+/**
+ * Compares filling entities from a result set column by column through reflection, the way GenericDaoBase did it
+ * before, with the setters of the result set mapper. The rows come from an in memory result set so only the mapping
+ * is measured, for the largest view entity and for a large table entity.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class RowMappingPerfTest {
+    private static final int ROWS = 50000;
+    private static final int ROUNDS = 5;
+    private static final Field TABLE;
+
+    static {
+        try {
+            TABLE = Attribute.class.getDeclaredField("table");
+            TABLE.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private abstract static class MappingDao<T> extends GenericDaoBase<T, Long> {
+        T mapReflectively(ResultSet rs) throws SQLException {
+            T entity = createForUpdate(null);
+            ResultSetMetaData meta = rs.getMetaData();
+            for (int index = 1, max = meta.getColumnCount(); index <= max; index++) {
+                setField(entity, rs, meta, index);
+            }
+            return entity;
+        }
+
+        T map(ResultSet rs) throws SQLException {
+            return toEntityBean(rs, false);
+        }
+
+        ResultSet createRows(int rows) {
+            List<Attribute> columns = new ArrayList<Attribute>();
+            for (Attribute attr : _allColumns.values()) {
+                if (attr.getField() != null) {
+                    columns.add(attr);
+                }
+            }
+            return createResultSet(columns, rows);
+        }
+    }
+
+    private static Object createValue(Class<?> type) {
+        if (type == String.class) {
+            return "value";
+        } else if (type == Date.class) {
+            return new java.sql.Date(System.currentTimeMillis());
+        } else if (type.isEnum()) {
+            return type.getEnumConstants()[0];
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.TRUE;
+        } else if (type.isPrimitive() || Number.class.isAssignableFrom(type)) {
+            return 42;
+        }
+        return null;
+    }
+
+    /**
+     * @return a result set returning the same values for every row, the columns are those of the attributes.
+     */
+    private static ResultSet createResultSet(final List<Attribute> columns, final int rows) {
+        final Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createValue(columns.get(i).getField().getType());
+        }
+        final ResultSetMetaData meta = (ResultSetMetaData)Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws IllegalAccessException {
+                        String name = method.getName();
+                        if (name.equals("getColumnCount")) {
+                            return columns.size();
+                        }
+                        Attribute attr = columns.get((Integer)args[0] - 1);
+                        return name.equals("getTableName") || name.equals("getCatalogName") ? TABLE.get(attr) : attr.getColumnName();
+                    }
+                });
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+            private int _row;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++_row <= rows;
+                } else if (name.equals("getMetaData")) {
+                    return meta;
+                } else if (name.equals("wasNull")) {
+                    return false;
+                }
+                Object value = values[(Integer)args[0] - 1];
+                if (name.equals("getString")) {
+                    if (value instanceof Date) {
+                        return "2017-03-01 12:00:00";
+                    }
+                    return value instanceof Enum ? ((Enum<?>)value).name() : value == null ? null : value.toString();
+                } else if (name.equals("getBytes")) {
+                    return value == null ? null : value.toString().getBytes(StandardCharsets.UTF_8);
+                } else if (name.equals("getBoolean")) {
+                    return value == Boolean.TRUE;
+                } else if (name.equals("getLong")) {
+                    return value instanceof Number ? ((Number)value).longValue() : 0L;
+                } else if (name.equals("getInt")) {
+                    return value instanceof Number ? ((Number)value).intValue() : 0;
+                } else if (name.equals("getShort")) {
+                    return value instanceof Number ? ((Number)value).shortValue() : (short)0;
+                } else if (name.equals("getByte")) {
+                    return value instanceof Number ? ((Number)value).byteValue() : (byte)0;
+                } else if (name.equals("getFloat")) {
+                    return value instanceof Number ? ((Number)value).floatValue() : 0f;
+                } else if (name.equals("getDouble")) {
+                    return value instanceof Number ? ((Number)value).doubleValue() : 0d;
+                }
+                return value;
+            }
+        });
+    }
+
+    private static <T> long run(MappingDao<T> dao, boolean reflectively) throws SQLException {
+        ResultSet rs = dao.createRows(ROWS);
+        List<T> entities = new ArrayList<T>(ROWS);
+        long start = System.nanoTime();
+        while (rs.next()) {
+            entities.add(reflectively ? dao.mapReflectively(rs) : dao.map(rs));
+        }
+        long nanos = System.nanoTime() - start;
+        Assert.assertEquals(ROWS, entities.size());
+        return nanos;
+    }
+
+    private static <T> void compare(String name, MappingDao<T> dao) throws SQLException {
+        long reflection = 0;
+        long mapper = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            reflection = run(dao, true);
+            mapper = run(dao, false);
+        }
+        System.out.println(name + " " + ROWS + " rows: " + reflection / 1000000 + " ms through reflection, " + mapper / 1000000 + " ms through the mapper, speedup "
+                + (double)reflection / mapper);
+    }
+
+    @Test
+    public void testRowMapping() throws SQLException {
+        MappingDao<UserVmJoinVO> vms = new MappingDao<UserVmJoinVO>() {
+        };
+        ResultSet rs = vms.createRows(1);
+        Assert.assertTrue(rs.next());
+        UserVmJoinVO vm = vms.map(rs);
+        Assert.assertEquals(42, vm.getId());
+        Assert.assertEquals("value", vm.getName());
+        compare("UserVmJoinVO", vms);
+
+        MappingDao<HostVO> hosts = new MappingDao<HostVO>() {
+        };
+        compare("HostVO", hosts);
+    }
+}
@@ -0,0 +1,150 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cloudstack.acl.RoleType;
+import org.apache.cloudstack.api.response.AsyncJobResponse;
+import org.apache.cloudstack.api.response.ExceptionResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApiResponseJsonWriterTest {
+
+    static UserResponse createUserResponse(int i) {
+        UserResponse response = new UserResponse();
+        response.setObjectName("user");
+        response.setId("8a9b" + i);
+        response.setUsername("user" + i);
+        response.setFirstname("Jöhn \"quoted\" <b>&amp;</b>");
+        response.setLastname("Line\nbreak\ttab\\slash");
+        response.setCreated(new Date(1400000000000L + i));
+        response.setAccountType((short)0);
+        response.setRoleType(RoleType.User);
+        response.setApiKey("apikey" + i);
+        response.setSecretKey("secretkey" + i);
+        response.setIsDefault(i % 2 == 0);
+        return response;
+    }
+
+    static ListResponse<UserResponse> createListResponse(int size) {
+        List<UserResponse> users = new ArrayList<UserResponse>();
+        for (int i = 0; i < size; i++) {
+            users.add(createUserResponse(i));
+        }
+        ListResponse<UserResponse> response = new ListResponse<UserResponse>();
+        response.setResponses(users, size);
+        response.setResponseName("listusersresponse");
+        return response;
+    }
+
+    @Test
+    public void testListResponseMatchesGson() {
+        ListResponse<UserResponse> response = createListResponse(5);
+
+        StringBuilder gsonLog = new StringBuilder();
+        String gson = GsonApiResponseSerializer.toJSONSerializedString(response, gsonLog);
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toJSONSerializedString(response, log);
+
+        Assert.assertEquals(gson, json);
+        Assert.assertEquals(gsonLog.toString(), log.toString());
+        Assert.assertTrue(json.contains("secretkey0"));
+        Assert.assertFalse(log.toString().contains("secretkey0"));
+    }
+
+    @Test
+    public void testListResponseWithNextPage() {
+        ListResponse<UserResponse> response = createListResponse(2);
+        response.setNextPage("MTIz");
+
+        StringBuilder gsonLog = new StringBuilder();
+        String gson = GsonApiResponseSerializer.toJSONSerializedString(response, gsonLog);
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toJSONSerializedString(response, log);
+
+        Assert.assertEquals(gson, json);
+        Assert.assertEquals(gsonLog.toString(), log.toString());
+        Assert.assertTrue(json.endsWith("],\"nextpage\":\"MTIz\"}}"));
+    }
+
+    @Test
+    public void testEmptyListResponse() {
+        ListResponse<UserResponse> response = new ListResponse<UserResponse>();
+        response.setResponses(new ArrayList<UserResponse>());
+        response.setResponseName("listusersresponse");
+
+        String json = ApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        Assert.assertEquals(GsonApiResponseSerializer.toJSONSerializedString(response, new StringBuilder()), json);
+        Assert.assertEquals("{\"listusersresponse\":{}}", json);
+    }
+
+    @Test
+    public void testSingleResponseMatchesGson() {
+        UserResponse response = createUserResponse(1);
+        response.setResponseName("createuserresponse");
+
+        StringBuilder gsonLog = new StringBuilder();
+        String gson = GsonApiResponseSerializer.toJSONSerializedString(response, gsonLog);
+        StringBuilder log = new StringBuilder();
+        String json = ApiResponseSerializer.toJSONSerializedString(response, log);
+
+        Assert.assertEquals(gson, json);
+        Assert.assertEquals(gsonLog.toString(), log.toString());
+    }
+
+    @Test
+    public void testAsyncJobResultMatchesGson() {
+        AsyncJobResponse response = new AsyncJobResponse();
+        response.setResponseName("queryasyncjobresultresponse");
+        response.setJobId("1234");
+        response.setJobStatus(1);
+        response.setJobResultType("object");
+        response.setJobResult(new SuccessResponse());
+        response.setCreated(new Date(1400000000000L));
+
+        String json = ApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        Assert.assertEquals(GsonApiResponseSerializer.toJSONSerializedString(response, new StringBuilder()), json);
+
+        UserResponse user = createUserResponse(2);
+        user.setSecretKey(null);
+        user.setApiKey(null);
+        response.setJobResult(user);
+        json = ApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        Assert.assertEquals(GsonApiResponseSerializer.toJSONSerializedString(response, new StringBuilder()), json);
+    }
+
+    @Test
+    public void testSuccessAndExceptionResponses() {
+        SuccessResponse success = new SuccessResponse("deleteuserresponse");
+        String json = ApiResponseSerializer.toJSONSerializedString(success, new StringBuilder());
+        Assert.assertEquals(GsonApiResponseSerializer.toJSONSerializedString(success, new StringBuilder()), json);
+
+        ExceptionResponse exception = new ExceptionResponse();
+        exception.setResponseName("errorresponse");
+        exception.setErrorCode(431);
+        exception.setErrorText("Unable to find \"user\"");
+        json = ApiResponseSerializer.toJSONSerializedString(exception, new StringBuilder());
+        Assert.assertEquals(GsonApiResponseSerializer.toJSONSerializedString(exception, new StringBuilder()), json);
+    }
+}
@@ -0,0 +1,55 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.UserResponse;
+import org.junit.Test;
+
+/**
+ * Compares the Gson based serialization of a large list response with the single pass ApiResponseJsonWriter.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class ApiResponseSerializerPerfTest {
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 100;
+
+    @Test
+    public void testSerializeLargeList() {
+        ListResponse<UserResponse> response = ApiResponseJsonWriterTest.createListResponse(5000);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            GsonApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+            ApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        }
+
+        long before = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            GsonApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        }
+        long gson = System.nanoTime() - before;
+
+        before = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ApiResponseSerializer.toJSONSerializedString(response, new StringBuilder());
+        }
+        long writer = System.nanoTime() - before;
+
+        System.out.println("Gson serialization of 5000 users: " + gson / ITERATIONS / 1000 + " us per response");
+        System.out.println("Single pass serialization of 5000 users: " + writer / ITERATIONS / 1000 + " us per response");
+    }
+}
@@ -0,0 +1,133 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.response;
+
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ResponseObject;
+import org.apache.cloudstack.api.response.AsyncJobResponse;
+import org.apache.cloudstack.api.response.AuthenticationCmdResponse;
+import org.apache.cloudstack.api.response.CreateCmdResponse;
+import org.apache.cloudstack.api.response.ExceptionResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.cloudstack.api.response.SuccessResponse;
+
+import com.cloud.api.ApiResponseGsonHelper;
+import com.google.gson.Gson;
+
+/**
+ * Gson based serialization used before ApiResponseJsonWriter, it serializes every response twice
+ * (once for the client, once for the log).  The single pass writer is verified and measured against it.
+ */
+class GsonApiResponseSerializer {
+
+    static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
+        if (result != null && log != null) {
+            Gson responseBuilder = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+            Gson logBuilder = ApiResponseGsonHelper.getLogBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
+
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("{\"").append(result.getResponseName()).append("\":");
+            log.append("{\"").append(result.getResponseName()).append("\":");
+            if (result instanceof ListResponse) {
+                List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
+                Integer count = ((ListResponse)result).getCount();
+                boolean nonZeroCount = (count != null && count.longValue() != 0);
+                if (nonZeroCount) {
+                    sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+                    log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+                }
+
+                if ((responses != null) && !responses.isEmpty()) {
+                    String jsonStr = responseBuilder.toJson(responses.get(0));
+                    jsonStr = ApiResponseSerializer.unescape(jsonStr);
+                    String logStr = logBuilder.toJson(responses.get(0));
+                    logStr = ApiResponseSerializer.unescape(logStr);
+
+                    if (nonZeroCount) {
+                        sb.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(jsonStr);
+                        log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
+                    }
+
+                    for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
+                        jsonStr = responseBuilder.toJson(responses.get(i));
+                        jsonStr = ApiResponseSerializer.unescape(jsonStr);
+                        logStr = logBuilder.toJson(responses.get(i));
+                        logStr = ApiResponseSerializer.unescape(logStr);
+                        sb.append(",").append(jsonStr);
+                        log.append(",").append(logStr);
+                    }
+                    sb.append("]");
+                    log.append("]");
+                    String nextPage = ((ListResponse)result).getNextPage();
+                    if (nextPage != null) {
+                        sb.append(",\"").append(ApiConstants.NEXT_PAGE).append("\":\"").append(nextPage).append("\"");
+                        log.append(",\"").append(ApiConstants.NEXT_PAGE).append("\":\"").append(nextPage).append("\"");
+                    }
+                    sb.append("}");
+                    log.append("}");
+                } else  {
+                    if (!nonZeroCount) {
+                        sb.append("{");
+                        log.append("{");
+                    }
+
+                    sb.append("}");
+                    log.append("}");
+                }
+            } else if (result instanceof SuccessResponse) {
+                sb.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
+                log.append("{\"success\":\"").append(((SuccessResponse)result).getSuccess()).append("\"}");
+            } else if (result instanceof ExceptionResponse) {
+                String jsonErrorText = responseBuilder.toJson(result);
+                jsonErrorText = ApiResponseSerializer.unescape(jsonErrorText);
+                sb.append(jsonErrorText);
+                log.append(jsonErrorText);
+            } else {
+                String jsonStr = responseBuilder.toJson(result);
+                if (jsonStr != null && !jsonStr.isEmpty()) {
+                    jsonStr = ApiResponseSerializer.unescape(jsonStr);
+                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                        sb.append(jsonStr);
+                    } else {
+                        sb.append("{\"").append(result.getObjectName()).append("\":").append(jsonStr).append("}");
+                    }
+                } else {
+                    sb.append("{}");
+                }
+                String logStr = logBuilder.toJson(result);
+                if (logStr != null && !logStr.isEmpty()) {
+                    logStr = ApiResponseSerializer.unescape(logStr);
+                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse || result instanceof AuthenticationCmdResponse) {
+                        log.append(logStr);
+                    } else {
+                        log.append("{\"").append(result.getObjectName()).append("\":").append(logStr).append("}");
+                    }
+                } else {
+                    log.append("{}");
+                }
+            }
+            sb.append("}");
+            log.append("}");
+            return sb.toString();
+        }
+        return null;
+    }
+}
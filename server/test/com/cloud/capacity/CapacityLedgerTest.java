@@ -0,0 +1,78 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+public class CapacityLedgerTest {
+
+    @Test
+    public void changesToTheSameRowAddUp() {
+        CapacityLedger ledger = new CapacityLedger();
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 100);
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 50);
+        ledger.record(1, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, 10);
+        ledger.record(2, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, -30);
+        Assert.assertEquals(3, ledger.getPendingRows());
+        Assert.assertEquals(4, ledger.getRecorded());
+
+        Map<Pair<Long, Short>, Long> deltas = ledger.drain();
+        Assert.assertEquals(3, deltas.size());
+        Assert.assertEquals(150L, deltas.get(new Pair<Long, Short>(1L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED)).longValue());
+        Assert.assertEquals(10L, deltas.get(new Pair<Long, Short>(1L, Capacity.CAPACITY_TYPE_LOCAL_STORAGE)).longValue());
+        Assert.assertEquals(-30L, deltas.get(new Pair<Long, Short>(2L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED)).longValue());
+        Assert.assertEquals(0, ledger.getPendingRows());
+        Assert.assertTrue(ledger.drain().isEmpty());
+    }
+
+    @Test
+    public void changesThatCancelOutAreNotWritten() {
+        CapacityLedger ledger = new CapacityLedger();
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 100);
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, -100);
+        ledger.record(2, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 0);
+        Assert.assertTrue(ledger.drain().isEmpty());
+    }
+
+    @Test
+    public void restoredChangesGoOutWithTheNextFlush() {
+        CapacityLedger ledger = new CapacityLedger();
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 100);
+        Map<Pair<Long, Short>, Long> failed = ledger.drain();
+        ledger.record(1, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 20);
+        ledger.restore(failed);
+
+        Map<Pair<Long, Short>, Long> deltas = ledger.drain();
+        Assert.assertEquals(1, deltas.size());
+        Assert.assertEquals(120L, deltas.get(new Pair<Long, Short>(1L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED)).longValue());
+    }
+
+    @Test
+    public void drift() {
+        CapacityLedger ledger = new CapacityLedger();
+        ledger.drifted(100, 100);
+        ledger.drifted(100, 80);
+        ledger.drifted(100, 130);
+        Assert.assertEquals(2, ledger.getDriftedRows());
+        Assert.assertEquals(50, ledger.getDrift());
+    }
+}
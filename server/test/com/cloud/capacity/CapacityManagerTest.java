@@ -20,9 +20,18 @@ package com.cloud.capacity;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+
+import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
+import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -31,6 +40,9 @@ import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.storage.StorageManager;
+import com.cloud.storage.Volume;
+import com.cloud.utils.fsm.StateMachine2;
 import com.cloud.vm.VirtualMachine;
 
 public class CapacityManagerTest {
@@ -76,4 +88,79 @@ public class CapacityManagerTest {
         Assert.assertTrue(hasCapacity);
 
     }
+
+    private StoragePoolVO mockPool(long poolId, boolean shared) {
+        StoragePoolVO pool = mock(StoragePoolVO.class);
+        when(pool.getId()).thenReturn(poolId);
+        when(pool.isShared()).thenReturn(shared);
+        when(pool.isManaged()).thenReturn(false);
+        return pool;
+    }
+
+    private void transit(CapacityManagerImpl.VolumeCapacityListener listener, long poolId, Volume.State from, Volume.Event event, Volume.State to) {
+        Volume vol = mock(Volume.class);
+        when(vol.getPoolId()).thenReturn(poolId);
+        when(vol.getSize()).thenReturn(100L);
+        listener.postStateTransitionEvent(new StateMachine2.Transition<Volume.State, Volume.Event>(from, event, to, null), vol, true, null);
+    }
+
+    @Test
+    public void volumeTransitionsRecordPoolCapacity() {
+        capMgr = setUp();
+        capMgr._storagePoolDao = mock(PrimaryDataStoreDao.class);
+        StoragePoolVO sharedPool = mockPool(5L, true);
+        StoragePoolVO localPool = mockPool(6L, false);
+        when(capMgr._storagePoolDao.findById(5L)).thenReturn(sharedPool);
+        when(capMgr._storagePoolDao.findById(6L)).thenReturn(localPool);
+        CapacityManagerImpl.VolumeCapacityListener listener = capMgr.new VolumeCapacityListener();
+
+        transit(listener, 5L, Volume.State.Creating, Volume.Event.OperationSucceeded, Volume.State.Ready);
+        transit(listener, 5L, Volume.State.Copying, Volume.Event.OperationSucceeded, Volume.State.Ready);
+        transit(listener, 5L, Volume.State.Ready, Volume.Event.DestroyRequested, Volume.State.Destroy);
+        transit(listener, 6L, Volume.State.Creating, Volume.Event.OperationSucceeded, Volume.State.Ready);
+        // not a change of the allocated capacity
+        transit(listener, 5L, Volume.State.Ready, Volume.Event.SnapshotRequested, Volume.State.Snapshotting);
+
+        Assert.assertEquals(100L, capMgr._ledger.take(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED));
+        Assert.assertEquals(100L, capMgr._ledger.take(6L, Capacity.CAPACITY_TYPE_LOCAL_STORAGE));
+        Assert.assertEquals(0, capMgr._ledger.getPendingRows());
+    }
+
+    @Test
+    public void flushWritesOneUpdatePerRow() {
+        capMgr = setUp();
+        CapacityVO capacity = new CapacityVO(5L, 1L, 1L, 1L, 500L, 10000L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED);
+        when(CDao.findByHostIdType(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED)).thenReturn(capacity);
+        when(CDao.lockRow(capacity.getId(), true)).thenReturn(capacity);
+        capMgr._ledger.record(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 100L);
+        capMgr._ledger.record(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 200L);
+
+        capMgr.flushCapacityDeltas();
+        capMgr.flushCapacityDeltas();
+
+        Assert.assertEquals(800L, capacity.getUsedCapacity());
+        verify(CDao, times(1)).updateAll(Collections.singletonList(capacity));
+        verify(CDao, never()).update(capacity.getId(), capacity);
+        Assert.assertEquals(1, capMgr._ledger.getFlushedRows());
+    }
+
+    @Test
+    public void recountTakesThePendingChangesOfThePool() {
+        capMgr = spy(setUp());
+        capMgr._storageMgr = mock(StorageManager.class);
+        StoragePoolVO pool = mockPool(5L, true);
+        CapacityVO capacity = new CapacityVO(5L, 1L, 1L, 1L, 500L, 10000L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED);
+        when(CDao.findByHostIdType(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED)).thenReturn(capacity);
+        // the recount already sees the volume whose change is still pending
+        capMgr._ledger.record(5L, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 100L);
+        doReturn(600L).when(capMgr).getAllocatedPoolCapacity(pool, null);
+
+        capMgr.updateCapacityForStoragePool(pool);
+        capMgr.flushCapacityDeltas();
+
+        verify(capMgr._storageMgr).createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, 600L);
+        verify(CDao, never()).updateAll(Collections.singletonList(capacity));
+        Assert.assertEquals(0, capMgr._ledger.getDriftedRows());
+        Assert.assertTrue(capMgr._ledger.drain().equals(Collections.emptyMap()));
+    }
 }
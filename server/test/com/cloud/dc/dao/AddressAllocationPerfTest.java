@@ -0,0 +1,144 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.dc.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.apache.cloudstack.utils.identity.ManagementServerNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.cloud.utils.db.ClaimedBlockAllocator;
+import com.cloud.utils.db.TransactionLegacy;
+
+/**
+ * Compares concurrent private ip address and vnet allocations that lock a free row each with allocations from
+ * blocks claimed for this management server, going through the DAOs against the test database. It needs a zone with
+ * a pod and a physical network, their ids are taken from the perf.zone, perf.pod and perf.physical.network properties.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:/AddressAllocationPerfTestContext.xml")
+public class AddressAllocationPerfTest {
+    private static final int THREADS = 16;
+    private static final int ALLOCATIONS = 1000;
+    private static final long ZONE = Long.getLong("perf.zone", 1);
+    private static final long POD = Long.getLong("perf.pod", 1);
+    private static final long PHYSICAL_NETWORK = Long.getLong("perf.physical.network", 1);
+
+    @Inject
+    DataCenterIpAddressDao _ipAddressDao;
+    @Inject
+    DataCenterVnetDao _vnetDao;
+
+    private interface Allocation {
+        boolean take(int seq);
+    }
+
+    private void populate() {
+        _ipAddressDao.addIpRange(ZONE, POD, "10.254.0.1", "10.254.7.254");
+        List<String> vnets = new ArrayList<String>();
+        for (int i = 0; i < ALLOCATIONS * 2; i++) {
+            vnets.add(String.valueOf(38000 + i));
+        }
+        _vnetDao.add(ZONE, PHYSICAL_NETWORK, vnets);
+    }
+
+    @After
+    public void cleanUp() throws SQLException {
+        try (Connection conn = TransactionLegacy.getStandaloneConnectionWithException()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM `cloud`.`op_dc_ip_address_alloc` WHERE pod_id=? AND ip_address LIKE '10.254.%'")) {
+                pstmt.setLong(1, POD);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM `cloud`.`op_dc_vnet_alloc` WHERE physical_network_id=? AND vnet LIKE '3____'")) {
+                pstmt.setLong(1, PHYSICAL_NETWORK);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static long run(String name, final Allocation allocation) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int seq;
+                    while ((seq = next.getAndIncrement()) < ALLOCATIONS) {
+                        if (!allocation.take(seq)) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.MINUTES));
+        long nanos = System.nanoTime() - start;
+        System.out.println(name + ": " + ALLOCATIONS * 1000000000L / nanos + " allocations per second with " + THREADS + " threads, " + failed.get() + " failed");
+        Assert.assertEquals(0, failed.get());
+        return nanos;
+    }
+
+    private long runRound(String mode, int blockSize) throws InterruptedException {
+        _ipAddressDao.setClaimBlockSize(blockSize);
+        _vnetDao.setClaimBlockSize(blockSize);
+        long nanos = run("Private ip addresses, " + mode, new Allocation() {
+            @Override
+            public boolean take(int seq) {
+                return _ipAddressDao.takeIpAddress(ZONE, POD, seq, "perf-" + seq) != null;
+            }
+        });
+        nanos += run("Vnets, " + mode, new Allocation() {
+            @Override
+            public boolean take(int seq) {
+                return _vnetDao.take(PHYSICAL_NETWORK, 1, "perf-" + seq, null) != null;
+            }
+        });
+        _ipAddressDao.releaseClaims(ManagementServerNode.getManagementServerId());
+        _vnetDao.releaseClaims(ManagementServerNode.getManagementServerId());
+        return nanos;
+    }
+
+    @Test
+    public void testConcurrentAllocations() throws Exception {
+        populate();
+        long locking = runRound("locking a row each", 0);
+        cleanUp();
+        populate();
+        long claimed = runRound("from claimed blocks of " + ClaimedBlockAllocator.DEFAULT_BLOCK_SIZE, ClaimedBlockAllocator.DEFAULT_BLOCK_SIZE);
+        System.out.println("Speedup " + (double)locking / claimed);
+    }
+}
@@ -0,0 +1,47 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.dc.dao;
+
+import java.io.IOException;
+
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.filter.TypeFilter;
+
+import org.apache.cloudstack.test.utils.SpringUtils;
+
+import com.cloud.network.dao.AccountGuestVlanMapDaoImpl;
+
+@Configuration
+@ComponentScan(basePackageClasses = {DataCenterIpAddressDaoImpl.class, DataCenterVnetDaoImpl.class, AccountGuestVlanMapDaoImpl.class},
+               includeFilters = {@Filter(value = AddressAllocationPerfTestConfiguration.Library.class, type = FilterType.CUSTOM)}, useDefaultFilters = false)
+public class AddressAllocationPerfTestConfiguration {
+
+    public static class Library implements TypeFilter {
+
+        @Override
+        public boolean match(MetadataReader mdr, MetadataReaderFactory arg1) throws IOException {
+            ComponentScan cs = AddressAllocationPerfTestConfiguration.class.getAnnotation(ComponentScan.class);
+            return SpringUtils.includedInBasePackageClasses(mdr.getClassMetadata().getClassName(), cs);
+        }
+
+    }
+}
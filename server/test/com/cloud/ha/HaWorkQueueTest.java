@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.cloud.ha.HighAvailabilityManager.WorkType;
+
+public class HaWorkQueueTest {
+
+    private static long now() {
+        return System.currentTimeMillis() >> 10;
+    }
+
+    @Test
+    public void dueWorkIsPolledInOrder() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        assertTrue(queue.offer(3, WorkType.HA, now() - 1));
+        assertTrue(queue.offer(1, WorkType.HA, now() - 2));
+        assertTrue(queue.offer(2, WorkType.HA, now() - 1));
+        assertTrue(queue.offer(4, WorkType.HA, now() + 3600));
+
+        assertEquals(1, queue.poll(HaWorkQueue.Pool.Restart, 1, TimeUnit.SECONDS).getWorkId());
+        assertEquals(2, queue.poll(HaWorkQueue.Pool.Restart, 1, TimeUnit.SECONDS).getWorkId());
+        assertEquals(3, queue.poll(HaWorkQueue.Pool.Restart, 1, TimeUnit.SECONDS).getWorkId());
+        assertNull(queue.poll(HaWorkQueue.Pool.Restart, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.getQueueDepth(HaWorkQueue.Pool.Restart));
+        assertEquals(3, queue.getProcessed(HaWorkQueue.Pool.Restart));
+    }
+
+    @Test
+    public void workIsQueuedOnce() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        assertTrue(queue.offer(1, WorkType.Migration, now()));
+        assertFalse(queue.offer(1, WorkType.Migration, now()));
+        assertEquals(1, queue.getQueueDepth(HaWorkQueue.Pool.Migration));
+
+        assertEquals(1, queue.poll(HaWorkQueue.Pool.Migration, 1, TimeUnit.SECONDS).getWorkId());
+        assertTrue(queue.offer(1, WorkType.Migration, now()));
+    }
+
+    @Test
+    public void eachPoolHasItsOwnQueue() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        queue.offer(1, WorkType.CheckStop, now());
+        queue.offer(2, WorkType.ForceStop, now());
+        queue.offer(3, WorkType.Destroy, now());
+
+        assertNull(queue.poll(HaWorkQueue.Pool.Restart, 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.getQueueDepth(HaWorkQueue.Pool.Stop));
+        assertEquals(3, queue.poll(HaWorkQueue.Pool.Destroy, 1, TimeUnit.SECONDS).getWorkId());
+    }
+
+    @Test
+    public void retriesAreLimited() throws InterruptedException {
+        HaWorkQueue queue = new HaWorkQueue();
+        queue.offer(1, WorkType.HA, now());
+        HaWorkQueue.Item item = queue.poll(HaWorkQueue.Pool.Restart, 1, TimeUnit.SECONDS);
+
+        assertTrue(queue.retry(item, 1));
+        item = queue.poll(HaWorkQueue.Pool.Restart, 3, TimeUnit.SECONDS);
+        assertEquals(1, item.getAttempts());
+        assertFalse(queue.retry(item, 1));
+    }
+
+    @Test
+    public void restartTimes() {
+        HaWorkQueue queue = new HaWorkQueue();
+        queue.restarted(1000);
+        queue.restarted(3000);
+        assertEquals(2, queue.getRestarts());
+        assertEquals(2000, queue.getAverageRestartMillis());
+        assertEquals(3000, queue.getMaxRestartMillis());
+    }
+}
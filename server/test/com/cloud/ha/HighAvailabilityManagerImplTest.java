@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.ha;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -32,6 +33,7 @@ import javax.inject.Inject;
 
 import org.apache.cloudstack.engine.orchestration.service.VolumeOrchestrationService;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.managed.context.ManagedContext;
 import org.apache.log4j.Logger;
 import org.junit.Before;
@@ -44,6 +46,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.dc.ClusterDetailsDao;
 import com.cloud.dc.DataCenterVO;
 import com.cloud.dc.HostPodVO;
@@ -112,6 +115,10 @@ public class HighAvailabilityManagerImplTest {
     @Mock
     VolumeOrchestrationService volumeMgr;
     @Mock
+    ClusterManager _clusterMgr;
+    @Mock
+    MessageBus _messageBus;
+    @Mock
     HostVO hostVO;
 
     HighAvailabilityManagerImpl highAvailabilityManager;
@@ -201,6 +208,18 @@ public class HighAvailabilityManagerImplTest {
         highAvailabilityManager.scheduleRestartForVmsOnHost(hostVO, true);
     }
 
+    @Test
+    public void scheduleMigrationQueuesWorkAndNotifiesPeers() {
+        VMInstanceVO vm = Mockito.mock(VMInstanceVO.class);
+        Mockito.when(vm.getHostId()).thenReturn(1l);
+
+        highAvailabilityManager.scheduleMigration(vm);
+
+        assertEquals(1, highAvailabilityManager._workQueue.getQueueDepth(HaWorkQueue.Pool.Migration));
+        assertEquals(0, highAvailabilityManager._workQueue.getQueueDepth(HaWorkQueue.Pool.Restart));
+        Mockito.verify(_clusterMgr).publishToPeers(Mockito.eq(HighAvailabilityManagerImpl.MESSAGE_HA_WORK_SCHEDULED_EVENT), Mockito.anyString());
+    }
+
     @Test
     public void investigateHostStatusSuccess() {
         Mockito.when(_hostDao.findById(Mockito.anyLong())).thenReturn(hostVO);
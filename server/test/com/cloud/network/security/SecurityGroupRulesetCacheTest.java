@@ -0,0 +1,121 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.cloud.network.security.SecurityGroupManagerImpl.PortAndProto;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+
+public class SecurityGroupRulesetCacheTest {
+
+    private static class CountingLoader implements SecurityGroupRulesetCache.Loader {
+        final AtomicInteger _loads = new AtomicInteger();
+
+        @Override
+        public Map<PortAndProto, Set<String>> load(long securityGroupId, SecurityRuleType type) {
+            _loads.incrementAndGet();
+            Map<PortAndProto, Set<String>> rules = new TreeMap<PortAndProto, Set<String>>();
+            Set<String> cidrs = new TreeSet<String>();
+            cidrs.add("10.1.1." + securityGroupId + "/32");
+            rules.put(new PortAndProto("tcp", 22, 22), cidrs);
+            return rules;
+        }
+    }
+
+    @Test
+    public void groupsAreLoadedOnce() {
+        SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache(60000);
+        CountingLoader loader = new CountingLoader();
+        Map<PortAndProto, Set<String>> rules = cache.get(1, SecurityRuleType.IngressRule, loader);
+        assertSame(rules, cache.get(1, SecurityRuleType.IngressRule, loader));
+        cache.get(1, SecurityRuleType.EgressRule, loader);
+        cache.get(2, SecurityRuleType.IngressRule, loader);
+        assertEquals(3, loader._loads.get());
+        assertEquals(3, cache.getLoads());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void invalidateDropsEveryGroup() {
+        SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache(60000);
+        CountingLoader loader = new CountingLoader();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        cache.get(2, SecurityRuleType.IngressRule, loader);
+        cache.invalidate();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        cache.get(2, SecurityRuleType.IngressRule, loader);
+        assertEquals(4, loader._loads.get());
+    }
+
+    @Test
+    public void groupsAreNotCachedWhileAChangeIsInProgress() {
+        SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache(60000);
+        CountingLoader loader = new CountingLoader();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        cache.changeStarted();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        assertEquals(3, loader._loads.get());
+        cache.changeCompleted();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        assertEquals(4, loader._loads.get());
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache(10);
+        CountingLoader loader = new CountingLoader();
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        Thread.sleep(50);
+        cache.get(1, SecurityRuleType.IngressRule, loader);
+        assertEquals(2, loader._loads.get());
+    }
+
+    @Test
+    public void concurrentMembersShareOneLoad() throws InterruptedException {
+        final SecurityGroupRulesetCache cache = new SecurityGroupRulesetCache(60000);
+        final CountingLoader loader = new CountingLoader();
+        final CountDownLatch done = new CountDownLatch(16);
+        for (int t = 0; t < 16; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        cache.get(i % 4, SecurityRuleType.IngressRule, loader);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(4, loader._loads.get());
+    }
+}
@@ -0,0 +1,193 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.Listener;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.SecurityGroupRuleAnswer;
+import com.cloud.agent.api.SecurityGroupRuleAnswer.FailureReason;
+import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.manager.Commands;
+import com.cloud.network.security.SecurityGroupWork.Step;
+import com.cloud.network.security.SecurityRule.SecurityRuleType;
+import com.cloud.network.security.dao.SecurityGroupRuleDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.network.security.dao.SecurityGroupWorkDao;
+import com.cloud.network.security.dao.VmRulesetLogDao;
+import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.VirtualMachine.State;
+import com.cloud.vm.dao.NicDao;
+import com.cloud.vm.dao.UserVmDao;
+
+public class SecurityGroupRulesetUpdatesTest {
+
+    private static final long GROUP_ID = 7;
+    private static final long HOST_A = 10;
+    private static final long HOST_B = 20;
+    private static final long SEQNO = 3;
+
+    private final Map<Long, Commands> _sent = new HashMap<Long, Commands>();
+    private SecurityGroupManagerImpl2 _sgMgr;
+    private SecurityGroupRuleDao _ruleDao;
+    private SecurityGroupWorkDao _workDao;
+    private SecurityGroupListener _listener;
+
+    @Before
+    public void setUp() throws Exception {
+        _sgMgr = new SecurityGroupManagerImpl2();
+        _sgMgr._rulesetLogDao = Mockito.mock(VmRulesetLogDao.class);
+        _sgMgr._userVMDao = Mockito.mock(UserVmDao.class);
+        _sgMgr._nicDao = Mockito.mock(NicDao.class);
+        _sgMgr._securityGroupVMMapDao = Mockito.mock(SecurityGroupVMMapDao.class);
+        _ruleDao = Mockito.mock(SecurityGroupRuleDao.class);
+        _sgMgr._securityGroupRuleDao = _ruleDao;
+        _workDao = Mockito.mock(SecurityGroupWorkDao.class);
+        _sgMgr._workDao = _workDao;
+
+        AgentManager agentMgr = Mockito.mock(AgentManager.class);
+        Mockito.when(agentMgr.send(Mockito.anyLong(), Mockito.any(Commands.class), Mockito.any(Listener.class))).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                _sent.put((Long)invocation.getArguments()[0], (Commands)invocation.getArguments()[1]);
+                return 1L;
+            }
+        });
+        _sgMgr._agentMgr = agentMgr;
+        _listener = new SecurityGroupListener(_sgMgr, agentMgr, _workDao);
+        _sgMgr._answerListener = _listener;
+        _sgMgr._workTracker = new SecurityGroupWorkTracker(agentMgr, _listener, 10);
+        _listener.setWorkDispatcher(_sgMgr._workTracker);
+        _sgMgr._mBean = new SecurityManagerMBeanImpl(_sgMgr);
+
+        // vms 1 to 3 run on host A, vms 4 and 5 on host B, all of them in the same group
+        for (long vmId = 1; vmId <= 5; vmId++) {
+            UserVmVO vm = Mockito.mock(UserVmVO.class);
+            Mockito.when(vm.getId()).thenReturn(vmId);
+            Mockito.when(vm.getState()).thenReturn(State.Running);
+            Mockito.when(vm.getHostId()).thenReturn(vmId <= 3 ? HOST_A : HOST_B);
+            Mockito.when(vm.getInstanceName()).thenReturn("i-2-" + vmId + "-VM");
+            Mockito.when(vm.getPrivateIpAddress()).thenReturn("10.1.1." + vmId);
+            Mockito.when(vm.getPrivateMacAddress()).thenReturn("02:00:00:00:00:0" + vmId);
+            Mockito.when(_sgMgr._userVMDao.findById(vmId)).thenReturn(vm);
+
+            VmRulesetLogVO rulesetLog = new VmRulesetLogVO(vmId);
+            for (int i = 0; i < SEQNO; i++) {
+                rulesetLog.incrLogsequence();
+            }
+            Mockito.when(_sgMgr._rulesetLogDao.findByVmId(vmId)).thenReturn(rulesetLog);
+            Mockito.when(_sgMgr._securityGroupVMMapDao.listByInstanceId(vmId)).thenReturn(Collections.singletonList(new SecurityGroupVMMapVO(GROUP_ID, vmId)));
+            Mockito.when(_sgMgr._nicDao.findByIp4AddressAndVmId("10.1.1." + vmId, vmId)).thenReturn((NicVO)null);
+        }
+        Mockito.when(_ruleDao.listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule)).thenReturn(
+                Collections.singletonList(new SecurityGroupRuleVO(SecurityRuleType.IngressRule, GROUP_ID, 22, 22, "tcp", "192.168.0.0/24")));
+        Mockito.when(_ruleDao.listBySecurityGroupId(GROUP_ID, SecurityRuleType.EgressRule)).thenReturn(new ArrayList<SecurityGroupRuleVO>());
+    }
+
+    @Test
+    public void testRulesetsOfAHostGoInOneRequest() {
+        List<SecurityGroupWork> workItems = new ArrayList<SecurityGroupWork>();
+        for (long vmId = 1; vmId <= 5; vmId++) {
+            workItems.add(new LocalSecurityGroupWorkQueue.LocalSecurityGroupWork(vmId, null, Step.Scheduled));
+        }
+        _sgMgr.sendRulesetUpdates(workItems);
+
+        assertEquals(2, _sent.size());
+        assertEquals(3, _sent.get(HOST_A).size());
+        assertEquals(2, _sent.get(HOST_B).size());
+        for (Commands cmds : _sent.values()) {
+            // one failing vm must not keep the others of the host from being programmed
+            assertFalse(cmds.stopOnError());
+            for (Command cmd : cmds) {
+                SecurityGroupRulesCmd rulesCmd = (SecurityGroupRulesCmd)cmd;
+                assertEquals(SEQNO, rulesCmd.getSeqNum().longValue());
+                assertEquals(1, rulesCmd.getIngressRuleSet().size());
+            }
+        }
+        for (SecurityGroupWork work : workItems) {
+            assertEquals(SEQNO, work.getLogsequenceNumber().longValue());
+        }
+        // the group is expanded once for all of its members
+        Mockito.verify(_ruleDao, Mockito.times(1)).listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule);
+    }
+
+    @Test
+    public void testAnswersOfABatchedRequest() {
+        List<SecurityGroupWork> workItems = new ArrayList<SecurityGroupWork>();
+        for (long vmId = 1; vmId <= 3; vmId++) {
+            workItems.add(new LocalSecurityGroupWorkQueue.LocalSecurityGroupWork(vmId, null, Step.Scheduled));
+        }
+        _sgMgr.sendRulesetUpdates(workItems);
+        Command[] cmds = _sent.get(HOST_A).toCommands();
+        assertEquals(3, cmds.length);
+
+        // two requests are outstanding to host A, the answers to the batched one count once
+        _sgMgr._workTracker.canSend(HOST_A);
+        _sgMgr._workTracker.canSend(HOST_A);
+        com.cloud.agent.api.Answer[] answers = new com.cloud.agent.api.Answer[] {
+                new SecurityGroupRuleAnswer((SecurityGroupRulesCmd)cmds[0]),
+                new SecurityGroupRuleAnswer((SecurityGroupRulesCmd)cmds[1], false, "programming failed", FailureReason.PROGRAMMING_FAILED),
+                new SecurityGroupRuleAnswer((SecurityGroupRulesCmd)cmds[2])};
+        _listener.processAnswers(HOST_A, 1, answers);
+
+        Mockito.verify(_workDao).updateStep(1L, SEQNO, Step.Done);
+        Mockito.verify(_workDao).updateStep(2L, SEQNO, Step.Error);
+        Mockito.verify(_workDao).updateStep(3L, SEQNO, Step.Done);
+        assertEquals(1, _sgMgr._workTracker.getUnackedCount(HOST_A));
+        // the vm that failed is retried
+        assertEquals(1, _sgMgr.getQueueSize());
+    }
+
+    @Test
+    public void testRulesetCacheIsNotUsedUntilTheChangeCommits() {
+        Mockito.when(_sgMgr._rulesetLogDao.createOrUpdate(Mockito.anySetOf(Long.class))).thenReturn(1);
+
+        TransactionLegacy txn = TransactionLegacy.open("SecurityGroupRulesetUpdatesTest");
+        try {
+            txn.start();
+            _sgMgr.scheduleRulesetUpdateToHosts(Collections.singletonList(1L), true, null);
+            // a worker may read the rows either before or after the change, neither may be kept
+            _sgMgr.generateRulesForVM(1L, SecurityRuleType.IngressRule);
+            _sgMgr.generateRulesForVM(2L, SecurityRuleType.IngressRule);
+            Mockito.verify(_ruleDao, Mockito.times(2)).listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule);
+            txn.commit();
+        } finally {
+            txn.close();
+        }
+
+        _sgMgr.generateRulesForVM(1L, SecurityRuleType.IngressRule);
+        _sgMgr.generateRulesForVM(2L, SecurityRuleType.IngressRule);
+        Mockito.verify(_ruleDao, Mockito.times(3)).listBySecurityGroupId(GROUP_ID, SecurityRuleType.IngressRule);
+    }
+}
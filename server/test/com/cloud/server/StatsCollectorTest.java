@@ -0,0 +1,145 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.HostVO;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.vm.UserVmManager;
+import com.cloud.vm.UserVmVO;
+import com.cloud.vm.dao.UserVmDao;
+
+public class StatsCollectorTest {
+
+    StatsCollector statsCollector;
+    ThreadPoolExecutor executor;
+
+    final List<HashMap> sentMetrics = new ArrayList<HashMap>();
+
+    @Before
+    public void setup() throws Exception {
+        statsCollector = new StatsCollector() {
+            @Override
+            protected void sendVmMetrics(HostVO host, HashMap metrics) {
+                sentMetrics.add(metrics);
+            }
+        };
+        executor = new ThreadPoolExecutor(4, 4, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("StatsCollectionWorker"));
+        Field executorField = StatsCollector.class.getDeclaredField("_collectionExecutor");
+        executorField.setAccessible(true);
+        executorField.set(statsCollector, executor);
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = StatsCollector.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(statsCollector, value);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private HostVO mockHost(long id) {
+        HostVO host = Mockito.mock(HostVO.class);
+        Mockito.when(host.getId()).thenReturn(id);
+        return host;
+    }
+
+    @Test
+    public void testCollectFromHostsCountsTimeoutsAndFailures() {
+        List<StatsCollector.HostStatsWork> works = new ArrayList<StatsCollector.HostStatsWork>();
+        for (long i = 1; i <= 6; i++) {
+            works.add(statsCollector.new HostStatsWork(mockHost(i)) {
+                @Override
+                protected void collect(HostVO host) {
+                    if (host.getId() == 5) {
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    } else if (host.getId() == 6) {
+                        throw new RuntimeException("agent unavailable");
+                    }
+                }
+            });
+        }
+
+        long started = System.currentTimeMillis();
+        StatsCollector.CollectionRound round = statsCollector.collectFromHosts(StatsCollector.HOST_STATS_ROUND, works, 500);
+
+        Assert.assertTrue(System.currentTimeMillis() - started < 5000);
+        Assert.assertEquals(6, round.getHosts());
+        Assert.assertEquals(4, round.getCollected());
+        Assert.assertEquals(1, round.getTimeouts());
+        Assert.assertEquals(1, round.getFailures());
+    }
+
+    private HashMap<Long, VmStatsEntry> vmStatsOfRound(double networkReadKBs, double diskWriteKBs) {
+        VmStatsEntry stats = new VmStatsEntry();
+        stats.setNumCPUs(2);
+        stats.setCPUUtilization(10);
+        stats.setNetworkReadKBs(networkReadKBs);
+        stats.setDiskWriteKBs(diskWriteKBs);
+        HashMap<Long, VmStatsEntry> vmStatsById = new HashMap<Long, VmStatsEntry>();
+        vmStatsById.put(3L, stats);
+        return vmStatsById;
+    }
+
+    @Test
+    public void testExternalVmMetricsTakeTheValuesOfTheRound() throws Exception {
+        UserVmVO vm = Mockito.mock(UserVmVO.class);
+        Mockito.when(vm.getId()).thenReturn(3L);
+        Mockito.when(vm.getUuid()).thenReturn("vm-uuid");
+        UserVmDao userVmDao = Mockito.mock(UserVmDao.class);
+        Mockito.when(userVmDao.listRunningByHostId(1L)).thenReturn(Collections.singletonList(vm));
+        UserVmManager userVmMgr = Mockito.mock(UserVmManager.class);
+        Mockito.when(userVmMgr.getVirtualMachineStatistics(Mockito.eq(1L), Mockito.anyString(), Mockito.anyListOf(Long.class)))
+                .thenReturn(vmStatsOfRound(100, 10), vmStatsOfRound(30, 5));
+        setField("_userVmDao", userVmDao);
+        setField("_userVmMgr", userVmMgr);
+        statsCollector.externalStatsEnabled = true;
+        statsCollector.externalStatsType = StatsCollector.ExternalStatsProtocol.GRAPHITE;
+
+        HostVO host = mockHost(1);
+        statsCollector.collectVmStats(host);
+        statsCollector.collectVmStats(host);
+
+        Assert.assertEquals(2, sentMetrics.size());
+        Assert.assertEquals(30.0, sentMetrics.get(1).get("cloudstack.stats.instances.vm-uuid.network.read_kbs"));
+        Assert.assertEquals(5.0, sentMetrics.get(1).get("cloudstack.stats.instances.vm-uuid.disk.write_kbs"));
+        // the stats kept for the api still add the traffic up
+        Assert.assertEquals(130.0, statsCollector.getVmStats(3L).getNetworkReadKBs(), 0.001);
+    }
+}
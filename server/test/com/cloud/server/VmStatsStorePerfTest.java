@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.vm.VmStats;
+
+/**
+ * Compares the heap footprint and lookup throughput of the VmStatsStore with the map of VmStatsEntry objects it replaced.
+ * Excluded from the regular build, run it explicitly to get the numbers.
+ */
+public class VmStatsStorePerfTest {
+    private static final int VMS = 100000;
+    private static final int LOOKUPS = 10000000;
+
+    private static VmStatsEntry createStats(long vmId) {
+        VmStatsEntry stats = new VmStatsEntry(2048, 1024, 2048, vmId % 100, vmId, vmId, 2, "vm");
+        stats.setDiskReadKBs(vmId);
+        stats.setDiskWriteKBs(vmId);
+        stats.setDiskReadIOs(vmId);
+        stats.setDiskWriteIOs(vmId);
+        return stats;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testFootprintAndLookups() {
+        long before = usedHeap();
+        ConcurrentHashMap<Long, VmStats> map = new ConcurrentHashMap<Long, VmStats>();
+        for (long vmId = 1; vmId <= VMS; vmId++) {
+            map.put(vmId, createStats(vmId));
+        }
+        long mapBytes = usedHeap() - before;
+
+        before = usedHeap();
+        VmStatsStore store = new VmStatsStore(VMS);
+        for (long vmId = 1; vmId <= VMS; vmId++) {
+            store.merge(vmId, createStats(vmId));
+        }
+        long storeBytes = usedHeap() - before;
+
+        System.out.println("Map of VmStatsEntry for " + VMS + " vms: " + mapBytes / VMS + " bytes per vm");
+        System.out.println("VmStatsStore for " + VMS + " vms: " + storeBytes / VMS + " bytes per vm");
+
+        double sink = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                sink += map.get(Long.valueOf(i % VMS + 1)).getCPUUtilization();
+            }
+            long mapNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                sink += store.get(i % VMS + 1).getCPUUtilization();
+            }
+            long storeNanos = System.nanoTime() - start;
+
+            System.out.println("Map lookups: " + LOOKUPS * 1000L / Math.max(1, mapNanos / 1000) + " per ms");
+            System.out.println("VmStatsStore lookups: " + LOOKUPS * 1000L / Math.max(1, storeNanos / 1000) + " per ms");
+        }
+        System.out.println(sink > 0 ? "" : "no lookups");
+    }
+}
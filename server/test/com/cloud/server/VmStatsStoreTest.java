@@ -0,0 +1,113 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.agent.api.VmStatsEntry;
+
+public class VmStatsStoreTest {
+
+    private static VmStatsEntry createStats(double cpu, double networkRead, double diskWrite, int numCpus) {
+        VmStatsEntry stats = new VmStatsEntry(2048, 1024, 2048, cpu, networkRead, 0, numCpus, "vm");
+        stats.setDiskWriteKBs(diskWrite);
+        return stats;
+    }
+
+    @Test
+    public void testGetUnknownVm() {
+        VmStatsStore store = new VmStatsStore(16);
+        Assert.assertNull(store.get(1L));
+    }
+
+    @Test
+    public void testMergeKeepsTotalsAndLatestValues() {
+        VmStatsStore store = new VmStatsStore(16);
+        store.merge(7L, createStats(10, 100, 5, 2));
+        VmStatsEntry second = createStats(30, 50, 1, 4);
+        store.merge(7L, second);
+
+        // the reported entry keeps the values of its round
+        Assert.assertEquals(50, second.getNetworkReadKBs(), 0);
+
+        VmStatsEntry stats = (VmStatsEntry)store.get(7L);
+        Assert.assertEquals(30, stats.getCPUUtilization(), 0);
+        Assert.assertEquals(150, stats.getNetworkReadKBs(), 0);
+        Assert.assertEquals(6, stats.getDiskWriteKBs(), 0);
+        Assert.assertEquals(2048, stats.getMemoryKBs(), 0);
+        Assert.assertEquals(4, stats.getNumCPUs());
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testRemoveExpungedVms() {
+        VmStatsStore store = new VmStatsStore(1);
+        Map<Long, VmStatsEntry> round = new HashMap<Long, VmStatsEntry>();
+        for (long vmId = 1; vmId <= 1000; vmId++) {
+            round.put(vmId * 16, createStats(vmId % 100, vmId, 0, 1));
+        }
+        store.mergeAll(round);
+
+        for (long vmId = 1; vmId <= 1000; vmId += 2) {
+            store.remove(vmId * 16);
+        }
+        store.remove(5L);
+
+        Assert.assertEquals(500, store.size());
+        for (long vmId = 1; vmId <= 1000; vmId++) {
+            VmStatsEntry stats = (VmStatsEntry)store.get(vmId * 16);
+            if (vmId % 2 == 1) {
+                Assert.assertNull(stats);
+            } else {
+                Assert.assertEquals(vmId, stats.getNetworkReadKBs(), 0);
+            }
+        }
+
+        // a vm reusing a freed row starts from its own stats
+        store.merge(16L, createStats(1, 3, 0, 1));
+        Assert.assertEquals(3, store.get(16L).getNetworkReadKBs(), 0);
+        Assert.assertEquals(501, store.size());
+    }
+
+    @Test
+    public void testGrowsBeyondTheExpectedVms() {
+        VmStatsStore store = new VmStatsStore(1);
+        Map<Long, VmStatsEntry> round = new HashMap<Long, VmStatsEntry>();
+        for (long vmId = 1; vmId <= 10000; vmId++) {
+            round.put(vmId * 31, createStats(vmId % 100, vmId, 0, (int)(vmId % 8)));
+        }
+        store.mergeAll(round);
+
+        Assert.assertEquals(10000, store.size());
+        for (long vmId = 1; vmId <= 10000; vmId++) {
+            VmStatsEntry stats = (VmStatsEntry)store.get(vmId * 31);
+            Assert.assertEquals(vmId % 100, stats.getCPUUtilization(), 0);
+            Assert.assertEquals(vmId, stats.getNetworkReadKBs(), 0);
+            Assert.assertEquals(vmId % 8, stats.getNumCPUs());
+        }
+        Assert.assertNull(store.get(30L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidVmId() {
+        new VmStatsStore(16).merge(0L, createStats(1, 1, 1, 1));
+    }
+}
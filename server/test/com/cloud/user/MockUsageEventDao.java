@@ -191,6 +191,16 @@ public class MockUsageEventDao implements UsageEventDao{
         return entity;
     }
 
+    @Override
+    public void persistAll(List<UsageEventVO> entities) {
+        persistedItems.addAll(entities);
+    }
+
+    @Override
+    public int updateAll(List<UsageEventVO> entities) {
+        return 0;
+    }
+
     @Override
     public boolean remove(Long id) {
         return false;
@@ -206,6 +216,11 @@ public class MockUsageEventDao implements UsageEventDao{
         return false;
     }
 
+    @Override
+    public int expungeAll(List<Long> ids) {
+        return 0;
+    }
+
     @Override
     public int expunge(SearchCriteria<UsageEventVO> sc) {
         return 0;
@@ -273,6 +288,11 @@ public class MockUsageEventDao implements UsageEventDao{
         return null;
     }
 
+    @Override
+    public Pair<List<UsageEventVO>, Integer> searchAndCountAfter(SearchCriteria<UsageEventVO> sc, Long after, boolean ascending, Long limit, boolean distinct) {
+        return null;
+    }
+
     @Override
     public Map<String, Attribute> getAllAttributes() {
         return null;
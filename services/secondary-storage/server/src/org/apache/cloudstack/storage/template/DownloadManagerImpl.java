@@ -231,6 +231,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     private String listTmpltScr;
     private String listVolScr;
     private int installTimeoutPerGig = 180 * 60 * 1000;
+    private int downloadConnections = 1;
 
     public void setThreadPool(ExecutorService threadPool) {
         this.threadPool = threadPool;
@@ -398,7 +399,14 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         ResourceType resourceType = dnld.getResourceType();
 
         File originalTemplate = new File(td.getDownloadLocalPath());
-        String checkSum = computeCheckSum(originalTemplate);
+        String checkSum = null;
+        if (td instanceof HttpTemplateDownloader) {
+            // computed while downloading, saves reading the whole file again
+            checkSum = ((HttpTemplateDownloader)td).getChecksum();
+        }
+        if (checkSum == null) {
+            checkSum = computeCheckSum(originalTemplate);
+        }
         if (checkSum == null) {
             s_logger.warn("Something wrong happened when try to calculate the checksum of downloaded template!");
         }
@@ -580,7 +588,10 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
                     TemplateDownloader td;
                     if ((uri != null) && (uri.getScheme() != null)) {
                         if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
-                            td = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy, resourceType);
+                            HttpTemplateDownloader httpDownloader =
+                                    new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy, resourceType);
+                            httpDownloader.setConnections(downloadConnections);
+                            td = httpDownloader;
                         } else if (uri.getScheme().equalsIgnoreCase("file")) {
                             td = new LocalTemplateDownloader(_storage, url, tmpDir, maxTemplateSizeInBytes, new Completion(jobId));
                         } else if (uri.getScheme().equalsIgnoreCase("scp")) {
@@ -637,6 +648,32 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         return null;
     }
 
+    /**
+     * @return average throughput of the download so far in bytes per second, 0 if it is not known yet.
+     */
+    public long getDownloadRate(String jobId) {
+        DownloadJob dj = jobs.get(jobId);
+        if (dj != null) {
+            TemplateDownloader td = dj.getTemplateDownloader();
+            if (td.getDownloadTime() > 0) {
+                return td.getDownloadedBytes() * 1000 / td.getDownloadTime();
+            }
+        }
+        return 0;
+    }
+
+    private DownloadAnswer createDownloadAnswer(String jobId, long templatePhysicalSize) {
+        DownloadAnswer answer =
+                new DownloadAnswer(jobId, getDownloadPct(jobId), getDownloadError(jobId), getDownloadStatus2(jobId), getDownloadLocalPath(jobId), getInstallPath(jobId),
+                        getDownloadTemplateSize(jobId), templatePhysicalSize, getDownloadCheckSum(jobId));
+        DownloadJob dj = jobs.get(jobId);
+        if (dj != null) {
+            answer.setDownloadedBytes(dj.getTemplateDownloader().getDownloadedBytes());
+            answer.setDownloadRate(getDownloadRate(jobId));
+        }
+        return answer;
+    }
+
     public long getDownloadTemplatePhysicalSize(String jobId) {
         DownloadJob dj = jobs.get(jobId);
         if (dj != null) {
@@ -736,8 +773,7 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         if (jobId == null) {
             return new DownloadAnswer("Internal Error", VMTemplateStorageResourceAssoc.Status.DOWNLOAD_ERROR);
         }
-        return new DownloadAnswer(jobId, getDownloadPct(jobId), getDownloadError(jobId), getDownloadStatus2(jobId), getDownloadLocalPath(jobId), getInstallPath(jobId),
-                getDownloadTemplateSize(jobId), getDownloadTemplateSize(jobId), getDownloadCheckSum(jobId));
+        return createDownloadAnswer(jobId, getDownloadTemplateSize(jobId));
     }
 
     private void sleep() {
@@ -778,16 +814,13 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
             break;
         case PURGE:
             td.stopDownload();
-            answer =
-                    new DownloadAnswer(jobId, getDownloadPct(jobId), getDownloadError(jobId), getDownloadStatus2(jobId), getDownloadLocalPath(jobId),
-                            getInstallPath(jobId), getDownloadTemplateSize(jobId), getDownloadTemplatePhysicalSize(jobId), getDownloadCheckSum(jobId));
+            answer = createDownloadAnswer(jobId, getDownloadTemplatePhysicalSize(jobId));
             jobs.remove(jobId);
             return answer;
         default:
             break; // TODO
         }
-        return new DownloadAnswer(jobId, getDownloadPct(jobId), getDownloadError(jobId), getDownloadStatus2(jobId), getDownloadLocalPath(jobId), getInstallPath(jobId),
-                getDownloadTemplateSize(jobId), getDownloadTemplatePhysicalSize(jobId), getDownloadCheckSum(jobId));
+        return createDownloadAnswer(jobId, getDownloadTemplatePhysicalSize(jobId));
     }
 
     private String getInstallPath(String jobId) {
@@ -993,6 +1026,9 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         value = (String)params.get("install.timeout.pergig");
         installTimeoutPerGig = NumbersUtil.parseInt(value, 15 * 60) * 1000;
 
+        value = (String)params.get("download.connections");
+        downloadConnections = NumbersUtil.parseInt(value, 1);
+
         value = (String)params.get("install.numthreads");
         final int numInstallThreads = NumbersUtil.parseInt(value, 10);
 
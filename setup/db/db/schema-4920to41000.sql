@@ -53,3 +53,9 @@ ALTER TABLE `cloud`.`image_store_details` CHANGE COLUMN `value` `value` VARCHAR(
 NULL DEFAULT '1' COMMENT 'True if the detail can be displayed to the end user' AFTER `value`;
 
 ALTER TABLE `snapshots` ADD COLUMN `location_type` VARCHAR(32) COMMENT 'Location of snapshot (ex. Primary)';
+
+ALTER TABLE `cloud_usage`.`usage_job` ADD COLUMN `parser_timings` varchar(1024) COMMENT 'time spent in each usage parser during the job, in milliseconds';
+
+ALTER TABLE `cloud`.`op_dc_ip_address_alloc` ADD COLUMN `claim` varchar(40) COMMENT 'management server block the free address is claimed for', ADD INDEX `i_op_dc_ip_address_alloc__claim`(`claim`);
+
+ALTER TABLE `cloud`.`op_dc_vnet_alloc` ADD COLUMN `claim` varchar(40) COMMENT 'management server block the free vnet is claimed for', ADD INDEX `i_op_dc_vnet_alloc__claim`(`claim`);
@@ -22,13 +22,18 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -70,6 +75,7 @@ import com.cloud.usage.parser.NetworkUsageParser;
 import com.cloud.usage.parser.PortForwardingUsageParser;
 import com.cloud.usage.parser.SecurityGroupUsageParser;
 import com.cloud.usage.parser.StorageUsageParser;
+import com.cloud.usage.parser.UsageWriter;
 import com.cloud.usage.parser.VMInstanceUsageParser;
 import com.cloud.usage.parser.VMSnapshotUsageParser;
 import com.cloud.usage.parser.VPNUserUsageParser;
@@ -82,6 +88,7 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -89,9 +96,10 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
-public class UsageManagerImpl extends ManagerBase implements UsageManager, Runnable {
+public class UsageManagerImpl extends ManagerBase implements UsageManager, UsageWriter, Runnable {
     public static final Logger s_logger = Logger.getLogger(UsageManagerImpl.class.getName());
 
     protected static final String DAILY = "DAILY";
@@ -166,6 +174,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService _heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
     private final ScheduledExecutorService _sanityExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Sanity"));
+    private ExecutorService _parseExecutor = null;
+    private int _parseWorkers = 4;
+    private List<HelperTableParser> _helperTableParsers = createHelperTableParsers();
     private Future _scheduledFuture = null;
     private Future _heartbeat = null;
     private Future _sanity = null;
@@ -206,11 +217,16 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         String execTimeZone = configs.get("usage.execution.timezone");
         String aggreagationTimeZone = configs.get("usage.aggregation.timezone");
         String sanityCheckInterval = configs.get("usage.sanity.check.interval");
+        String parseWorkers = configs.get("usage.parse.workers");
         String quotaEnable = configs.get("quota.enable.service");
         _runQuota = Boolean.valueOf(quotaEnable == null ? "false" : quotaEnable );
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        if (parseWorkers != null) {
+            _parseWorkers = Math.max(1, Integer.parseInt(parseWorkers));
+        }
+        _parseExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Usage-Parser"));
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -315,6 +331,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parseExecutor != null) {
+            _parseExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -607,6 +626,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             // - insert the latest events into the usage.events table
             List<UsageEventVO> events = _usageEventDao.getRecentEvents(new Date(endDateMillis));
 
+            UsageParserTimings parserTimings = new UsageParserTimings(_helperTableParsers);
             TransactionLegacy usageTxn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
             try {
                 usageTxn.start();
@@ -736,9 +756,6 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.commit();
                 usageTxn.start();
 
-                boolean parsed = false;
-                numAcctsProcessed = 0;
-
                 Date currentStartDate = startDate;
                 Date currentEndDate = endDate;
                 Date tempDate = endDate;
@@ -752,59 +769,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     tempDate = aggregateCal.getTime();
                 }
 
+                List<Pair<Date, Date>> aggregationRanges = new ArrayList<Pair<Date, Date>>();
                 while (!currentEndDate.after(endDate) || (currentEndDate.getTime() - endDate.getTime() < 60000)) {
-                    Long offset = Long.valueOf(0);
-                    Long limit = Long.valueOf(500);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-                        accounts = _accountDao.listAll(filter);
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
-
-                    if (s_logger.isDebugEnabled()) {
-                        s_logger.debug("processed VM/Network Usage for " + numAcctsProcessed + " ACTIVE accts");
-                    }
-                    numAcctsProcessed = 0;
-
-                    // reset offset
-                    offset = Long.valueOf(0);
-
-                    do {
-                        Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
-
-                        accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
-
-                        if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
-                                for (Long templateId : publicTemplates) {
-                                    //mark public templates owned by deleted accounts as deleted
-                                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
-                                    if (storageVOs.size() > 1) {
-                                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
-                                                "; marking them all as deleted...");
-                                    }
-                                    for (UsageStorageVO storageVO : storageVOs) {
-                                        if (s_logger.isDebugEnabled()) {
-                                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
-                                        }
-                                        storageVO.setDeleted(account.getRemoved());
-                                        _usageStorageDao.update(storageVO);
-                                    }
-                                }
-                                numAcctsProcessed++;
-                            }
-                        }
-                        offset = new Long(offset.longValue() + limit.longValue());
-                    } while ((accounts != null) && !accounts.isEmpty());
+                    aggregationRanges.add(new Pair<Date, Date>(currentStartDate, currentEndDate));
 
                     currentStartDate = new Date(currentEndDate.getTime() + 1);
                     aggregateCal.setTime(currentEndDate);
@@ -812,8 +779,35 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     currentEndDate = aggregateCal.getTime();
                 }
 
+                List<AccountVO> activeAccounts = new ArrayList<AccountVO>();
+                List<AccountVO> deletedAccounts = new ArrayList<AccountVO>();
+                Long offset = Long.valueOf(0);
+                Long limit = Long.valueOf(500);
+                do {
+                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                    accounts = _accountDao.listAll(filter);
+                    if (accounts != null) {
+                        activeAccounts.addAll(accounts);
+                    }
+                    offset = new Long(offset.longValue() + limit.longValue());
+                } while ((accounts != null) && !accounts.isEmpty());
+
+                // reset offset
+                offset = Long.valueOf(0);
+                do {
+                    Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
+                    accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
+                    if (accounts != null) {
+                        deletedAccounts.addAll(accounts);
+                    }
+                    offset = new Long(offset.longValue() + limit.longValue());
+                } while ((accounts != null) && !accounts.isEmpty());
+
+                boolean parsed = parseAccounts(activeAccounts, deletedAccounts, aggregationRanges, parserTimings);
+
                 if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("processed Usage for " + numAcctsProcessed + " RECENTLY DELETED accts");
+                    s_logger.debug("processed Usage for " + activeAccounts.size() + " ACTIVE accts and " + deletedAccounts.size() + " RECENTLY DELETED accts over " +
+                            aggregationRanges.size() + " aggregation ranges, parser timings (ms): " + parserTimings);
                 }
 
                 // FIXME: we don't break the above loop if something fails to parse, so it gets reset every account,
@@ -828,7 +822,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 usageTxn.rollback();
             } finally {
                 // everything seemed to work...set endDate as the last success date
-                _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success);
+                _usageJobDao.updateJobSuccess(job.getId(), startDateMillis, endDateMillis, System.currentTimeMillis() - timeStart, success, parserTimings.toString());
 
                 // create a new job if this is a recurring job
                 if (job.getJobType() == UsageJobVO.JOB_TYPE_RECURRING) {
@@ -853,91 +847,231 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
-        boolean parsed = false;
-
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    /**
+     * Runs the helper table parsers for the given accounts over every aggregation range. With more than one parse worker the
+     * accounts are split into partitions that are parsed concurrently, each in its own usage DB transaction. Nothing a
+     * partition writes is committed by it: its transaction is rolled back and its writes are staged. Once every partition
+     * has parsed, the staged writes are applied in the job's usage transaction, so the usage of all partitions is committed
+     * or rolled back as one.
+     */
+    protected boolean parseAccounts(List<AccountVO> activeAccounts, List<AccountVO> deletedAccounts, final List<Pair<Date, Date>> aggregationRanges,
+            final UsageParserTimings parserTimings) {
+        int partitionCount = Math.min(_parseWorkers, activeAccounts.size() + deletedAccounts.size());
+        if (partitionCount <= 1) {
+            return parsePartition(activeAccounts, deletedAccounts, aggregationRanges, parserTimings, this);
+        }
+
+        // deal the deleted accounts out where the active ones stopped so that every partition has at least one account
+        final List<List<AccountVO>> activePartitions = partitionAccounts(activeAccounts, partitionCount, 0);
+        final List<List<AccountVO>> deletedPartitions = partitionAccounts(deletedAccounts, partitionCount, activeAccounts.size());
+
+        List<Future<StagedUsageWriter>> results = new ArrayList<Future<StagedUsageWriter>>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            final int partition = i;
+            results.add(_parseExecutor.submit(new Callable<StagedUsageWriter>() {
+                @Override
+                public StagedUsageWriter call() {
+                    String txnName = "UsageParsePartition-" + partition;
+                    TransactionLegacy txn = TransactionLegacy.open(txnName, TransactionLegacy.USAGE_DB, true);
+                    try {
+                        txn.start();
+                        StagedUsageWriter writer = new StagedUsageWriter(txn, UsageManagerImpl.this);
+                        if (!parsePartition(activePartitions.get(partition), deletedPartitions.get(partition), aggregationRanges, parserTimings, writer)) {
+                            return null;
+                        }
+                        return writer;
+                    } catch (Exception e) {
+                        s_logger.error("Failed to parse usage for account partition " + partition, e);
+                        return null;
+                    } finally {
+                        // the job applies the staged writes in its own transaction
+                        txn.rollback();
+                        txn.close(txnName);
+                    }
+                }
+            }));
         }
 
-        parsed = NetworkUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        List<StagedUsageWriter> writers = new ArrayList<StagedUsageWriter>(partitionCount);
+        boolean interrupted = false;
+        for (Future<StagedUsageWriter> result : results) {
+            while (true) {
+                try {
+                    writers.add(result.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    s_logger.error("Failed to parse usage for account partitions", e.getCause());
+                    writers.add(null);
+                    break;
+                }
             }
         }
-
-        parsed = VmDiskUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("vm disk usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-
-        parsed = VolumeUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("volume usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        if (writers.contains(null)) {
+            return false;
         }
-
-        parsed = StorageUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("storage usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+        for (StagedUsageWriter writer : writers) {
+            writer.apply();
         }
+        return true;
+    }
 
-        parsed = SecurityGroupUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("Security Group usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
-        }
+    @Override
+    public void saveUsageRecords(List<UsageVO> usageRecords) {
+        _usageDao.saveUsageRecords(usageRecords);
+    }
 
-        parsed = LoadBalancerUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("load balancer usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
-            }
+    @Override
+    public void updateVMSnapshot(UsageVMSnapshotVO usageVMSnapshot) {
+        _usageVMSnapshotDao.update(usageVMSnapshot);
+    }
+
+    @Override
+    public void updateStorage(UsageStorageVO usageStorage) {
+        _usageStorageDao.update(usageStorage);
+    }
+
+    static List<List<AccountVO>> partitionAccounts(List<AccountVO> accounts, int partitionCount, int firstPartition) {
+        List<List<AccountVO>> partitions = new ArrayList<List<AccountVO>>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayList<AccountVO>());
+        }
+        for (int i = 0; i < accounts.size(); i++) {
+            partitions.get((firstPartition + i) % partitionCount).add(accounts.get(i));
         }
+        return partitions;
+    }
 
-        parsed = PortForwardingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("port forwarding usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private boolean parsePartition(List<AccountVO> activeAccounts, List<AccountVO> deletedAccounts, List<Pair<Date, Date>> aggregationRanges,
+            UsageParserTimings parserTimings, UsageWriter writer) {
+        boolean parsed = false;
+        for (Pair<Date, Date> range : aggregationRanges) {
+            Date currentStartDate = range.first();
+            Date currentEndDate = range.second();
+
+            for (AccountVO account : activeAccounts) {
+                parsed = parseHelperTables(account, currentStartDate, currentEndDate, parserTimings, writer);
+            }
+
+            for (AccountVO account : deletedAccounts) {
+                parsed = parseHelperTables(account, currentStartDate, currentEndDate, parserTimings, writer);
+                List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
+                for (Long templateId : publicTemplates) {
+                    //mark public templates owned by deleted accounts as deleted
+                    List<UsageStorageVO> storageVOs = _usageStorageDao.listById(account.getId(), templateId, StorageTypes.TEMPLATE);
+                    if (storageVOs.size() > 1) {
+                        s_logger.warn("More that one usage entry for storage: " + templateId + " assigned to account: " + account.getId() +
+                                "; marking them all as deleted...");
+                    }
+                    for (UsageStorageVO storageVO : storageVOs) {
+                        if (s_logger.isDebugEnabled()) {
+                            s_logger.debug("deleting template: " + storageVO.getId() + " from account: " + storageVO.getAccountId());
+                        }
+                        storageVO.setDeleted(account.getRemoved());
+                        writer.updateStorage(storageVO);
+                    }
+                }
             }
         }
+        return parsed;
+    }
 
-        parsed = NetworkOfferingUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("network offering usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, UsageParserTimings parserTimings, UsageWriter writer) {
+        boolean parsed = false;
+
+        for (HelperTableParser parser : _helperTableParsers) {
+            long parseStart = System.nanoTime();
+            parsed = parser.parse(account, currentStartDate, currentEndDate, writer);
+            parserTimings.record(parser.getName(), System.nanoTime() - parseStart);
+            if (s_logger.isDebugEnabled()) {
+                if (!parsed) {
+                    s_logger.debug(parser.getName() + " usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+                }
             }
         }
+        return parsed;
+    }
 
-        parsed = IPAddressUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("IPAddress usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+    private static List<HelperTableParser> createHelperTableParsers() {
+        List<HelperTableParser> parsers = new ArrayList<HelperTableParser>();
+        parsers.add(new HelperTableParser("VMInstance") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return VMInstanceUsageParser.parse(account, startDate, endDate, writer);
             }
-        }
-        parsed = VPNUserUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VPN user usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        });
+        parsers.add(new HelperTableParser("Network") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return NetworkUsageParser.parse(account, startDate, endDate, writer);
             }
-        }
-        parsed = VMSnapshotUsageParser.parse(account, currentStartDate, currentEndDate);
-        if (s_logger.isDebugEnabled()) {
-            if (!parsed) {
-                s_logger.debug("VM Snapshot usage successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
+        });
+        parsers.add(new HelperTableParser("VmDisk") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return VmDiskUsageParser.parse(account, startDate, endDate, writer);
             }
-        }
-        return parsed;
+        });
+        parsers.add(new HelperTableParser("Volume") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return VolumeUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("Storage") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return StorageUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("SecurityGroup") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return SecurityGroupUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("LoadBalancer") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return LoadBalancerUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("PortForwarding") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return PortForwardingUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("NetworkOffering") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return NetworkOfferingUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("IPAddress") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return IPAddressUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("VPNUser") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return VPNUserUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        parsers.add(new HelperTableParser("VMSnapshot") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                return VMSnapshotUsageParser.parse(account, startDate, endDate, writer);
+            }
+        });
+        return parsers;
     }
 
     private void createHelperRecord(UsageEventVO event) {
@@ -1883,4 +2017,112 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
             }
         }
     }
+
+    /**
+     * A helper table parser run by the usage job for every account and aggregation range.
+     */
+    protected abstract static class HelperTableParser {
+        private final String _name;
+
+        protected HelperTableParser(String name) {
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public abstract boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer);
+    }
+
+    /**
+     * Stages the writes of an account partition that is parsed in its own usage transaction. The helper table updates are
+     * also made in that transaction right away, the later aggregation ranges of the partition read them back. The
+     * transaction is rolled back once the partition is parsed; {@link #apply()} then makes the staged writes in the job's
+     * transaction.
+     */
+    protected static class StagedUsageWriter implements UsageWriter {
+        private final TransactionLegacy _txn;
+        private final UsageWriter _writer;
+        private final List<UsageVO> _usageRecords = new ArrayList<UsageVO>();
+        private final List<UsageVMSnapshotVO> _usageVMSnapshots = new ArrayList<UsageVMSnapshotVO>();
+        private final List<UsageStorageVO> _usageStorages = new ArrayList<UsageStorageVO>();
+
+        public StagedUsageWriter(TransactionLegacy txn, UsageWriter writer) {
+            _txn = txn;
+            _writer = writer;
+        }
+
+        @Override
+        public void saveUsageRecords(List<UsageVO> usageRecords) {
+            _usageRecords.addAll(usageRecords);
+        }
+
+        @Override
+        public void updateVMSnapshot(UsageVMSnapshotVO usageVMSnapshot) {
+            _writer.updateVMSnapshot(usageVMSnapshot);
+            checkTransaction();
+            _usageVMSnapshots.add(usageVMSnapshot);
+        }
+
+        @Override
+        public void updateStorage(UsageStorageVO usageStorage) {
+            _writer.updateStorage(usageStorage);
+            checkTransaction();
+            _usageStorages.add(usageStorage);
+        }
+
+        /**
+         * A failed update rolls back the partition's transaction and is only logged by the DAO. Stop the partition there,
+         * its following updates would otherwise be committed one by one.
+         */
+        private void checkTransaction() {
+            if (!_txn.dbTxnStarted()) {
+                throw new CloudRuntimeException("The usage transaction of the account partition has been rolled back");
+            }
+        }
+
+        public void apply() {
+            _writer.saveUsageRecords(_usageRecords);
+            for (UsageVMSnapshotVO usageVMSnapshot : _usageVMSnapshots) {
+                _writer.updateVMSnapshot(usageVMSnapshot);
+            }
+            for (UsageStorageVO usageStorage : _usageStorages) {
+                _writer.updateStorage(usageStorage);
+            }
+        }
+    }
+
+    /**
+     * Time spent in each helper table parser, summed over all accounts and parse workers. Recorded in the usage job.
+     */
+    protected static class UsageParserTimings {
+        private final Map<String, AtomicLong> _nanos = new LinkedHashMap<String, AtomicLong>();
+
+        public UsageParserTimings(List<HelperTableParser> parsers) {
+            for (HelperTableParser parser : parsers) {
+                _nanos.put(parser.getName(), new AtomicLong());
+            }
+        }
+
+        public void record(String parserName, long nanos) {
+            _nanos.get(parserName).addAndGet(nanos);
+        }
+
+        public long getMillis(String parserName) {
+            return TimeUnit.NANOSECONDS.toMillis(_nanos.get(parserName).get());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, AtomicLong> entry : _nanos.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(entry.getKey()).append('=').append(TimeUnit.NANOSECONDS.toMillis(entry.getValue().get()));
+            }
+            return sb.toString();
+        }
+    }
 }
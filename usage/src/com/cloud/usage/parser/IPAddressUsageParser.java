@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageIPAddressVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageIPAddressDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
@@ -41,21 +41,17 @@ import com.cloud.utils.Pair;
 public class IPAddressUsageParser {
     public static final Logger s_logger = Logger.getLogger(IPAddressUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageIPAddressDao s_usageIPAddressDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageIPAddressDao _usageIPAddressDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageIPAddressDao = _usageIPAddressDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing IP Address usage for account: " + account.getId());
         }
@@ -75,6 +71,8 @@ public class IPAddressUsageParser {
             return true;
         }
 
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+
         // This map has both the running time *and* the usage amount.
         Map<String, Pair<Long, Long>> usageMap = new HashMap<String, Pair<Long, Long>>();
 
@@ -118,10 +116,11 @@ public class IPAddressUsageParser {
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (useTime > 0L) {
                 IpInfo info = IPMap.get(ipIdKey);
-                createUsageRecord(info.getZoneId(), useTime, startDate, endDate, account, info.getIpId(), info.getIPAddress(), info.isSourceNat(), info.isSystem);
+                createUsageRecord(usageRecords, info.getZoneId(), useTime, startDate, endDate, account, info.getIpId(), info.getIPAddress(), info.isSourceNat(), info.isSystem);
             }
         }
 
+        writer.saveUsageRecords(usageRecords);
         return true;
     }
 
@@ -137,7 +136,7 @@ public class IPAddressUsageParser {
         usageDataMap.put(key, ipUsageInfo);
     }
 
-    private static void createUsageRecord(long zoneId, long runningTime, Date startDate, Date endDate, AccountVO account, long ipId, String ipAddress,
+    private static void createUsageRecord(List<UsageVO> usageRecords, long zoneId, long runningTime, Date startDate, Date endDate, AccountVO account, long ipId, String ipAddress,
         boolean isSourceNat, boolean isSystem) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total usage time " + runningTime + "ms");
@@ -160,7 +159,7 @@ public class IPAddressUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getAccountId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", UsageTypes.IP_ADDRESS, new Double(usage), ipId,
                 (isSystem ? 1 : 0), (isSourceNat ? "SourceNat" : ""), startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        usageRecords.add(usageRecord);
     }
 
     private static class IpInfo {
@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageNetworkOfferingVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageNetworkOfferingDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
@@ -41,21 +41,17 @@ import com.cloud.utils.Pair;
 public class NetworkOfferingUsageParser {
     public static final Logger s_logger = Logger.getLogger(NetworkOfferingUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageNetworkOfferingDao s_usageNetworkOfferingDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageNetworkOfferingDao _usageNetworkOfferingDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageNetworkOfferingDao = _usageNetworkOfferingDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all NetworkOffering usage events for account: " + account.getId());
         }
@@ -75,6 +71,8 @@ public class NetworkOfferingUsageParser {
             return true;
         }
 
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+
         // This map has both the running time *and* the usage amount.
         Map<String, Pair<Long, Long>> usageMap = new HashMap<String, Pair<Long, Long>>();
         Map<String, NOInfo> noMap = new HashMap<String, NOInfo>();
@@ -116,10 +114,11 @@ public class NetworkOfferingUsageParser {
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (useTime > 0L) {
                 NOInfo info = noMap.get(noIdKey);
-                createUsageRecord(UsageTypes.NETWORK_OFFERING, useTime, startDate, endDate, account, info.getVmId(), info.getNOId(), info.getZoneId(), info.isDefault());
+                createUsageRecord(usageRecords, UsageTypes.NETWORK_OFFERING, useTime, startDate, endDate, account, info.getVmId(), info.getNOId(), info.getZoneId(), info.isDefault());
             }
         }
 
+        writer.saveUsageRecords(usageRecords);
         return true;
     }
 
@@ -135,7 +134,7 @@ public class NetworkOfferingUsageParser {
         usageDataMap.put(key, noUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long noId, long zoneId,
+    private static void createUsageRecord(List<UsageVO> usageRecords, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long noId, long zoneId,
         boolean isDefault) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
@@ -159,7 +158,7 @@ public class NetworkOfferingUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, noId, null, defaultNic,
                 null, startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        usageRecords.add(usageRecord);
     }
 
     private static class NOInfo {
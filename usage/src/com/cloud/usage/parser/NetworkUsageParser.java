@@ -32,7 +32,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageNetworkVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageNetworkDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.db.SearchCriteria;
@@ -41,21 +40,17 @@ import com.cloud.utils.db.SearchCriteria;
 public class NetworkUsageParser {
     public static final Logger s_logger = Logger.getLogger(NetworkUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageNetworkDao s_usageNetworkDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageNetworkDao _usageNetworkDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageNetworkDao = _usageNetworkDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all Network usage events for account: " + account.getId());
         }
@@ -136,7 +131,7 @@ public class NetworkUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        writer.saveUsageRecords(usageRecords);
 
         return true;
     }
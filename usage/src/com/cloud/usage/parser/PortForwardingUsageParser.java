@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsagePortForwardingRuleVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsagePortForwardingRuleDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
@@ -41,21 +41,17 @@ import com.cloud.utils.Pair;
 public class PortForwardingUsageParser {
     public static final Logger s_logger = Logger.getLogger(PortForwardingUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsagePortForwardingRuleDao s_usagePFRuleDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsagePortForwardingRuleDao _usagePFRuleDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usagePFRuleDao = _usagePFRuleDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all PortForwardingRule usage events for account: " + account.getId());
         }
@@ -75,6 +71,8 @@ public class PortForwardingUsageParser {
             return true;
         }
 
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+
         // This map has both the running time *and* the usage amount.
         Map<String, Pair<Long, Long>> usageMap = new HashMap<String, Pair<Long, Long>>();
         Map<String, PFInfo> pfMap = new HashMap<String, PFInfo>();
@@ -115,10 +113,11 @@ public class PortForwardingUsageParser {
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (useTime > 0L) {
                 PFInfo info = pfMap.get(pfIdKey);
-                createUsageRecord(UsageTypes.PORT_FORWARDING_RULE, useTime, startDate, endDate, account, info.getId(), info.getZoneId());
+                createUsageRecord(usageRecords, UsageTypes.PORT_FORWARDING_RULE, useTime, startDate, endDate, account, info.getId(), info.getZoneId());
             }
         }
 
+        writer.saveUsageRecords(usageRecords);
         return true;
     }
 
@@ -134,7 +133,7 @@ public class PortForwardingUsageParser {
         usageDataMap.put(key, pfUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long pfId, long zoneId) {
+    private static void createUsageRecord(List<UsageVO> usageRecords, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long pfId, long zoneId) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -157,7 +156,7 @@ public class PortForwardingUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), null, null, null, null, pfId, null,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        usageRecords.add(usageRecord);
     }
 
     private static class PFInfo {
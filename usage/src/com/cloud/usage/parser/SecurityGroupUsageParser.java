@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageSecurityGroupVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageSecurityGroupDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.Pair;
@@ -41,21 +41,17 @@ import com.cloud.utils.Pair;
 public class SecurityGroupUsageParser {
     public static final Logger s_logger = Logger.getLogger(SecurityGroupUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageSecurityGroupDao s_usageSecurityGroupDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageSecurityGroupDao _usageSecurityGroupDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageSecurityGroupDao = _usageSecurityGroupDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all SecurityGroup usage events for account: " + account.getId());
         }
@@ -75,6 +71,8 @@ public class SecurityGroupUsageParser {
             return true;
         }
 
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+
         // This map has both the running time *and* the usage amount.
         Map<String, Pair<Long, Long>> usageMap = new HashMap<String, Pair<Long, Long>>();
         Map<String, SGInfo> sgMap = new HashMap<String, SGInfo>();
@@ -116,10 +114,11 @@ public class SecurityGroupUsageParser {
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (useTime > 0L) {
                 SGInfo info = sgMap.get(sgIdKey);
-                createUsageRecord(UsageTypes.SECURITY_GROUP, useTime, startDate, endDate, account, info.getVmId(), info.getSGId(), info.getZoneId());
+                createUsageRecord(usageRecords, UsageTypes.SECURITY_GROUP, useTime, startDate, endDate, account, info.getVmId(), info.getSGId(), info.getZoneId());
             }
         }
 
+        writer.saveUsageRecords(usageRecords);
         return true;
     }
 
@@ -135,7 +134,7 @@ public class SecurityGroupUsageParser {
         usageDataMap.put(key, sgUsageInfo);
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long sgId, long zoneId) {
+    private static void createUsageRecord(List<UsageVO> usageRecords, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, long sgId, long zoneId) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Total running time " + runningTime + "ms");
@@ -157,7 +156,7 @@ public class SecurityGroupUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, null, null, sgId, null,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        usageRecords.add(usageRecord);
     }
 
     private static class SGInfo {
@@ -0,0 +1,34 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage.parser;
+
+import java.util.List;
+
+import com.cloud.usage.UsageStorageVO;
+import com.cloud.usage.UsageVMSnapshotVO;
+import com.cloud.usage.UsageVO;
+
+/**
+ * Takes the writes of the usage parsers: the usage records of an account and the updates of the helper tables.
+ */
+public interface UsageWriter {
+    void saveUsageRecords(List<UsageVO> usageRecords);
+
+    void updateVMSnapshot(UsageVMSnapshotVO usageVMSnapshot);
+
+    void updateStorage(UsageStorageVO usageStorage);
+}
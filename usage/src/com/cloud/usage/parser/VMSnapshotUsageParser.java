@@ -17,6 +17,7 @@
 package com.cloud.usage.parser;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -32,7 +33,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageVMSnapshotVO;
 import com.cloud.usage.UsageVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageVMSnapshotDao;
 import com.cloud.user.AccountVO;
 
@@ -40,21 +40,17 @@ import com.cloud.user.AccountVO;
 public class VMSnapshotUsageParser {
     public static final Logger s_logger = Logger.getLogger(VMSnapshotUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageVMSnapshotDao s_usageVMSnapshotDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageVMSnapshotDao _usageVMSnapshotDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageVMSnapshotDao = _usageVMSnapshotDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all VmSnapshot volume usage events for account: " + account.getId());
         }
@@ -69,6 +65,8 @@ public class VMSnapshotUsageParser {
             return true;
         }
 
+        List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+
         Map<String, UsageVMSnapshotVO> unprocessedUsage = new HashMap<String, UsageVMSnapshotVO>();
         for (UsageVMSnapshotVO usageRec : usageUsageVMSnapshots) {
             long zoneId = usageRec.getZoneId();
@@ -93,14 +91,14 @@ public class VMSnapshotUsageParser {
             Date createDate = usageRec.getCreated();
             long duration = (createDate.getTime() - previousCreated.getTime()) + 1;
 
-            createUsageRecord(UsageTypes.VM_SNAPSHOT, duration, previousCreated, createDate, account, volId, zoneId, previousEvent.getDiskOfferingId(), vmId,
+            createUsageRecord(usageRecords, UsageTypes.VM_SNAPSHOT, duration, previousCreated, createDate, account, volId, zoneId, previousEvent.getDiskOfferingId(), vmId,
                 previousEvent.getSize());
             previousEvent.setProcessed(new Date());
-            s_usageVMSnapshotDao.update(previousEvent);
+            writer.updateVMSnapshot(previousEvent);
 
             if (usageRec.getSize() == 0) {
                 usageRec.setProcessed(new Date());
-                s_usageVMSnapshotDao.update(usageRec);
+                writer.updateVMSnapshot(usageRec);
             } else
                 unprocessedUsage.put(key, usageRec);
         }
@@ -112,14 +110,15 @@ public class VMSnapshotUsageParser {
                 created = startDate;
             }
             long duration = (endDate.getTime() - created.getTime()) + 1;
-            createUsageRecord(UsageTypes.VM_SNAPSHOT, duration, created, endDate, account, usageRec.getId(), usageRec.getZoneId(), usageRec.getDiskOfferingId(),
+            createUsageRecord(usageRecords, UsageTypes.VM_SNAPSHOT, duration, created, endDate, account, usageRec.getId(), usageRec.getZoneId(), usageRec.getDiskOfferingId(),
                 usageRec.getVmId(), usageRec.getSize());
         }
 
+        writer.saveUsageRecords(usageRecords);
         return true;
     }
 
-    private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long volId, long zoneId, Long doId, Long vmId,
+    private static void createUsageRecord(List<UsageVO> usageRecords, int type, long runningTime, Date startDate, Date endDate, AccountVO account, long volId, long zoneId, Long doId, Long vmId,
         long size) {
         // Our smallest increment is hourly for now
         if (s_logger.isDebugEnabled()) {
@@ -148,7 +147,7 @@ public class VMSnapshotUsageParser {
         UsageVO usageRecord =
             new UsageVO(zoneId, account.getId(), account.getDomainId(), usageDesc, usageDisplay + " Hrs", type, new Double(usage), vmId, null, doId, null, volId, size,
                 startDate, endDate);
-        s_usageDao.persist(usageRecord);
+        usageRecords.add(usageRecord);
     }
 
 }
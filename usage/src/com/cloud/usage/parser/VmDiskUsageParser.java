@@ -32,7 +32,6 @@ import org.apache.cloudstack.usage.UsageTypes;
 
 import com.cloud.usage.UsageVO;
 import com.cloud.usage.UsageVmDiskVO;
-import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageVmDiskDao;
 import com.cloud.user.AccountVO;
 import com.cloud.utils.db.SearchCriteria;
@@ -41,21 +40,17 @@ import com.cloud.utils.db.SearchCriteria;
 public class VmDiskUsageParser {
     public static final Logger s_logger = Logger.getLogger(VmDiskUsageParser.class.getName());
 
-    private static UsageDao s_usageDao;
     private static UsageVmDiskDao s_usageVmDiskDao;
 
-    @Inject
-    private UsageDao _usageDao;
     @Inject
     private UsageVmDiskDao _usageVmDiskDao;
 
     @PostConstruct
     void init() {
-        s_usageDao = _usageDao;
         s_usageVmDiskDao = _usageVmDiskDao;
     }
 
-    public static boolean parse(AccountVO account, Date startDate, Date endDate) {
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Parsing all Vm Disk usage events for account: " + account.getId());
         }
@@ -164,7 +159,7 @@ public class VmDiskUsageParser {
             }
         }
 
-        s_usageDao.saveUsageRecords(usageRecords);
+        writer.saveUsageRecords(usageRecords);
 
         return true;
     }
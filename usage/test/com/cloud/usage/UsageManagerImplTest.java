@@ -0,0 +1,331 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.usage.UsageTypes;
+
+import com.cloud.usage.UsageManagerImpl.HelperTableParser;
+import com.cloud.usage.UsageManagerImpl.UsageParserTimings;
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.usage.dao.UsageIPAddressDao;
+import com.cloud.usage.dao.UsageStorageDao;
+import com.cloud.usage.dao.UsageVMSnapshotDao;
+import com.cloud.usage.parser.IPAddressUsageParser;
+import com.cloud.usage.parser.UsageWriter;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.TransactionLegacy;
+
+public class UsageManagerImplTest {
+
+    private static final int ACTIVE_ACCOUNTS = 1000;
+    private static final int DELETED_ACCOUNTS = 37;
+
+    private final ConcurrentLinkedQueue<String> _records = new ConcurrentLinkedQueue<String>();
+    private final ConcurrentLinkedQueue<Thread> _savingThreads = new ConcurrentLinkedQueue<Thread>();
+    private final ConcurrentLinkedQueue<String> _vmSnapshotUpdates = new ConcurrentLinkedQueue<String>();
+    private List<HelperTableParser> _parsers;
+    private List<AccountVO> _activeAccounts;
+    private List<AccountVO> _deletedAccounts;
+    private List<Pair<Date, Date>> _ranges;
+    private UsageDao _usageDao;
+    private UsageVMSnapshotDao _usageVMSnapshotDao;
+    private Thread _jobThread;
+    private long _failingAccountId = -1;
+
+    @Before
+    public void setUp() {
+        _jobThread = Thread.currentThread();
+        _parsers = new ArrayList<HelperTableParser>();
+        _parsers.add(new RecordingParser("VMInstance", 3));
+        _parsers.add(new RecordingParser("Volume", 5));
+        _parsers.add(new RecordingParser("IPAddress", 7));
+
+        _activeAccounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= ACTIVE_ACCOUNTS; id++) {
+            _activeAccounts.add(new AccountVO(id));
+        }
+        _deletedAccounts = new ArrayList<AccountVO>();
+        for (long id = ACTIVE_ACCOUNTS + 1; id <= ACTIVE_ACCOUNTS + DELETED_ACCOUNTS; id++) {
+            _deletedAccounts.add(new AccountVO(id));
+        }
+
+        long hour = 60 * 60 * 1000L;
+        long start = 1460000000000L;
+        _ranges = new ArrayList<Pair<Date, Date>>();
+        for (int i = 0; i < 3; i++) {
+            _ranges.add(new Pair<Date, Date>(new Date(start + i * hour), new Date(start + (i + 1) * hour - 1)));
+        }
+
+        _usageDao = Mockito.mock(UsageDao.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                _savingThreads.add(Thread.currentThread());
+                for (Object record : (List<?>)invocation.getArguments()[0]) {
+                    UsageVO usage = (UsageVO)record;
+                    _records.add(usage.getAccountId() + ":" + usage.getUsageId() + ":" + usage.getUsageType() + ":" + usage.getRawUsage() + ":" +
+                            usage.getStartDate().getTime() + "-" + usage.getEndDate().getTime() + ":" + usage.getDescription());
+                }
+                return null;
+            }
+        }).when(_usageDao).saveUsageRecords(Mockito.anyListOf(UsageVO.class));
+
+        _usageVMSnapshotDao = Mockito.mock(UsageVMSnapshotDao.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                UsageVMSnapshotVO usageVMSnapshot = (UsageVMSnapshotVO)invocation.getArguments()[0];
+                if (Thread.currentThread() == _jobThread) {
+                    _vmSnapshotUpdates.add("job:" + usageVMSnapshot.getId());
+                    return null;
+                }
+                TransactionLegacy txn = TransactionLegacy.currentTxn();
+                _vmSnapshotUpdates.add("partition-" + txn.dbTxnStarted() + ":" + usageVMSnapshot.getId());
+                if (usageVMSnapshot.getAccountId() == _failingAccountId) {
+                    // the DAO rolls back the transaction when the update fails and only logs the failure
+                    txn.rollback();
+                }
+                return null;
+            }
+        }).when(_usageVMSnapshotDao).update(Mockito.any(UsageVMSnapshotVO.class));
+    }
+
+    @Test
+    public void testParallelParsingMatchesSerialParsing() throws Exception {
+        UsageParserTimings serialTimings = new UsageParserTimings(_parsers);
+        assertTrue(createUsageManager(1).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, serialTimings));
+        List<String> serialRecords = drainRecords();
+
+        UsageParserTimings parallelTimings = new UsageParserTimings(_parsers);
+        assertTrue(createUsageManager(8).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, parallelTimings));
+        List<String> parallelRecords = drainRecords();
+
+        assertFalse(serialRecords.isEmpty());
+        assertEquals(serialRecords.size(), new HashSet<String>(serialRecords).size());
+        assertEquals(serialRecords, parallelRecords);
+        for (HelperTableParser parser : _parsers) {
+            assertTrue(serialTimings.toString().contains(parser.getName() + "="));
+            assertTrue(parallelTimings.toString().contains(parser.getName() + "="));
+        }
+        // the partitions only stage their usage records, the job saves them in its own transaction
+        for (Thread thread : _savingThreads) {
+            assertEquals(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void testParallelIPAddressParsingMatchesSerialParsing() throws Exception {
+        final long start = _ranges.get(0).first().getTime();
+        UsageIPAddressDao usageIPAddressDao = Mockito.mock(UsageIPAddressDao.class);
+        Mockito.when(usageIPAddressDao.getUsageRecords(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(Date.class), Mockito.any(Date.class))).thenAnswer(
+                new Answer<List<UsageIPAddressVO>>() {
+                    @Override
+                    public List<UsageIPAddressVO> answer(InvocationOnMock invocation) {
+                        long accountId = (Long)invocation.getArguments()[0];
+                        List<UsageIPAddressVO> ips = new ArrayList<UsageIPAddressVO>();
+                        for (int i = 0; i < accountId % 3; i++) {
+                            Date assigned = new Date(start - 1800000L + i * 2400000L);
+                            Date released = i == 1 ? new Date(start + 5400000L) : null;
+                            ips.add(new UsageIPAddressVO(accountId * 10 + i, accountId, 1L, 1L, "10.1." + accountId % 256 + "." + i, i == 0, false, assigned, released));
+                        }
+                        return ips;
+                    }
+                });
+
+        IPAddressUsageParser ipAddressParser = new IPAddressUsageParser();
+        setField(IPAddressUsageParser.class, ipAddressParser, "_usageIPAddressDao", usageIPAddressDao);
+        Method init = IPAddressUsageParser.class.getDeclaredMethod("init");
+        init.setAccessible(true);
+        init.invoke(ipAddressParser);
+
+        _parsers.clear();
+        _parsers.add(getHelperTableParser("IPAddress"));
+
+        assertTrue(createUsageManager(1).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, new UsageParserTimings(_parsers)));
+        List<String> serialRecords = drainRecords();
+        assertTrue(createUsageManager(8).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, new UsageParserTimings(_parsers)));
+        List<String> parallelRecords = drainRecords();
+
+        assertFalse(serialRecords.isEmpty());
+        assertEquals(serialRecords.size(), new HashSet<String>(serialRecords).size());
+        assertEquals(serialRecords, parallelRecords);
+    }
+
+    @Test
+    public void testHelperTableUpdatesAreMadeInThePartitionAndInTheJob() throws Exception {
+        _parsers.add(new VMSnapshotUpdatingParser());
+
+        assertTrue(createUsageManager(4).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, new UsageParserTimings(_parsers)));
+
+        int accounts = ACTIVE_ACCOUNTS + DELETED_ACCOUNTS;
+        Set<String> partitionUpdates = new HashSet<String>();
+        Set<String> jobUpdates = new HashSet<String>();
+        for (String update : _vmSnapshotUpdates) {
+            if (update.startsWith("job:")) {
+                jobUpdates.add(update.substring(update.indexOf(':') + 1));
+            } else {
+                // the partition reads its own updates back in the later aggregation ranges, so it makes them in its transaction
+                assertTrue(update, update.startsWith("partition-true:"));
+                partitionUpdates.add(update.substring(update.indexOf(':') + 1));
+            }
+        }
+        assertEquals(accounts, partitionUpdates.size());
+        assertEquals(partitionUpdates, jobUpdates);
+        assertEquals(2 * accounts * _ranges.size(), _vmSnapshotUpdates.size());
+    }
+
+    @Test
+    public void testFailedPartitionFailsTheParse() throws Exception {
+        _parsers.add(new HelperTableParser("Failing") {
+            @Override
+            public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+                if (account.getId() == 42) {
+                    throw new RuntimeException("parser failure");
+                }
+                return true;
+            }
+        });
+
+        assertFalse(createUsageManager(4).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, new UsageParserTimings(_parsers)));
+        // none of the partitions has written anything
+        Mockito.verify(_usageDao, Mockito.never()).saveUsageRecords(Mockito.anyListOf(UsageVO.class));
+        assertTrue(_records.isEmpty());
+    }
+
+    @Test
+    public void testRolledBackPartitionFailsTheParse() throws Exception {
+        _parsers.add(new VMSnapshotUpdatingParser());
+        _failingAccountId = 42;
+
+        assertFalse(createUsageManager(4).parseAccounts(_activeAccounts, _deletedAccounts, _ranges, new UsageParserTimings(_parsers)));
+        Mockito.verify(_usageDao, Mockito.never()).saveUsageRecords(Mockito.anyListOf(UsageVO.class));
+        for (String update : _vmSnapshotUpdates) {
+            assertFalse(update, update.startsWith("job:"));
+        }
+    }
+
+    @Test
+    public void testPartitionAccounts() {
+        List<List<AccountVO>> active = UsageManagerImpl.partitionAccounts(_activeAccounts.subList(0, 5), 8, 0);
+        List<List<AccountVO>> deleted = UsageManagerImpl.partitionAccounts(_deletedAccounts.subList(0, 3), 8, 5);
+
+        Set<Long> assigned = new HashSet<Long>();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(1, active.get(i).size() + deleted.get(i).size());
+            for (AccountVO account : active.get(i)) {
+                assertTrue(assigned.add(account.getId()));
+            }
+            for (AccountVO account : deleted.get(i)) {
+                assertTrue(assigned.add(account.getId()));
+            }
+        }
+        assertEquals(8, assigned.size());
+    }
+
+    private UsageManagerImpl createUsageManager(int parseWorkers) throws Exception {
+        UsageManagerImpl usageManager = new UsageManagerImpl();
+        setField(UsageManagerImpl.class, usageManager, "_parseWorkers", parseWorkers);
+        setField(UsageManagerImpl.class, usageManager, "_parseExecutor", Executors.newCachedThreadPool(new NamedThreadFactory("Usage-Parser-Test")));
+        setField(UsageManagerImpl.class, usageManager, "_helperTableParsers", _parsers);
+        setField(UsageManagerImpl.class, usageManager, "_usageDao", _usageDao);
+        setField(UsageManagerImpl.class, usageManager, "_usageVMSnapshotDao", _usageVMSnapshotDao);
+        setField(UsageManagerImpl.class, usageManager, "_usageStorageDao", Mockito.mock(UsageStorageDao.class));
+        return usageManager;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HelperTableParser getHelperTableParser(String name) throws Exception {
+        Field field = UsageManagerImpl.class.getDeclaredField("_helperTableParsers");
+        field.setAccessible(true);
+        for (HelperTableParser parser : (List<HelperTableParser>)field.get(new UsageManagerImpl())) {
+            if (parser.getName().equals(name)) {
+                return parser;
+            }
+        }
+        throw new IllegalArgumentException("No helper table parser " + name);
+    }
+
+    private List<String> drainRecords() {
+        List<String> records = new ArrayList<String>(_records);
+        _records.clear();
+        Collections.sort(records);
+        return records;
+    }
+
+    private static void setField(Class<?> clazz, Object target, String name, Object value) throws Exception {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static class RecordingParser extends HelperTableParser {
+        private final int _recordsPerAccount;
+
+        RecordingParser(String name, int recordsPerAccount) {
+            super(name);
+            _recordsPerAccount = recordsPerAccount;
+        }
+
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+            List<UsageVO> usageRecords = new ArrayList<UsageVO>();
+            for (int i = 0; i < account.getId() % _recordsPerAccount; i++) {
+                usageRecords.add(new UsageVO(1L, account.getId(), 1L, getName() + ":" + i, "", UsageTypes.RUNNING_VM, 1.0, null, null, null, startDate, endDate));
+            }
+            writer.saveUsageRecords(usageRecords);
+            return true;
+        }
+    }
+
+    /**
+     * Marks a vm snapshot of every account processed.
+     */
+    private static class VMSnapshotUpdatingParser extends HelperTableParser {
+        VMSnapshotUpdatingParser() {
+            super("VMSnapshot");
+        }
+
+        @Override
+        public boolean parse(AccountVO account, Date startDate, Date endDate, UsageWriter writer) {
+            writer.updateVMSnapshot(new UsageVMSnapshotVO(account.getId() * 10, 1L, account.getId(), 1L, account.getId(), null, 1L, startDate, endDate));
+            return true;
+        }
+    }
+}
@@ -97,17 +97,17 @@ public class UsageManagerTest extends TestCase {
     public void testParsers() throws ConfigurationException {
         AccountVO account = new AccountVO();
         account.setId(2L);
-        VMInstanceUsageParser.parse(account, startDate, endDate);
-        IPAddressUsageParser.parse(account, startDate, endDate);
-        LoadBalancerUsageParser.parse(account, startDate, endDate);
-        NetworkOfferingUsageParser.parse(account, startDate, endDate);
-        NetworkUsageParser.parse(account, startDate, endDate);
-        VmDiskUsageParser.parse(account, startDate, endDate);
-        PortForwardingUsageParser.parse(account, startDate, endDate);
-        SecurityGroupUsageParser.parse(account, startDate, endDate);
-        StorageUsageParser.parse(account, startDate, endDate);
-        VolumeUsageParser.parse(account, startDate, endDate);
-        VPNUserUsageParser.parse(account, startDate, endDate);
+        VMInstanceUsageParser.parse(account, startDate, endDate, _usageMgr);
+        IPAddressUsageParser.parse(account, startDate, endDate, _usageMgr);
+        LoadBalancerUsageParser.parse(account, startDate, endDate, _usageMgr);
+        NetworkOfferingUsageParser.parse(account, startDate, endDate, _usageMgr);
+        NetworkUsageParser.parse(account, startDate, endDate, _usageMgr);
+        VmDiskUsageParser.parse(account, startDate, endDate, _usageMgr);
+        PortForwardingUsageParser.parse(account, startDate, endDate, _usageMgr);
+        SecurityGroupUsageParser.parse(account, startDate, endDate, _usageMgr);
+        StorageUsageParser.parse(account, startDate, endDate, _usageMgr);
+        VolumeUsageParser.parse(account, startDate, endDate, _usageMgr);
+        VPNUserUsageParser.parse(account, startDate, endDate, _usageMgr);
     }
 
 }
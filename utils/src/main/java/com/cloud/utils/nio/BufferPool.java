@@ -0,0 +1,127 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers for the SSL records written to and read from the agent links.
+ *
+ * Buffers are handed out in power of two sizes between the minimum and maximum size, each size keeping at most a
+ * fixed number of idle buffers. Larger requests get a heap buffer that is not pooled. Direct buffers are used
+ * because the socket channels copy heap buffers into a temporary direct buffer on every read and write.
+ */
+public class BufferPool {
+    private final int _minShift;
+    private final int _maxShift;
+    private final int _maxIdlePerSize;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] _idle;
+    private final AtomicInteger[] _idleCounts;
+
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _allocatedBytes = new AtomicLong();
+    private final AtomicLong _reuses = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(final int minSize, final int maxSize, final int maxIdlePerSize) {
+        _minShift = shift(minSize);
+        _maxShift = shift(maxSize);
+        _maxIdlePerSize = maxIdlePerSize;
+        _idle = new ConcurrentLinkedQueue[_maxShift - _minShift + 1];
+        _idleCounts = new AtomicInteger[_idle.length];
+        for (int i = 0; i < _idle.length; i++) {
+            _idle[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            _idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private static int shift(final int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * @return a cleared buffer with at least the given capacity, to be given back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire(final int size) {
+        final int shift = Math.max(shift(size), _minShift);
+        if (shift > _maxShift) {
+            _allocations.incrementAndGet();
+            _allocatedBytes.addAndGet(size);
+            return ByteBuffer.allocate(size);
+        }
+
+        final int index = shift - _minShift;
+        final ByteBuffer buffer = _idle[index].poll();
+        if (buffer != null) {
+            _idleCounts[index].decrementAndGet();
+            _reuses.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        _allocations.incrementAndGet();
+        _allocatedBytes.addAndGet(1 << shift);
+        return ByteBuffer.allocateDirect(1 << shift);
+    }
+
+    /**
+     * Gives a buffer back to the pool. Buffers that were not handed out by {@link #acquire(int)} are ignored.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        final int capacity = buffer.capacity();
+        final int shift = shift(capacity);
+        if (1 << shift != capacity || shift < _minShift || shift > _maxShift) {
+            return;
+        }
+
+        final int index = shift - _minShift;
+        if (_idleCounts[index].incrementAndGet() > _maxIdlePerSize) {
+            _idleCounts[index].decrementAndGet();
+            return;
+        }
+        _idle[index].add(buffer);
+    }
+
+    public long getAllocations() {
+        return _allocations.get();
+    }
+
+    public long getAllocatedBytes() {
+        return _allocatedBytes.get();
+    }
+
+    public long getReuses() {
+        return _reuses.get();
+    }
+
+    public int getIdleBuffers() {
+        int idle = 0;
+        for (final AtomicInteger count : _idleCounts) {
+            idle += count.get();
+        }
+        return idle;
+    }
+}
@@ -45,18 +45,33 @@ import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  */
 public class Link {
     private static final Logger s_logger = Logger.getLogger(Link.class);
 
+    /* SSL records are wrapped into buffers from this pool, they are around 16k */
+    private static final BufferPool s_bufferPool = new BufferPool(4096, 65536, 256);
+    /* Plain text buffers above this size are not kept for the next message */
+    private static final int MAX_RETAINED_PLAINTEXT_SIZE = 1024 * 1024;
+    /* Queued instead of data to close the connection once everything before it is written */
+    private static final ByteBuffer[] CLOSE_REQUEST = new ByteBuffer[0];
+
     private final InetSocketAddress _addr;
     private final NioConnection _connection;
     private SelectionKey _key;
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
+    private ByteBuffer _appBuffer;
+    private final AtomicLong _allocations = new AtomicLong();
+    private final AtomicLong _allocatedBytes = new AtomicLong();
+    private final AtomicInteger _pendingTasks = new AtomicInteger();
+    private final AtomicBoolean _readPaused = new AtomicBoolean();
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
@@ -67,7 +82,7 @@ public class Link {
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
+        _readBuffer = allocate(2048);
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
@@ -142,55 +157,47 @@ public class Link {
 
     private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
-        SSLEngineResult engResult;
-
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
-
-        int totalLen = 0;
-        for (ByteBuffer buffer : buffers) {
-            totalLen += buffer.limit();
-        }
-
-        int processedLen = 0;
-        while (processedLen < totalLen) {
-            headBuf.clear();
-            pkgBuf.clear();
-            engResult = sslEngine.wrap(buffers, pkgBuf);
-            if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
-                    engResult.getStatus() != SSLEngineResult.Status.OK) {
-                throw new IOException("SSL: SSLEngine return bad result! " + engResult);
-            }
+        // the header goes in front of the SSL record in the same buffer, so both are written at once
+        ByteBuffer pkgBuf = s_bufferPool.acquire(4 + sslSession.getPacketBufferSize() + 40);
+        try {
+            SSLEngineResult engResult;
 
-            processedLen = 0;
+            int totalLen = 0;
             for (ByteBuffer buffer : buffers) {
-                processedLen += buffer.position();
+                totalLen += buffer.limit();
             }
 
-            int dataRemaining = pkgBuf.position();
-            int header = dataRemaining;
-            int headRemaining = 4;
-            pkgBuf.flip();
-            if (processedLen < totalLen) {
-                header = header | HEADER_FLAG_FOLLOWING;
-            }
-            headBuf.putInt(header);
-            headBuf.flip();
+            int processedLen = 0;
+            while (processedLen < totalLen) {
+                pkgBuf.clear();
+                pkgBuf.position(4);
+                engResult = sslEngine.wrap(buffers, pkgBuf);
+                if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
+                        engResult.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new IOException("SSL: SSLEngine return bad result! " + engResult);
+                }
 
-            while (headRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                processedLen = 0;
+                for (ByteBuffer buffer : buffers) {
+                    processedLen += buffer.position();
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
+
+                int header = pkgBuf.position() - 4;
+                if (processedLen < totalLen) {
+                    header = header | HEADER_FLAG_FOLLOWING;
+                }
+                pkgBuf.putInt(0, header);
+                pkgBuf.flip();
+
+                while (pkgBuf.hasRemaining()) {
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("Writing " + pkgBuf.remaining());
+                    }
+                    ch.write(pkgBuf);
                 }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
             }
+        } finally {
+            s_bufferPool.release(pkgBuf);
         }
     }
 
@@ -239,7 +246,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null) {
+                    _plaintextBuffer = allocate(2000);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -255,7 +266,7 @@ public class Link {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
                 }
-                _readBuffer = ByteBuffer.allocate(readSize);
+                _readBuffer = allocate(readSize);
             }
             _readBuffer.limit(readSize);
         }
@@ -273,15 +284,19 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
+        final int appBufferSize = sslSession.getApplicationBufferSize() + 40;
+        if (_appBuffer == null || _appBuffer.capacity() < appBufferSize) {
+            _appBuffer = allocate(appBufferSize);
+        }
+        final ByteBuffer appBuf = _appBuffer;
+
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
+            appBuf.clear();
             engResult = _sslEngine.unwrap(_readBuffer, appBuf);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
@@ -294,7 +309,7 @@ public class Link {
             appBuf.flip();
             if (_plaintextBuffer.remaining() < appBuf.limit()) {
                 // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
+                ByteBuffer newBuffer = allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBuf.limit()));
                 _plaintextBuffer.flip();
                 newBuffer.put(_plaintextBuffer);
                 _plaintextBuffer = newBuffer;
@@ -312,6 +327,9 @@ public class Link {
             _plaintextBuffer.flip();
             byte[] result = new byte[_plaintextBuffer.limit()];
             _plaintextBuffer.get(result);
+            if (_plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                _plaintextBuffer = null;
+            }
             return result;
         } else {
             if (s_logger.isTraceEnabled()) {
@@ -330,24 +348,17 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_REQUEST);
         }
         synchronized (this) {
             if (_key == null) {
@@ -370,21 +381,39 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_REQUEST) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            doWrite(ch, data, _sslEngine);
         }
         return false;
     }
 
+    private ByteBuffer allocate(int size) {
+        _allocations.incrementAndGet();
+        _allocatedBytes.addAndGet(size);
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @return number of buffers this link allocated for reading, SSL records written come from a shared {@link BufferPool}.
+     */
+    public long getAllocations() {
+        return _allocations.get();
+    }
+
+    public long getAllocatedBytes() {
+        return _allocatedBytes.get();
+    }
+
+    public static BufferPool getBufferPool() {
+        return s_bufferPool;
+    }
+
     public InetSocketAddress getSocketAddress() {
         return _addr;
     }
@@ -397,6 +426,42 @@ public class Link {
         _key = null;
     }
 
+    int incrementPendingTasks() {
+        return _pendingTasks.incrementAndGet();
+    }
+
+    int decrementPendingTasks() {
+        return _pendingTasks.decrementAndGet();
+    }
+
+    /**
+     * @return ordered tasks of this link dispatched but not finished yet.
+     */
+    public int getPendingTasks() {
+        return _pendingTasks.get();
+    }
+
+    public boolean isReadPaused() {
+        return _readPaused.get();
+    }
+
+    void pauseReading() {
+        _readPaused.set(true);
+    }
+
+    /**
+     * Asks the connection to read from this link again, if reading was paused because of its backlog.
+     */
+    public void resumeReading() {
+        if (_readPaused.compareAndSet(true, false)) {
+            synchronized (this) {
+                if (_key != null) {
+                    _connection.resumeReading(_key);
+                }
+            }
+        }
+    }
+
     public synchronized void schedule(Task task) throws ClosedChannelException {
         if (_key == null) {
             throw new ClosedChannelException();
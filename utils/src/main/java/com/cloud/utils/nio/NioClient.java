@@ -84,7 +84,7 @@ public class NioClient extends NioConnection {
             _selector.close();
             throw e;
         }
-        _executor.submit(task);
+        _dispatcher.dispatch(task);
     }
 
     @Override
@@ -45,9 +45,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import static com.cloud.utils.AutoCloseableUtil.closeAutoCloseable;
 
@@ -58,6 +55,9 @@ import static com.cloud.utils.AutoCloseableUtil.closeAutoCloseable;
 public abstract class NioConnection implements Callable<Boolean> {
     private static final Logger s_logger = Logger.getLogger(NioConnection.class);;
 
+    /* Ordered tasks queued for a link before reading from it pauses */
+    public static final int DEFAULT_MAX_PENDING_TASKS_PER_LINK = 1000;
+
     protected Selector _selector;
     protected ExecutorService _threadExecutor;
     protected Future<Boolean> _futureTask;
@@ -68,7 +68,7 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected List<ChangeRequest> _todos;
     protected HandlerFactory _factory;
     protected String _name;
-    protected ExecutorService _executor;
+    protected TaskDispatcher _dispatcher;
     protected ExecutorService _sslHandshakeExecutor;
 
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
@@ -77,7 +77,7 @@ public abstract class NioConnection implements Callable<Boolean> {
         _selector = null;
         _port = port;
         _factory = factory;
-        _executor = new ThreadPoolExecutor(workers, 5 * workers, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+        _dispatcher = new TaskDispatcher(name, workers, workers, DEFAULT_MAX_PENDING_TASKS_PER_LINK);
         _sslHandshakeExecutor = Executors.newCachedThreadPool(new NamedThreadFactory(name + "-SSLHandshakeHandler"));
     }
 
@@ -105,7 +105,7 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void stop() {
-        _executor.shutdown();
+        _dispatcher.shutdown();
         _isRunning = false;
         if (_threadExecutor != null) {
             _futureTask.cancel(false);
@@ -121,6 +121,10 @@ public abstract class NioConnection implements Callable<Boolean> {
         return _isStartup;
     }
 
+    public TaskDispatcher getDispatcher() {
+        return _dispatcher;
+    }
+
     @Override
     public Boolean call() throws NioConnectionException {
         while (_isRunning) {
@@ -221,7 +225,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                         link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
-                        _executor.submit(task);
+                        _dispatcher.dispatch(task);
                     } catch (IOException e) {
                         if (s_logger.isTraceEnabled()) {
                             s_logger.trace("Connection closed due to failure: " + e.getMessage());
@@ -253,7 +257,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             unregisterLink(link.getSocketAddress());
 
             try {
-                _executor.submit(task);
+                _dispatcher.dispatch(task);
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -277,7 +281,9 @@ public abstract class NioConnection implements Callable<Boolean> {
             final Task task = _factory.create(Task.Type.DATA, link, data);
 
             try {
-                _executor.submit(task);
+                if (!_dispatcher.dispatch(task)) {
+                    pauseReading(key, link);
+                }
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -287,6 +293,22 @@ public abstract class NioConnection implements Callable<Boolean> {
         }
     }
 
+    /**
+     * Stops reading from a link whose tasks are not processed fast enough, the data stays in the socket buffers
+     * and eventually slows down the sender. Reading resumes once the backlog of the link went down.
+     */
+    protected void pauseReading(final SelectionKey key, final Link link) {
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Pausing reads from " + link.getSocketAddress() + ", " + link.getPendingTasks() + " tasks are pending");
+        }
+        link.pauseReading();
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        // the backlog may have been processed before the link was marked as paused
+        if (_dispatcher.canResume(link)) {
+            link.resumeReading();
+        }
+    }
+
     protected void logTrace(final Exception e, final SelectionKey key, final int loc) {
         if (s_logger.isTraceEnabled()) {
             Socket socket = null;
@@ -366,6 +388,17 @@ public abstract class NioConnection implements Callable<Boolean> {
                     }
                 }
                 break;
+            case ChangeRequest.RESUME_READ:
+                try {
+                    key = (SelectionKey)todo.key;
+                    final Link link = (Link)key.attachment();
+                    if (key.isValid() && link != null && !link.isReadPaused()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                } catch (final CancelledKeyException e) {
+                    s_logger.debug("key has been cancelled");
+                }
+                break;
             case ChangeRequest.CLOSE:
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Trying to close " + todo.key);
@@ -406,7 +439,7 @@ public abstract class NioConnection implements Callable<Boolean> {
             final Task task = _factory.create(Task.Type.CONNECT, link, null);
 
             try {
-                _executor.submit(task);
+                _dispatcher.dispatch(task);
             } catch (final Exception e) {
                 s_logger.warn("Exception occurred when submitting the task", e);
             }
@@ -418,7 +451,7 @@ public abstract class NioConnection implements Callable<Boolean> {
 
     protected void scheduleTask(final Task task) {
         try {
-            _executor.submit(task);
+            _dispatcher.dispatch(task);
         } catch (final Exception e) {
             s_logger.warn("Exception occurred when submitting the task", e);
         }
@@ -435,7 +468,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 closeConnection(key);
                 link.terminated();
             } else {
-                key.interestOps(SelectionKey.OP_READ);
+                key.interestOps(link.isReadPaused() ? 0 : SelectionKey.OP_READ);
             }
         } catch (final Exception e) {
             logDebug(e, key, 3);
@@ -484,6 +517,14 @@ public abstract class NioConnection implements Callable<Boolean> {
         _selector.wakeup();
     }
 
+    public void resumeReading(final SelectionKey key) {
+        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.RESUME_READ, SelectionKey.OP_READ, null);
+        synchronized (this) {
+            _todos.add(todo);
+        }
+        _selector.wakeup();
+    }
+
     /* Release the resource used by the instance */
     public void cleanUp() throws IOException {
         if (_selector != null) {
@@ -495,6 +536,7 @@ public abstract class NioConnection implements Callable<Boolean> {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
         public static final int CLOSE = 3;
+        public static final int RESUME_READ = 4;
 
         public Object key;
         public int type;
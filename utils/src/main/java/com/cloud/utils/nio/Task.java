@@ -71,6 +71,16 @@ public abstract class Task implements Callable<Boolean> {
         return _data;
     }
 
+    /**
+     * Tasks with the same ordering key run one at a time, in the order they were dispatched.
+     *
+     * @return the link by default, so that the tasks of a link are processed in order, or null if the task can
+     *         run at any time.
+     */
+    public Object getOrderingKey() {
+        return _link;
+    }
+
     @Override
     public String toString() {
         return _type.toString();
@@ -0,0 +1,210 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+/**
+ * Runs the tasks of a NioConnection.
+ *
+ * Tasks with the same ordering key, by default their link, always go to the same shard: a single thread with its
+ * own queue, so they run one at a time in the order they were dispatched and a busy link only delays the links
+ * sharing its shard. Tasks without an ordering key go to a shared pool, this is meant for answers that other
+ * tasks may be waiting for, they must not queue up behind the task waiting for them.
+ *
+ * The number of ordered tasks queued for each link is tracked so that the connection can stop reading from a link
+ * once its backlog reaches the limit, and start again when the backlog went down to half of it.
+ */
+public class TaskDispatcher {
+    private static final Logger s_logger = Logger.getLogger(TaskDispatcher.class);
+
+    private final Shard[] _shards;
+    private final ThreadPoolExecutor _executor;
+    private volatile int _maxPendingPerLink;
+    private final AtomicLong _readPauses = new AtomicLong();
+
+    /**
+     * @param maxPendingPerLink ordered tasks queued for a link before reading from it should pause, 0 for no limit.
+     */
+    public TaskDispatcher(final String name, final int shards, final int workers, final int maxPendingPerLink) {
+        _shards = new Shard[Math.max(1, shards)];
+        for (int i = 0; i < _shards.length; i++) {
+            _shards[i] = new Shard(name + "-Handler-" + i);
+        }
+        _executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name + "-Handler"));
+        _executor.allowCoreThreadTimeOut(true);
+        _maxPendingPerLink = maxPendingPerLink;
+    }
+
+    /**
+     * @return false if the link of the task has reached its backlog limit, the caller should stop reading from it
+     *         until {@link Link#resumeReading()} is called.
+     * @throws RejectedExecutionException if the dispatcher is shut down.
+     */
+    public boolean dispatch(final Task task) {
+        final Object key = task.getOrderingKey();
+        if (key == null) {
+            _executor.execute(new TaskRunner(task, null));
+            return true;
+        }
+
+        final Link link = task.getLink();
+        final int pending = link == null ? 0 : link.incrementPendingTasks();
+        final Shard shard = _shards[(key.hashCode() & Integer.MAX_VALUE) % _shards.length];
+        try {
+            shard._executor.execute(new TaskRunner(task, shard));
+        } catch (final RejectedExecutionException e) {
+            if (link != null) {
+                link.decrementPendingTasks();
+            }
+            throw e;
+        }
+
+        final int max = _maxPendingPerLink;
+        if (max > 0 && pending >= max) {
+            _readPauses.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the backlog of the link is low enough for reading from it to go on.
+     */
+    public boolean canResume(final Link link) {
+        final int max = _maxPendingPerLink;
+        return max <= 0 || link.getPendingTasks() <= max / 2;
+    }
+
+    private void taskDone(final Link link) {
+        if (link.decrementPendingTasks() <= _maxPendingPerLink / 2 && link.isReadPaused()) {
+            link.resumeReading();
+        }
+    }
+
+    public void shutdown() {
+        for (final Shard shard : _shards) {
+            shard._executor.shutdown();
+        }
+        _executor.shutdown();
+    }
+
+    public void setMaxPendingPerLink(final int maxPendingPerLink) {
+        _maxPendingPerLink = maxPendingPerLink;
+    }
+
+    public int getMaxPendingPerLink() {
+        return _maxPendingPerLink;
+    }
+
+    /**
+     * @return number of times a link reached its backlog limit.
+     */
+    public long getReadPauses() {
+        return _readPauses.get();
+    }
+
+    public int getShardCount() {
+        return _shards.length;
+    }
+
+    /**
+     * @return tasks waiting in the queue of the shard, not counting the one running.
+     */
+    public int getQueueDepth(final int shard) {
+        return _shards[shard]._executor.getQueue().size();
+    }
+
+    public long getCompletedTasks(final int shard) {
+        return _shards[shard]._completed.get();
+    }
+
+    public long getAverageServiceTimeMicros(final int shard) {
+        final long completed = _shards[shard]._completed.get();
+        return completed == 0 ? 0 : _shards[shard]._serviceNanos.get() / completed / 1000;
+    }
+
+    public long getMaxServiceTimeMicros(final int shard) {
+        return _shards[shard]._maxServiceNanos / 1000;
+    }
+
+    /**
+     * @return unordered tasks waiting for a thread of the shared pool.
+     */
+    public int getUnorderedQueueDepth() {
+        return _executor.getQueue().size();
+    }
+
+    private static class Shard {
+        final ThreadPoolExecutor _executor;
+        final AtomicLong _completed = new AtomicLong();
+        final AtomicLong _serviceNanos = new AtomicLong();
+        // only written by the thread of the shard
+        volatile long _maxServiceNanos;
+
+        Shard(final String name) {
+            _executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        }
+
+        void completed(final long nanos) {
+            _completed.incrementAndGet();
+            _serviceNanos.addAndGet(nanos);
+            if (nanos > _maxServiceNanos) {
+                _maxServiceNanos = nanos;
+            }
+        }
+    }
+
+    private class TaskRunner implements Runnable {
+        private final Task _task;
+        private final Shard _shard;
+
+        TaskRunner(final Task task, final Shard shard) {
+            _task = task;
+            _shard = shard;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            try {
+                _task.call();
+            } catch (final Exception e) {
+                s_logger.warn("Exception while processing " + _task + " task", e);
+            } finally {
+                if (_shard != null) {
+                    _shard.completed(System.nanoTime() - start);
+                    if (_task.getLink() != null) {
+                        taskDone(_task.getLink());
+                    }
+                }
+            }
+        }
+    }
+}
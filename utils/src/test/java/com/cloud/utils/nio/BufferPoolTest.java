@@ -0,0 +1,83 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToPowerOfTwo() {
+        BufferPool pool = new BufferPool(4096, 65536, 4);
+        assertEquals(4096, pool.acquire(10).capacity());
+        assertEquals(4096, pool.acquire(4096).capacity());
+        assertEquals(32768, pool.acquire(16709 + 44).capacity());
+        assertTrue(pool.acquire(100).isDirect());
+        assertEquals(4, pool.getAllocations());
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(4096, 65536, 4);
+        ByteBuffer buffer = pool.acquire(20000);
+        buffer.putInt(42);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire(30000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertEquals(1, pool.getAllocations());
+        assertEquals(1, pool.getReuses());
+        assertNotSame(reused, pool.acquire(30000));
+    }
+
+    @Test
+    public void largeBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(4096, 65536, 4);
+        ByteBuffer buffer = pool.acquire(100000);
+        assertFalse(buffer.isDirect());
+        assertEquals(100000, buffer.capacity());
+        pool.release(buffer);
+        pool.release(ByteBuffer.allocateDirect(5000));
+        assertEquals(0, pool.getIdleBuffers());
+    }
+
+    @Test
+    public void idleBuffersAreBounded() {
+        BufferPool pool = new BufferPool(4096, 65536, 2);
+        ByteBuffer[] buffers = new ByteBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(8192);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(2, pool.getIdleBuffers());
+    }
+}
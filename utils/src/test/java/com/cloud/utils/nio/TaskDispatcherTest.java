@@ -0,0 +1,174 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TaskDispatcherTest {
+    private TaskDispatcher _dispatcher;
+
+    @After
+    public void tearDown() {
+        if (_dispatcher != null) {
+            _dispatcher.shutdown();
+        }
+    }
+
+    private static Link createLink(int port) {
+        return new Link(new InetSocketAddress("127.0.0.1", port), null);
+    }
+
+    private static Task createTask(final Link link, final boolean ordered, final Runnable work) {
+        return new Task(Task.Type.DATA, link, new byte[0]) {
+            @Override
+            protected void doTask(Task task) {
+                work.run();
+            }
+
+            @Override
+            public Object getOrderingKey() {
+                return ordered ? super.getOrderingKey() : null;
+            }
+        };
+    }
+
+    private static Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void tasksOfALinkRunInOrder() throws InterruptedException {
+        _dispatcher = new TaskDispatcher("test", 4, 4, 0);
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(500);
+        Link link = createLink(1);
+        for (int i = 0; i < 500; i++) {
+            final int seq = i;
+            assertTrue(_dispatcher.dispatch(createTask(link, true, new Runnable() {
+                @Override
+                public void run() {
+                    processed.add(seq);
+                    done.countDown();
+                }
+            })));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, processed.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void unorderedTasksDoNotWaitForTheShard() throws InterruptedException {
+        _dispatcher = new TaskDispatcher("test", 1, 2, 0);
+        final CountDownLatch answer = new CountDownLatch(1);
+        final CountDownLatch request = new CountDownLatch(1);
+        Link link = createLink(1);
+        _dispatcher.dispatch(createTask(link, true, new Runnable() {
+            @Override
+            public void run() {
+                await(answer).run();
+                request.countDown();
+            }
+        }));
+        _dispatcher.dispatch(createTask(link, false, new Runnable() {
+            @Override
+            public void run() {
+                answer.countDown();
+            }
+        }));
+        assertTrue(request.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void backlogLimitPausesReading() throws InterruptedException {
+        _dispatcher = new TaskDispatcher("test", 2, 2, 4);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Link busy = createLink(1);
+        assertTrue(_dispatcher.dispatch(createTask(busy, true, await(blocker))));
+        assertTrue(_dispatcher.dispatch(createTask(busy, true, await(blocker))));
+        assertTrue(_dispatcher.dispatch(createTask(busy, true, await(blocker))));
+        assertFalse(_dispatcher.dispatch(createTask(busy, true, await(blocker))));
+        assertTrue(_dispatcher.dispatch(createTask(busy, false, await(blocker))));
+        assertTrue(_dispatcher.dispatch(createTask(createLink(2), true, await(blocker))));
+        assertEquals(4, busy.getPendingTasks());
+        assertEquals(1, _dispatcher.getReadPauses());
+        assertFalse(_dispatcher.canResume(busy));
+        busy.pauseReading();
+
+        blocker.countDown();
+        for (int i = 0; i < 100 && busy.getPendingTasks() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, busy.getPendingTasks());
+        assertTrue(_dispatcher.canResume(busy));
+        assertFalse(busy.isReadPaused());
+    }
+
+    @Test
+    public void shardMetrics() throws InterruptedException {
+        _dispatcher = new TaskDispatcher("test", 3, 2, 0);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(10);
+        Link link = createLink(1);
+        _dispatcher.dispatch(createTask(link, true, await(blocker)));
+        for (int i = 0; i < 10; i++) {
+            _dispatcher.dispatch(createTask(link, true, new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }));
+        }
+
+        int shard = (link.hashCode() & Integer.MAX_VALUE) % 3;
+        assertEquals(3, _dispatcher.getShardCount());
+        assertEquals(10, _dispatcher.getQueueDepth(shard));
+        blocker.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && _dispatcher.getCompletedTasks(shard) < 11; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(11, _dispatcher.getCompletedTasks(shard));
+        assertEquals(0, _dispatcher.getQueueDepth(shard));
+        assertTrue(_dispatcher.getMaxServiceTimeMicros(shard) >= _dispatcher.getAverageServiceTimeMicros(shard));
+    }
+}